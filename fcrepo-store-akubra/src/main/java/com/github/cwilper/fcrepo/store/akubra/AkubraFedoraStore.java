@@ -4,6 +4,7 @@ import com.github.cwilper.fcrepo.dto.core.io.DTOReader;
 import com.github.cwilper.fcrepo.dto.core.io.DTOWriter;
 import com.github.cwilper.fcrepo.store.core.FedoraStore;
 import com.github.cwilper.fcrepo.store.core.FedoraStoreSession;
+import com.github.cwilper.fcrepo.store.core.impl.ManifestDirectory;
 import org.akubraproject.BlobStore;
 
 /**
@@ -37,12 +38,33 @@ import org.akubraproject.BlobStore;
  *       will be of the form <code>info:fedora/pid/dsId/dsVersionId</code>.
  *       </li>
  * </ul>
+ * <p>
+ * <h2>Ranged and Channel Reads</h2>
+ * If a {@link BlobFileResolver} is given for the content store, managed
+ * content that is kept in local files will be read at an offset, or
+ * transferred to a channel, directly from the file. Otherwise, such reads
+ * will go through the blob's input stream.
+ * <p>
+ * <h2>Object Locations</h2>
+ * If a {@link BlobFileResolver} is given for the object store, the files
+ * objects are kept in are reported as their locations, so that callers can
+ * read objects in directory order.
+ * <p>
+ * <h2>Manifests</h2>
+ * If a {@link ManifestDirectory} is also given, a manifest of each
+ * object's managed content is kept there, so the content can be worked with
+ * without parsing the object each time. A manifest is ignored if the
+ * object's file has been modified since it was written. Nothing is added to
+ * the blob stores themselves.
  */
 public class AkubraFedoraStore implements FedoraStore {
     private final BlobStore objectStore;
     private final BlobStore contentStore;
     private final DTOReader readerFactory;
     private final DTOWriter writerFactory;
+    private final BlobFileResolver objectFileResolver;
+    private final BlobFileResolver contentFileResolver;
+    private final ManifestDirectory manifestDirectory;
 
     /**
      * Creates an instance.
@@ -55,6 +77,75 @@ public class AkubraFedoraStore implements FedoraStore {
      */
     public AkubraFedoraStore(BlobStore objectStore, BlobStore contentStore,
             DTOReader readerFactory, DTOWriter writerFactory) {
+        this(objectStore, contentStore, readerFactory, writerFactory, null);
+    }
+
+    /**
+     * Creates an instance that can read managed content directly from
+     * local files.
+     *
+     * @param objectStore the blob store to use for Fedora objects.
+     * @param contentStore the blob store to use for managed content.
+     * @param readerFactory the factory to use for deserializing.
+     * @param writerFactory the factory to use for serializing.
+     * @param contentFileResolver the resolver to use for finding local
+     *        content files, or <code>null</code>.
+     * @throws NullPointerException if any argument except
+     *         contentFileResolver is null.
+     */
+    public AkubraFedoraStore(BlobStore objectStore, BlobStore contentStore,
+            DTOReader readerFactory, DTOWriter writerFactory,
+            BlobFileResolver contentFileResolver) {
+        this(objectStore, contentStore, readerFactory, writerFactory, null,
+                contentFileResolver);
+    }
+
+    /**
+     * Creates an instance that knows where objects and managed content are
+     * kept in local files.
+     *
+     * @param objectStore the blob store to use for Fedora objects.
+     * @param contentStore the blob store to use for managed content.
+     * @param readerFactory the factory to use for deserializing.
+     * @param writerFactory the factory to use for serializing.
+     * @param objectFileResolver the resolver to use for finding local
+     *        object files, or <code>null</code>.
+     * @param contentFileResolver the resolver to use for finding local
+     *        content files, or <code>null</code>.
+     * @throws NullPointerException if any argument except the resolvers is
+     *         null.
+     */
+    public AkubraFedoraStore(BlobStore objectStore, BlobStore contentStore,
+            DTOReader readerFactory, DTOWriter writerFactory,
+            BlobFileResolver objectFileResolver,
+            BlobFileResolver contentFileResolver) {
+        this(objectStore, contentStore, readerFactory, writerFactory,
+                objectFileResolver, contentFileResolver, null);
+    }
+
+    /**
+     * Creates an instance that knows where objects and managed content are
+     * kept in local files, and keeps manifests of managed content.
+     *
+     * @param objectStore the blob store to use for Fedora objects.
+     * @param contentStore the blob store to use for managed content.
+     * @param readerFactory the factory to use for deserializing.
+     * @param writerFactory the factory to use for serializing.
+     * @param objectFileResolver the resolver to use for finding local
+     *        object files, or <code>null</code>. Manifests are only kept if
+     *        this is given.
+     * @param contentFileResolver the resolver to use for finding local
+     *        content files, or <code>null</code>.
+     * @param manifestDirectory the directory to keep manifests in, or
+     *        <code>null</code> to only keep them in memory for each session.
+     * @throws NullPointerException if any argument except the resolvers and
+     *         manifest directory is null.
+     */
+    public AkubraFedoraStore(BlobStore objectStore, BlobStore contentStore,
+            DTOReader readerFactory, DTOWriter writerFactory,
+            BlobFileResolver objectFileResolver,
+            BlobFileResolver contentFileResolver,
+            ManifestDirectory manifestDirectory) {
         if (objectStore == null || contentStore == null
                 || readerFactory == null || writerFactory == null) {
             throw new NullPointerException();
@@ -63,11 +154,15 @@ public class AkubraFedoraStore implements FedoraStore {
         this.contentStore = contentStore;
         this.readerFactory = readerFactory;
         this.writerFactory = writerFactory;
+        this.objectFileResolver = objectFileResolver;
+        this.contentFileResolver = contentFileResolver;
+        this.manifestDirectory = manifestDirectory;
     }
 
     @Override
     public FedoraStoreSession getSession() {
         return new AkubraFedoraStoreSession(objectStore, contentStore,
-                readerFactory, writerFactory);
+                readerFactory, writerFactory, objectFileResolver,
+                contentFileResolver, manifestDirectory);
     }
 }
@@ -1,8 +1,5 @@
 package com.github.cwilper.fcrepo.store.akubra;
 
-import com.github.cwilper.fcrepo.dto.core.ControlGroup;
-import com.github.cwilper.fcrepo.dto.core.Datastream;
-import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
 import com.github.cwilper.fcrepo.dto.core.FedoraObject;
 import com.github.cwilper.fcrepo.dto.core.io.DTOReader;
 import com.github.cwilper.fcrepo.dto.core.io.DTOWriter;
@@ -10,6 +7,12 @@ import com.github.cwilper.fcrepo.store.core.ExistsException;
 import com.github.cwilper.fcrepo.store.core.FedoraStoreSession;
 import com.github.cwilper.fcrepo.store.core.NotFoundException;
 import com.github.cwilper.fcrepo.store.core.StoreException;
+import com.github.cwilper.fcrepo.store.core.impl.CommonUtil;
+import com.github.cwilper.fcrepo.store.core.impl.ManagedContentManifest;
+import com.github.cwilper.fcrepo.store.core.impl.ManifestCache;
+import com.github.cwilper.fcrepo.store.core.impl.ManifestDirectory;
+import com.github.cwilper.fcrepo.store.core.impl.ReplacingFileOutputStream;
+import com.google.common.collect.AbstractIterator;
 import org.akubraproject.Blob;
 import org.akubraproject.BlobStore;
 import org.akubraproject.BlobStoreConnection;
@@ -18,10 +21,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.transaction.xa.XAResource;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.WritableByteChannel;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Akubra-based {@link FedoraStoreSession} implementation.
@@ -34,6 +42,10 @@ class AkubraFedoraStoreSession implements FedoraStoreSession {
     private final BlobStore contentStore;
     private final DTOReader readerFactory;
     private final DTOWriter writerFactory;
+    private final BlobFileResolver objectFileResolver;
+    private final BlobFileResolver contentFileResolver;
+    private final ManifestDirectory manifestDirectory;
+    private final ManifestCache manifestCache = new ManifestCache();
 
     private BlobStoreConnection objectStoreConnection;
     private BlobStoreConnection contentStoreConnection;
@@ -42,6 +54,31 @@ class AkubraFedoraStoreSession implements FedoraStoreSession {
 
     AkubraFedoraStoreSession(BlobStore objectStore, BlobStore contentStore,
             DTOReader readerFactory, DTOWriter writerFactory) {
+        this(objectStore, contentStore, readerFactory, writerFactory, null);
+    }
+
+    AkubraFedoraStoreSession(BlobStore objectStore, BlobStore contentStore,
+            DTOReader readerFactory, DTOWriter writerFactory,
+            BlobFileResolver contentFileResolver) {
+        this(objectStore, contentStore, readerFactory, writerFactory, null,
+                contentFileResolver);
+    }
+
+    AkubraFedoraStoreSession(BlobStore objectStore, BlobStore contentStore,
+            DTOReader readerFactory, DTOWriter writerFactory,
+            BlobFileResolver objectFileResolver,
+            BlobFileResolver contentFileResolver) {
+        this(objectStore, contentStore, readerFactory, writerFactory,
+                objectFileResolver, contentFileResolver, null);
+    }
+
+    // manifests are only stored if a directory and object file resolver
+    // are given; otherwise they're just cached for the session
+    AkubraFedoraStoreSession(BlobStore objectStore, BlobStore contentStore,
+            DTOReader readerFactory, DTOWriter writerFactory,
+            BlobFileResolver objectFileResolver,
+            BlobFileResolver contentFileResolver,
+            ManifestDirectory manifestDirectory) {
         if (objectStore == null || contentStore == null
                 || readerFactory == null || writerFactory == null) {
             throw new NullPointerException();
@@ -50,6 +87,9 @@ class AkubraFedoraStoreSession implements FedoraStoreSession {
         this.contentStore = contentStore;
         this.readerFactory = readerFactory;
         this.writerFactory = writerFactory;
+        this.objectFileResolver = objectFileResolver;
+        this.contentFileResolver = contentFileResolver;
+        this.manifestDirectory = manifestDirectory;
         this.closed = false;
     }
 
@@ -67,6 +107,8 @@ class AkubraFedoraStoreSession implements FedoraStoreSession {
             Blob blob = Util.getBlob(getObjectStoreConnection(), object.pid());
             if (blob.exists()) throw new ExistsException(object.pid());
             Util.writeObject(writerFactory, object, blob);
+            saveManifest(ManagedContentManifest.of(object).withObjectStamp(
+                    getObjectStamp(blob)));
         } catch (IOException e) {
             throw new StoreException(Constants.ERR_ADDING_OBJ, e);
         }
@@ -96,9 +138,13 @@ class AkubraFedoraStoreSession implements FedoraStoreSession {
             if (!blob.exists()) throw new NotFoundException(
                     Constants.ERR_NOTFOUND_OBJ_IN_STORAGE + ": "
                     + object.pid());
-            deleteOldManagedContent(
-                    Util.readObject(readerFactory, blob), object);
+            ManagedContentManifest oldManifest = getManifest(object.pid());
+            ManagedContentManifest newManifest =
+                    ManagedContentManifest.of(object, oldManifest);
+            manifestCache.remove(object.pid());
             Util.writeObject(writerFactory, object, blob);
+            saveManifest(newManifest.withObjectStamp(getObjectStamp(blob)));
+            deleteOldManagedContent(oldManifest, newManifest);
         } catch (IOException e) {
             throw new StoreException(Constants.ERR_UPDATING_OBJ, e);
         }
@@ -112,14 +158,64 @@ class AkubraFedoraStoreSession implements FedoraStoreSession {
             Blob blob = Util.getBlob(getObjectStoreConnection(), pid);
             if (!blob.exists()) throw new NotFoundException(
                     Constants.ERR_NOTFOUND_OBJ_IN_STORAGE + ": " + pid);
-            deleteOldManagedContent(
-                    Util.readObject(readerFactory, blob), null);
+            ManagedContentManifest oldManifest = getManifest(pid);
+            manifestCache.remove(pid);
+            deleteOldManagedContent(oldManifest, null);
+            deleteManifest(pid);
             blob.delete();
         } catch (IOException e) {
             throw new StoreException(Constants.ERR_DELETING_OBJ, e);
         }
     }
 
+    @Override
+    public void addObjects(Iterable<FedoraObject> objects) {
+        ensureNotClosed();
+        if (objects == null) throw new NullPointerException();
+        for (FedoraObject object : objects) {
+            addObject(object);
+        }
+    }
+
+    @Override
+    public Map<String, FedoraObject> getObjects(Iterable<String> pids) {
+        ensureNotClosed();
+        if (pids == null) throw new NullPointerException();
+        Map<String, FedoraObject> objects =
+                new LinkedHashMap<String, FedoraObject>();
+        try {
+            BlobStoreConnection connection = getObjectStoreConnection();
+            for (String pid : pids) {
+                if (pid == null) throw new NullPointerException();
+                Blob blob = Util.getBlob(connection, pid);
+                if (blob.exists()) {
+                    objects.put(pid, Util.readObject(readerFactory, blob));
+                }
+            }
+            return objects;
+        } catch (IOException e) {
+            throw new StoreException(Constants.ERR_GETTING_OBJ, e);
+        }
+    }
+
+    @Override
+    public void updateObjects(Iterable<FedoraObject> objects) {
+        ensureNotClosed();
+        if (objects == null) throw new NullPointerException();
+        for (FedoraObject object : objects) {
+            updateObject(object);
+        }
+    }
+
+    @Override
+    public void deleteObjects(Iterable<String> pids) {
+        ensureNotClosed();
+        if (pids == null) throw new NullPointerException();
+        for (String pid : pids) {
+            deleteObject(pid);
+        }
+    }
+
     @Override
     public InputStream getContent(String pid, String datastreamId,
             String datastreamVersionId) {
@@ -134,12 +230,53 @@ class AkubraFedoraStoreSession implements FedoraStoreSession {
         }
     }
 
+    @Override
+    public InputStream getContent(String pid, String datastreamId,
+            String datastreamVersionId, long offset, long length) {
+        ensureNotClosed();
+        Util.validateRange(offset, length);
+        Blob blob = getContentBlob(
+                pid, datastreamId, datastreamVersionId, true);
+        try {
+            File file = getLocalFile(blob);
+            if (file != null) {
+                return Util.getFileRange(file, offset, length);
+            }
+            return Util.getRange(blob.openInputStream(), offset, length);
+        } catch (IOException e) {
+            throw new StoreException(Constants.ERR_GETTING_CONT, e);
+        }
+    }
+
+    @Override
+    public long transferContent(String pid, String datastreamId,
+            String datastreamVersionId, long offset, long length,
+            WritableByteChannel channel) {
+        ensureNotClosed();
+        if (channel == null) throw new NullPointerException();
+        Util.validateRange(offset, length);
+        Blob blob = getContentBlob(
+                pid, datastreamId, datastreamVersionId, true);
+        try {
+            File file = getLocalFile(blob);
+            if (file != null) {
+                return Util.transferFile(file, offset, length, channel);
+            }
+            return Util.transfer(Util.getRange(blob.openInputStream(),
+                    offset, length), channel);
+        } catch (IOException e) {
+            throw new StoreException(Constants.ERR_GETTING_CONT, e);
+        }
+    }
+
     @Override
     public long getContentLength(String pid, String datastreamId,
             String datastreamVersionId) {
         ensureNotClosed();
         Blob blob = getContentBlob(
                 pid, datastreamId, datastreamVersionId, true);
+        long size = getManifest(pid).size(datastreamId, datastreamVersionId);
+        if (size != -1) return size;
         try {
             return blob.getSize();
         } catch (IOException e) {
@@ -147,6 +284,23 @@ class AkubraFedoraStoreSession implements FedoraStoreSession {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Akubra doesn't expose modification times, so this is only known
+     * when the blob can be resolved to a local file.
+     */
+    @Override
+    public long getContentLastModified(String pid, String datastreamId,
+            String datastreamVersionId) {
+        ensureNotClosed();
+        Blob blob = getContentBlob(
+                pid, datastreamId, datastreamVersionId, true);
+        File file = getLocalFile(blob);
+        if (file == null || file.lastModified() == 0) return -1;
+        return file.lastModified();
+    }
+
     @Override
     public void setContent(String pid, String datastreamId,
             String datastreamVersionId, InputStream inputStream) {
@@ -157,24 +311,73 @@ class AkubraFedoraStoreSession implements FedoraStoreSession {
         OutputStream outputStream = null;
         boolean success = false;
         try {
-            outputStream = blob.openOutputStream(-1, true);
-            IOUtils.copyLarge(inputStream, outputStream);
+            // imported content may be hard-linked from another store, and
+            // writing over it in place would change it there too, so an
+            // existing file is replaced once the new content is written
+            File file = getLocalFile(blob);
+            if (file == null) {
+                outputStream = blob.openOutputStream(-1, true);
+            } else {
+                outputStream = new ReplacingFileOutputStream(file);
+            }
+            long size = IOUtils.copyLarge(inputStream, outputStream);
             inputStream.close();
             outputStream.close();
             success = true;
+            saveManifest(getManifest(pid).withSize(datastreamId,
+                    datastreamVersionId, size));
         } catch (IOException e) {
             throw new StoreException(Constants.ERR_SETTING_CONT, e);
         } finally {
             if (!success) {
                 Util.closeOrWarn(inputStream);
-                Util.closeOrWarn(outputStream);
+                Util.abortOrWarn(outputStream);
             }
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation can only find files if a content file resolver
+     * was given.
+     */
+    @Override
+    public File getContentFile(String pid, String datastreamId,
+            String datastreamVersionId) {
+        ensureNotClosed();
+        return getLocalFile(getContentBlob(
+                pid, datastreamId, datastreamVersionId, true));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation can only import files if a content file resolver
+     * was given. The file is put where the resolver says the blob is kept,
+     * bypassing the blob store.
+     */
+    @Override
+    public boolean importContent(String pid, String datastreamId,
+            String datastreamVersionId, File file, boolean move) {
+        ensureNotClosed();
+        if (file == null) throw new NullPointerException();
+        Blob blob = getContentBlob(
+                pid, datastreamId, datastreamVersionId, false);
+        if (contentFileResolver == null) return false;
+        File target = contentFileResolver.getFile(blob.getId());
+        if (target == null) return false;
+        long size = file.length();
+        if (!CommonUtil.linkOrMove(file, target, move)) return false;
+        saveManifest(getManifest(pid).withSize(datastreamId,
+                datastreamVersionId, size));
+        return true;
+    }
+
     @Override
     public void close() {
         if (!closed) {
+            manifestCache.clear();
             try {
                 if (objectStoreConnection != null) {
                     objectStoreConnection.close();
@@ -201,13 +404,146 @@ class AkubraFedoraStoreSession implements FedoraStoreSession {
         }
     }
 
+    @Override
+    public Iterator<String> pidIterator() {
+        ensureNotClosed();
+        return listPids(null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation passes the prefix to the object blob store.
+     */
+    @Override
+    public Iterator<String> pidIterator(String prefix) {
+        ensureNotClosed();
+        if (prefix == null) throw new NullPointerException();
+        return listPids(Constants.URI_PREFIX + prefix);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Akubra doesn't count blobs, so this always returns -1.
+     */
+    @Override
+    public long getObjectCount() {
+        ensureNotClosed();
+        return -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If an object file resolver was given, this implementation returns
+     * the path of the file each object would be kept in. Otherwise, it
+     * returns an empty map.
+     */
+    @Override
+    public Map<String, String> getObjectLocations(Iterable<String> pids) {
+        ensureNotClosed();
+        if (pids == null) throw new NullPointerException();
+        Map<String, String> locations = new LinkedHashMap<String, String>();
+        for (String pid : pids) {
+            if (pid == null) throw new NullPointerException();
+            if (objectFileResolver != null) {
+                File file = objectFileResolver.getFile(
+                        URI.create(Constants.URI_PREFIX + pid));
+                if (file != null) locations.put(pid, file.getPath());
+            }
+        }
+        return locations;
+    }
+
+    private Iterator<String> listPids(String filterPrefix) {
+        final Iterator<URI> ids;
+        try {
+            ids = getObjectStoreConnection().listBlobIds(filterPrefix);
+        } catch (IOException e) {
+            throw new StoreException(Constants.ERR_LISTING_OBJS, e);
+        }
+        return new AbstractIterator<String>() {
+            @Override
+            protected String computeNext() {
+                while (ids.hasNext()) {
+                    String id = ids.next().toString();
+                    if (id.startsWith(Constants.URI_PREFIX)) {
+                        return id.substring(Constants.URI_PREFIX.length());
+                    }
+                    logger.warn("Ignoring unexpected blob id: " + id);
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    // gets the manifest from the cache, the stored manifest if it's up to
+    // date with the object file, or the object, storing it for next time
+    private ManagedContentManifest getManifest(String pid) {
+        ManagedContentManifest manifest = manifestCache.get(pid);
+        if (manifest != null) return manifest;
+        try {
+            Blob blob = Util.getBlob(getObjectStoreConnection(), pid);
+            if (!blob.exists()) throw new NotFoundException(
+                    Constants.ERR_NOTFOUND_OBJ_IN_STORAGE + ": " + pid);
+            // stamp before reading, so a concurrent change makes it stale
+            long stamp = getObjectStamp(blob);
+            if (stamp != -1) {
+                manifest = manifestDirectory.read(pid);
+                if (manifest != null && manifest.objectStamp() == stamp) {
+                    manifestCache.put(manifest);
+                    return manifest;
+                }
+            }
+            manifest = ManagedContentManifest.of(Util.readObject(
+                    readerFactory, blob)).withObjectStamp(stamp);
+        } catch (IOException e) {
+            throw new StoreException(Constants.ERR_GETTING_OBJ, e);
+        }
+        saveManifest(manifest);
+        return manifest;
+    }
+
+    // the object file's last modified time, or -1 if unknown or manifests
+    // aren't stored
+    private long getObjectStamp(Blob blob) {
+        if (manifestDirectory == null || objectFileResolver == null) {
+            return -1;
+        }
+        File file = objectFileResolver.getFile(blob.getId());
+        if (file == null || file.lastModified() == 0) return -1;
+        return file.lastModified();
+    }
+
+    // caches and, if possible, stores the manifest; on failure, just log a
+    // warning and remove any stored manifest so the object will be parsed
+    // next time
+    private void saveManifest(ManagedContentManifest manifest) {
+        manifestCache.put(manifest);
+        if (manifestDirectory == null) return;
+        if (manifest.objectStamp() == -1) {
+            manifestDirectory.delete(manifest.pid());
+            return;
+        }
+        try {
+            manifestDirectory.write(manifest);
+        } catch (IOException e) {
+            logger.warn(Constants.ERR_WRITING_MANIFEST + ": "
+                    + manifest.pid(), e);
+            manifestDirectory.delete(manifest.pid());
+        }
+    }
+
+    private void deleteManifest(String pid) {
+        if (manifestDirectory != null) manifestDirectory.delete(pid);
+    }
+
     private Blob getContentBlob(String pid, String datastreamId,
             String datastreamVersionId, boolean mustExist) {
         if (pid == null  || datastreamId == null ||
                 datastreamVersionId == null) throw new NullPointerException();
-        FedoraObject object = getObject(pid);
-        if (!Util.hasManagedDatastreamVersion(object, datastreamId,
-                datastreamVersionId)) {
+        if (!getManifest(pid).contains(datastreamId, datastreamVersionId)) {
             throw new NotFoundException(Constants.ERR_NOTFOUND_DS_IN_OBJ + " "
                     + Util.getDetails(pid, datastreamId, datastreamVersionId));
         }
@@ -226,6 +562,14 @@ class AkubraFedoraStoreSession implements FedoraStoreSession {
         }
     }
 
+    // returns null if the blob's content isn't known to be in a local file
+    private File getLocalFile(Blob blob) {
+        if (contentFileResolver == null) return null;
+        File file = contentFileResolver.getFile(blob.getId());
+        if (file == null || !file.isFile()) return null;
+        return file;
+    }
+
     // just log a warning message in the event of failure
     private void deleteContent(String pid, String datastreamId,
             String datastreamVersionId) {
@@ -238,21 +582,16 @@ class AkubraFedoraStoreSession implements FedoraStoreSession {
         }
     }
 
-    // if newObject is null, all managed content will be deleted
-    private void deleteOldManagedContent(FedoraObject oldObject,
-            FedoraObject newObject) {
-        for (Datastream datastream : oldObject.datastreams().values()) {
-            if (datastream.controlGroup() == ControlGroup.MANAGED) {
-                String datastreamId = datastream.id();
-                for (DatastreamVersion datastreamVersion : datastream.versions()) {
-                    String datastreamVersionId = datastreamVersion.id();
-                    if (newObject == null ||
-                            !Util.hasManagedDatastreamVersion(
-                            newObject, datastreamId, datastreamVersionId)) {
-                        deleteContent(oldObject.pid(), datastreamId,
-                            datastreamVersionId);
-                    }
-                }
+    // if newManifest is null, all managed content will be deleted
+    private void deleteOldManagedContent(ManagedContentManifest oldManifest,
+            ManagedContentManifest newManifest) {
+        for (ManagedContentManifest.Entry entry : oldManifest.entries()) {
+            String datastreamId = entry.datastreamId();
+            String datastreamVersionId = entry.datastreamVersionId();
+            if (newManifest == null ||
+                    !newManifest.contains(datastreamId, datastreamVersionId)) {
+                deleteContent(oldManifest.pid(), datastreamId,
+                        datastreamVersionId);
             }
         }
     }
@@ -0,0 +1,21 @@
+package com.github.cwilper.fcrepo.store.akubra;
+
+import java.io.File;
+import java.net.URI;
+
+/**
+ * Finds the local file, if any, in which a blob's content is kept.
+ * <p>
+ * Akubra doesn't expose this, but knowing it lets content be read at an
+ * offset or transferred to a channel without going through a stream.
+ */
+public interface BlobFileResolver {
+    /**
+     * Gets the file for the given blob id.
+     *
+     * @param blobId the blob id.
+     * @return the file, or <code>null</code> if the blob isn't kept in a
+     *         local file. The file may not exist.
+     */
+    File getFile(URI blobId);
+}
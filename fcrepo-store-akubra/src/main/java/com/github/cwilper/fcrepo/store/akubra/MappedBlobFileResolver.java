@@ -0,0 +1,48 @@
+package com.github.cwilper.fcrepo.store.akubra;
+
+import org.akubraproject.map.IdMapper;
+
+import java.io.File;
+import java.net.URI;
+
+/**
+ * Resolves files for blobs in an <code>IdMappingBlobStore</code> that
+ * wraps an <code>FSBlobStore</code>, such as the stores configured by
+ * Fedora's <code>AkubraLowlevelStorage</code>.
+ * <p>
+ * Blob ids are mapped to <code>file:</code> ids using the same
+ * {@link IdMapper} as the blob store, and the scheme-specific part of each
+ * is taken as a path relative to the base directory of the
+ * <code>FSBlobStore</code>.
+ */
+public class MappedBlobFileResolver implements BlobFileResolver {
+    private static final String FILE_SCHEME = "file";
+
+    private final IdMapper idMapper;
+    private final File baseDir;
+
+    /**
+     * Creates an instance.
+     *
+     * @param idMapper the id mapper used by the blob store.
+     * @param basePath the base directory of the underlying
+     *        <code>FSBlobStore</code>.
+     * @throws NullPointerException if any argument is null.
+     */
+    public MappedBlobFileResolver(IdMapper idMapper, String basePath) {
+        if (idMapper == null || basePath == null) {
+            throw new NullPointerException();
+        }
+        this.idMapper = idMapper;
+        this.baseDir = new File(basePath);
+    }
+
+    @Override
+    public File getFile(URI blobId) {
+        URI internalId = idMapper.getInternalId(blobId);
+        if (internalId == null || !FILE_SCHEME.equals(internalId.getScheme())) {
+            return null;
+        }
+        return new File(baseDir, internalId.getRawSchemeSpecificPart());
+    }
+}
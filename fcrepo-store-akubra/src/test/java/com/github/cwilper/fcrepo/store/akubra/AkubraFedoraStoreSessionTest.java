@@ -10,6 +10,8 @@ import com.github.cwilper.fcrepo.dto.foxml.FOXMLReader;
 import com.github.cwilper.fcrepo.dto.foxml.FOXMLWriter;
 import com.github.cwilper.fcrepo.store.core.ExistsException;
 import com.github.cwilper.fcrepo.store.core.NotFoundException;
+import com.github.cwilper.fcrepo.store.core.StoreException;
+import com.github.cwilper.fcrepo.store.core.impl.ManifestDirectory;
 import org.akubraproject.Blob;
 import org.akubraproject.BlobStore;
 import org.akubraproject.BlobStoreConnection;
@@ -21,10 +23,20 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -272,6 +284,67 @@ public class AkubraFedoraStoreSessionTest {
         listObjects();
     }
 
+    @Test
+    public void getObjectsSomeExisting() {
+        FedoraObject o1 = new FedoraObject().pid("test:o1");
+        FedoraObject o2 = new FedoraObject().pid("test:o2");
+        fedoraSession.addObjects(Arrays.asList(o1, o2));
+        Map<String, FedoraObject> objects = fedoraSession.getObjects(
+                Arrays.asList("test:o2", "test:non-existing", "test:o1"));
+        Assert.assertEquals(Arrays.asList("test:o2", "test:o1"),
+                new ArrayList<String>(objects.keySet()));
+        Assert.assertEquals(o1, objects.get("test:o1"));
+        Assert.assertEquals(o2, objects.get("test:o2"));
+    }
+
+    @Test
+    public void listPidsAfterAdd() {
+        fedoraSession.addObject(new FedoraObject().pid("test:o1"));
+        fedoraSession.addObject(new FedoraObject().pid("test:o2"));
+        Set<String> set = new HashSet<String>();
+        Iterator<String> pids = fedoraSession.pidIterator();
+        while (pids.hasNext()) {
+            set.add(pids.next());
+        }
+        Assert.assertTrue(set.contains("test:o1"));
+        Assert.assertTrue(set.contains("test:o2"));
+        Assert.assertEquals(2, set.size());
+    }
+
+    @Test (expected=IllegalStateException.class)
+    public void listPidsAfterClose() {
+        fedoraSession.close();
+        fedoraSession.pidIterator();
+    }
+
+    @Test
+    public void updateObjectsLabels() {
+        fedoraSession.addObjects(Arrays.asList(
+                new FedoraObject().pid("test:o1"),
+                new FedoraObject().pid("test:o2")));
+        fedoraSession.updateObjects(Arrays.asList(
+                new FedoraObject().pid("test:o1").label("label1"),
+                new FedoraObject().pid("test:o2").label("label2")));
+        Assert.assertEquals("label1",
+                fedoraSession.getObject("test:o1").label());
+        Assert.assertEquals("label2",
+                fedoraSession.getObject("test:o2").label());
+    }
+
+    @Test
+    public void deleteObjectsAll() {
+        fedoraSession.addObjects(Arrays.asList(
+                new FedoraObject().pid("test:o1"),
+                new FedoraObject().pid("test:o2")));
+        fedoraSession.deleteObjects(Arrays.asList("test:o1", "test:o2"));
+        Assert.assertEquals(0, listObjects().size());
+    }
+
+    @Test (expected=NullPointerException.class)
+    public void addObjectsNull() {
+        fedoraSession.addObjects(null);
+    }
+
     @Test (expected=NullPointerException.class)
     public void getContentNullPid() {
         fedoraSession.getContent(null, "DS1", "DS1.0");
@@ -321,6 +394,36 @@ public class AkubraFedoraStoreSessionTest {
         fedoraSession.getContent(EXISTING_PID, "DS1", "DS1.0");
     }
 
+    @Test
+    public void getContentRange() throws Exception {
+        addObjectWithDS1(true);
+        fedoraSession.setContent(EXISTING_PID, "DS1", "DS1.0",
+                IOUtils.toInputStream("0123456789"));
+        Assert.assertEquals("345", IOUtils.toString(fedoraSession.getContent(
+                EXISTING_PID, "DS1", "DS1.0", 3, 3)));
+        Assert.assertEquals("789", IOUtils.toString(fedoraSession.getContent(
+                EXISTING_PID, "DS1", "DS1.0", 7, -1)));
+        Assert.assertEquals("", IOUtils.toString(fedoraSession.getContent(
+                EXISTING_PID, "DS1", "DS1.0", 20, -1)));
+    }
+
+    @Test (expected=IllegalArgumentException.class)
+    public void getContentRangeNegativeOffset() {
+        addObjectWithDS1(true);
+        fedoraSession.getContent(EXISTING_PID, "DS1", "DS1.0", -1, -1);
+    }
+
+    @Test
+    public void transferContentRange() throws Exception {
+        addObjectWithDS1(true);
+        fedoraSession.setContent(EXISTING_PID, "DS1", "DS1.0",
+                IOUtils.toInputStream("0123456789"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals(4L, fedoraSession.transferContent(EXISTING_PID,
+                "DS1", "DS1.0", 2, 4, Channels.newChannel(out)));
+        Assert.assertEquals("2345", out.toString("UTF-8"));
+    }
+
     @Test (expected=NullPointerException.class)
     public void getContentLengthNullPid() {
         fedoraSession.getContentLength(null, "DS1", "DS1.0");
@@ -433,6 +536,188 @@ public class AkubraFedoraStoreSessionTest {
                 IOUtils.toInputStream("value1"));
     }
     
+    @Test
+    public void getObjectLocationsWithoutResolver() {
+        Assert.assertTrue(fedoraSession.getObjectLocations(
+                Arrays.asList(EXISTING_PID)).isEmpty());
+    }
+
+    @Test
+    public void getObjectLocationsWithResolver() {
+        AkubraFedoraStoreSession session = new AkubraFedoraStoreSession(
+                testObjectStore, testContentStore, new FOXMLReader(),
+                new FOXMLWriter(), new BlobFileResolver() {
+            @Override
+            public File getFile(URI blobId) {
+                return new File("/objects", blobId.getSchemeSpecificPart());
+            }
+        }, null);
+        try {
+            Map<String, String> locations = session.getObjectLocations(
+                    Arrays.asList(EXISTING_PID));
+            Assert.assertEquals(new File("/objects", "fedora/" + EXISTING_PID)
+                    .getPath(), locations.get(EXISTING_PID));
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test (expected=NullPointerException.class)
+    public void getObjectLocationsNull() {
+        fedoraSession.getObjectLocations(null);
+    }
+
+    @Test
+    public void importContentWithoutResolver() {
+        addObjectWithDS1(true);
+        Assert.assertFalse(fedoraSession.importContent(EXISTING_PID, "DS1",
+                "DS1.0", new File("unused"), false));
+    }
+
+    @Test
+    public void importContentWithResolver() throws Exception {
+        final File target = File.createTempFile("target", null);
+        File file = File.createTempFile("content", null);
+        try {
+            OutputStream out = new FileOutputStream(file);
+            IOUtils.write("value", out);
+            out.close();
+            AkubraFedoraStoreSession session = new AkubraFedoraStoreSession(
+                    testObjectStore, testContentStore, new FOXMLReader(),
+                    new FOXMLWriter(), new BlobFileResolver() {
+                @Override
+                public File getFile(URI blobId) {
+                    return target;
+                }
+            });
+            try {
+                addObjectWithDS1(true);
+                Assert.assertTrue(session.importContent(EXISTING_PID, "DS1",
+                        "DS1.0", file, true));
+                Assert.assertFalse(file.exists());
+                InputStream in = new FileInputStream(target);
+                Assert.assertEquals("value", IOUtils.toString(in));
+                in.close();
+            } finally {
+                session.close();
+            }
+        } finally {
+            file.delete();
+            target.delete();
+        }
+    }
+
+    @Test
+    public void setContentWithResolverReplacesFile() throws Exception {
+        File dir = File.createTempFile("content", null);
+        dir.delete();
+        dir.mkdir();
+        final File target = new File(dir, "target");
+        File linked = new File(dir, "linked");
+        try {
+            OutputStream out = new FileOutputStream(target);
+            IOUtils.write("old", out);
+            out.close();
+            AkubraFedoraStoreSession session = new AkubraFedoraStoreSession(
+                    testObjectStore, testContentStore, new FOXMLReader(),
+                    new FOXMLWriter(), new BlobFileResolver() {
+                @Override
+                public File getFile(URI blobId) {
+                    return target;
+                }
+            });
+            try {
+                addObjectWithDS1(true);
+                try {
+                    session.setContent(EXISTING_PID, "DS1", "DS1.0",
+                            new FailingInputStream());
+                    Assert.fail();
+                } catch (StoreException e) {
+                    Assert.assertEquals("old", readFile(target));
+                    Assert.assertEquals(1, dir.list().length);
+                }
+                boolean isLinked = Util.linkOrMove(target, linked, false);
+                session.setContent(EXISTING_PID, "DS1", "DS1.0",
+                        IOUtils.toInputStream("new"));
+                Assert.assertEquals("new", readFile(target));
+                if (isLinked) Assert.assertEquals("old", readFile(linked));
+            } finally {
+                session.close();
+            }
+        } finally {
+            target.delete();
+            linked.delete();
+            dir.delete();
+        }
+    }
+
+    @Test (expected=NullPointerException.class)
+    public void importContentNullFile() {
+        addObjectWithDS1(true);
+        fedoraSession.importContent(EXISTING_PID, "DS1", "DS1.0", null,
+                false);
+    }
+
+    @Test
+    public void manifestKeptApartAndIgnoredAfterObjectChanged()
+            throws Exception {
+        final File objectFile = File.createTempFile("object", null);
+        File dir = File.createTempFile("manifests", null);
+        dir.delete();
+        try {
+            ManifestDirectory manifests = new ManifestDirectory(
+                    dir.getPath());
+            BlobFileResolver resolver = new BlobFileResolver() {
+                @Override
+                public File getFile(URI blobId) {
+                    return objectFile;
+                }
+            };
+            fedoraSession.close();
+            fedoraSession = new AkubraFedoraStoreSession(testObjectStore,
+                    testContentStore, new FOXMLReader(), new FOXMLWriter(),
+                    resolver, null, manifests);
+            objectFile.setLastModified(100000);
+            addObjectWithDS1(true);
+            fedoraSession.setContent(EXISTING_PID, "DS1", "DS1.0",
+                    IOUtils.toInputStream("value"));
+            Assert.assertEquals(5L, manifests.read(EXISTING_PID).size(
+                    "DS1", "DS1.0"));
+            BlobStoreConnection connection =
+                    testContentStore.openConnection(null, null);
+            Iterator<URI> ids = connection.listBlobIds(null);
+            Assert.assertEquals(URI.create("info:fedora/" + EXISTING_PID
+                    + "/DS1/DS1.0"), ids.next());
+            Assert.assertFalse(ids.hasNext());
+            // as if Fedora changed the object and its content
+            objectFile.setLastModified(200000);
+            OutputStream out = connection.getBlob(URI.create("info:fedora/"
+                    + EXISTING_PID + "/DS1/DS1.0"), null).openOutputStream(
+                    -1, true);
+            IOUtils.write("new value", out);
+            out.close();
+            connection.close();
+            AkubraFedoraStoreSession newSession =
+                    new AkubraFedoraStoreSession(testObjectStore,
+                    testContentStore, new FOXMLReader(), new FOXMLWriter(),
+                    resolver, null, manifests);
+            Assert.assertEquals(9L, newSession.getContentLength(
+                    EXISTING_PID, "DS1", "DS1.0"));
+            newSession.close();
+            fedoraSession.deleteObject(EXISTING_PID);
+            Assert.assertNull(manifests.read(EXISTING_PID));
+        } finally {
+            objectFile.delete();
+            for (File subdir : dir.listFiles()) {
+                for (File file : subdir.listFiles()) {
+                    file.delete();
+                }
+                subdir.delete();
+            }
+            dir.delete();
+        }
+    }
+
     @Test (expected=UnsupportedOperationException.class)
     public void getXAResource() {
         fedoraSession.getXAResource();
@@ -500,4 +785,24 @@ public class AkubraFedoraStoreSessionTest {
             if (connection != null) connection.close();
         }
     }
+
+    private static String readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return IOUtils.toString(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    // gives a few bytes, then fails
+    private static class FailingInputStream extends InputStream {
+        private int count;
+
+        @Override
+        public int read() throws IOException {
+            if (count++ == 2) throw new IOException("Simulated failure");
+            return 'x';
+        }
+    }
 }
@@ -0,0 +1,51 @@
+package com.github.cwilper.fcrepo.store.akubra;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link HashPathIdMapper}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HashPathIdMapperBenchmark {
+    @Param({ "#", "##/##", "##/##/##" })
+    public String pattern;
+
+    private HashPathIdMapper mapper;
+    private URI externalId;
+    private URI internalId;
+
+    @Setup
+    public void setUp() {
+        mapper = new HashPathIdMapper(pattern);
+        externalId = URI.create("info:fedora/demo:12345/DS1/DS1.0");
+        internalId = mapper.getInternalId(externalId);
+    }
+
+    @Benchmark
+    public URI getInternalId() {
+        return mapper.getInternalId(externalId);
+    }
+
+    @Benchmark
+    public URI getExternalId() {
+        return mapper.getExternalId(internalId);
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.cwilper.fcrepo.store.bench;
+
+import com.github.cwilper.fcrepo.dto.core.ControlGroup;
+import com.github.cwilper.fcrepo.dto.core.Datastream;
+import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Fixtures shared by the benchmarks.
+ */
+public final class BenchUtil {
+    /** The id of the managed datastream in objects from {@link #newObject}. */
+    public static final String DS_ID = "DS1";
+
+    /** The id of its only version. */
+    public static final String DSV_ID = "DS1.0";
+
+    private BenchUtil() { }
+
+    /**
+     * Creates an object with a label and one managed datastream, roughly the
+     * shape of a typical migrated object.
+     *
+     * @param pid the pid.
+     * @return the object.
+     */
+    public static FedoraObject newObject(String pid) {
+        Date now = new Date();
+        FedoraObject object = new FedoraObject().pid(pid).label("label")
+                .lastModifiedDate(now);
+        Datastream ds = new Datastream(DS_ID)
+                .controlGroup(ControlGroup.MANAGED);
+        ds.versions().add(new DatastreamVersion(DSV_ID, now));
+        object.putDatastream(ds);
+        return object;
+    }
+
+    /**
+     * Gets the pid with the given number, e.g. <code>bench:42</code>.
+     *
+     * @param n the number.
+     * @return the pid.
+     */
+    public static String pid(int n) {
+        return "bench:" + n;
+    }
+
+    /**
+     * Gets a byte array of the given size filled with a repeating pattern.
+     *
+     * @param size the size in bytes.
+     * @return the bytes.
+     */
+    public static byte[] content(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    /**
+     * Creates a new, empty temporary directory.
+     *
+     * @param prefix the name prefix.
+     * @return the directory.
+     * @throws IOException if it can't be created.
+     */
+    public static File createTempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, null);
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Unable to create temporary directory: "
+                    + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Deletes a file or directory, recursively.
+     *
+     * @param file the file or directory, which need not exist.
+     */
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
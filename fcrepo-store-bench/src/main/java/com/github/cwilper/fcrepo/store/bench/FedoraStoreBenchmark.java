@@ -0,0 +1,179 @@
+package com.github.cwilper.fcrepo.store.bench;
+
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+import com.github.cwilper.fcrepo.dto.foxml.FOXMLReader;
+import com.github.cwilper.fcrepo.dto.foxml.FOXMLWriter;
+import com.github.cwilper.fcrepo.store.akubra.AkubraFedoraStore;
+import com.github.cwilper.fcrepo.store.akubra.HashPathIdMapper;
+import com.github.cwilper.fcrepo.store.akubra.MappedBlobFileResolver;
+import com.github.cwilper.fcrepo.store.core.FedoraStore;
+import com.github.cwilper.fcrepo.store.core.FedoraStoreSession;
+import com.github.cwilper.fcrepo.store.jcr.JCRFedoraStore;
+import com.github.cwilper.fcrepo.store.legacy.DBPathRegistry;
+import com.github.cwilper.fcrepo.store.legacy.FilesystemFileStore;
+import com.github.cwilper.fcrepo.store.legacy.LegacyFedoraStore;
+import com.github.cwilper.fcrepo.store.legacy.PathAlgorithm;
+import com.github.cwilper.fcrepo.store.legacy.TemporaryDerbyDB;
+import com.github.cwilper.fcrepo.store.legacy.TimestampPathAlgorithm;
+import org.akubraproject.fs.FSBlobStore;
+import org.akubraproject.map.IdMapper;
+import org.akubraproject.map.IdMappingBlobStore;
+import org.akubraproject.mem.MemBlobStore;
+import org.apache.jackrabbit.core.TransientRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.jcr.SimpleCredentials;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the object and content operations of each
+ * {@link FedoraStore} implementation, configured as in the util module's
+ * <code>stores/*.xml</code> but rooted in a temporary directory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FedoraStoreBenchmark {
+    @Param({ "akubra-mem", "akubra-fs", "jcr", "legacy" })
+    public String backend;
+
+    /** The number of objects added at setup time. */
+    @Param({ "1000" })
+    public int size;
+
+    /** The size of each object's managed content, in bytes. */
+    @Param({ "4096" })
+    public int contentSize;
+
+    private File tempDir;
+    private TemporaryDerbyDB db;
+    private TransientRepository repository;
+    private FedoraStoreSession session;
+    private byte[] content;
+    private byte[] buffer;
+    private int next;
+    private int added;
+
+    @Setup
+    public void setUp() throws IOException {
+        tempDir = BenchUtil.createTempDir("fcrepo-store-bench");
+        session = createStore().getSession();
+        content = BenchUtil.content(contentSize);
+        buffer = new byte[8192];
+        for (int i = 0; i < size; i++) {
+            String pid = BenchUtil.pid(i);
+            session.addObject(BenchUtil.newObject(pid));
+            session.setContent(pid, BenchUtil.DS_ID, BenchUtil.DSV_ID,
+                    new ByteArrayInputStream(content));
+        }
+        added = size;
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (session != null) session.close();
+        if (repository != null) repository.shutdown();
+        if (db != null) db.delete();
+        BenchUtil.delete(tempDir);
+    }
+
+    @Benchmark
+    public void addObject() {
+        session.addObject(BenchUtil.newObject(BenchUtil.pid(added++)));
+    }
+
+    @Benchmark
+    public FedoraObject getObject() {
+        return session.getObject(nextPid());
+    }
+
+    @Benchmark
+    public void updateObject() {
+        FedoraObject object = BenchUtil.newObject(nextPid());
+        object.label("label " + next);
+        session.updateObject(object);
+    }
+
+    @Benchmark
+    public long getContent() throws IOException {
+        InputStream in = session.getContent(nextPid(), BenchUtil.DS_ID,
+                BenchUtil.DSV_ID);
+        try {
+            long total = 0;
+            int n = in.read(buffer);
+            while (n != -1) {
+                total += n;
+                n = in.read(buffer);
+            }
+            return total;
+        } finally {
+            in.close();
+        }
+    }
+
+    // cycles through the pids added at setup time
+    private String nextPid() {
+        if (next == size) next = 0;
+        return BenchUtil.pid(next++);
+    }
+
+    private FedoraStore createStore() {
+        FOXMLReader reader = new FOXMLReader();
+        FOXMLWriter writer = new FOXMLWriter();
+        if (backend.equals("akubra-mem")) {
+            return new AkubraFedoraStore(
+                    new MemBlobStore(URI.create("urn:objects")),
+                    new MemBlobStore(URI.create("urn:content")),
+                    reader, writer);
+        } else if (backend.equals("akubra-fs")) {
+            IdMapper mapper = new HashPathIdMapper("##");
+            File objectDir = new File(tempDir, "objects");
+            File contentDir = new File(tempDir, "content");
+            objectDir.mkdir();
+            contentDir.mkdir();
+            URI id = URI.create("urn:example.org:id");
+            return new AkubraFedoraStore(
+                    new IdMappingBlobStore(id,
+                            new FSBlobStore(id, objectDir), mapper),
+                    new IdMappingBlobStore(id,
+                            new FSBlobStore(id, contentDir), mapper),
+                    reader, writer,
+                    new MappedBlobFileResolver(mapper, contentDir.getPath()));
+        } else if (backend.equals("jcr")) {
+            repository = new TransientRepository(new File(tempDir, "jcr"));
+            return new JCRFedoraStore(repository,
+                    new SimpleCredentials("admin", "admin".toCharArray()),
+                    reader, writer);
+        } else if (backend.equals("legacy")) {
+            db = new TemporaryDerbyDB();
+            PathAlgorithm algorithm = new TimestampPathAlgorithm();
+            return new LegacyFedoraStore(
+                    new FilesystemFileStore(new DBPathRegistry(db, "objects"),
+                            algorithm, new File(tempDir, "objects").getPath()),
+                    new FilesystemFileStore(
+                            new DBPathRegistry(db, "datastreams"),
+                            algorithm, new File(tempDir, "content").getPath()),
+                    reader, writer);
+        }
+        throw new IllegalArgumentException("Unknown backend: " + backend);
+    }
+}
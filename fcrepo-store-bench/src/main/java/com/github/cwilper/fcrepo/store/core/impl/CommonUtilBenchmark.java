@@ -0,0 +1,69 @@
+package com.github.cwilper.fcrepo.store.core.impl;
+
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+import com.github.cwilper.fcrepo.dto.foxml.FOXMLReader;
+import com.github.cwilper.fcrepo.dto.foxml.FOXMLWriter;
+import com.github.cwilper.fcrepo.store.bench.BenchUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link CommonUtil#readObject} and
+ * {@link CommonUtil#writeObject} using FOXML.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommonUtilBenchmark {
+    private FOXMLReader reader;
+    private FOXMLWriter writer;
+    private FedoraObject object;
+    private byte[] serialized;
+
+    @Setup
+    public void setUp() throws IOException {
+        reader = new FOXMLReader();
+        writer = new FOXMLWriter();
+        object = BenchUtil.newObject(BenchUtil.pid(1));
+        serialized = write(object);
+    }
+
+    @Benchmark
+    public byte[] writeObject() throws IOException {
+        return write(object);
+    }
+
+    @Benchmark
+    public FedoraObject readObject() throws IOException {
+        return CommonUtil.readObject(reader,
+                new ByteArrayInputStream(serialized));
+    }
+
+    @Benchmark
+    public FedoraObject roundTrip() throws IOException {
+        return CommonUtil.readObject(reader,
+                new ByteArrayInputStream(write(object)));
+    }
+
+    private byte[] write(FedoraObject o) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CommonUtil.writeObject(writer, o, out);
+        return out.toByteArray();
+    }
+}
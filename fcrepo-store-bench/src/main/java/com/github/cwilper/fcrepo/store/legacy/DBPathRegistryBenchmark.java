@@ -0,0 +1,69 @@
+package com.github.cwilper.fcrepo.store.legacy;
+
+import com.github.cwilper.fcrepo.store.bench.BenchUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link DBPathRegistry} against an embedded Derby database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DBPathRegistryBenchmark {
+    @Param({ "10000" })
+    public int size;
+
+    private TemporaryDerbyDB db;
+    private DBPathRegistry registry;
+    private PathAlgorithm algorithm;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        db = new TemporaryDerbyDB();
+        registry = new DBPathRegistry(db, "bench");
+        algorithm = new TimestampPathAlgorithm();
+        for (int i = 0; i < size; i++) {
+            String pid = BenchUtil.pid(i);
+            registry.setPath(pid, algorithm.generatePath(pid));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        db.delete();
+    }
+
+    @Benchmark
+    public String getPath() {
+        return registry.getPath(nextPid());
+    }
+
+    @Benchmark
+    public void setPath() {
+        String pid = nextPid();
+        registry.setPath(pid, algorithm.generatePath(pid));
+    }
+
+    // cycles through the pids registered at setup time
+    private String nextPid() {
+        if (next == size) next = 0;
+        return BenchUtil.pid(next++);
+    }
+}
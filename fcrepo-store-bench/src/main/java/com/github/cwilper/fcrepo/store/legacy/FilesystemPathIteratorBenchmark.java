@@ -0,0 +1,78 @@
+package com.github.cwilper.fcrepo.store.legacy;
+
+import com.github.cwilper.fcrepo.store.bench.BenchUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link FilesystemPathIterator} over a synthetic tree laid
+ * out like a legacy store: year/monthday/hour/minute/file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilesystemPathIteratorBenchmark {
+    @Param({ "10", "100" })
+    public int filesPerDir;
+
+    @Param({ "4" })
+    public int fanout;
+
+    private File baseDir;
+
+    @Setup
+    public void setUp() throws IOException {
+        baseDir = BenchUtil.createTempDir("fcrepo-store-bench");
+        int n = 0;
+        for (int month = 0; month < fanout; month++) {
+            for (int hour = 0; hour < fanout; hour++) {
+                for (int minute = 0; minute < fanout; minute++) {
+                    File dir = new File(baseDir, "2012/" + month + "01/"
+                            + hour + "/" + minute);
+                    if (!dir.mkdirs()) {
+                        throw new IOException("Unable to create " + dir);
+                    }
+                    for (int i = 0; i < filesPerDir; i++) {
+                        String name = BenchUtil.pid(n++).replace(':', '_');
+                        if (!new File(dir, name).createNewFile()) {
+                            throw new IOException("Unable to create " + name);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchUtil.delete(baseDir);
+    }
+
+    @Benchmark
+    public int iterate() {
+        FilesystemPathIterator iterator = new FilesystemPathIterator(baseDir);
+        int count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        return count;
+    }
+}
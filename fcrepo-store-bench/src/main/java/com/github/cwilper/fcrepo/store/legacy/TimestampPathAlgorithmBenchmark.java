@@ -0,0 +1,46 @@
+package com.github.cwilper.fcrepo.store.legacy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link TimestampPathAlgorithm}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimestampPathAlgorithmBenchmark {
+    private TimestampPathAlgorithm algorithm;
+    private String id;
+    private String path;
+
+    @Setup
+    public void setUp() {
+        algorithm = new TimestampPathAlgorithm();
+        id = "demo:12345+DS1+DS1.0";
+        path = algorithm.generatePath(id);
+    }
+
+    @Benchmark
+    public String generatePath() {
+        return algorithm.generatePath(id);
+    }
+
+    @Benchmark
+    public String getId() {
+        return algorithm.getId(path);
+    }
+}
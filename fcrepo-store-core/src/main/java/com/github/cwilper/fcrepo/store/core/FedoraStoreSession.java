@@ -3,7 +3,11 @@ package com.github.cwilper.fcrepo.store.core;
 import com.github.cwilper.fcrepo.dto.core.FedoraObject;
 
 import javax.transaction.xa.XAResource;
+import java.io.File;
 import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.Map;
 
 /**
  * A place to store Fedora objects and managed content.
@@ -67,6 +71,119 @@ public interface FedoraStoreSession extends Iterable<FedoraObject> {
      */
     void deleteObject(String pid);
 
+    /**
+     * Adds several objects in one batch.
+     * <p>
+     * Implementations may take advantage of this to reduce per-object
+     * overhead. If an error occurs, an exception will be thrown and the
+     * remaining objects will not be added. Whether objects preceding the
+     * failure remain added is implementation-specific.
+     *
+     * @param objects the objects to add, never <code>null</code>.
+     * @throws IllegalArgumentException if any object does not specify a pid.
+     * @throws NullPointerException if the argument or any object is null.
+     * @throws ExistsException if an object with any of the pids already
+     *         exists.
+     * @throws StoreException if there is any other problem.
+     */
+    void addObjects(Iterable<FedoraObject> objects);
+
+    /**
+     * Gets several objects in one batch.
+     *
+     * @param pids the pids of the objects to get, never <code>null</code>.
+     * @throws NullPointerException if the argument or any pid is null.
+     * @throws StoreException if there is any problem.
+     * @return a map of pid to object, never <code>null</code>, ordered as
+     *         requested. Objects that do not exist will be omitted.
+     */
+    Map<String, FedoraObject> getObjects(Iterable<String> pids);
+
+    /**
+     * Updates several objects in one batch. As with
+     * {@link #updateObject(FedoraObject)}, content of managed datastreams
+     * that are no longer present will be automatically deleted.
+     * <p>
+     * If an error occurs, an exception will be thrown and the remaining
+     * objects will not be updated. Whether objects preceding the failure
+     * remain updated is implementation-specific.
+     *
+     * @param objects the objects to update, never <code>null</code>.
+     * @throws IllegalArgumentException if any object does not specify a pid.
+     * @throws NullPointerException if the argument or any object is null.
+     * @throws NotFoundException if any of the objects does not exist.
+     * @throws StoreException if there is any other problem.
+     */
+    void updateObjects(Iterable<FedoraObject> objects);
+
+    /**
+     * Deletes several objects in one batch. As with
+     * {@link #deleteObject(String)}, any managed datastream content will be
+     * automatically deleted.
+     * <p>
+     * If an error occurs, an exception will be thrown and the remaining
+     * objects will not be deleted. Whether objects preceding the failure
+     * remain deleted is implementation-specific.
+     *
+     * @param pids the pids of the objects to delete, never <code>null</code>.
+     * @throws NullPointerException if the argument or any pid is null.
+     * @throws NotFoundException if any of the objects does not exist.
+     * @throws StoreException if there is any other problem.
+     */
+    void deleteObjects(Iterable<String> pids);
+
+    /**
+     * Gets an iterator over the pids of all objects in the store.
+     * <p>
+     * Unlike {@link #iterator()}, this does not require each object to be
+     * read and deserialized, so it is the preferred way to enumerate the
+     * store when only some objects are of interest.
+     *
+     * @throws StoreException if there is any problem starting the iteration.
+     * @return the iterator, never <code>null</code>.
+     */
+    Iterator<String> pidIterator();
+
+    /**
+     * Gets an iterator over the pids of the objects in the store that start
+     * with the given prefix.
+     * <p>
+     * Stores that can look pids up by prefix do so, rather than
+     * enumerating all objects.
+     *
+     * @param prefix the prefix, never <code>null</code>. If empty, all pids
+     *        are returned.
+     * @throws NullPointerException if the prefix is null.
+     * @throws StoreException if there is any problem starting the iteration.
+     * @return the iterator, never <code>null</code>.
+     */
+    Iterator<String> pidIterator(String prefix);
+
+    /**
+     * Gets the number of objects in the store, if it can be determined
+     * without enumerating them.
+     *
+     * @throws StoreException if there is any problem.
+     * @return the number, or -1 if unknown.
+     */
+    long getObjectCount();
+
+    /**
+     * Gets where objects are kept in the underlying storage.
+     * <p>
+     * Each location is an opaque key, such as a file path, whose natural
+     * order approximates the physical order of the objects, so that reading
+     * objects in order of their locations minimizes seeking.
+     *
+     * @param pids the pids, never <code>null</code>.
+     * @return the location of each object whose location is known, keyed by
+     *         pid. Pids of objects that don't exist may or may not be
+     *         included.
+     * @throws NullPointerException if the argument is null.
+     * @throws StoreException if there is any problem.
+     */
+    Map<String, String> getObjectLocations(Iterable<String> pids);
+
     /**
      * Gets the content of an existing managed datastream.
      *
@@ -84,6 +201,59 @@ public interface FedoraStoreSession extends Iterable<FedoraObject> {
     InputStream getContent(String pid, String datastreamId,
             String datastreamVersionId);
 
+    /**
+     * Gets a byte range of the content of an existing managed datastream.
+     * <p>
+     * Implementations will avoid reading the content that precedes the
+     * range where the underlying storage allows it.
+     *
+     * @param pid the pid of the object in which the datastream resides,
+     *        never <code>null</code>.
+     * @param datastreamId the id of the datastream, never <code>null</code>.
+     * @param datastreamVersionId the id of the datastream version,
+     *        never <code>null</code>.
+     * @param offset the offset of the first byte to get, never negative.
+     * @param length the maximum number of bytes to get, or -1 to get all
+     *        remaining bytes.
+     * @throws NullPointerException if any argument is null.
+     * @throws IllegalArgumentException if the range is invalid.
+     * @throws NotFoundException if the object, managed datastream, or content
+     *         does not exist.
+     * @throws StoreException if there is any other problem.
+     * @return the content, never <code>null</code>. If the offset is beyond
+     *         the end of the content, the stream will be empty.
+     */
+    InputStream getContent(String pid, String datastreamId,
+            String datastreamVersionId, long offset, long length);
+
+    /**
+     * Writes a byte range of the content of an existing managed datastream
+     * to a channel.
+     * <p>
+     * Where the content is held in a local file, implementations will
+     * transfer it directly from the file to the channel.
+     *
+     * @param pid the pid of the object in which the datastream resides,
+     *        never <code>null</code>.
+     * @param datastreamId the id of the datastream, never <code>null</code>.
+     * @param datastreamVersionId the id of the datastream version,
+     *        never <code>null</code>.
+     * @param offset the offset of the first byte to write, never negative.
+     * @param length the maximum number of bytes to write, or -1 to write all
+     *        remaining bytes.
+     * @param channel the channel to write to, never <code>null</code>. It
+     *        will not be closed.
+     * @throws NullPointerException if any argument is null.
+     * @throws IllegalArgumentException if the range is invalid.
+     * @throws NotFoundException if the object, managed datastream, or content
+     *         does not exist.
+     * @throws StoreException if there is any other problem.
+     * @return the number of bytes written.
+     */
+    long transferContent(String pid, String datastreamId,
+            String datastreamVersionId, long offset, long length,
+            WritableByteChannel channel);
+
     /**
      * Gets the length of the content of an existing managed datastream,
      * in bytes.
@@ -102,6 +272,27 @@ public interface FedoraStoreSession extends Iterable<FedoraObject> {
     long getContentLength(String pid, String datastreamId,
             String datastreamVersionId);
 
+    /**
+     * Gets the time the content of an existing managed datastream was last
+     * written to storage, if known. Callers can use this together with
+     * {@link #getContentLength(String, String, String)} to tell whether
+     * content has changed without reading it.
+     *
+     * @param pid the pid of the object in which the datastream resides,
+     *        never <code>null</code>.
+     * @param datastreamId the id of the datastream, never <code>null</code>.
+     * @param datastreamVersionId the id of the datastream version,
+     *        never <code>null</code>.
+     * @throws NullPointerException if any argument is null.
+     * @throws NotFoundException if the object, managed datastream, or content
+     *         does not exist.
+     * @throws StoreException if there is any other problem.
+     * @return the time in milliseconds since the epoch, or -1 if the
+     *         underlying storage doesn't record it.
+     */
+    long getContentLastModified(String pid, String datastreamId,
+            String datastreamVersionId);
+
     /**
      * Sets the content of an existing managed datastream.
      *
@@ -120,6 +311,52 @@ public interface FedoraStoreSession extends Iterable<FedoraObject> {
     void setContent(String pid, String datastreamId,
             String datastreamVersionId, InputStream inputStream);
 
+    /**
+     * Gets the local file that holds the content of an existing managed
+     * datastream, if the store keeps content in local files.
+     *
+     * @param pid the pid of the object in which the datastream resides,
+     *        never <code>null</code>.
+     * @param datastreamId the id of the datastream, never <code>null</code>.
+     * @param datastreamVersionId the id of the datastream version,
+     *        never <code>null</code>.
+     * @throws NullPointerException if any argument is null.
+     * @throws NotFoundException if the object, managed datastream, or content
+     *         does not exist.
+     * @throws StoreException if there is any other problem.
+     * @return the file, or <code>null</code> if the content isn't kept in a
+     *         local file.
+     */
+    File getContentFile(String pid, String datastreamId,
+            String datastreamVersionId);
+
+    /**
+     * Sets the content of an existing managed datastream to a local file
+     * without copying its bytes, by hard-linking the file into the store or,
+     * if requested, moving it there.
+     * <p>
+     * This is only possible if the store keeps content in local files on
+     * the same volume as the given file. If it isn't, nothing is changed
+     * and {@link #setContent(String, String, String, InputStream)} should
+     * be used instead.
+     *
+     * @param pid the pid of the object in which the datastream resides,
+     *        never <code>null</code>.
+     * @param datastreamId the id of the datastream, never <code>null</code>.
+     * @param datastreamVersionId the id of the datastream version,
+     *        never <code>null</code>.
+     * @param file the file, never <code>null</code>.
+     * @param move whether to move the file rather than link it. If moved, it
+     *        will no longer exist at its original path.
+     * @throws NullPointerException if any argument is null.
+     * @throws NotFoundException if the object or managed datastream does not
+     *         exist.
+     * @throws StoreException if there is any other problem.
+     * @return whether the content was set.
+     */
+    boolean importContent(String pid, String datastreamId,
+            String datastreamVersionId, File file, boolean move);
+
     /**
      * Closes the session, releasing any resources held. It is safe to
      * call this method multiple times. If an error occurs while closing, it
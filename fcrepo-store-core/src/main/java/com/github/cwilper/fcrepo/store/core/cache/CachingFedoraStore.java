@@ -0,0 +1,109 @@
+package com.github.cwilper.fcrepo.store.core.cache;
+
+import com.github.cwilper.fcrepo.dto.core.io.DTOReader;
+import com.github.cwilper.fcrepo.dto.core.io.DTOWriter;
+import com.github.cwilper.fcrepo.store.core.FedoraStore;
+import com.github.cwilper.fcrepo.store.core.FedoraStoreSession;
+
+/**
+ * A {@link FedoraStore} that keeps recently-read objects in memory, shared
+ * across all of its sessions.
+ * <p>
+ * Objects are cached in serialized form, so a cache hit avoids a read
+ * from storage, and callers may freely modify the objects they get.
+ * The cache is bounded by the total number of serialized bytes it holds,
+ * and the least recently used objects are evicted first.
+ * <p>
+ * Objects are evicted from the cache whenever they are added, updated, or
+ * deleted through any session of this store. Changes made to the
+ * underlying store by other means, or changes made within a transaction
+ * that is later rolled back, will not be noticed.
+ * <p>
+ * This class is threadsafe. Its sessions are as threadsafe as those of the
+ * underlying store.
+ */
+public class CachingFedoraStore implements FedoraStore {
+    private final FedoraStore store;
+    private final DTOReader readerFactory;
+    private final DTOWriter writerFactory;
+    private final ObjectCache cache;
+
+    /**
+     * Creates an instance.
+     *
+     * @param store the store to cache objects from.
+     * @param readerFactory the factory to use for deserializing.
+     * @param writerFactory the factory to use for serializing.
+     * @param maxBytes the maximum number of serialized bytes to cache.
+     * @throws NullPointerException if any argument is null.
+     * @throws IllegalArgumentException if maxBytes is less than one.
+     */
+    public CachingFedoraStore(FedoraStore store, DTOReader readerFactory,
+            DTOWriter writerFactory, long maxBytes) {
+        if (store == null || readerFactory == null || writerFactory == null) {
+            throw new NullPointerException();
+        }
+        this.store = store;
+        this.readerFactory = readerFactory;
+        this.writerFactory = writerFactory;
+        this.cache = new ObjectCache(maxBytes);
+    }
+
+    @Override
+    public FedoraStoreSession getSession() {
+        return new CachingFedoraStoreSession(store.getSession(), cache,
+                readerFactory, writerFactory);
+    }
+
+    /**
+     * Removes all objects from the cache. Counters are not reset.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Gets the number of object requests answered from the cache.
+     *
+     * @return the count.
+     */
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    /**
+     * Gets the number of object requests not answered from the cache.
+     *
+     * @return the count.
+     */
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    /**
+     * Gets the number of objects evicted to stay within the size limit.
+     *
+     * @return the count.
+     */
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    /**
+     * Gets the number of serialized bytes currently cached.
+     *
+     * @return the count.
+     */
+    public long getByteCount() {
+        return cache.getByteCount();
+    }
+
+    /**
+     * Gets the number of objects currently cached.
+     *
+     * @return the count.
+     */
+    public int getObjectCount() {
+        return cache.getObjectCount();
+    }
+}
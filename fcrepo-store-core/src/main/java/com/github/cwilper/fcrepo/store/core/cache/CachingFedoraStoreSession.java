@@ -0,0 +1,314 @@
+package com.github.cwilper.fcrepo.store.core.cache;
+
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+import com.github.cwilper.fcrepo.dto.core.io.DTOReader;
+import com.github.cwilper.fcrepo.dto.core.io.DTOWriter;
+import com.github.cwilper.fcrepo.store.core.FedoraStoreSession;
+import com.github.cwilper.fcrepo.store.core.StoreException;
+import com.github.cwilper.fcrepo.store.core.impl.CommonConstants;
+import com.github.cwilper.fcrepo.store.core.impl.CommonUtil;
+
+import javax.transaction.xa.XAResource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link FedoraStoreSession} implementation that consults an
+ * {@link ObjectCache} before delegating reads to another session.
+ */
+class CachingFedoraStoreSession implements FedoraStoreSession {
+    private final FedoraStoreSession session;
+    private final ObjectCache cache;
+    private final DTOReader readerFactory;
+    private final DTOWriter writerFactory;
+
+    private boolean closed;
+
+    CachingFedoraStoreSession(FedoraStoreSession session, ObjectCache cache,
+            DTOReader readerFactory, DTOWriter writerFactory) {
+        this.session = session;
+        this.cache = cache;
+        this.readerFactory = readerFactory;
+        this.writerFactory = writerFactory;
+        this.closed = false;
+    }
+
+    @Override
+    public XAResource getXAResource() {
+        return session.getXAResource();
+    }
+
+    @Override
+    public void addObject(FedoraObject object) {
+        ensureNotClosed();
+        if (object == null) throw new NullPointerException();
+        invalidate(object.pid());
+        try {
+            session.addObject(object);
+        } finally {
+            invalidate(object.pid());
+        }
+    }
+
+    @Override
+    public FedoraObject getObject(String pid) {
+        ensureNotClosed();
+        if (pid == null) throw new NullPointerException();
+        byte[] bytes = cache.get(pid);
+        if (bytes != null) return fromBytes(bytes);
+        long generation = cache.getGeneration();
+        FedoraObject object = session.getObject(pid);
+        cache.put(pid, toBytes(object), generation);
+        return object;
+    }
+
+    @Override
+    public void updateObject(FedoraObject object) {
+        ensureNotClosed();
+        if (object == null) throw new NullPointerException();
+        invalidate(object.pid());
+        try {
+            session.updateObject(object);
+        } finally {
+            invalidate(object.pid());
+        }
+    }
+
+    @Override
+    public void deleteObject(String pid) {
+        ensureNotClosed();
+        if (pid == null) throw new NullPointerException();
+        invalidate(pid);
+        try {
+            session.deleteObject(pid);
+        } finally {
+            invalidate(pid);
+        }
+    }
+
+    @Override
+    public void addObjects(Iterable<FedoraObject> objects) {
+        ensureNotClosed();
+        List<String> pids = getPids(objects);
+        invalidate(pids);
+        try {
+            session.addObjects(objects);
+        } finally {
+            invalidate(pids);
+        }
+    }
+
+    @Override
+    public Map<String, FedoraObject> getObjects(Iterable<String> pids) {
+        ensureNotClosed();
+        if (pids == null) throw new NullPointerException();
+        Map<String, FedoraObject> objects =
+                new LinkedHashMap<String, FedoraObject>();
+        List<String> uncached = new ArrayList<String>();
+        for (String pid : pids) {
+            if (pid == null) throw new NullPointerException();
+            byte[] bytes = cache.get(pid);
+            // reserve the position so the result stays in requested order
+            objects.put(pid, bytes == null ? null : fromBytes(bytes));
+            if (bytes == null) uncached.add(pid);
+        }
+        if (!uncached.isEmpty()) {
+            long generation = cache.getGeneration();
+            Map<String, FedoraObject> fetched = session.getObjects(uncached);
+            for (String pid : uncached) {
+                FedoraObject object = fetched.get(pid);
+                if (object == null) {
+                    objects.remove(pid);
+                } else {
+                    objects.put(pid, object);
+                    cache.put(pid, toBytes(object), generation);
+                }
+            }
+        }
+        return objects;
+    }
+
+    @Override
+    public void updateObjects(Iterable<FedoraObject> objects) {
+        ensureNotClosed();
+        List<String> pids = getPids(objects);
+        invalidate(pids);
+        try {
+            session.updateObjects(objects);
+        } finally {
+            invalidate(pids);
+        }
+    }
+
+    @Override
+    public void deleteObjects(Iterable<String> pids) {
+        ensureNotClosed();
+        if (pids == null) throw new NullPointerException();
+        List<String> list = new ArrayList<String>();
+        for (String pid : pids) {
+            if (pid != null) list.add(pid);
+        }
+        invalidate(list);
+        try {
+            session.deleteObjects(pids);
+        } finally {
+            invalidate(list);
+        }
+    }
+
+    @Override
+    public Iterator<String> pidIterator() {
+        ensureNotClosed();
+        return session.pidIterator();
+    }
+
+    @Override
+    public Iterator<String> pidIterator(String prefix) {
+        ensureNotClosed();
+        return session.pidIterator(prefix);
+    }
+
+    @Override
+    public long getObjectCount() {
+        ensureNotClosed();
+        return session.getObjectCount();
+    }
+
+    @Override
+    public Map<String, String> getObjectLocations(Iterable<String> pids) {
+        ensureNotClosed();
+        return session.getObjectLocations(pids);
+    }
+
+    @Override
+    public InputStream getContent(String pid, String datastreamId,
+            String datastreamVersionId) {
+        ensureNotClosed();
+        return session.getContent(pid, datastreamId, datastreamVersionId);
+    }
+
+    @Override
+    public InputStream getContent(String pid, String datastreamId,
+            String datastreamVersionId, long offset, long length) {
+        ensureNotClosed();
+        return session.getContent(pid, datastreamId, datastreamVersionId,
+                offset, length);
+    }
+
+    @Override
+    public long transferContent(String pid, String datastreamId,
+            String datastreamVersionId, long offset, long length,
+            WritableByteChannel channel) {
+        ensureNotClosed();
+        return session.transferContent(pid, datastreamId,
+                datastreamVersionId, offset, length, channel);
+    }
+
+    @Override
+    public long getContentLength(String pid, String datastreamId,
+            String datastreamVersionId) {
+        ensureNotClosed();
+        return session.getContentLength(pid, datastreamId,
+                datastreamVersionId);
+    }
+
+    @Override
+    public long getContentLastModified(String pid, String datastreamId,
+            String datastreamVersionId) {
+        ensureNotClosed();
+        return session.getContentLastModified(pid, datastreamId,
+                datastreamVersionId);
+    }
+
+    @Override
+    public void setContent(String pid, String datastreamId,
+            String datastreamVersionId, InputStream inputStream) {
+        ensureNotClosed();
+        session.setContent(pid, datastreamId, datastreamVersionId,
+                inputStream);
+    }
+
+    @Override
+    public File getContentFile(String pid, String datastreamId,
+            String datastreamVersionId) {
+        ensureNotClosed();
+        return session.getContentFile(pid, datastreamId,
+                datastreamVersionId);
+    }
+
+    @Override
+    public boolean importContent(String pid, String datastreamId,
+            String datastreamVersionId, File file, boolean move) {
+        ensureNotClosed();
+        return session.importContent(pid, datastreamId, datastreamVersionId,
+                file, move);
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            session.close();
+            closed = true;
+        }
+    }
+
+    // full iteration bypasses the cache so it doesn't flush the hot set
+    @Override
+    public Iterator<FedoraObject> iterator() {
+        ensureNotClosed();
+        return session.iterator();
+    }
+
+    // pids of objects that can't be validated here are left for the
+    // underlying session to complain about
+    private static List<String> getPids(Iterable<FedoraObject> objects) {
+        if (objects == null) throw new NullPointerException();
+        List<String> pids = new ArrayList<String>();
+        for (FedoraObject object : objects) {
+            if (object != null && object.pid() != null) pids.add(object.pid());
+        }
+        return pids;
+    }
+
+    private void invalidate(String pid) {
+        if (pid != null) cache.invalidate(pid);
+    }
+
+    private void invalidate(List<String> pids) {
+        for (String pid : pids) {
+            invalidate(pid);
+        }
+    }
+
+    private FedoraObject fromBytes(byte[] bytes) {
+        try {
+            return CommonUtil.readObject(readerFactory,
+                    new ByteArrayInputStream(bytes));
+        } catch (IOException e) {
+            throw new StoreException(CommonConstants.ERR_GETTING_OBJ, e);
+        }
+    }
+
+    private byte[] toBytes(FedoraObject object) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            CommonUtil.writeObject(writerFactory, object, out);
+        } catch (IOException e) {
+            throw new StoreException(CommonConstants.ERR_GETTING_OBJ, e);
+        }
+        return out.toByteArray();
+    }
+
+    private void ensureNotClosed() {
+        if (closed) throw new IllegalStateException("Session is closed");
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.cwilper.fcrepo.store.core.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A threadsafe, least-recently-used cache of serialized objects, bounded by
+ * the total number of bytes held.
+ * <p>
+ * To avoid caching stale values, a value read from the underlying store
+ * is only accepted if the same pid hasn't been invalidated since the read
+ * began. Callers get a token via {@link #getGeneration()} before reading
+ * and pass it to {@link #put(String, byte[], long)} afterward.
+ * <p>
+ * The generation in which each pid was last invalidated is remembered for
+ * up to {@value #MAX_INVALIDATIONS} pids. When older ones are forgotten,
+ * values read before they were invalidated are rejected for all pids, so
+ * a write to one object only rarely rejects reads of others.
+ */
+class ObjectCache {
+    /** Maximum number of pids whose last invalidation is remembered. */
+    static final int MAX_INVALIDATIONS = 10000;
+
+    private final long maxBytes;
+    private final Map<String, byte[]> map;
+    private final Map<String, Long> invalidations;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private long bytes;
+    private long generation;
+    // values read before this generation are rejected for any pid
+    private long minGeneration;
+
+    ObjectCache(long maxBytes) {
+        if (maxBytes < 1) throw new IllegalArgumentException();
+        this.maxBytes = maxBytes;
+        this.map = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+        this.invalidations = new LinkedHashMap<String, Long>();
+    }
+
+    byte[] get(String pid) {
+        byte[] value;
+        synchronized (this) {
+            value = map.get(pid);
+        }
+        if (value == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    synchronized void put(String pid, byte[] value, long readGeneration) {
+        if (readGeneration < minGeneration || value.length > maxBytes) {
+            return;
+        }
+        Long invalidated = invalidations.get(pid);
+        if (invalidated != null && readGeneration < invalidated) return;
+        byte[] old = map.put(pid, value);
+        if (old != null) bytes -= old.length;
+        bytes += value.length;
+        Iterator<byte[]> values = map.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= values.next().length;
+            values.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    synchronized void invalidate(String pid) {
+        generation++;
+        // keep the map in order of invalidation, oldest first
+        invalidations.remove(pid);
+        invalidations.put(pid, generation);
+        if (invalidations.size() > MAX_INVALIDATIONS) {
+            Iterator<Long> oldest = invalidations.values().iterator();
+            minGeneration = oldest.next();
+            oldest.remove();
+        }
+        byte[] old = map.remove(pid);
+        if (old != null) bytes -= old.length;
+    }
+
+    synchronized void clear() {
+        generation++;
+        minGeneration = generation;
+        invalidations.clear();
+        map.clear();
+        bytes = 0;
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    long getEvictionCount() {
+        return evictions.get();
+    }
+
+    synchronized long getByteCount() {
+        return bytes;
+    }
+
+    synchronized int getObjectCount() {
+        return map.size();
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * A caching <code>FedoraStore</code> decorator.
+ */
+package com.github.cwilper.fcrepo.store.core.cache;
@@ -5,6 +5,8 @@ package com.github.cwilper.fcrepo.store.core.impl;
  */
 public class CommonConstants {
     public static final String CHAR_ENCODING = "UTF-8";
+    public static final String MANIFEST_NAME = ".manifest";
+    public static final String TEMP_FILE_SUFFIX = ".fcrepo-store-tmp";
     public static final String ERR_ADDING_OBJ = "Error adding object";
     public static final String ERR_CLOSING_STREAM = "Error closing stream";
     public static final String ERR_DELETING_CONT = "Error deleting content";
@@ -17,6 +19,8 @@ public class CommonConstants {
     public static final String ERR_NOTFOUND_DS_IN_STORAGE = "Datastream not found in storage";
     public static final String ERR_NOTFOUND_OBJ_IN_STORAGE = "Object not found in storage";
     public static final String ERR_OPENING_CONN = "Error opening connection";
+    public static final String ERR_READING_MANIFEST = "Error reading manifest; will parse object instead";
+    public static final String ERR_WRITING_MANIFEST = "Error writing manifest";
     public static final String ERR_PARSING_OBJ = "Error parsing Fedora object; ignoring";
     public static final String ERR_SETTING_CONT = "Error setting content";
     public static final String ERR_UPDATING_OBJ = "Error updating object";
@@ -10,9 +10,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Utility methods useful to implementations.
@@ -21,6 +30,20 @@ public class CommonUtil {
     private static final Logger logger =
             LoggerFactory.getLogger(CommonUtil.class);
 
+    private static final int TRANSFER_BUFFER_SIZE = 65536;
+
+    // java.nio.file is only available on Java 7 and later
+    private static final Method TO_PATH = getMethod("java.io.File",
+            "toPath");
+    private static final Method CREATE_LINK = getMethod(
+            "java.nio.file.Files", "createLink", "java.nio.file.Path",
+            "java.nio.file.Path");
+    private static final Method READ_ATTRIBUTES = getMethod(
+            "java.nio.file.Files", "readAttributes", "java.nio.file.Path",
+            "java.lang.Class", "[Ljava.nio.file.LinkOption;");
+    private static final Method FILE_KEY = getMethod(
+            "java.nio.file.attribute.BasicFileAttributes", "fileKey");
+
     public static String getDetails(String pid,
             String datastreamId, String datastreamVersionId) {
         return "(pid=" + pid + ", datastreamId=" + datastreamId
@@ -51,6 +74,45 @@ public class CommonUtil {
         }
     }
 
+    /**
+     * Closes a stream after a failed write. If it's a
+     * {@link ReplacingFileOutputStream}, what was written is discarded.
+     *
+     * @param stream the stream, or <code>null</code>.
+     */
+    public static void abortOrWarn(OutputStream stream) {
+        if (stream instanceof ReplacingFileOutputStream) {
+            ((ReplacingFileOutputStream) stream).abort();
+        } else {
+            closeOrWarn(stream);
+        }
+    }
+
+    /**
+     * Creates an empty, uniquely named temporary file in a directory. Its
+     * name ends with {@link CommonConstants#TEMP_FILE_SUFFIX}, so code that
+     * walks the directory can skip it with {@link #isTempFile(String)}.
+     *
+     * @param dir the directory.
+     * @return the file.
+     * @throws IOException if it can't be created.
+     */
+    public static File createTempFile(File dir) throws IOException {
+        return File.createTempFile("fcrepo-store-",
+                CommonConstants.TEMP_FILE_SUFFIX, dir);
+    }
+
+    /**
+     * Tells whether a file name is that of a temporary file made by
+     * {@link #createTempFile(File)}.
+     *
+     * @param name the name, or path, of the file.
+     * @return whether it is.
+     */
+    public static boolean isTempFile(String name) {
+        return name.endsWith(CommonConstants.TEMP_FILE_SUFFIX);
+    }
+
     public static void writeObject(DTOWriter writerFactory,
             FedoraObject object, OutputStream outputStream)
             throws IOException {
@@ -62,7 +124,7 @@ public class CommonUtil {
             success = true;
         } finally {
             writer.close();
-            if (!success) closeOrWarn(outputStream);
+            if (!success) abortOrWarn(outputStream);
         }
     }
 
@@ -76,4 +138,273 @@ public class CommonUtil {
         }
     }
 
+    /**
+     * Checks that a byte range is valid.
+     *
+     * @param offset the offset, which must not be negative.
+     * @param length the length, which must not be less than -1 (meaning
+     *        "to the end").
+     * @throws IllegalArgumentException if the range is invalid.
+     */
+    public static void validateRange(long offset, long length) {
+        if (offset < 0 || length < -1) {
+            throw new IllegalArgumentException("Invalid range: offset="
+                    + offset + ", length=" + length);
+        }
+    }
+
+    /**
+     * Skips to the given offset in the stream and limits what can be read
+     * from there. If the stream ends before the offset, the returned
+     * stream will be empty.
+     *
+     * @param inputStream the stream, positioned at the start of content.
+     * @param offset the number of bytes to skip.
+     * @param length the maximum number of bytes to read, or -1 for all.
+     * @return the stream.
+     * @throws IOException if skipping fails.
+     */
+    public static InputStream getRange(InputStream inputStream, long offset,
+            long length) throws IOException {
+        boolean success = false;
+        try {
+            long remaining = offset;
+            while (remaining > 0) {
+                long skipped = inputStream.skip(remaining);
+                if (skipped <= 0) {
+                    if (inputStream.read() == -1) break;
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+            success = true;
+        } finally {
+            if (!success) closeOrWarn(inputStream);
+        }
+        if (length == -1) return inputStream;
+        return new BoundedInputStream(inputStream, length);
+    }
+
+    /**
+     * Gets a stream for reading a range of a local file. The file is
+     * positioned directly rather than read up to the offset.
+     *
+     * @param file the file.
+     * @param offset the offset.
+     * @param length the maximum number of bytes to read, or -1 for all.
+     * @return the stream.
+     * @throws IOException if the file can't be opened or positioned.
+     */
+    public static InputStream getFileRange(File file, long offset,
+            long length) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        boolean success = false;
+        try {
+            inputStream.getChannel().position(offset);
+            success = true;
+        } finally {
+            if (!success) closeOrWarn(inputStream);
+        }
+        if (length == -1) return inputStream;
+        return new BoundedInputStream(inputStream, length);
+    }
+
+    /**
+     * Copies all of a stream to a channel. The stream will be closed.
+     *
+     * @param inputStream the stream.
+     * @param channel the channel, which will not be closed.
+     * @return the number of bytes copied.
+     * @throws IOException if copying fails.
+     */
+    public static long transfer(InputStream inputStream,
+            WritableByteChannel channel) throws IOException {
+        try {
+            byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            long total = 0;
+            int count = inputStream.read(buffer);
+            while (count != -1) {
+                byteBuffer.clear();
+                byteBuffer.limit(count);
+                while (byteBuffer.hasRemaining()) {
+                    channel.write(byteBuffer);
+                }
+                total += count;
+                count = inputStream.read(buffer);
+            }
+            return total;
+        } finally {
+            closeOrWarn(inputStream);
+        }
+    }
+
+    /**
+     * Copies a range of a local file to a channel using
+     * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which
+     * lets the operating system avoid copying through the heap where
+     * possible.
+     *
+     * @param file the file.
+     * @param offset the offset.
+     * @param length the maximum number of bytes to copy, or -1 for all.
+     * @param channel the channel, which will not be closed.
+     * @return the number of bytes copied.
+     * @throws IOException if copying fails.
+     */
+    public static long transferFile(File file, long offset, long length,
+            WritableByteChannel channel) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            FileChannel fileChannel = inputStream.getChannel();
+            long end = fileChannel.size();
+            if (length != -1 && offset + length < end) end = offset + length;
+            long position = offset;
+            while (position < end) {
+                long count = fileChannel.transferTo(position, end - position,
+                        channel);
+                if (count <= 0) break;
+                position += count;
+            }
+            return Math.max(0, position - offset);
+        } finally {
+            closeOrWarn(inputStream);
+        }
+    }
+
+    /**
+     * Puts a file at another path without copying its bytes, by creating a
+     * hard link or renaming it. Any file already at the target path is
+     * replaced, and missing parent directories are created.
+     * <p>
+     * Links are made under a unique temporary name, as given by
+     * {@link #createTempFile(File)}, and then renamed into place, so the
+     * target path never holds a partial result and concurrent calls don't
+     * collide.
+     *
+     * @param source the file.
+     * @param target the path to put it at.
+     * @param move whether to rename the file rather than link it.
+     * @return whether it was done. This is <code>false</code> if the paths
+     *         are on different volumes, or links aren't supported by the
+     *         filesystem or JVM.
+     */
+    public static boolean linkOrMove(File source, File target, boolean move) {
+        File parentDir = target.getAbsoluteFile().getParentFile();
+        if (!parentDir.exists() && !parentDir.mkdirs()) return false;
+        if (move) return source.renameTo(target);
+        if (CREATE_LINK == null) return false;
+        // the link is made in place of a uniquely named temporary file
+        File temp;
+        try {
+            temp = createTempFile(parentDir);
+        } catch (IOException e) {
+            logger.debug("Unable to create temporary file in " + parentDir,
+                    e);
+            return false;
+        }
+        if (!temp.delete()) return false;
+        try {
+            CREATE_LINK.invoke(null, TO_PATH.invoke(temp),
+                    TO_PATH.invoke(source));
+        } catch (InvocationTargetException e) {
+            logger.debug("Unable to link " + source + " to " + temp,
+                    e.getCause());
+            return false;
+        } catch (IllegalAccessException e) {
+            return false;
+        }
+        // if the target was already linked to the source, renaming does
+        // nothing and leaves the temporary link behind
+        boolean renamed = temp.renameTo(target);
+        if (temp.exists() && !temp.delete()) {
+            logger.warn("Unable to delete " + temp);
+        }
+        return renamed;
+    }
+
+    /**
+     * Gets an object that uniquely identifies a file on its filesystem,
+     * such as its device and inode numbers, if the filesystem and JVM
+     * provide one.
+     *
+     * @param file the file.
+     * @return the key, or <code>null</code> if unavailable.
+     */
+    public static Object getFileKey(File file) {
+        if (READ_ATTRIBUTES == null || FILE_KEY == null) return null;
+        Object noOptions = Array.newInstance(
+                READ_ATTRIBUTES.getParameterTypes()[2].getComponentType(), 0);
+        try {
+            return FILE_KEY.invoke(READ_ATTRIBUTES.invoke(null,
+                    TO_PATH.invoke(file), FILE_KEY.getDeclaringClass(),
+                    noOptions));
+        } catch (InvocationTargetException e) {
+            logger.debug("Unable to get key of " + file, e.getCause());
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    // gets a public method by name, or null if unavailable
+    private static Method getMethod(String className, String methodName,
+            String... parameterClassNames) {
+        try {
+            Class<?>[] parameterTypes =
+                    new Class<?>[parameterClassNames.length];
+            for (int i = 0; i < parameterTypes.length; i++) {
+                parameterTypes[i] = Class.forName(parameterClassNames[i]);
+            }
+            return Class.forName(className).getMethod(methodName,
+                    parameterTypes);
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    // limits the number of bytes that can be read from a stream
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            super(in);
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = in.read();
+            if (b != -1) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int count = in.read(b, off, (int) Math.min(len, remaining));
+            if (count > 0) remaining -= count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            if (skipped > 0) remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
 }
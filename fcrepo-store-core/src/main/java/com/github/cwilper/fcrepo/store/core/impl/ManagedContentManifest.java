@@ -0,0 +1,302 @@
+package com.github.cwilper.fcrepo.store.core.impl;
+
+import com.github.cwilper.fcrepo.dto.core.ContentDigest;
+import com.github.cwilper.fcrepo.dto.core.ControlGroup;
+import com.github.cwilper.fcrepo.dto.core.Datastream;
+import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The managed datastream versions of a Fedora object, which is all an
+ * implementation needs to know about an object in order to work with its
+ * content.
+ * <p>
+ * Each entry records the size of the stored content, if known, and the
+ * digest declared in the object, if any. Manifests are immutable, and can
+ * be stored apart from objects in a compact, line-oriented text format
+ * (see {@link #write(OutputStream)}) so they can be consulted without
+ * reading the object itself. A stored manifest may also record a stamp of
+ * the object it was made from, such as its file's last modified time, so
+ * it can be ignored if the object has since been changed by other means.
+ */
+public class ManagedContentManifest {
+    private static final String NONE = "-";
+    private static final String STAMP = "@";
+
+    private final String pid;
+    private final Map<String, Entry> entries;
+    private final long objectStamp;
+
+    private ManagedContentManifest(String pid, Map<String, Entry> entries,
+            long objectStamp) {
+        this.pid = pid;
+        this.entries = entries;
+        this.objectStamp = objectStamp;
+    }
+
+    /**
+     * Creates a manifest of the managed datastream versions in the given
+     * object. Content sizes will be unknown.
+     *
+     * @param object the object, never <code>null</code>.
+     * @return the manifest.
+     */
+    public static ManagedContentManifest of(FedoraObject object) {
+        return of(object, null);
+    }
+
+    /**
+     * Creates a manifest of the managed datastream versions in the given
+     * object, carrying over known content sizes from a previous manifest.
+     *
+     * @param object the object, never <code>null</code>.
+     * @param previous the previous manifest of the same object, or
+     *        <code>null</code>.
+     * @return the manifest.
+     */
+    public static ManagedContentManifest of(FedoraObject object,
+            ManagedContentManifest previous) {
+        Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        for (Datastream ds : object.datastreams().values()) {
+            if (ds.controlGroup() == ControlGroup.MANAGED) {
+                for (DatastreamVersion dsv : ds.versions()) {
+                    long size = -1;
+                    if (previous != null) {
+                        size = previous.size(ds.id(), dsv.id());
+                    }
+                    String digest = null;
+                    ContentDigest cd = dsv.contentDigest();
+                    if (cd != null && cd.type() != null
+                            && cd.hexValue() != null) {
+                        digest = cd.type() + ":" + cd.hexValue();
+                    }
+                    entries.put(key(ds.id(), dsv.id()),
+                            new Entry(ds.id(), dsv.id(), size, digest));
+                }
+            }
+        }
+        return new ManagedContentManifest(object.pid(), entries, -1);
+    }
+
+    /**
+     * Reads a manifest previously written with {@link #write(OutputStream)}.
+     *
+     * @param pid the pid of the object.
+     * @param inputStream the stream to read from, which will be closed.
+     * @return the manifest.
+     * @throws IOException if the stream can't be read or is malformed.
+     */
+    public static ManagedContentManifest read(String pid,
+            InputStream inputStream) throws IOException {
+        Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        long objectStamp = -1;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                inputStream, CommonConstants.CHAR_ENCODING));
+        try {
+            String line = reader.readLine();
+            while (line != null) {
+                String[] parts = line.split("\t");
+                if (parts.length == 2 && parts[0].equals(STAMP)) {
+                    objectStamp = parseLong(pid, parts[1], line);
+                } else if (line.length() > 0) {
+                    if (parts.length != 4) {
+                        throw new IOException("Malformed manifest line for "
+                                + pid + ": " + line);
+                    }
+                    long size = parseLong(pid, parts[2], line);
+                    String digest = parts[3].equals(NONE) ? null : parts[3];
+                    entries.put(key(parts[0], parts[1]),
+                            new Entry(parts[0], parts[1], size, digest));
+                }
+                line = reader.readLine();
+            }
+        } finally {
+            CommonUtil.closeOrWarn(reader);
+        }
+        return new ManagedContentManifest(pid, entries, objectStamp);
+    }
+
+    private static long parseLong(String pid, String value, String line)
+            throws IOException {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed manifest line for " + pid
+                    + ": " + line);
+        }
+    }
+
+    /**
+     * Writes this manifest as UTF-8 text, one tab-separated
+     * <code>dsId, dsVersionId, size, digest</code> line per entry, after an
+     * <code>@, stamp</code> line if the object stamp is known.
+     *
+     * @param outputStream the stream to write to, which will be closed.
+     * @throws IOException if the stream can't be written.
+     */
+    public void write(OutputStream outputStream) throws IOException {
+        Writer writer = new OutputStreamWriter(outputStream,
+                CommonConstants.CHAR_ENCODING);
+        boolean success = false;
+        try {
+            if (objectStamp != -1) {
+                writer.write(STAMP + "\t" + objectStamp + "\n");
+            }
+            for (Entry entry : entries.values()) {
+                writer.write(entry.datastreamId + "\t"
+                        + entry.datastreamVersionId + "\t" + entry.size
+                        + "\t" + (entry.digest == null ? NONE : entry.digest)
+                        + "\n");
+            }
+            writer.close();
+            success = true;
+        } finally {
+            if (!success) CommonUtil.closeOrWarn(writer);
+        }
+    }
+
+    /**
+     * Gets the pid of the object.
+     *
+     * @return the pid.
+     */
+    public String pid() {
+        return pid;
+    }
+
+    /**
+     * Gets the stamp of the object this manifest was made from.
+     *
+     * @return the stamp, or -1 if unknown.
+     */
+    public long objectStamp() {
+        return objectStamp;
+    }
+
+    /**
+     * Gets a copy of this manifest with the object stamp set.
+     *
+     * @param objectStamp the stamp, or -1 if unknown.
+     * @return the new manifest.
+     */
+    public ManagedContentManifest withObjectStamp(long objectStamp) {
+        return new ManagedContentManifest(pid, entries, objectStamp);
+    }
+
+    /**
+     * Tells whether the given managed datastream version is listed.
+     *
+     * @param datastreamId the datastream id.
+     * @param datastreamVersionId the datastream version id.
+     * @return whether it is in the manifest.
+     */
+    public boolean contains(String datastreamId, String datastreamVersionId) {
+        return entries.containsKey(key(datastreamId, datastreamVersionId));
+    }
+
+    /**
+     * Gets the recorded size of the given managed datastream version's
+     * content.
+     *
+     * @param datastreamId the datastream id.
+     * @param datastreamVersionId the datastream version id.
+     * @return the size in bytes, or -1 if unknown or not listed.
+     */
+    public long size(String datastreamId, String datastreamVersionId) {
+        Entry entry = entries.get(key(datastreamId, datastreamVersionId));
+        if (entry == null) return -1;
+        return entry.size;
+    }
+
+    /**
+     * Gets a copy of this manifest with the content size of the given
+     * managed datastream version set.
+     *
+     * @param datastreamId the datastream id, which must be listed.
+     * @param datastreamVersionId the datastream version id.
+     * @param size the size in bytes, or -1 if unknown.
+     * @return the new manifest.
+     * @throws IllegalArgumentException if the version is not listed.
+     */
+    public ManagedContentManifest withSize(String datastreamId,
+            String datastreamVersionId, long size) {
+        String key = key(datastreamId, datastreamVersionId);
+        Entry entry = entries.get(key);
+        if (entry == null) throw new IllegalArgumentException();
+        Map<String, Entry> copy = new LinkedHashMap<String, Entry>(entries);
+        copy.put(key, new Entry(datastreamId, datastreamVersionId, size,
+                entry.digest));
+        return new ManagedContentManifest(pid, copy, objectStamp);
+    }
+
+    /**
+     * Gets the entries, in the order they appear in the object.
+     *
+     * @return the entries, never <code>null</code>.
+     */
+    public Collection<Entry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    private static String key(String datastreamId,
+            String datastreamVersionId) {
+        return datastreamId + " " + datastreamVersionId;
+    }
+
+    /**
+     * A managed datastream version listed in a manifest.
+     */
+    public static class Entry {
+        private final String datastreamId;
+        private final String datastreamVersionId;
+        private final long size;
+        private final String digest;
+
+        Entry(String datastreamId, String datastreamVersionId, long size,
+                String digest) {
+            this.datastreamId = datastreamId;
+            this.datastreamVersionId = datastreamVersionId;
+            this.size = size;
+            this.digest = digest;
+        }
+
+        public String datastreamId() {
+            return datastreamId;
+        }
+
+        public String datastreamVersionId() {
+            return datastreamVersionId;
+        }
+
+        /**
+         * Gets the size of the stored content.
+         *
+         * @return the size in bytes, or -1 if unknown.
+         */
+        public long size() {
+            return size;
+        }
+
+        /**
+         * Gets the digest declared in the object.
+         *
+         * @return the digest as <code>type:hexValue</code>, or
+         *         <code>null</code> if none was declared.
+         */
+        public String digest() {
+            return digest;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.cwilper.fcrepo.store.core.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used cache of {@link ManagedContentManifest}s,
+ * keyed by pid.
+ * <p>
+ * Sessions use this to avoid reading and parsing an object each time its
+ * content is accessed. Callers are responsible for removing entries when
+ * the corresponding objects are updated or deleted.
+ * <p>
+ * This class is not threadsafe.
+ */
+public class ManifestCache {
+    /** The default maximum number of manifests to keep. */
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private final Map<String, ManagedContentManifest> map;
+
+    /**
+     * Creates an instance with the default maximum size.
+     */
+    public ManifestCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates an instance.
+     *
+     * @param maxSize the maximum number of manifests to keep.
+     * @throws IllegalArgumentException if maxSize is less than one.
+     */
+    public ManifestCache(final int maxSize) {
+        if (maxSize < 1) throw new IllegalArgumentException();
+        map = new LinkedHashMap<String, ManagedContentManifest>(
+                16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, ManagedContentManifest> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Gets the manifest for the given pid, if cached.
+     *
+     * @param pid the pid.
+     * @return the manifest, or <code>null</code> if not cached.
+     */
+    public ManagedContentManifest get(String pid) {
+        return map.get(pid);
+    }
+
+    /**
+     * Caches a manifest, possibly evicting the least recently used one.
+     *
+     * @param manifest the manifest.
+     */
+    public void put(ManagedContentManifest manifest) {
+        map.put(manifest.pid(), manifest);
+    }
+
+    /**
+     * Removes the manifest for the given pid, if cached.
+     *
+     * @param pid the pid.
+     */
+    public void remove(String pid) {
+        map.remove(pid);
+    }
+
+    /**
+     * Removes all cached manifests.
+     */
+    public void clear() {
+        map.clear();
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.cwilper.fcrepo.store.core.impl;
+
+import com.github.cwilper.fcrepo.store.core.StoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Keeps {@link ManagedContentManifest}s as files in a directory of their
+ * own, apart from the stores whose objects they describe, so those stores
+ * stay exactly as Fedora would have them.
+ * <p>
+ * Each manifest is kept in one of 256 subdirectories, chosen by the hash
+ * of its pid, under its URL-encoded pid. Manifests are written to a
+ * temporary file first, then renamed into place, so a manifest that's
+ * read is never partially written.
+ * <p>
+ * This class is threadsafe.
+ */
+public class ManifestDirectory {
+    private static final Logger logger =
+            LoggerFactory.getLogger(ManifestDirectory.class);
+
+    private final File baseDir;
+
+    /**
+     * Creates an instance.
+     *
+     * @param basePath the directory to keep manifests in, which will be
+     *        created if it doesn't exist yet.
+     * @throws StoreException if the directory can't be created.
+     */
+    public ManifestDirectory(String basePath) {
+        baseDir = new File(basePath);
+        if (!baseDir.isDirectory() && !baseDir.mkdirs()) {
+            throw new StoreException("Unable to create directory: "
+                    + baseDir);
+        }
+    }
+
+    /**
+     * Reads the manifest of an object.
+     *
+     * @param pid the pid of the object.
+     * @return the manifest, or <code>null</code> if there's none or it
+     *         can't be read.
+     */
+    public ManagedContentManifest read(String pid) {
+        File file = getFile(pid);
+        if (!file.isFile()) return null;
+        try {
+            return ManagedContentManifest.read(pid,
+                    new FileInputStream(file));
+        } catch (IOException e) {
+            logger.warn(CommonConstants.ERR_READING_MANIFEST + ": " + pid, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the manifest of an object, replacing any previous one.
+     *
+     * @param manifest the manifest.
+     * @throws IOException if it can't be written.
+     */
+    public void write(ManagedContentManifest manifest) throws IOException {
+        File file = getFile(manifest.pid());
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Unable to create directory: " + dir);
+        }
+        File temp = File.createTempFile("manifest", null, dir);
+        boolean success = false;
+        try {
+            manifest.write(new FileOutputStream(temp));
+            // renaming over an existing file fails on some platforms
+            success = temp.renameTo(file)
+                    || (file.delete() && temp.renameTo(file));
+            if (!success) {
+                throw new IOException("Unable to rename " + temp + " to "
+                        + file);
+            }
+        } finally {
+            if (!success) temp.delete();
+        }
+    }
+
+    /**
+     * Deletes the manifest of an object, if any. On failure, a warning is
+     * logged.
+     *
+     * @param pid the pid of the object.
+     */
+    public void delete(String pid) {
+        File file = getFile(pid);
+        if (file.exists() && !file.delete()) {
+            logger.warn("Unable to delete manifest of " + pid);
+        }
+    }
+
+    private File getFile(String pid) {
+        String dir = Integer.toHexString((pid.hashCode() & 0xff) | 0x100)
+                .substring(1);
+        try {
+            return new File(new File(baseDir, dir), URLEncoder.encode(pid,
+                    CommonConstants.CHAR_ENCODING));
+        } catch (UnsupportedEncodingException wontHappen) {
+            throw new RuntimeException(wontHappen);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.cwilper.fcrepo.store.core.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+
+/**
+ * An output stream that writes to a temporary file and, when closed,
+ * renames it over the target file.
+ * <p>
+ * The target's old content, which may be hard-linked from elsewhere, is
+ * never written over, and stays in place until the new content has been
+ * completely written. If writing fails or {@link #abort()} is called, the
+ * temporary file is deleted and the target is left alone.
+ * <p>
+ * The temporary file is uniquely named by
+ * {@link CommonUtil#createTempFile(File)}, so concurrent writers to the
+ * same target don't collide, and any left behind by a crash can be told
+ * apart from real content with {@link CommonUtil#isTempFile(String)}.
+ */
+public class ReplacingFileOutputStream extends FilterOutputStream {
+    private final File file;
+    private final File temp;
+
+    private boolean failed;
+    private boolean closed;
+
+    /**
+     * Creates an instance. The target's directory must already exist.
+     *
+     * @param file the target file.
+     * @throws IOException if the temporary file can't be created.
+     */
+    public ReplacingFileOutputStream(File file) throws IOException {
+        this(file, CommonUtil.createTempFile(
+                file.getAbsoluteFile().getParentFile()));
+    }
+
+    private ReplacingFileOutputStream(File file, File temp)
+            throws IOException {
+        super(open(temp));
+        this.file = file;
+        this.temp = temp;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        try {
+            out.write(b);
+        } catch (IOException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        try {
+            out.write(b, off, len);
+        } catch (IOException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces the target with what's been written, unless writing failed
+     * or the stream was aborted.
+     *
+     * @throws IOException if the content can't be flushed or the target
+     *         can't be replaced, in which case the target is left alone.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            out.close();
+        } catch (IOException e) {
+            failed = true;
+            throw e;
+        } finally {
+            if (failed) temp.delete();
+        }
+        if (failed) {
+            throw new IOException("Not replacing " + file + " after a failed "
+                    + "write");
+        }
+        // renaming over an existing file fails on some platforms
+        if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+            temp.delete();
+            throw new IOException("Unable to rename " + temp + " to " + file);
+        }
+    }
+
+    /**
+     * Discards what's been written, leaving the target alone.
+     */
+    public void abort() {
+        if (closed) return;
+        closed = true;
+        try {
+            out.close();
+        } catch (IOException e) {
+            // discarded anyway
+        }
+        temp.delete();
+    }
+
+    // deletes the temporary file if it can't be opened
+    private static FileOutputStream open(File temp) throws IOException {
+        try {
+            return new FileOutputStream(temp);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+    }
+}
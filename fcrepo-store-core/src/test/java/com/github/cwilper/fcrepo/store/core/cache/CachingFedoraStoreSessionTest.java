@@ -0,0 +1,155 @@
+package com.github.cwilper.fcrepo.store.core.cache;
+
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+import com.github.cwilper.fcrepo.dto.foxml.FOXMLReader;
+import com.github.cwilper.fcrepo.dto.foxml.FOXMLWriter;
+import com.github.cwilper.fcrepo.store.core.FedoraStoreSession;
+import com.github.cwilper.fcrepo.store.core.NotFoundException;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link CachingFedoraStoreSession}.
+ */
+public class CachingFedoraStoreSessionTest {
+    private static final String PID1 = "test:o1";
+    private static final String PID2 = "test:o2";
+
+    private ObjectCache cache;
+    private FedoraStoreSession mockSession;
+    private FedoraStoreSession otherMockSession;
+    private CachingFedoraStoreSession session;
+    private CachingFedoraStoreSession otherSession;
+
+    @Before
+    public void setUp() {
+        cache = new ObjectCache(1024 * 1024);
+        mockSession = EasyMock.createMock(FedoraStoreSession.class);
+        otherMockSession = EasyMock.createMock(FedoraStoreSession.class);
+        session = new CachingFedoraStoreSession(mockSession, cache,
+                new FOXMLReader(), new FOXMLWriter());
+        otherSession = new CachingFedoraStoreSession(otherMockSession, cache,
+                new FOXMLReader(), new FOXMLWriter());
+    }
+
+    @Test
+    public void getObjectCached() {
+        FedoraObject object = new FedoraObject().pid(PID1).label("label");
+        EasyMock.expect(mockSession.getObject(PID1)).andReturn(object);
+        EasyMock.replay(mockSession);
+        Assert.assertEquals(object, session.getObject(PID1));
+        Assert.assertEquals(object, session.getObject(PID1));
+        EasyMock.verify(mockSession);
+        Assert.assertEquals(1L, cache.getHitCount());
+    }
+
+    @Test
+    public void updateObjectInvalidates() {
+        FedoraObject original = new FedoraObject().pid(PID1).label("old");
+        FedoraObject updated = new FedoraObject().pid(PID1).label("new");
+        EasyMock.expect(mockSession.getObject(PID1)).andReturn(original);
+        mockSession.updateObject(updated);
+        EasyMock.expect(mockSession.getObject(PID1)).andReturn(updated);
+        EasyMock.replay(mockSession);
+        session.getObject(PID1);
+        session.updateObject(updated);
+        Assert.assertEquals(updated, session.getObject(PID1));
+        EasyMock.verify(mockSession);
+    }
+
+    @Test
+    public void updateObjectsInvalidates() {
+        FedoraObject original = new FedoraObject().pid(PID1).label("old");
+        FedoraObject updated = new FedoraObject().pid(PID1).label("new");
+        EasyMock.expect(mockSession.getObject(PID1)).andReturn(original);
+        mockSession.updateObjects(Arrays.asList(updated));
+        EasyMock.expect(mockSession.getObject(PID1)).andReturn(updated);
+        EasyMock.replay(mockSession);
+        session.getObject(PID1);
+        session.updateObjects(Arrays.asList(updated));
+        Assert.assertEquals(updated, session.getObject(PID1));
+        EasyMock.verify(mockSession);
+    }
+
+    @Test
+    public void deleteObjectInvalidates() {
+        EasyMock.expect(mockSession.getObject(PID1)).andReturn(
+                new FedoraObject().pid(PID1));
+        mockSession.deleteObject(PID1);
+        EasyMock.expect(mockSession.getObject(PID1)).andThrow(
+                new NotFoundException(PID1));
+        EasyMock.replay(mockSession);
+        session.getObject(PID1);
+        session.deleteObject(PID1);
+        try {
+            session.getObject(PID1);
+            Assert.fail();
+        } catch (NotFoundException e) {
+            EasyMock.verify(mockSession);
+        }
+    }
+
+    @Test
+    public void deleteObjectsInvalidates() {
+        EasyMock.expect(mockSession.getObject(PID1)).andReturn(
+                new FedoraObject().pid(PID1));
+        mockSession.deleteObjects(Arrays.asList(PID1));
+        EasyMock.expect(mockSession.getObject(PID1)).andThrow(
+                new NotFoundException(PID1));
+        EasyMock.replay(mockSession);
+        session.getObject(PID1);
+        session.deleteObjects(Arrays.asList(PID1));
+        try {
+            session.getObject(PID1);
+            Assert.fail();
+        } catch (NotFoundException e) {
+            EasyMock.verify(mockSession);
+        }
+    }
+
+    @Test
+    public void getObjectNotCachedIfUpdatedWhileReading() {
+        final FedoraObject stale = new FedoraObject().pid(PID1).label("old");
+        final FedoraObject updated = new FedoraObject().pid(PID1)
+                .label("new");
+        // another session writes the object while this one is reading it
+        EasyMock.expect(mockSession.getObject(PID1)).andAnswer(
+                new IAnswer<FedoraObject>() {
+            @Override
+            public FedoraObject answer() {
+                otherSession.updateObject(updated);
+                return stale;
+            }
+        });
+        EasyMock.expect(mockSession.getObject(PID1)).andReturn(updated);
+        otherMockSession.updateObject(updated);
+        EasyMock.replay(mockSession, otherMockSession);
+        session.getObject(PID1);
+        Assert.assertEquals(updated, session.getObject(PID1));
+        EasyMock.verify(mockSession, otherMockSession);
+    }
+
+    @Test
+    public void getObjectCachedIfOtherUpdatedWhileReading() {
+        final FedoraObject object = new FedoraObject().pid(PID1);
+        final FedoraObject other = new FedoraObject().pid(PID2);
+        EasyMock.expect(mockSession.getObject(PID1)).andAnswer(
+                new IAnswer<FedoraObject>() {
+            @Override
+            public FedoraObject answer() {
+                otherSession.updateObject(other);
+                return object;
+            }
+        });
+        otherMockSession.updateObject(other);
+        EasyMock.replay(mockSession, otherMockSession);
+        session.getObject(PID1);
+        Assert.assertEquals(object, session.getObject(PID1));
+        EasyMock.verify(mockSession, otherMockSession);
+    }
+}
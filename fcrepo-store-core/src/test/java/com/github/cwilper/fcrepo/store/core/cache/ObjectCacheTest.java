@@ -0,0 +1,101 @@
+package com.github.cwilper.fcrepo.store.core.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ObjectCache}.
+ */
+public class ObjectCacheTest {
+    @Test (expected=IllegalArgumentException.class)
+    public void initWithZeroBytes() {
+        new ObjectCache(0);
+    }
+
+    @Test
+    public void hitAndMissCounts() {
+        ObjectCache cache = new ObjectCache(10);
+        Assert.assertNull(cache.get("test:o1"));
+        cache.put("test:o1", new byte[2], cache.getGeneration());
+        Assert.assertNotNull(cache.get("test:o1"));
+        Assert.assertEquals(1L, cache.getHitCount());
+        Assert.assertEquals(1L, cache.getMissCount());
+        Assert.assertEquals(2L, cache.getByteCount());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedBySize() {
+        ObjectCache cache = new ObjectCache(10);
+        cache.put("test:o1", new byte[4], cache.getGeneration());
+        cache.put("test:o2", new byte[4], cache.getGeneration());
+        cache.get("test:o1");
+        cache.put("test:o3", new byte[4], cache.getGeneration());
+        Assert.assertNotNull(cache.get("test:o1"));
+        Assert.assertNull(cache.get("test:o2"));
+        Assert.assertNotNull(cache.get("test:o3"));
+        Assert.assertEquals(1L, cache.getEvictionCount());
+        Assert.assertEquals(8L, cache.getByteCount());
+    }
+
+    @Test
+    public void ignoresOversizedValue() {
+        ObjectCache cache = new ObjectCache(10);
+        cache.put("test:o1", new byte[11], cache.getGeneration());
+        Assert.assertEquals(0, cache.getObjectCount());
+    }
+
+    @Test
+    public void ignoresValueReadBeforeInvalidation() {
+        ObjectCache cache = new ObjectCache(10);
+        long generation = cache.getGeneration();
+        cache.invalidate("test:o1");
+        cache.put("test:o1", new byte[1], generation);
+        Assert.assertNull(cache.get("test:o1"));
+    }
+
+    @Test
+    public void acceptsValueReadBeforeOtherInvalidation() {
+        ObjectCache cache = new ObjectCache(10);
+        long generation = cache.getGeneration();
+        cache.invalidate("test:o2");
+        cache.put("test:o1", new byte[1], generation);
+        Assert.assertNotNull(cache.get("test:o1"));
+    }
+
+    @Test
+    public void acceptsValueReadAfterInvalidation() {
+        ObjectCache cache = new ObjectCache(10);
+        cache.invalidate("test:o1");
+        cache.put("test:o1", new byte[1], cache.getGeneration());
+        Assert.assertNotNull(cache.get("test:o1"));
+    }
+
+    @Test
+    public void ignoresValueReadBeforeForgottenInvalidation() {
+        ObjectCache cache = new ObjectCache(10);
+        long generation = cache.getGeneration();
+        for (int i = 0; i <= ObjectCache.MAX_INVALIDATIONS; i++) {
+            cache.invalidate("test:o" + i);
+        }
+        cache.put("test:o0", new byte[1], generation);
+        Assert.assertNull(cache.get("test:o0"));
+    }
+
+    @Test
+    public void ignoresValueReadBeforeClear() {
+        ObjectCache cache = new ObjectCache(10);
+        long generation = cache.getGeneration();
+        cache.clear();
+        cache.put("test:o1", new byte[1], generation);
+        Assert.assertNull(cache.get("test:o1"));
+    }
+
+    @Test
+    public void invalidateRemoves() {
+        ObjectCache cache = new ObjectCache(10);
+        cache.put("test:o1", new byte[3], cache.getGeneration());
+        cache.invalidate("test:o1");
+        Assert.assertNull(cache.get("test:o1"));
+        Assert.assertEquals(0L, cache.getByteCount());
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.cwilper.fcrepo.store.core.impl;
+
+import com.github.cwilper.fcrepo.dto.core.ContentDigest;
+import com.github.cwilper.fcrepo.dto.core.ControlGroup;
+import com.github.cwilper.fcrepo.dto.core.Datastream;
+import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Unit tests for {@link ManagedContentManifest}.
+ */
+public class ManagedContentManifestTest {
+    @Test
+    public void ofListsOnlyManagedVersions() {
+        ManagedContentManifest manifest = ManagedContentManifest.of(
+                getObject());
+        Assert.assertEquals("test:o1", manifest.pid());
+        Assert.assertTrue(manifest.contains("DS1", "DS1.0"));
+        Assert.assertFalse(manifest.contains("DS2", "DS2.0"));
+        Assert.assertFalse(manifest.contains("DS1", "DS1.1"));
+        Assert.assertEquals(1, manifest.entries().size());
+        Assert.assertEquals(-1L, manifest.size("DS1", "DS1.0"));
+        Assert.assertEquals("MD5:abcd",
+                manifest.entries().iterator().next().digest());
+    }
+
+    @Test
+    public void ofCarriesSizesForward() {
+        ManagedContentManifest previous = ManagedContentManifest.of(
+                getObject()).withSize("DS1", "DS1.0", 42);
+        ManagedContentManifest manifest = ManagedContentManifest.of(
+                getObject(), previous);
+        Assert.assertEquals(42L, manifest.size("DS1", "DS1.0"));
+    }
+
+    @Test (expected=IllegalArgumentException.class)
+    public void withSizeNotListed() {
+        ManagedContentManifest.of(getObject()).withSize("DS2", "DS2.0", 42);
+    }
+
+    @Test
+    public void writeAndRead() throws IOException {
+        ManagedContentManifest manifest = ManagedContentManifest.of(
+                getObject()).withSize("DS1", "DS1.0", 42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manifest.write(out);
+        ManagedContentManifest copy = ManagedContentManifest.read("test:o1",
+                new ByteArrayInputStream(out.toByteArray()));
+        Assert.assertTrue(copy.contains("DS1", "DS1.0"));
+        Assert.assertEquals(42L, copy.size("DS1", "DS1.0"));
+        Assert.assertEquals("MD5:abcd",
+                copy.entries().iterator().next().digest());
+    }
+
+    @Test
+    public void writeAndReadObjectStamp() throws IOException {
+        ManagedContentManifest manifest = ManagedContentManifest.of(
+                getObject()).withObjectStamp(1234).withSize("DS1", "DS1.0",
+                42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manifest.write(out);
+        ManagedContentManifest copy = ManagedContentManifest.read("test:o1",
+                new ByteArrayInputStream(out.toByteArray()));
+        Assert.assertEquals(1234L, copy.objectStamp());
+        Assert.assertEquals(42L, copy.size("DS1", "DS1.0"));
+        Assert.assertEquals(-1L, ManagedContentManifest.of(
+                getObject()).objectStamp());
+    }
+
+    @Test (expected=IOException.class)
+    public void readMalformed() throws IOException {
+        ManagedContentManifest.read("test:o1",
+                new ByteArrayInputStream("DS1\tDS1.0\n".getBytes("UTF-8")));
+    }
+
+    private static FedoraObject getObject() {
+        Datastream ds1 = new Datastream("DS1").controlGroup(
+                ControlGroup.MANAGED);
+        ds1.versions().add(new DatastreamVersion("DS1.0", null)
+                .contentDigest(new ContentDigest().type("MD5")
+                        .hexValue("abcd")));
+        Datastream ds2 = new Datastream("DS2").controlGroup(
+                ControlGroup.INLINE_XML);
+        ds2.versions().add(new DatastreamVersion("DS2.0", null));
+        return new FedoraObject().pid("test:o1").putDatastream(ds1)
+                .putDatastream(ds2);
+    }
+}
@@ -0,0 +1,39 @@
+package com.github.cwilper.fcrepo.store.core.impl;
+
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ManifestCache}.
+ */
+public class ManifestCacheTest {
+    @Test (expected=IllegalArgumentException.class)
+    public void initWithZeroSize() {
+        new ManifestCache(0);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        ManifestCache cache = new ManifestCache(2);
+        cache.put(getManifest("test:o1"));
+        cache.put(getManifest("test:o2"));
+        Assert.assertNotNull(cache.get("test:o1"));
+        cache.put(getManifest("test:o3"));
+        Assert.assertNotNull(cache.get("test:o1"));
+        Assert.assertNull(cache.get("test:o2"));
+        Assert.assertNotNull(cache.get("test:o3"));
+    }
+
+    @Test
+    public void remove() {
+        ManifestCache cache = new ManifestCache();
+        cache.put(getManifest("test:o1"));
+        cache.remove("test:o1");
+        Assert.assertNull(cache.get("test:o1"));
+    }
+
+    private static ManagedContentManifest getManifest(String pid) {
+        return ManagedContentManifest.of(new FedoraObject().pid(pid));
+    }
+}
@@ -1,8 +1,5 @@
 package com.github.cwilper.fcrepo.store.jcr;
 
-import com.github.cwilper.fcrepo.dto.core.ControlGroup;
-import com.github.cwilper.fcrepo.dto.core.Datastream;
-import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
 import com.github.cwilper.fcrepo.dto.core.FedoraObject;
 import com.github.cwilper.fcrepo.dto.core.io.DTOReader;
 import com.github.cwilper.fcrepo.dto.core.io.DTOWriter;
@@ -11,6 +8,8 @@ import com.github.cwilper.fcrepo.store.core.FedoraStoreSession;
 import com.github.cwilper.fcrepo.store.core.NotFoundException;
 import com.github.cwilper.fcrepo.store.core.StoreException;
 import com.github.cwilper.fcrepo.store.core.impl.CommonConstants;
+import com.github.cwilper.fcrepo.store.core.impl.ManagedContentManifest;
+import com.github.cwilper.fcrepo.store.core.impl.ManifestCache;
 import com.google.common.collect.AbstractIterator;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
@@ -24,9 +23,16 @@ import javax.jcr.Session;
 import javax.transaction.xa.XAResource;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * JCR-based {@link FedoraStoreSession} implementation. Supports transactions
@@ -39,6 +45,7 @@ class JCRFedoraStoreSession implements FedoraStoreSession {
     private final Session session;
     private final DTOReader readerFactory;
     private final DTOWriter writerFactory;
+    private final ManifestCache manifestCache = new ManifestCache();
 
     private boolean closed;
 
@@ -63,21 +70,8 @@ class JCRFedoraStoreSession implements FedoraStoreSession {
 
     @Override
     public void addObject(FedoraObject object) {
-        ensureNotClosed();
         if (object == null) throw new NullPointerException();
-        if (object.pid() == null) throw new IllegalArgumentException();
-        try {
-            String objectPath = getObjectPath(object.pid());
-            if (session.nodeExists(objectPath)) {
-                throw new ExistsException("Object already exists: "
-                        + object.pid());
-            }
-            Node folder = mkdirs(objectPath);
-            addFile(folder, "object", getBinaryValue(object));
-            session.save();
-        } catch (RepositoryException e) {
-            throw new StoreException("Error adding object", e);
-        }
+        addObjects(Collections.singletonList(object));
     }
 
     @Override
@@ -87,17 +81,7 @@ class JCRFedoraStoreSession implements FedoraStoreSession {
         try {
             String objectPath = getObjectPath(pid);
             if (session.nodeExists(objectPath)) {
-                Node content = session.getNode(objectPath +
-                        "/object/jcr:content");
-                Binary binary = content.getProperty("jcr:data").getBinary();
-                DTOReader reader = readerFactory.getInstance();
-                try {
-                    return reader.readObject(binary.getStream());
-                } catch (IOException e) {
-                    throw new StoreException("Error reading object", e);
-                } finally {
-                    reader.close();
-                }
+                return readObject(objectPath);
             } else {
                 throw new NotFoundException("No such object: " + pid);
             }
@@ -109,38 +93,131 @@ class JCRFedoraStoreSession implements FedoraStoreSession {
 
     @Override
     public void updateObject(FedoraObject object) {
-        ensureNotClosed();
         if (object == null) throw new NullPointerException();
-        if (object.pid() == null) throw new IllegalArgumentException();
+        updateObjects(Collections.singletonList(object));
+    }
+
+    @Override
+    public void deleteObject(String pid) {
+        if (pid == null) throw new NullPointerException();
+        deleteObjects(Collections.singletonList(pid));
+    }
+
+    @Override
+    public void addObjects(Iterable<FedoraObject> objects) {
+        ensureNotClosed();
+        if (objects == null) throw new NullPointerException();
+        List<ManagedContentManifest> manifests =
+                new ArrayList<ManagedContentManifest>();
+        boolean success = false;
         try {
-            String objectPath = getObjectPath(object.pid());
-            if (session.nodeExists(objectPath)) {
-                deleteOldManagedContent(getObject(object.pid()), object);
-                Node content = session.getNode(objectPath +
-                        "/object/jcr:content");
-                content.getProperty("jcr:data").setValue(
-                        getBinaryValue(object));
-                session.save();
-            } else {
-                throw new NotFoundException("No such object: " + object.pid());
+            for (FedoraObject object : objects) {
+                if (object == null) throw new NullPointerException();
+                if (object.pid() == null) throw new IllegalArgumentException();
+                String objectPath = getObjectPath(object.pid());
+                if (session.nodeExists(objectPath)) {
+                    throw new ExistsException("Object already exists: "
+                            + object.pid());
+                }
+                Node folder = mkdirs(objectPath);
+                addFile(folder, "object", getBinaryValue(object));
+                ManagedContentManifest manifest =
+                        ManagedContentManifest.of(object);
+                writeManifest(folder, manifest);
+                manifests.add(manifest);
+            }
+            session.save();
+            success = true;
+            cacheManifests(manifests);
+        } catch (RepositoryException e) {
+            throw new StoreException("Error adding object", e);
+        } finally {
+            if (!success) discardChanges();
+        }
+    }
+
+    @Override
+    public Map<String, FedoraObject> getObjects(Iterable<String> pids) {
+        ensureNotClosed();
+        if (pids == null) throw new NullPointerException();
+        Map<String, FedoraObject> objects =
+                new LinkedHashMap<String, FedoraObject>();
+        try {
+            for (String pid : pids) {
+                if (pid == null) throw new NullPointerException();
+                String objectPath = getObjectPath(pid);
+                if (session.nodeExists(objectPath)) {
+                    objects.put(pid, readObject(objectPath));
+                }
             }
         } catch (RepositoryException e) {
             throw new StoreException("Error getting object", e);
         }
+        return objects;
     }
 
     @Override
-    public void deleteObject(String pid) {
+    public void updateObjects(Iterable<FedoraObject> objects) {
         ensureNotClosed();
-        if (pid == null) throw new NullPointerException();
+        if (objects == null) throw new NullPointerException();
+        List<ManagedContentManifest> manifests =
+                new ArrayList<ManagedContentManifest>();
+        boolean success = false;
         try {
-            session.removeItem(getObjectPath(pid));
+            for (FedoraObject object : objects) {
+                if (object == null) throw new NullPointerException();
+                if (object.pid() == null) throw new IllegalArgumentException();
+                String objectPath = getObjectPath(object.pid());
+                if (session.nodeExists(objectPath)) {
+                    ManagedContentManifest oldManifest =
+                            getManifest(object.pid());
+                    ManagedContentManifest newManifest =
+                            ManagedContentManifest.of(object, oldManifest);
+                    manifestCache.remove(object.pid());
+                    deleteOldManagedContent(oldManifest, newManifest);
+                    Node content = session.getNode(objectPath +
+                            "/object/jcr:content");
+                    content.getProperty("jcr:data").setValue(
+                            getBinaryValue(object));
+                    writeManifest(session.getNode(objectPath), newManifest);
+                    manifests.add(newManifest);
+                } else {
+                    throw new NotFoundException("No such object: "
+                            + object.pid());
+                }
+            }
             session.save();
+            success = true;
+            cacheManifests(manifests);
+        } catch (RepositoryException e) {
+            throw new StoreException("Error updating object", e);
+        } finally {
+            if (!success) discardChanges();
+        }
+    }
+
+    @Override
+    public void deleteObjects(Iterable<String> pids) {
+        ensureNotClosed();
+        if (pids == null) throw new NullPointerException();
+        boolean success = false;
+        String pid = null;
+        try {
+            for (String p : pids) {
+                pid = p;
+                if (pid == null) throw new NullPointerException();
+                manifestCache.remove(pid);
+                session.removeItem(getObjectPath(pid));
+            }
+            session.save();
+            success = true;
         } catch (PathNotFoundException e) {
             throw new NotFoundException(
                     CommonConstants.ERR_NOTFOUND_OBJ_IN_STORAGE + ": " + pid);
         } catch (RepositoryException e) {
             throw new StoreException(CommonConstants.ERR_DELETING_OBJ, e);
+        } finally {
+            if (!success) discardChanges();
         }
     }
 
@@ -157,6 +234,38 @@ class JCRFedoraStoreSession implements FedoraStoreSession {
         }
     }
 
+    @Override
+    public InputStream getContent(String pid, String datastreamId,
+            String datastreamVersionId, long offset, long length) {
+        ensureNotClosed();
+        Util.validateRange(offset, length);
+        try {
+            return Util.getRange(getContentNode(pid, datastreamId,
+                    datastreamVersionId).getProperty("jcr:data").getBinary()
+                    .getStream(), offset, length);
+        } catch (IOException e) {
+            throw new StoreException("Error getting content for " +
+                    Util.getDetails(pid, datastreamId, datastreamVersionId), e);
+        } catch (RepositoryException e) {
+            throw new StoreException("Error getting content for " +
+                    Util.getDetails(pid, datastreamId, datastreamVersionId), e);
+        }
+    }
+
+    @Override
+    public long transferContent(String pid, String datastreamId,
+            String datastreamVersionId, long offset, long length,
+            WritableByteChannel channel) {
+        if (channel == null) throw new NullPointerException();
+        try {
+            return Util.transfer(getContent(pid, datastreamId,
+                    datastreamVersionId, offset, length), channel);
+        } catch (IOException e) {
+            throw new StoreException("Error getting content for " +
+                    Util.getDetails(pid, datastreamId, datastreamVersionId), e);
+        }
+    }
+
     @Override
     public long getContentLength(String pid, String datastreamId,
             String datastreamVersionId) {
@@ -170,6 +279,62 @@ class JCRFedoraStoreSession implements FedoraStoreSession {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The <code>jcr:lastModified</code> property of content nodes isn't
+     * maintained when content is replaced, so this always returns -1 after
+     * checking that the content exists.
+     */
+    @Override
+    public long getContentLastModified(String pid, String datastreamId,
+            String datastreamVersionId) {
+        ensureNotClosed();
+        try {
+            getContentNode(pid, datastreamId, datastreamVersionId);
+            return -1;
+        } catch (RepositoryException e) {
+            throw new StoreException("Error getting content for " +
+                    Util.getDetails(pid, datastreamId, datastreamVersionId));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Content is kept in the repository rather than in files of its own, so
+     * this always returns <code>null</code> after checking that the content
+     * exists.
+     */
+    @Override
+    public File getContentFile(String pid, String datastreamId,
+            String datastreamVersionId) {
+        ensureNotClosed();
+        try {
+            getContentNode(pid, datastreamId, datastreamVersionId);
+            return null;
+        } catch (RepositoryException e) {
+            throw new StoreException("Error getting content for " +
+                    Util.getDetails(pid, datastreamId, datastreamVersionId));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Content can't be linked into the repository, so this always returns
+     * <code>false</code>.
+     */
+    @Override
+    public boolean importContent(String pid, String datastreamId,
+            String datastreamVersionId, File file, boolean move) {
+        ensureNotClosed();
+        if (pid == null || datastreamId == null ||
+                datastreamVersionId == null || file == null)
+            throw new NullPointerException();
+        return false;
+    }
+
     @Override
     public void setContent(String pid, String datastreamId,
             String datastreamVersionId, InputStream inputStream) {
@@ -179,9 +344,8 @@ class JCRFedoraStoreSession implements FedoraStoreSession {
             throw new NullPointerException();
         boolean success = false;
         try {
-            FedoraObject object = getObject(pid);
-            if (!Util.hasManagedDatastreamVersion(object, datastreamId,
-                    datastreamVersionId)) {
+            ManagedContentManifest manifest = getManifest(pid);
+            if (!manifest.contains(datastreamId, datastreamVersionId)) {
                 throw new NotFoundException(
                         CommonConstants.ERR_NOTFOUND_DS_IN_OBJ + " "
                         + Util.getDetails(pid, datastreamId,
@@ -202,7 +366,12 @@ class JCRFedoraStoreSession implements FedoraStoreSession {
             } else {
                 addFile(dsNode, datastreamVersionId, value);
             }
+            manifest = manifest.withSize(datastreamId, datastreamVersionId,
+                    value.getSize());
+            manifestCache.remove(pid);
+            writeManifest(session.getNode(getObjectPath(pid)), manifest);
             session.save();
+            manifestCache.put(manifest);
             inputStream.close();
             success = true;
         } catch (IOException e) {
@@ -219,6 +388,7 @@ class JCRFedoraStoreSession implements FedoraStoreSession {
     @Override
     public void close() {
         if (!closed) {
+            manifestCache.clear();
             session.logout();
             closed = true;
         }
@@ -259,6 +429,127 @@ class JCRFedoraStoreSession implements FedoraStoreSession {
         }
     }
 
+    @Override
+    public Iterator<String> pidIterator(final String prefix) {
+        ensureNotClosed();
+        if (prefix == null) throw new NullPointerException();
+        final Iterator<String> pids = pidIterator();
+        return new AbstractIterator<String>() {
+            @Override
+            protected String computeNext() {
+                while (pids.hasNext()) {
+                    String pid = pids.next();
+                    if (pid.startsWith(prefix)) return pid;
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation doesn't count objects, so always returns -1.
+     */
+    @Override
+    public long getObjectCount() {
+        ensureNotClosed();
+        return -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Where the repository keeps its nodes isn't exposed, so this always
+     * returns an empty map.
+     */
+    @Override
+    public Map<String, String> getObjectLocations(Iterable<String> pids) {
+        ensureNotClosed();
+        if (pids == null) throw new NullPointerException();
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public Iterator<String> pidIterator() {
+        ensureNotClosed();
+        try {
+            final Iterator<Node> objectNodes =
+                    new ObjectNodeIterator(session.getRootNode());
+            return new AbstractIterator<String>() {
+                @Override
+                protected String computeNext() {
+                    while (objectNodes.hasNext()) {
+                        Node node = objectNodes.next();
+                        try {
+                            return node.getName().replaceFirst("_", ":");
+                        } catch (RepositoryException e) {
+                            logger.warn("Error getting object node name; "
+                                    + "ignoring " + node);
+                        }
+                    }
+                    return endOfData();
+                }
+            };
+        } catch (RepositoryException e) {
+            throw new StoreException("Error iterating top-level directories",
+                    e);
+        }
+    }
+
+    // gets the manifest from the cache, the stored manifest, or the object
+    private ManagedContentManifest getManifest(String pid) {
+        ManagedContentManifest manifest = manifestCache.get(pid);
+        if (manifest == null) {
+            manifest = readManifest(pid);
+            if (manifest == null) {
+                manifest = ManagedContentManifest.of(getObject(pid));
+            }
+            manifestCache.put(manifest);
+        }
+        return manifest;
+    }
+
+    // returns null if the manifest is missing or can't be read
+    private ManagedContentManifest readManifest(String pid) {
+        String path = getObjectPath(pid) + "/" + CommonConstants.MANIFEST_NAME
+                + "/jcr:content";
+        try {
+            if (!session.nodeExists(path)) return null;
+            Binary binary = session.getNode(path).getProperty("jcr:data")
+                    .getBinary();
+            return ManagedContentManifest.read(pid, binary.getStream());
+        } catch (Exception e) {
+            logger.warn(CommonConstants.ERR_READING_MANIFEST + ": " + pid, e);
+            return null;
+        }
+    }
+
+    // adds or replaces the manifest; takes effect when the session is saved
+    private void writeManifest(Node folder, ManagedContentManifest manifest)
+            throws RepositoryException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            manifest.write(out);
+        } catch (IOException e) {
+            throw new StoreException(CommonConstants.ERR_WRITING_MANIFEST, e);
+        }
+        Binary value = session.getValueFactory().createBinary(
+                new ByteArrayInputStream(out.toByteArray()));
+        if (folder.hasNode(CommonConstants.MANIFEST_NAME)) {
+            folder.getNode(CommonConstants.MANIFEST_NAME)
+                    .getNode("jcr:content").setProperty("jcr:data", value);
+        } else {
+            addFile(folder, CommonConstants.MANIFEST_NAME, value);
+        }
+    }
+
+    private void cacheManifests(List<ManagedContentManifest> manifests) {
+        for (ManagedContentManifest manifest : manifests) {
+            manifestCache.put(manifest);
+        }
+    }
+
     private Node getContentNode(String pid, String dsId, String dsvId) 
             throws RepositoryException {
         if (pid == null || dsId == null || dsvId == null) {
@@ -273,6 +564,30 @@ class JCRFedoraStoreSession implements FedoraStoreSession {
         }
     }
 
+    // reads the object stored beneath the given (existing) path
+    private FedoraObject readObject(String objectPath)
+            throws RepositoryException {
+        Node content = session.getNode(objectPath + "/object/jcr:content");
+        Binary binary = content.getProperty("jcr:data").getBinary();
+        DTOReader reader = readerFactory.getInstance();
+        try {
+            return reader.readObject(binary.getStream());
+        } catch (IOException e) {
+            throw new StoreException("Error reading object", e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    // just log a warning message in the event of failure
+    private void discardChanges() {
+        try {
+            session.refresh(false);
+        } catch (RepositoryException e) {
+            logger.warn("Error discarding pending changes", e);
+        }
+    }
+
     private String getObjectPath(String pid) {
         String hex = DigestUtils.md5Hex(pid);
         return "/" + hex.charAt(0) + hex.charAt(1) + "/" + hex.charAt(2) +
@@ -334,20 +649,14 @@ class JCRFedoraStoreSession implements FedoraStoreSession {
     }
 
 
-    // if newObject is null, all managed content will be deleted
-    private void deleteOldManagedContent(FedoraObject oldObject,
-            FedoraObject newObject) {
-        for (Datastream ds : oldObject.datastreams().values()) {
-            if (ds.controlGroup() == ControlGroup.MANAGED) {
-                String dsId = ds.id();
-                for (DatastreamVersion dsv : ds.versions()) {
-                    String dsvId = dsv.id();
-                    if (newObject == null ||
-                            !Util.hasManagedDatastreamVersion(
-                                    newObject, dsId, dsvId)) {
-                        deleteContent(oldObject.pid(), dsId, dsvId);
-                    }
-                }
+    // if newManifest is null, all managed content will be deleted
+    private void deleteOldManagedContent(ManagedContentManifest oldManifest,
+            ManagedContentManifest newManifest) {
+        for (ManagedContentManifest.Entry entry : oldManifest.entries()) {
+            String dsId = entry.datastreamId();
+            String dsvId = entry.datastreamVersionId();
+            if (newManifest == null || !newManifest.contains(dsId, dsvId)) {
+                deleteContent(oldManifest.pid(), dsId, dsvId);
             }
         }
     }
@@ -24,7 +24,11 @@ import javax.jcr.Credentials;
 import javax.jcr.Session;
 import javax.jcr.SimpleCredentials;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -266,6 +270,65 @@ public class JCRFedoraStoreSessionTest {
         listObjects();
     }
 
+    @Test
+    public void getObjectsSomeExisting() {
+        FedoraObject o1 = new FedoraObject().pid("test:o1");
+        FedoraObject o2 = new FedoraObject().pid("test:o2");
+        store.addObjects(Arrays.asList(o1, o2));
+        Map<String, FedoraObject> objects = store.getObjects(
+                Arrays.asList("test:o2", "test:non-existing", "test:o1"));
+        Assert.assertEquals(Arrays.asList("test:o2", "test:o1"),
+                new ArrayList<String>(objects.keySet()));
+        Assert.assertEquals(o1, objects.get("test:o1"));
+        Assert.assertEquals(o2, objects.get("test:o2"));
+    }
+
+    @Test
+    public void listPidsAfterAdd() {
+        store.addObject(new FedoraObject().pid("test:o1"));
+        store.addObject(new FedoraObject().pid("test:o2"));
+        Set<String> set = new HashSet<String>();
+        Iterator<String> pids = store.pidIterator();
+        while (pids.hasNext()) {
+            set.add(pids.next());
+        }
+        Assert.assertTrue(set.contains("test:o1"));
+        Assert.assertTrue(set.contains("test:o2"));
+        Assert.assertEquals(2, set.size());
+    }
+
+    @Test (expected=IllegalStateException.class)
+    public void listPidsAfterClose() {
+        store.close();
+        store.pidIterator();
+    }
+
+    @Test
+    public void updateObjectsLabels() {
+        store.addObjects(Arrays.asList(
+                new FedoraObject().pid("test:o1"),
+                new FedoraObject().pid("test:o2")));
+        store.updateObjects(Arrays.asList(
+                new FedoraObject().pid("test:o1").label("label1"),
+                new FedoraObject().pid("test:o2").label("label2")));
+        Assert.assertEquals("label1", store.getObject("test:o1").label());
+        Assert.assertEquals("label2", store.getObject("test:o2").label());
+    }
+
+    @Test
+    public void deleteObjectsAll() {
+        store.addObjects(Arrays.asList(
+                new FedoraObject().pid("test:o1"),
+                new FedoraObject().pid("test:o2")));
+        store.deleteObjects(Arrays.asList("test:o1", "test:o2"));
+        Assert.assertEquals(0, listObjects().size());
+    }
+
+    @Test (expected=NullPointerException.class)
+    public void addObjectsNull() {
+        store.addObjects(null);
+    }
+
     @Test (expected=NullPointerException.class)
     public void getContentNullPid() {
         store.getContent(null, "DS1", "DS1.0");
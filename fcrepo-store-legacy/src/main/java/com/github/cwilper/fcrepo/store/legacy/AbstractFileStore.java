@@ -1,37 +1,333 @@
 package com.github.cwilper.fcrepo.store.legacy;
 
+import com.github.cwilper.fcrepo.store.core.StoreException;
+import com.github.cwilper.fcrepo.store.core.impl.CommonUtil;
+import com.google.common.collect.AbstractIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
 /**
  * Base implementation of {@link FileStore}.
  */
 abstract class AbstractFileStore implements FileStore {
+    private static final Logger logger = LoggerFactory.getLogger(
+            AbstractFileStore.class);
+
+    // how often to log progress while populating the registry
+    private static final int PATHS_PER_PROGRESS_REPORT = 100000;
+
     private final PathRegistry pathRegistry;
     private final PathAlgorithm pathAlgorithm;
 
+    // whether the registry may be missing paths of existing files
+    private volatile boolean populating;
+
+    // paths set while the registry is loaded, to be set again afterward so
+    // the loader can't undo them; null when not loading, guarded by lock
+    private final Object lock = new Object();
+    private Map<String, String> changes;
+
     AbstractFileStore(PathRegistry pathRegistry, PathAlgorithm pathAlgorithm) {
         this.pathRegistry = pathRegistry;
         this.pathAlgorithm = pathAlgorithm;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation streams the pairs to {@link #loadPaths(Iterator)}.
+     */
     @Override
     public void populateRegistry() {
-        for (String path : this) {
-            setPath(getId(path), path);
+        startPopulating();
+        boolean success = false;
+        try {
+            loadAllPaths();
+            success = true;
+        } finally {
+            finishPopulating(success);
+            populating = false;
+            populated();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If population fails, the error is logged and lookups keep falling
+     * back to {@link #findPath(String)}.
+     */
+    @Override
+    public void populateRegistryInBackground() {
+        startPopulating();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean success = false;
+                try {
+                    loadAllPaths();
+                    success = true;
+                } catch (RuntimeException e) {
+                    logger.error("Error populating path registry", e);
+                } finally {
+                    finishPopulating(success);
+                }
+                if (success) {
+                    populating = false;
+                    populated();
+                }
+            }
+        }, "registry-populator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public boolean isPopulating() {
+        return populating;
+    }
+
+    private void startPopulating() {
+        synchronized (lock) {
+            changes = new HashMap<String, String>();
+            populating = true;
+        }
+    }
+
+    // sets the paths that were set while loading again, over any the loader
+    // listed before they changed, then stops recording them
+    private void finishPopulating(boolean success) {
+        synchronized (lock) {
+            try {
+                if (success && !changes.isEmpty()) {
+                    pathRegistry.setPaths(changes);
+                }
+            } finally {
+                changes = null;
+            }
         }
     }
 
+    /**
+     * Called once the registry has been populated, so subclasses can
+     * release anything they kept for {@link #findPath(String)}. This
+     * implementation does nothing.
+     */
+    void populated() {
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation does nothing.
+     */
+    @Override
+    public void reconcileRegistry() {
+    }
+
+    /**
+     * Adds the paths of all files in this store to the registry.
+     */
+    void loadAllPaths() {
+        final Iterator<String> paths = iterator();
+        Iterator<Map.Entry<String, String>> entries =
+                new AbstractIterator<Map.Entry<String, String>>() {
+            private long count;
+
+            @Override
+            protected Map.Entry<String, String> computeNext() {
+                if (!paths.hasNext()) return endOfData();
+                String path = paths.next();
+                if (++count % PATHS_PER_PROGRESS_REPORT == 0) {
+                    logger.info("Added {} paths to registry so far", count);
+                }
+                return new AbstractMap.SimpleImmutableEntry<String, String>(
+                        getId(path), path);
+            }
+        };
+        try {
+            logger.info("Added {} paths to registry", loadPaths(entries));
+        } finally {
+            Util.closeIterator(paths);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation checks the id of every file in the store.
+     */
+    @Override
+    public String findPath(String id) {
+        Iterator<String> paths = iterator();
+        try {
+            while (paths.hasNext()) {
+                String path = paths.next();
+                if (getId(path).equals(id)) return path;
+            }
+            return null;
+        } finally {
+            Util.closeIterator(paths);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation reads and discards bytes up to the offset.
+     */
+    @Override
+    public InputStream getFileInputStream(String path, long offset,
+            long length) {
+        try {
+            return CommonUtil.getRange(getFileInputStream(path), offset,
+                    length);
+        } catch (IOException e) {
+            throw new StoreException("Error getting input stream", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation copies via {@link #getFileInputStream(String,
+     * long, long)}.
+     */
+    @Override
+    public long transferFile(String path, long offset, long length,
+            WritableByteChannel channel) {
+        try {
+            return CommonUtil.transfer(getFileInputStream(path, offset,
+                    length), channel);
+        } catch (IOException e) {
+            throw new StoreException("Error transferring file", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation checks that the file exists, then returns -1.
+     */
+    @Override
+    public long getFileLastModified(String path) {
+        getFileSize(path);
+        return -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation returns <code>null</code>.
+     */
+    @Override
+    public File getLocalFile(String path) {
+        return null;
+    }
+
     @Override
     public long getPathCount() {
         return pathRegistry.getPathCount();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * While the registry is being populated, ids that aren't in it yet are
+     * looked for with {@link #findPath(String)}, and added to it if found.
+     */
     @Override
     public String getPath(String id) {
+        String path = pathRegistry.getPath(id);
+        if (path == null && populating) {
+            path = findPath(id);
+            if (path != null) setPath(id, path);
+        }
+        return path;
+    }
+
+    @Override
+    public String getRegisteredPath(String id) {
         return pathRegistry.getPath(id);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * While the registry is being populated, paths set here are recorded
+     * and set again once it's loaded, so the loader can't undo them.
+     */
     @Override
     public void setPath(String id, String path) {
-        pathRegistry.setPath(id, path);
+        synchronized (lock) {
+            pathRegistry.setPath(id, path);
+            if (changes != null) changes.put(id, path);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * While the registry is being populated, ids that aren't in it yet are
+     * looked for with {@link #findPath(String)}, and added to it if found.
+     */
+    @Override
+    public Map<String, String> getPaths(Collection<String> ids) {
+        Map<String, String> paths = pathRegistry.getPaths(ids);
+        if (populating && paths.size() < ids.size()) {
+            Map<String, String> found = new HashMap<String, String>();
+            for (String id : ids) {
+                if (!paths.containsKey(id)) {
+                    String path = findPath(id);
+                    if (path != null) found.put(id, path);
+                }
+            }
+            if (!found.isEmpty()) {
+                setPaths(found);
+                paths = new HashMap<String, String>(paths);
+                paths.putAll(found);
+            }
+        }
+        return paths;
+    }
+
+    @Override
+    public Map<String, String> getRegisteredPaths(Collection<String> ids) {
+        return pathRegistry.getPaths(ids);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * While the registry is being populated, paths set here are recorded
+     * and set again once it's loaded, so the loader can't undo them.
+     */
+    @Override
+    public void setPaths(Map<String, String> paths) {
+        synchronized (lock) {
+            pathRegistry.setPaths(paths);
+            if (changes != null) changes.putAll(paths);
+        }
+    }
+
+    @Override
+    public long loadPaths(Iterator<Map.Entry<String, String>> paths) {
+        return pathRegistry.loadPaths(paths);
+    }
+
+    @Override
+    public Iterator<String> getIds(String prefix) {
+        return pathRegistry.getIds(prefix);
     }
 
     @Override
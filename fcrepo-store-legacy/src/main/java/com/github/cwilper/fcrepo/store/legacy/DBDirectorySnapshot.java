@@ -0,0 +1,124 @@
+package com.github.cwilper.fcrepo.store.legacy;
+
+import com.github.cwilper.fcrepo.store.core.StoreException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Database-backed {@link DirectorySnapshot} implementation. Keeping it in
+ * the same database as the {@link DBPathRegistry} it goes with means the
+ * two are kept or discarded together.
+ */
+public class DBDirectorySnapshot implements DirectorySnapshot {
+    private static final String CREATE_TABLE_DDL =
+            "CREATE TABLE ? (\n"
+            + "path VARCHAR(1024) PRIMARY KEY NOT NULL,\n"
+            + "modified BIGINT NOT NULL)";
+    private static final String SELECT_COUNT_SQL =
+            "SELECT COUNT(*) FROM ?";
+    private static final String SELECT_ALL_SQL =
+            "SELECT path, modified FROM ?";
+    private static final String INSERT_SQL =
+            "INSERT INTO ? (path, modified) VALUES (?, ?)";
+    private static final String UPDATE_SQL =
+            "UPDATE ? SET modified = ? WHERE path = ?";
+    private static final String DELETE_SQL =
+            "DELETE FROM ? WHERE path = ?";
+
+    private final JdbcTemplate db;
+    private final String table;
+
+    /**
+     * Creates an instance.
+     *
+     * @param db the database to use.
+     * @param table the name of the table, which will be created if it doesn't
+     *              exist.
+     * @throws NullPointerException if either argument is null.
+     */
+    public DBDirectorySnapshot(JdbcTemplate db, String table) {
+        if (db == null || table == null) throw new NullPointerException();
+        this.db = db;
+        this.table = table;
+        createTableIfNeeded();
+    }
+
+    private void createTableIfNeeded() {
+        try {
+            db.queryForLong(SELECT_COUNT_SQL.replaceFirst("\\?", table));
+        } catch (DataAccessException e) {
+            try {
+                db.execute(CREATE_TABLE_DDL.replace("?", table));
+            } catch (DataAccessException e2) {
+                throw new StoreException("Error creating table", e2);
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Long> getModifiedTimes() {
+        final Map<String, Long> modifiedTimes = new HashMap<String, Long>();
+        try {
+            db.query(SELECT_ALL_SQL.replaceFirst("\\?", table),
+                    new Object[0], new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                    modifiedTimes.put(rs.getString(1), rs.getLong(2));
+                }
+            });
+        } catch (DataAccessException e) {
+            throw new StoreException("Error getting modified times", e);
+        }
+        return modifiedTimes;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation updates the rows in one batch, then inserts those
+     * that didn't exist in another.
+     */
+    @Override
+    public void setModifiedTimes(Map<String, Long> modifiedTimes) {
+        List<Object[]> updates = new ArrayList<Object[]>();
+        List<Object[]> deletes = new ArrayList<Object[]>();
+        for (Map.Entry<String, Long> entry : modifiedTimes.entrySet()) {
+            if (entry.getValue() != null) {
+                updates.add(new Object[] { entry.getValue(), entry.getKey() });
+            } else {
+                deletes.add(new Object[] { entry.getKey() });
+            }
+        }
+        try {
+            if (updates.size() > 0) {
+                int[] counts = db.batchUpdate(
+                        UPDATE_SQL.replaceFirst("\\?", table), updates);
+                List<Object[]> inserts = new ArrayList<Object[]>();
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] == 0) {
+                        Object[] update = updates.get(i);
+                        inserts.add(new Object[] { update[1], update[0] });
+                    }
+                }
+                if (inserts.size() > 0) {
+                    db.batchUpdate(INSERT_SQL.replaceFirst("\\?", table),
+                            inserts);
+                }
+            }
+            if (deletes.size() > 0) {
+                db.batchUpdate(DELETE_SQL.replaceFirst("\\?", table),
+                        deletes);
+            }
+        } catch (DataAccessException e) {
+            throw new StoreException("Error setting modified times", e);
+        }
+    }
+}
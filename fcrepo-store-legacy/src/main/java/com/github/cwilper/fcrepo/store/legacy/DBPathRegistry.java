@@ -1,13 +1,38 @@
 package com.github.cwilper.fcrepo.store.legacy;
 
 import com.github.cwilper.fcrepo.store.core.StoreException;
+import com.google.common.collect.AbstractIterator;
 import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
 
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Database-backed {@link PathRegistry} implementation.
+ * <p>
+ * Paths are written as an update of the existing row, followed by an insert
+ * only if there was none, so no query is needed first. This works with any
+ * database, unlike the various merge and upsert dialects. Likewise, ids
+ * are listed a page at a time by limiting the rows fetched through JDBC
+ * rather than with a dialect's row-limiting clause.
  */
 public class DBPathRegistry implements PathRegistry {
     private static final String CREATE_TABLE_DDL =
@@ -18,6 +43,8 @@ public class DBPathRegistry implements PathRegistry {
             "SELECT COUNT(*) FROM ?";
     private static final String SELECT_PATH_SQL =
             "SELECT PATH FROM ? WHERE ID = ?";
+    private static final String SELECT_PATHS_SQL =
+            "SELECT ID, PATH FROM ? WHERE ID IN ";
     private static final String INSERT_PATH_SQL =
             "INSERT INTO ? (id, path) VALUES (?, ?)";
     private static final String UPDATE_PATH_SQL =
@@ -26,11 +53,32 @@ public class DBPathRegistry implements PathRegistry {
             "DELETE FROM ? WHERE id = ?";
     private static final String DELETE_ALL_SQL =
             "DELETE FROM ?";
-    
+
+    // maximum number of ids to look up in a single query
+    private static final int MAX_IDS_PER_QUERY = 100;
+
+    // number of ids to fetch at a time when iterating
+    private static final int IDS_PER_PAGE = 1000;
+
+    private static final String SELECT_IDS_SQL =
+            "SELECT id FROM ? WHERE id LIKE ? ESCAPE '\\' AND id > ? "
+            + "ORDER BY id";
+
+    // number of paths to write per batch and transaction when loading
+    static final int PATHS_PER_BATCH = 1000;
 
     private final JdbcTemplate db;
     private final String table;
 
+    // statements with the table name filled in
+    private final String selectCountSql;
+    private final String selectPathSql;
+    private final String selectPathsSql;
+    private final String insertPathSql;
+    private final String updatePathSql;
+    private final String deleteByIdSql;
+    private final String selectIdsSql;
+
     /**
      * Creates an instance.
      *
@@ -43,6 +91,13 @@ public class DBPathRegistry implements PathRegistry {
         if (db == null || table == null) throw new NullPointerException();
         this.db = db;
         this.table = table;
+        selectCountSql = SELECT_COUNT_SQL.replaceFirst("\\?", table);
+        selectPathSql = SELECT_PATH_SQL.replaceFirst("\\?", table);
+        selectPathsSql = SELECT_PATHS_SQL.replaceFirst("\\?", table);
+        insertPathSql = INSERT_PATH_SQL.replaceFirst("\\?", table);
+        updatePathSql = UPDATE_PATH_SQL.replaceFirst("\\?", table);
+        deleteByIdSql = DELETE_BY_ID_SQL.replaceFirst("\\?", table);
+        selectIdsSql = SELECT_IDS_SQL.replaceFirst("\\?", table);
         createTableIfNeeded();
     }
 
@@ -73,8 +128,7 @@ public class DBPathRegistry implements PathRegistry {
     @Override
     public long getPathCount() {
         try {
-            return db.queryForLong(
-                    SELECT_COUNT_SQL.replaceFirst("\\?", table));
+            return db.queryForLong(selectCountSql);
         } catch (DataAccessException e) {
             throw new StoreException("Error getting path count", e);
         }
@@ -83,8 +137,7 @@ public class DBPathRegistry implements PathRegistry {
     @Override
     public String getPath(String id) {
         try {
-            List<String> result = db.queryForList(
-                    SELECT_PATH_SQL.replaceFirst("\\?", table),
+            List<String> result = db.queryForList(selectPathSql,
                     new String[] { id }, String.class);
             if (result.size() == 0) return null;
             return result.get(0);
@@ -93,24 +146,310 @@ public class DBPathRegistry implements PathRegistry {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation updates the row, then inserts it if there was none.
+     * If another writer inserts it in between, the update is retried.
+     */
     @Override
     public void setPath(String id, String path) {
-        boolean exists = getPath(id) != null;
         try {
-            if (!exists && path != null) {
-                db.update(INSERT_PATH_SQL.replaceFirst("\\?", table),
-                        id, path);
-            } else if (exists) {
-                if (path != null) {
-                    db.update(UPDATE_PATH_SQL.replaceFirst("\\?", table),
-                            path, id);
-                } else {
-                    db.update(DELETE_BY_ID_SQL.replaceFirst("\\?", table),
-                            id);
+            if (path == null) {
+                db.update(deleteByIdSql, id);
+            } else if (db.update(updatePathSql, path, id) == 0) {
+                try {
+                    db.update(insertPathSql, id, path);
+                } catch (DataIntegrityViolationException e) {
+                    db.update(updatePathSql, path, id);
                 }
             }
         } catch (DataAccessException e) {
             throw new StoreException("Error setting path", e);
         }
     }
+
+    @Override
+    public Map<String, String> getPaths(Collection<String> ids) {
+        final Map<String, String> paths = new HashMap<String, String>();
+        List<String> chunk = new ArrayList<String>(MAX_IDS_PER_QUERY);
+        for (String id : ids) {
+            chunk.add(id);
+            if (chunk.size() == MAX_IDS_PER_QUERY) {
+                getPaths(chunk, paths);
+                chunk.clear();
+            }
+        }
+        if (chunk.size() > 0) getPaths(chunk, paths);
+        return paths;
+    }
+
+    private void getPaths(List<String> ids, final Map<String, String> paths) {
+        StringBuilder sql = new StringBuilder(selectPathsSql);
+        sql.append("(");
+        for (int i = 0; i < ids.size(); i++) {
+            if (i > 0) sql.append(", ");
+            sql.append("?");
+        }
+        sql.append(")");
+        try {
+            db.query(sql.toString(), ids.toArray(),
+                    new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                    paths.put(rs.getString(1), rs.getString(2));
+                }
+            });
+        } catch (DataAccessException e) {
+            throw new StoreException("Error getting paths", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation updates the rows in one batch, then inserts those
+     * that didn't exist in another. If another writer inserts any of them in
+     * between, those are written again one at a time.
+     */
+    @Override
+    public void setPaths(Map<String, String> paths) {
+        List<Object[]> updates = new ArrayList<Object[]>();
+        List<Object[]> deletes = new ArrayList<Object[]>();
+        for (Map.Entry<String, String> entry : paths.entrySet()) {
+            String id = entry.getKey();
+            String path = entry.getValue();
+            if (path != null) {
+                updates.add(new Object[] { path, id });
+            } else {
+                deletes.add(new Object[] { id });
+            }
+        }
+        try {
+            if (updates.size() > 0) {
+                int[] counts = db.batchUpdate(updatePathSql, updates);
+                List<Object[]> inserts = new ArrayList<Object[]>();
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] == 0) {
+                        Object[] update = updates.get(i);
+                        inserts.add(new Object[] { update[1], update[0] });
+                    } else if (counts[i] == Statement.SUCCESS_NO_INFO) {
+                        // the driver won't say, so fall back to one at a time
+                        Object[] update = updates.get(i);
+                        setPath((String) update[1], (String) update[0]);
+                    }
+                }
+                if (inserts.size() > 0) {
+                    try {
+                        db.batchUpdate(insertPathSql, inserts);
+                    } catch (DataIntegrityViolationException e) {
+                        // another writer inserted some of them first
+                        for (Object[] row : inserts) {
+                            setPath((String) row[0], (String) row[1]);
+                        }
+                    }
+                }
+            }
+            if (deletes.size() > 0) {
+                db.batchUpdate(deleteByIdSql, deletes);
+            }
+        } catch (DataAccessException e) {
+            throw new StoreException("Error setting paths", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation holds a single connection with an update and an
+     * insert statement prepared on it. Paths are written
+     * {@value #PATHS_PER_BATCH} at a time, as a batch of updates followed by
+     * a batch of inserts for the rows that didn't exist, and each batch is
+     * committed on its own. Paths whose update count the driver doesn't
+     * report are written again one at a time, as is the whole batch if
+     * another writer inserts any of its rows in between.
+     */
+    @Override
+    public long loadPaths(final Iterator<Map.Entry<String, String>> paths) {
+        try {
+            Long count = db.execute(new ConnectionCallback<Long>() {
+                @Override
+                public Long doInConnection(Connection connection)
+                        throws SQLException {
+                    boolean autoCommit = connection.getAutoCommit();
+                    connection.setAutoCommit(false);
+                    try {
+                        return loadPaths(connection, paths);
+                    } catch (SQLException e) {
+                        connection.rollback();
+                        throw e;
+                    } catch (RuntimeException e) {
+                        connection.rollback();
+                        throw e;
+                    } finally {
+                        connection.setAutoCommit(autoCommit);
+                    }
+                }
+            });
+            return count;
+        } catch (DataAccessException e) {
+            throw new StoreException("Error loading paths", e);
+        }
+    }
+
+    private long loadPaths(Connection connection,
+            Iterator<Map.Entry<String, String>> paths) throws SQLException {
+        PreparedStatement update = connection.prepareStatement(updatePathSql);
+        try {
+            PreparedStatement insert = connection.prepareStatement(
+                    insertPathSql);
+            try {
+                long count = 0;
+                // later paths for the same id win within a batch
+                Map<String, String> batch = new LinkedHashMap<String, String>();
+                while (paths.hasNext()) {
+                    Map.Entry<String, String> entry = paths.next();
+                    batch.put(entry.getKey(), entry.getValue());
+                    if (batch.size() == PATHS_PER_BATCH || !paths.hasNext()) {
+                        writeBatch(connection, update, insert, batch);
+                        count += batch.size();
+                        batch.clear();
+                    }
+                }
+                return count;
+            } finally {
+                insert.close();
+            }
+        } finally {
+            update.close();
+        }
+    }
+
+    private static void writeBatch(Connection connection,
+            PreparedStatement update, PreparedStatement insert,
+            Map<String, String> batch) throws SQLException {
+        List<Map.Entry<String, String>> retries =
+                new ArrayList<Map.Entry<String, String>>();
+        try {
+            for (Map.Entry<String, String> entry : batch.entrySet()) {
+                update.setString(1, entry.getValue());
+                update.setString(2, entry.getKey());
+                update.addBatch();
+            }
+            int[] counts = update.executeBatch();
+            int i = 0;
+            boolean inserting = false;
+            for (Map.Entry<String, String> entry : batch.entrySet()) {
+                int count = counts[i++];
+                if (count == 0) {
+                    insert.setString(1, entry.getKey());
+                    insert.setString(2, entry.getValue());
+                    insert.addBatch();
+                    inserting = true;
+                } else if (count == Statement.SUCCESS_NO_INFO) {
+                    // as in setPaths, these are written one at a time
+                    retries.add(entry);
+                }
+            }
+            if (inserting) insert.executeBatch();
+            connection.commit();
+        } catch (BatchUpdateException e) {
+            // another writer may have inserted some of the rows after they
+            // were updated, so write the whole batch again one at a time
+            connection.rollback();
+            update.clearBatch();
+            insert.clearBatch();
+            retries.clear();
+            retries.addAll(batch.entrySet());
+        }
+        for (Map.Entry<String, String> entry : retries) {
+            writePath(connection, update, insert, entry.getKey(),
+                    entry.getValue());
+            connection.commit();
+        }
+    }
+
+    // updates a row, then inserts it if there was none, updating again if
+    // another writer inserted it first
+    private static void writePath(Connection connection,
+            PreparedStatement update, PreparedStatement insert, String id,
+            String path) throws SQLException {
+        update.setString(1, path);
+        update.setString(2, id);
+        if (update.executeUpdate() == 0) {
+            insert.setString(1, id);
+            insert.setString(2, path);
+            try {
+                insert.executeUpdate();
+            } catch (SQLException e) {
+                if (!isDuplicateKey(e)) throw e;
+                connection.rollback();
+                update.executeUpdate();
+            }
+        }
+    }
+
+    // whether an exception is an integrity constraint violation
+    private static boolean isDuplicateKey(SQLException e) {
+        return e.getSQLState() != null && e.getSQLState().startsWith("23");
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation fetches the ids {@value #IDS_PER_PAGE} at a time,
+     * each page starting after the last id of the one before.
+     */
+    @Override
+    public Iterator<String> getIds(String prefix) {
+        final String pattern = prefix.replace("\\", "\\\\")
+                .replace("%", "\\%").replace("_", "\\_") + "%";
+        return new AbstractIterator<String>() {
+            private Iterator<String> page = Collections.<String>emptyList()
+                    .iterator();
+            private String last = "";
+            private boolean lastPage;
+
+            @Override
+            protected String computeNext() {
+                if (!page.hasNext() && !lastPage) {
+                    List<String> ids;
+                    try {
+                        ids = db.query(new IdPageCreator(pattern, last),
+                                new SingleColumnRowMapper<String>(
+                                        String.class));
+                    } catch (DataAccessException e) {
+                        throw new StoreException("Error getting ids", e);
+                    }
+                    lastPage = ids.size() < IDS_PER_PAGE;
+                    page = ids.iterator();
+                }
+                if (!page.hasNext()) return endOfData();
+                last = page.next();
+                return last;
+            }
+        };
+    }
+
+    // prepares the query for a page of ids, limited to IDS_PER_PAGE rows
+    private class IdPageCreator implements PreparedStatementCreator {
+        private final String pattern;
+        private final String last;
+
+        IdPageCreator(String pattern, String last) {
+            this.pattern = pattern;
+            this.last = last;
+        }
+
+        @Override
+        public PreparedStatement createPreparedStatement(Connection connection)
+                throws SQLException {
+            PreparedStatement statement = connection.prepareStatement(
+                    selectIdsSql);
+            statement.setMaxRows(IDS_PER_PAGE);
+            statement.setString(1, pattern);
+            statement.setString(2, last);
+            return statement;
+        }
+    }
 }
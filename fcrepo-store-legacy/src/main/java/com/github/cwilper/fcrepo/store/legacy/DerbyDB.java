@@ -0,0 +1,111 @@
+package com.github.cwilper.fcrepo.store.legacy;
+
+import com.github.cwilper.fcrepo.store.core.StoreException;
+import org.apache.derby.jdbc.EmbeddedDataSource40;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A {@link JdbcTemplate} configured to use an embedded Derby database in a
+ * given directory, which is created if it doesn't exist yet. The database
+ * is kept when closed, so registries in it survive from one run to the
+ * next.
+ * <p>
+ * If no directory is given, a temporary database is created instead, and
+ * deleted when closed.
+ */
+public class DerbyDB extends JdbcTemplate {
+    private final File dir;
+    private final boolean temporary;
+
+    private boolean closed;
+
+    /**
+     * Creates an instance.
+     *
+     * @param path the directory of the database, or an empty string for a
+     *        temporary database.
+     * @throws StoreException if the database can't be opened or created.
+     */
+    public DerbyDB(String path) {
+        temporary = path.trim().length() == 0;
+        try {
+            if (temporary) {
+                dir = File.createTempFile("fcrepo-store-legacy", null);
+                if (!dir.delete()) {
+                    throw new StoreException("Unable to delete temporary "
+                            + "file: " + dir);
+                }
+            } else {
+                dir = new File(path.trim());
+            }
+            setDataSource(createDataSource(true));
+        } catch (IOException e) {
+            throw new StoreException("Error creating temporary file", e);
+        } catch (SQLException e) {
+            throw new StoreException("Error opening db at " + path, e);
+        }
+    }
+
+    // create if true, shutdown if false
+    private EmbeddedDataSource40 createDataSource(boolean create)
+            throws SQLException {
+        EmbeddedDataSource40 dataSource = new EmbeddedDataSource40();
+        dataSource.setDatabaseName(dir.toString());
+        if (create) {
+            dataSource.setCreateDatabase("create");
+        } else {
+            dataSource.setShutdownDatabase("shutdown");
+        }
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    logger.warn("Error closing connection", e);
+                }
+            }
+        }
+        return dataSource;
+    }
+
+    /**
+     * Shuts the database down, deleting it if it's temporary.
+     */
+    @PreDestroy
+    public void close() {
+        if (!closed) {
+            try {
+                createDataSource(false);
+            } catch (SQLException e) {
+                // SQL exception 08006 is expected
+            } finally {
+                if (temporary) rmdirs(dir);
+                closed = true;
+            }
+        }
+    }
+
+    private void rmdirs(File dir) {
+        for (File child : dir.listFiles()) {
+            if (child.isDirectory()) {
+                rmdirs(child);
+            } else {
+                if (!child.delete()) {
+                    logger.warn("Unable to delete file: " + child);
+                }
+            }
+        }
+        if (!dir.delete()) {
+            logger.warn("Unable to delete dir: " + dir);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.github.cwilper.fcrepo.store.legacy;
+
+import com.github.cwilper.fcrepo.store.core.StoreException;
+
+import java.util.Map;
+
+/**
+ * Remembers the modification times of the directories of a
+ * {@link FileStore} as of when their files were last added to its
+ * registry, so only directories that have changed since need to be
+ * listed again.
+ */
+public interface DirectorySnapshot {
+    /**
+     * Gets the modification times of all directories in the snapshot.
+     *
+     * @return a map of directory path, of the form <code>dir/subdir/</code>,
+     *         to modification time, never <code>null</code>.
+     * @throws StoreException if any problem occurs.
+     */
+    Map<String, Long> getModifiedTimes();
+
+    /**
+     * Sets the modification times of several directories at once.
+     *
+     * @param modifiedTimes a map of directory path to modification time,
+     *        where a <code>null</code> time removes the directory.
+     * @throws StoreException if any problem occurs.
+     */
+    void setModifiedTimes(Map<String, Long> modifiedTimes);
+}
@@ -3,8 +3,12 @@ package com.github.cwilper.fcrepo.store.legacy;
 import com.github.cwilper.fcrepo.store.core.NotFoundException;
 import com.github.cwilper.fcrepo.store.core.StoreException;
 
+import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * Provides read/write/iterate access to a set of files organized in
@@ -32,6 +36,25 @@ public interface FileStore
      */
     long getFileSize(String path);
 
+    /**
+     * Gets the time the file at the given path was last modified.
+     *
+     * @param path the path of the file, which must exist.
+     * @return the time in milliseconds since the epoch, or -1 if unknown.
+     * @throws NotFoundException if the file is not found.
+     * @throws StoreException if any other problem occurs.
+     */
+    long getFileLastModified(String path);
+
+    /**
+     * Gets the local file for the given path, if the store keeps files on
+     * the local filesystem.
+     *
+     * @param path the path of the file, which need not exist.
+     * @return the file, or <code>null</code> if files aren't kept locally.
+     */
+    File getLocalFile(String path);
+
     /**
      * Gets an input stream for reading the file at the given path.
      *
@@ -42,6 +65,33 @@ public interface FileStore
      */
     InputStream getFileInputStream(String path);
 
+    /**
+     * Gets an input stream for reading a byte range of the file at the
+     * given path.
+     *
+     * @param path the path of the file, which must exist.
+     * @param offset the offset of the first byte to read.
+     * @param length the maximum number of bytes to read, or -1 for all.
+     * @return the input stream.
+     * @throws NotFoundException if the file is not found.
+     * @throws StoreException if any other problem occurs.
+     */
+    InputStream getFileInputStream(String path, long offset, long length);
+
+    /**
+     * Writes a byte range of the file at the given path to a channel.
+     *
+     * @param path the path of the file, which must exist.
+     * @param offset the offset of the first byte to write.
+     * @param length the maximum number of bytes to write, or -1 for all.
+     * @param channel the channel, which will not be closed.
+     * @return the number of bytes written.
+     * @throws NotFoundException if the file is not found.
+     * @throws StoreException if any other problem occurs.
+     */
+    long transferFile(String path, long offset, long length,
+            WritableByteChannel channel);
+
     /**
      * Deletes the file at the given path.
      *
@@ -58,4 +108,65 @@ public interface FileStore
      * @throws StoreException if any problem occurs.
      */
     void populateRegistry();
+
+    /**
+     * Starts adding the id, path pairs of all files in this store to the
+     * registry on a background thread, and returns right away. Until it's
+     * done, lookups of ids that aren't in the registry yet fall back to
+     * {@link #findPath(String)}, while counting and listing ids only reflect
+     * what's been added so far.
+     */
+    void populateRegistryInBackground();
+
+    /**
+     * Tells whether the registry is being populated in the background, so
+     * counting and listing ids may not cover all files yet.
+     *
+     * @return whether it is.
+     */
+    boolean isPopulating();
+
+    /**
+     * Brings a previously populated registry up to date with the files in
+     * this store, adding paths of new files and removing those of files
+     * that are gone. Stores that can't tell what has changed since the
+     * registry was populated may do nothing.
+     *
+     * @throws StoreException if any problem occurs.
+     */
+    void reconcileRegistry();
+
+    /**
+     * Gets the path registered for an id, without searching the files for
+     * it while the registry is being populated. This is for ids that
+     * usually aren't in the store yet, such as those about to be added,
+     * where a search on every miss would be slow.
+     *
+     * @param id the pid or pid "+" datastreamId "+" datastreamVersionId.
+     * @return the path, or <code>null</code> if none is registered.
+     * @throws StoreException if any problem occurs.
+     */
+    String getRegisteredPath(String id);
+
+    /**
+     * Gets the paths registered for several ids, without searching the
+     * files for them while the registry is being populated.
+     *
+     * @param ids the ids.
+     * @return the registered paths, keyed by id. Ids with no registered
+     *         path are omitted.
+     * @throws StoreException if any problem occurs.
+     * @see #getRegisteredPath(String)
+     */
+    Map<String, String> getRegisteredPaths(Collection<String> ids);
+
+    /**
+     * Searches the files in this store for the one with the given id, for
+     * when the registry may be incomplete. The registry isn't changed.
+     *
+     * @param id the pid or pid "+" datastreamId "+" datastreamVersionId.
+     * @return the path, or <code>null</code> if there's no such file.
+     * @throws StoreException if any problem occurs.
+     */
+    String findPath(String id);
 }
@@ -2,23 +2,62 @@ package com.github.cwilper.fcrepo.store.legacy;
 
 import com.github.cwilper.fcrepo.store.core.NotFoundException;
 import com.github.cwilper.fcrepo.store.core.StoreException;
+import com.github.cwilper.fcrepo.store.core.impl.CommonUtil;
+import com.github.cwilper.fcrepo.store.core.impl.ReplacingFileOutputStream;
+import com.google.common.collect.AbstractIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * A {@link FileStore} that works on the local filesystem.
+ * <p>
+ * Given a {@link DirectorySnapshot}, the store can keep a persistent
+ * registry up to date from one run to the next by listing only the
+ * directories that have been modified since.
+ * <p>
+ * Files are written to uniquely named temporary files that replace them
+ * once completely written. Temporary files, including any left behind by
+ * a crash, are never listed.
  */
 public class FilesystemFileStore extends AbstractFileStore {
+    private static final Logger logger = LoggerFactory.getLogger(
+            FilesystemFileStore.class);
+
+    // directories modified this recently may change again without their
+    // modification time changing, so they're always listed again
+    private static final long RACY_MILLIS = 2000;
+
+    // number of registry entries to check at a time when reconciling
+    private static final int IDS_PER_CHECK = 1000;
+
     private final File baseDir;
+    private final int walkThreads;
+    private final DirectorySnapshot snapshot;
+
+    // directories to search in findPath, newest first; built on first use
+    private List<String> fileDirs;
+    private int fileDepth = -1;
 
     /**
-     * Creates an instance.
+     * Creates an instance that walks the filesystem on a single thread.
      *
      * @param pathRegistry the path registry to use.
      * @param pathAlgorithm the path algorithm to use.
@@ -27,7 +66,45 @@ public class FilesystemFileStore extends AbstractFileStore {
      */
     public FilesystemFileStore(PathRegistry pathRegistry,
             PathAlgorithm pathAlgorithm, String basePath) {
+        this(pathRegistry, pathAlgorithm, basePath, 1);
+    }
+
+    /**
+     * Creates an instance.
+     *
+     * @param pathRegistry the path registry to use.
+     * @param pathAlgorithm the path algorithm to use.
+     * @param basePath the base path of the store, which will be created
+     *                 if it doesn't exist yet.
+     * @param walkThreads the number of directories to list at once when
+     *                    iterating paths, as when populating the registry.
+     *                    If more than 1, paths come in no particular order.
+     */
+    public FilesystemFileStore(PathRegistry pathRegistry,
+            PathAlgorithm pathAlgorithm, String basePath, int walkThreads) {
+        this(pathRegistry, pathAlgorithm, basePath, walkThreads, null);
+    }
+
+    /**
+     * Creates an instance that can reconcile its registry.
+     *
+     * @param pathRegistry the path registry to use.
+     * @param pathAlgorithm the path algorithm to use.
+     * @param basePath the base path of the store, which will be created
+     *                 if it doesn't exist yet.
+     * @param walkThreads the number of directories to list at once when
+     *                    iterating paths, as when populating the registry.
+     *                    If more than 1, paths come in no particular order.
+     * @param snapshot the snapshot of directory modification times to keep
+     *                 along with the registry, or <code>null</code> if the
+     *                 registry isn't kept between runs.
+     */
+    public FilesystemFileStore(PathRegistry pathRegistry,
+            PathAlgorithm pathAlgorithm, String basePath, int walkThreads,
+            DirectorySnapshot snapshot) {
         super(pathRegistry, pathAlgorithm);
+        this.walkThreads = walkThreads;
+        this.snapshot = snapshot;
         baseDir = new File(basePath);
         if (!baseDir.exists() && !baseDir.mkdirs()) {
             throw new StoreException("Unable to create directory: " + baseDir);
@@ -43,7 +120,7 @@ public class FilesystemFileStore extends AbstractFileStore {
                 throw new StoreException("Unable to create directory: "
                         + parentDir);
             }
-            return new FileOutputStream(file);
+            return new ReplacingFileOutputStream(file);
         } catch (IOException e) {
             throw new StoreException("Error getting output stream", e);
         }
@@ -54,6 +131,17 @@ public class FilesystemFileStore extends AbstractFileStore {
         return getFile(path, true).length();
     }
 
+    @Override
+    public long getFileLastModified(String path) {
+        long lastModified = getFile(path, true).lastModified();
+        return lastModified == 0 ? -1 : lastModified;
+    }
+
+    @Override
+    public File getLocalFile(String path) {
+        return getFile(path, false);
+    }
+
     @Override
     public InputStream getFileInputStream(String path) {
         try {
@@ -63,6 +151,28 @@ public class FilesystemFileStore extends AbstractFileStore {
         }
     }
 
+    @Override
+    public InputStream getFileInputStream(String path, long offset,
+            long length) {
+        try {
+            return CommonUtil.getFileRange(getFile(path, true), offset,
+                    length);
+        } catch (IOException e) {
+            throw new StoreException("Error getting input stream", e);
+        }
+    }
+
+    @Override
+    public long transferFile(String path, long offset, long length,
+            WritableByteChannel channel) {
+        try {
+            return CommonUtil.transferFile(getFile(path, true), offset,
+                    length, channel);
+        } catch (IOException e) {
+            throw new StoreException("Error transferring file", e);
+        }
+    }
+
     @Override
     public void deleteFile(String path) {
         if (!getFile(path, true).delete()) {
@@ -72,9 +182,225 @@ public class FilesystemFileStore extends AbstractFileStore {
 
     @Override
     public Iterator<String> iterator() {
+        if (walkThreads > 1) {
+            return new ParallelPathIterator(baseDir, walkThreads);
+        }
         return new FilesystemPathIterator(baseDir);
     }
     
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation checks each directory that holds files for the
+     * name the path algorithm gives the id, newest directory first. Files
+     * are assumed to all be at the same depth, as with
+     * {@link TimestampPathAlgorithm}, so the directories can be found
+     * without listing those that hold files. They're found on the first
+     * search and kept until the registry is populated, so later searches
+     * take one check per directory.
+     */
+    @Override
+    public String findPath(String id) {
+        String generatedPath = generatePath(id);
+        String name = generatedPath.substring(
+                generatedPath.lastIndexOf("/") + 1);
+        for (String dir : getFileDirs()) {
+            if (new File(baseDir, dir + name).isFile()) return dir + name;
+        }
+        return null;
+    }
+
+    @Override
+    synchronized void populated() {
+        fileDirs = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * With a directory snapshot, this implementation records the
+     * modification times of the directories that hold files before listing
+     * them, so any that change while the registry is populated are listed
+     * again by the next {@link #reconcileRegistry()}.
+     */
+    @Override
+    void loadAllPaths() {
+        if (snapshot == null) {
+            super.loadAllPaths();
+            return;
+        }
+        Map<String, Long> modifiedTimes = getModifiedTimes(listFileDirs());
+        super.loadAllPaths();
+        for (String dir : snapshot.getModifiedTimes().keySet()) {
+            if (!modifiedTimes.containsKey(dir)) modifiedTimes.put(dir, null);
+        }
+        snapshot.setModifiedTimes(modifiedTimes);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation compares the modification time of each directory
+     * that holds files with the one in the directory snapshot, and only
+     * lists the files of new and modified directories. If any directory
+     * that was in the snapshot has been modified or removed, the registry
+     * is then checked in a single pass for paths in those directories whose
+     * files are gone. If the snapshot is empty, as when it was kept apart
+     * from a registry that outlived it, every path is checked. Without a
+     * snapshot, it does nothing.
+     */
+    @Override
+    public void reconcileRegistry() {
+        if (snapshot == null) return;
+        Map<String, Long> previous = snapshot.getModifiedTimes();
+        Map<String, Long> current = getModifiedTimes(listFileDirs());
+        final Map<String, Long> changes = new LinkedHashMap<String, Long>();
+        Set<String> stale = new HashSet<String>();
+        for (Map.Entry<String, Long> entry : current.entrySet()) {
+            String dir = entry.getKey();
+            Long previousTime = previous.get(dir);
+            if (previousTime == null || previousTime == -1
+                    || !previousTime.equals(entry.getValue())) {
+                changes.put(dir, entry.getValue());
+                if (previousTime != null) stale.add(dir);
+            }
+        }
+        for (String dir : previous.keySet()) {
+            if (!current.containsKey(dir)) {
+                changes.put(dir, null);
+                stale.add(dir);
+            }
+        }
+        Iterator<Map.Entry<String, String>> entries =
+                new AbstractIterator<Map.Entry<String, String>>() {
+            private final Iterator<Map.Entry<String, Long>> dirs =
+                    changes.entrySet().iterator();
+            private Iterator<String> paths = Collections.<String>emptyList()
+                    .iterator();
+
+            @Override
+            protected Map.Entry<String, String> computeNext() {
+                while (!paths.hasNext()) {
+                    if (!dirs.hasNext()) return endOfData();
+                    Map.Entry<String, Long> dir = dirs.next();
+                    if (dir.getValue() != null) {
+                        paths = listFiles(dir.getKey()).iterator();
+                    }
+                }
+                String path = paths.next();
+                return new AbstractMap.SimpleImmutableEntry<String, String>(
+                        getId(path), path);
+            }
+        };
+        long added = loadPaths(entries);
+        long removed = 0;
+        if (previous.isEmpty()) {
+            removed = removeMissingPaths(null);
+        } else if (!stale.isEmpty()) {
+            removed = removeMissingPaths(stale);
+        }
+        snapshot.setModifiedTimes(changes);
+        logger.info("Reconciled registry with {}: listed {} of {} "
+                + "directories, added or updated {} paths, removed {}",
+                new Object[] { baseDir, changes.size(), current.size(), added,
+                removed });
+    }
+
+    // paths of the files directly in a directory
+    private List<String> listFiles(String dirPath) {
+        List<String> paths = new ArrayList<String>();
+        File dir = dirPath.length() == 0 ? baseDir : new File(baseDir, dirPath);
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (!CommonUtil.isTempFile(name)
+                        && new File(dir, name).isFile()) {
+                    paths.add(dirPath + name);
+                }
+            }
+        }
+        return paths;
+    }
+
+    // removes registered paths in the given directories, or in any if null,
+    // whose files are gone
+    private long removeMissingPaths(Set<String> dirs) {
+        long removed = 0;
+        List<String> chunk = new ArrayList<String>(IDS_PER_CHECK);
+        Iterator<String> ids = getIds("");
+        while (ids.hasNext()) {
+            chunk.add(ids.next());
+            if (chunk.size() == IDS_PER_CHECK || !ids.hasNext()) {
+                Map<String, String> missing = new HashMap<String, String>();
+                for (Map.Entry<String, String> entry
+                        : getPaths(chunk).entrySet()) {
+                    String path = entry.getValue();
+                    String dir = path.substring(0, path.lastIndexOf("/") + 1);
+                    if ((dirs == null || dirs.contains(dir))
+                            && !new File(baseDir, path).exists()) {
+                        missing.put(entry.getKey(), null);
+                    }
+                }
+                if (missing.size() > 0) {
+                    setPaths(missing);
+                    removed += missing.size();
+                }
+                chunk.clear();
+            }
+        }
+        return removed;
+    }
+
+    // racy directories get a time of -1, so they're always listed again
+    private Map<String, Long> getModifiedTimes(List<String> dirs) {
+        Map<String, Long> modifiedTimes = new HashMap<String, Long>();
+        long now = System.currentTimeMillis();
+        for (String dir : dirs) {
+            long modified = new File(baseDir, dir).lastModified();
+            if (now - modified < RACY_MILLIS) modified = -1;
+            modifiedTimes.put(dir, modified);
+        }
+        return modifiedTimes;
+    }
+
+    private synchronized List<String> getFileDirs() {
+        if (fileDirs == null) fileDirs = listFileDirs();
+        return fileDirs;
+    }
+
+    // directories that hold files, newest first
+    private synchronized List<String> listFileDirs() {
+        List<String> dirs = new ArrayList<String>();
+        findFileDirs("", 0, dirs);
+        return dirs;
+    }
+
+    // path is "" if root, "name/" if subdir
+    private void findFileDirs(String path, int depth, List<String> dirs) {
+        if (depth == fileDepth) {
+            dirs.add(path);
+            return;
+        }
+        File dir = path.length() == 0 ? baseDir : new File(baseDir, path);
+        String[] names = dir.list();
+        if (names == null) {
+            throw new StoreException("Unable to list directory: " + dir);
+        }
+        Arrays.sort(names, Collections.reverseOrder());
+        boolean hasFiles = false;
+        for (String name : names) {
+            if (new File(dir, name).isDirectory()) {
+                findFileDirs(path + name + "/", depth + 1, dirs);
+            } else if (!CommonUtil.isTempFile(name)) {
+                hasFiles = true;
+            }
+        }
+        if (hasFiles) {
+            dirs.add(path);
+            if (fileDepth == -1) fileDepth = depth;
+        }
+    }
+
     private File getFile(String path, boolean mustExist) {
         File file = new File(baseDir, path);
         if (mustExist && !file.exists()) {
@@ -1,12 +1,14 @@
 package com.github.cwilper.fcrepo.store.legacy;
 
+import com.github.cwilper.fcrepo.store.core.impl.CommonUtil;
 import com.google.common.collect.AbstractIterator;
 
 import java.io.File;
 
 /**
- * Lazily iterates paths of all files beneath a given directory. Paths
- * returned by the iterator are relative to the given base directory.
+ * Lazily iterates paths of all files beneath a given directory, except
+ * temporary files. Paths returned by the iterator are relative to the given
+ * base directory.
  */
 class FilesystemPathIterator extends AbstractIterator<String> {
     private final File baseDir;
@@ -31,7 +33,7 @@ class FilesystemPathIterator extends AbstractIterator<String> {
                 currentDir = currentDir.parent;
             } else if (child.isDirectory()) {
                 currentDir = child;
-            } else {
+            } else if (!CommonUtil.isTempFile(child.path)) {
                 return child.path;
             }
         }
@@ -4,6 +4,7 @@ import com.github.cwilper.fcrepo.dto.core.io.DTOReader;
 import com.github.cwilper.fcrepo.dto.core.io.DTOWriter;
 import com.github.cwilper.fcrepo.store.core.FedoraStore;
 import com.github.cwilper.fcrepo.store.core.FedoraStoreSession;
+import com.github.cwilper.fcrepo.store.core.impl.ManifestDirectory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,10 +20,13 @@ public class LegacyFedoraStore implements FedoraStore {
     private final FileStore contentStore;
     private final DTOReader readerFactory;
     private final DTOWriter writerFactory;
+    private final ManifestDirectory manifestDirectory;
 
     /**
      * Creates an instance. Upon construction, the object and content
-     * path registries will be built for the first time if they're empty.
+     * path registries will be built for the first time if they're empty,
+     * or otherwise brought up to date with the files (see
+     * {@link FileStore#reconcileRegistry()}).
      *
      * @param objectStore the file store to use for Fedora objects.
      * @param contentStore the file store to use for managed content.
@@ -32,6 +36,56 @@ public class LegacyFedoraStore implements FedoraStore {
      */
     public LegacyFedoraStore(FileStore objectStore, FileStore contentStore,
             DTOReader readerFactory, DTOWriter writerFactory) {
+        this(objectStore, contentStore, readerFactory, writerFactory, false);
+    }
+
+    /**
+     * Creates an instance, optionally building empty path registries in the
+     * background.
+     * <p>
+     * While a registry is built in the background, the store can be used,
+     * but looking up an object or content that isn't in the registry yet
+     * means searching the files for it (see {@link FileStore#findPath}),
+     * which is much slower. Adding an object or content isn't searched
+     * for, so it isn't checked against files that aren't registered yet.
+     * Counting objects and listing pids by prefix only reflect what's in
+     * the registry so far. Progress is logged.
+     *
+     * @param objectStore the file store to use for Fedora objects.
+     * @param contentStore the file store to use for managed content.
+     * @param readerFactory the factory to use for deserializing.
+     * @param writerFactory the factory to use for serializing.
+     * @param populateInBackground whether to build empty registries in the
+     *        background rather than upon construction.
+     * @throws NullPointerException if any argument is null.
+     */
+    public LegacyFedoraStore(FileStore objectStore, FileStore contentStore,
+            DTOReader readerFactory, DTOWriter writerFactory,
+            boolean populateInBackground) {
+        this(objectStore, contentStore, readerFactory, writerFactory,
+                populateInBackground, null);
+    }
+
+    /**
+     * Creates an instance that keeps a manifest of each object's managed
+     * content in a directory of its own, so the content can be worked with
+     * without parsing the object each time. A manifest is ignored if the
+     * object's file has been modified since it was written.
+     *
+     * @param objectStore the file store to use for Fedora objects.
+     * @param contentStore the file store to use for managed content.
+     * @param readerFactory the factory to use for deserializing.
+     * @param writerFactory the factory to use for serializing.
+     * @param populateInBackground whether to build empty registries in the
+     *        background rather than upon construction.
+     * @param manifestDirectory the directory to keep manifests in, or
+     *        <code>null</code> to only keep them in memory for each session.
+     * @throws NullPointerException if any other argument is null.
+     */
+    public LegacyFedoraStore(FileStore objectStore, FileStore contentStore,
+            DTOReader readerFactory, DTOWriter writerFactory,
+            boolean populateInBackground,
+            ManifestDirectory manifestDirectory) {
         if (objectStore == null || contentStore == null
                 || readerFactory == null || writerFactory == null) {
             throw new NullPointerException();
@@ -40,12 +94,21 @@ public class LegacyFedoraStore implements FedoraStore {
         this.contentStore = contentStore;
         this.readerFactory = readerFactory;
         this.writerFactory = writerFactory;
-        populateRegistryIfEmpty(objectStore, "Object");
-        populateRegistryIfEmpty(contentStore, "Content");
+        this.manifestDirectory = manifestDirectory;
+        prepareRegistry(objectStore, "Object", populateInBackground);
+        prepareRegistry(contentStore, "Content", populateInBackground);
     }
 
-    private void populateRegistryIfEmpty(FileStore fileStore, String name) {
-        if (fileStore.getPathCount() == 0) {
+    private void prepareRegistry(FileStore fileStore, String name,
+            boolean inBackground) {
+        if (fileStore.getPathCount() > 0) {
+            logger.info("Reconciling {} Store Path Registry.", name);
+            fileStore.reconcileRegistry();
+        } else if (inBackground) {
+            logger.info("Populating {} Store Path Registry in the "
+                    + "background.", name);
+            fileStore.populateRegistryInBackground();
+        } else {
             logger.info("Populating {} Store Path Registry.", name);
             fileStore.populateRegistry();
         }
@@ -54,6 +117,6 @@ public class LegacyFedoraStore implements FedoraStore {
     @Override
     public FedoraStoreSession getSession() {
         return new LegacyFedoraStoreSession(objectStore, contentStore,
-                readerFactory, writerFactory);
+                readerFactory, writerFactory, manifestDirectory);
     }
 }
@@ -1,12 +1,13 @@
 package com.github.cwilper.fcrepo.store.legacy;
 
-import com.github.cwilper.fcrepo.dto.core.ControlGroup;
-import com.github.cwilper.fcrepo.dto.core.Datastream;
-import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
 import com.github.cwilper.fcrepo.dto.core.FedoraObject;
 import com.github.cwilper.fcrepo.dto.core.io.DTOReader;
 import com.github.cwilper.fcrepo.dto.core.io.DTOWriter;
 import com.github.cwilper.fcrepo.store.core.impl.CommonConstants;
+import com.github.cwilper.fcrepo.store.core.impl.CommonUtil;
+import com.github.cwilper.fcrepo.store.core.impl.ManagedContentManifest;
+import com.github.cwilper.fcrepo.store.core.impl.ManifestCache;
+import com.github.cwilper.fcrepo.store.core.impl.ManifestDirectory;
 import com.github.cwilper.fcrepo.store.core.ExistsException;
 import com.github.cwilper.fcrepo.store.core.FedoraStoreSession;
 import com.github.cwilper.fcrepo.store.core.NotFoundException;
@@ -17,10 +18,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.transaction.xa.XAResource;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 /**
  * Legacy {@link FedoraStoreSession} implementation compatible with pre-Akubra
@@ -34,11 +46,25 @@ class LegacyFedoraStoreSession implements FedoraStoreSession {
     private final FileStore contentStore;
     private final DTOReader readerFactory;
     private final DTOWriter writerFactory;
+    private final ManifestDirectory manifestDirectory;
+    private final ManifestCache manifestCache = new ManifestCache();
+
+    // path iterations that may still hold threads, closed with the session
+    private final Set<Iterator<String>> pathIterators =
+            Collections.synchronizedSet(Collections.newSetFromMap(
+                    new WeakHashMap<Iterator<String>, Boolean>()));
 
     private boolean closed;
 
     LegacyFedoraStoreSession(FileStore objectStore, FileStore contentStore,
             DTOReader readerFactory, DTOWriter writerFactory) {
+        this(objectStore, contentStore, readerFactory, writerFactory, null);
+    }
+
+    // manifests are only cached for the session if no directory is given
+    LegacyFedoraStoreSession(FileStore objectStore, FileStore contentStore,
+            DTOReader readerFactory, DTOWriter writerFactory,
+            ManifestDirectory manifestDirectory) {
         if (objectStore == null || contentStore == null
                 || readerFactory == null || writerFactory == null) {
             throw new NullPointerException();
@@ -47,6 +73,7 @@ class LegacyFedoraStoreSession implements FedoraStoreSession {
         this.contentStore = contentStore;
         this.readerFactory = readerFactory;
         this.writerFactory = writerFactory;
+        this.manifestDirectory = manifestDirectory;
         this.closed = false;
     }
 
@@ -57,25 +84,8 @@ class LegacyFedoraStoreSession implements FedoraStoreSession {
 
     @Override
     public void addObject(FedoraObject object) {
-        ensureNotClosed();
         if (object == null) throw new NullPointerException();
-        if (object.pid() == null) throw new IllegalArgumentException();
-        String path = objectStore.getPath(object.pid());
-        if (path != null) throw new ExistsException(object.pid());
-        path = objectStore.generatePath(object.pid());
-        objectStore.setPath(object.pid(), path);
-        boolean success = false;
-        try {
-            Util.writeObject(writerFactory, object,
-                    objectStore.getFileOutputStream(path));
-            success = true;
-        } catch (IOException e) {
-            throw new StoreException(CommonConstants.ERR_ADDING_OBJ, e);
-        } finally {
-            if (!success) {
-                objectStore.setPath(object.pid(), null);
-            }
-        }
+        addObjects(Collections.singletonList(object));
     }
 
     @Override
@@ -95,38 +105,146 @@ class LegacyFedoraStoreSession implements FedoraStoreSession {
 
     @Override
     public void updateObject(FedoraObject object) {
-        ensureNotClosed();
         if (object == null) throw new NullPointerException();
-        if (object.pid() == null) throw new IllegalArgumentException();
+        updateObjects(Collections.singletonList(object));
+    }
+
+    @Override
+    public void deleteObject(String pid) {
+        if (pid == null) throw new NullPointerException();
+        deleteObjects(Collections.singletonList(pid));
+    }
+
+    @Override
+    public void addObjects(Iterable<FedoraObject> objects) {
+        ensureNotClosed();
+        List<FedoraObject> list = getObjectList(objects);
+        Set<String> pids = new LinkedHashSet<String>();
+        for (FedoraObject object : list) {
+            if (!pids.add(object.pid())) {
+                throw new ExistsException(object.pid());
+            }
+        }
+        // not searched for while populating; new pids usually aren't there
+        Map<String, String> existing = objectStore.getRegisteredPaths(pids);
+        if (!existing.isEmpty()) {
+            throw new ExistsException(existing.keySet().iterator().next());
+        }
+        Map<String, String> paths = new LinkedHashMap<String, String>();
+        for (String pid : pids) {
+            paths.put(pid, objectStore.generatePath(pid));
+        }
+        objectStore.setPaths(paths);
+        int written = 0;
+        List<ManagedContentManifest> manifests =
+                new ArrayList<ManagedContentManifest>(list.size());
         try {
-            String path = objectStore.getPath(object.pid());
-            if (path == null) throw new NotFoundException(
-                    CommonConstants.ERR_NOTFOUND_OBJ_IN_STORAGE + ": "
-                    + object.pid());
-            deleteOldManagedContent(Util.readObject(readerFactory,
-                    objectStore.getFileInputStream(path)), object);
-            Util.writeObject(writerFactory, object,
-                    objectStore.getFileOutputStream(path));
+            for (FedoraObject object : list) {
+                String path = paths.get(object.pid());
+                manifestCache.remove(object.pid());
+                Util.writeObject(writerFactory, object,
+                        objectStore.getFileOutputStream(path));
+                written++;
+                manifests.add(ManagedContentManifest.of(object)
+                        .withObjectStamp(getObjectStamp(path)));
+            }
         } catch (IOException e) {
-            throw new StoreException(CommonConstants.ERR_UPDATING_OBJ, e);
+            throw new StoreException(CommonConstants.ERR_ADDING_OBJ, e);
+        } finally {
+            saveManifests(manifests);
+            if (written < list.size()) {
+                Map<String, String> unwritten = new HashMap<String, String>();
+                for (FedoraObject object : list.subList(written, list.size())) {
+                    unwritten.put(object.pid(), null);
+                }
+                objectStore.setPaths(unwritten);
+            }
         }
     }
 
     @Override
-    public void deleteObject(String pid) {
+    public Map<String, FedoraObject> getObjects(Iterable<String> pids) {
         ensureNotClosed();
-        if (pid == null) throw new NullPointerException();
+        List<String> list = getPidList(pids);
+        Map<String, String> paths = objectStore.getPaths(list);
+        Map<String, FedoraObject> objects =
+                new LinkedHashMap<String, FedoraObject>();
         try {
-            String path = objectStore.getPath(pid);
-            if (path == null) throw new NotFoundException(
-                    CommonConstants.ERR_NOTFOUND_OBJ_IN_STORAGE + ": " + pid);
-            deleteOldManagedContent(
-                    Util.readObject(readerFactory,
-                            objectStore.getFileInputStream(path)), null);
-            objectStore.deleteFile(path);
-            objectStore.setPath(pid, null);
+            for (String pid : list) {
+                String path = paths.get(pid);
+                if (path != null) {
+                    objects.put(pid, Util.readObject(readerFactory,
+                            objectStore.getFileInputStream(path)));
+                }
+            }
+        } catch (IOException e) {
+            throw new StoreException(CommonConstants.ERR_GETTING_OBJ, e);
+        }
+        return objects;
+    }
+
+    @Override
+    public void updateObjects(Iterable<FedoraObject> objects) {
+        ensureNotClosed();
+        List<FedoraObject> list = getObjectList(objects);
+        List<String> pids = new ArrayList<String>(list.size());
+        for (FedoraObject object : list) {
+            pids.add(object.pid());
+        }
+        Map<String, String> paths = getExistingPaths(pids);
+        Map<String, ManagedContentManifest> oldManifests =
+                getManifests(pids, paths);
+        List<ManagedContentManifest> newManifests =
+                new ArrayList<ManagedContentManifest>(list.size());
+        List<String> oldContentIds = new ArrayList<String>();
+        try {
+            for (FedoraObject object : list) {
+                String path = paths.get(object.pid());
+                ManagedContentManifest oldManifest =
+                        oldManifests.get(object.pid());
+                ManagedContentManifest newManifest =
+                        ManagedContentManifest.of(object, oldManifest);
+                manifestCache.remove(object.pid());
+                Util.writeObject(writerFactory, object,
+                        objectStore.getFileOutputStream(path));
+                newManifests.add(newManifest.withObjectStamp(
+                        getObjectStamp(path)));
+                addOldManagedContentIds(oldManifest, newManifest,
+                        oldContentIds);
+            }
         } catch (IOException e) {
-            throw new StoreException(CommonConstants.ERR_DELETING_OBJ, e);
+            throw new StoreException(CommonConstants.ERR_UPDATING_OBJ, e);
+        } finally {
+            saveManifests(newManifests);
+            deleteContent(oldContentIds);
+        }
+    }
+
+    @Override
+    public void deleteObjects(Iterable<String> pids) {
+        ensureNotClosed();
+        List<String> list = getPidList(pids);
+        Map<String, String> paths = getExistingPaths(list);
+        Map<String, ManagedContentManifest> oldManifests =
+                getManifests(list, paths);
+        List<String> oldContentIds = new ArrayList<String>();
+        Map<String, String> deleted = new HashMap<String, String>();
+        try {
+            for (String pid : list) {
+                manifestCache.remove(pid);
+                objectStore.deleteFile(paths.get(pid));
+                deleted.put(pid, null);
+                addOldManagedContentIds(oldManifests.get(pid), null,
+                        oldContentIds);
+            }
+        } finally {
+            deleteContent(oldContentIds);
+            if (manifestDirectory != null) {
+                for (String pid : deleted.keySet()) {
+                    manifestDirectory.delete(pid);
+                }
+            }
+            objectStore.setPaths(deleted);
         }
     }
 
@@ -139,15 +257,48 @@ class LegacyFedoraStoreSession implements FedoraStoreSession {
         return contentStore.getFileInputStream(path);
     }
 
+    @Override
+    public InputStream getContent(String pid, String datastreamId,
+            String datastreamVersionId, long offset, long length) {
+        ensureNotClosed();
+        Util.validateRange(offset, length);
+        String path = getContentPath(
+                pid, datastreamId, datastreamVersionId, true);
+        return contentStore.getFileInputStream(path, offset, length);
+    }
+
+    @Override
+    public long transferContent(String pid, String datastreamId,
+            String datastreamVersionId, long offset, long length,
+            WritableByteChannel channel) {
+        ensureNotClosed();
+        if (channel == null) throw new NullPointerException();
+        Util.validateRange(offset, length);
+        String path = getContentPath(
+                pid, datastreamId, datastreamVersionId, true);
+        return contentStore.transferFile(path, offset, length, channel);
+    }
+
     @Override
     public long getContentLength(String pid, String datastreamId,
             String datastreamVersionId) {
         ensureNotClosed();
         String path = getContentPath(
                 pid, datastreamId, datastreamVersionId, true);
+        long size = getManifest(pid).size(datastreamId, datastreamVersionId);
+        if (size != -1) return size;
         return contentStore.getFileSize(path);
     }
 
+    @Override
+    public long getContentLastModified(String pid, String datastreamId,
+            String datastreamVersionId) {
+        ensureNotClosed();
+        String path = getContentPath(
+                pid, datastreamId, datastreamVersionId, true);
+        return contentStore.getFileLastModified(path);
+    }
+
     @Override
     public void setContent(String pid, String datastreamId,
             String datastreamVersionId, InputStream inputStream) {
@@ -159,29 +310,80 @@ class LegacyFedoraStoreSession implements FedoraStoreSession {
             String path = getContentPath(
                     pid, datastreamId, datastreamVersionId, false);
             outputStream = contentStore.getFileOutputStream(path);
-            IOUtils.copyLarge(inputStream, outputStream);
+            long size = IOUtils.copyLarge(inputStream, outputStream);
             inputStream.close();
             outputStream.close();
             success = true;
+            saveManifests(Collections.singletonList(getManifest(pid)
+                    .withSize(datastreamId, datastreamVersionId, size)));
         } catch (IOException e) {
             throw new StoreException(CommonConstants.ERR_SETTING_CONT, e);
         } finally {
             if (!success) {
                 Util.closeOrWarn(inputStream);
-                Util.closeOrWarn(outputStream);
+                Util.abortOrWarn(outputStream);
             }
         }
     }
 
+    @Override
+    public File getContentFile(String pid, String datastreamId,
+            String datastreamVersionId) {
+        ensureNotClosed();
+        String path = getContentPath(pid, datastreamId, datastreamVersionId,
+                true);
+        File file = contentStore.getLocalFile(path);
+        if (file == null) {
+            // still fail as documented if the content is missing
+            contentStore.getFileSize(path);
+            return null;
+        }
+        if (!file.isFile()) {
+            throw new NotFoundException(
+                    CommonConstants.ERR_NOTFOUND_DS_IN_STORAGE + " "
+                    + Util.getDetails(pid, datastreamId,
+                    datastreamVersionId));
+        }
+        return file;
+    }
+
+    @Override
+    public boolean importContent(String pid, String datastreamId,
+            String datastreamVersionId, File file, boolean move) {
+        ensureNotClosed();
+        if (file == null) throw new NullPointerException();
+        ensureManaged(pid, datastreamId, datastreamVersionId);
+        String id = Util.getId(pid, datastreamId, datastreamVersionId);
+        String path = contentStore.getRegisteredPath(id);
+        boolean registered = path != null;
+        if (!registered) path = contentStore.generatePath(id);
+        File target = contentStore.getLocalFile(path);
+        if (target == null) return false;
+        long size = file.length();
+        if (!CommonUtil.linkOrMove(file, target, move)) return false;
+        // only now that the file is there
+        if (!registered) contentStore.setPath(id, path);
+        saveManifests(Collections.singletonList(getManifest(pid)
+                .withSize(datastreamId, datastreamVersionId, size)));
+        return true;
+    }
+
     @Override
     public void close() {
+        manifestCache.clear();
+        synchronized (pathIterators) {
+            for (Iterator<String> paths : pathIterators) {
+                Util.closeIterator(paths);
+            }
+            pathIterators.clear();
+        }
         closed = true;
     }
 
     @Override
     public Iterator<FedoraObject> iterator() {
         ensureNotClosed();
-        final Iterator<String> paths = objectStore.iterator();
+        final Iterator<String> paths = iterateObjectPaths();
         return new AbstractIterator<FedoraObject>() {
             @Override
             protected FedoraObject computeNext() {
@@ -200,18 +402,182 @@ class LegacyFedoraStoreSession implements FedoraStoreSession {
         };
     }
 
-    private String getContentPath(String pid, String datastreamId,
-            String datastreamVersionId, boolean mustExist) {
+    @Override
+    public Iterator<String> pidIterator() {
+        ensureNotClosed();
+        final Iterator<String> paths = iterateObjectPaths();
+        return new AbstractIterator<String>() {
+            @Override
+            protected String computeNext() {
+                if (paths.hasNext()) {
+                    return objectStore.getId(paths.next());
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    // iterates the paths of all object files, to be stopped when this session
+    // is closed if the caller abandons the iteration
+    private Iterator<String> iterateObjectPaths() {
+        Iterator<String> paths = objectStore.iterator();
+        pathIterators.add(paths);
+        return paths;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation looks the pids up in the object path registry,
+     * unless it's still being populated, in which case all object files
+     * are listed and their pids matched against the prefix.
+     */
+    @Override
+    public Iterator<String> pidIterator(final String prefix) {
+        ensureNotClosed();
+        if (prefix == null) throw new NullPointerException();
+        if (!objectStore.isPopulating()) return objectStore.getIds(prefix);
+        final Iterator<String> pids = pidIterator();
+        return new AbstractIterator<String>() {
+            @Override
+            protected String computeNext() {
+                while (pids.hasNext()) {
+                    String pid = pids.next();
+                    if (pid.startsWith(prefix)) return pid;
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation counts the paths in the object path registry,
+     * and returns -1 while it's still being populated.
+     */
+    @Override
+    public long getObjectCount() {
+        ensureNotClosed();
+        if (objectStore.isPopulating()) return -1;
+        return objectStore.getPathCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation returns the registered path of each object. Since
+     * paths start with the date the object was created, this groups objects
+     * by directory.
+     */
+    @Override
+    public Map<String, String> getObjectLocations(Iterable<String> pids) {
+        ensureNotClosed();
+        return objectStore.getPaths(getPidList(pids));
+    }
+
+    // gets the manifest from the cache, the stored manifest, or the object
+    private ManagedContentManifest getManifest(String pid) {
+        ManagedContentManifest manifest = manifestCache.get(pid);
+        if (manifest == null) {
+            String path = objectStore.getPath(pid);
+            if (path == null) throw new NotFoundException(
+                    CommonConstants.ERR_NOTFOUND_OBJ_IN_STORAGE + ": " + pid);
+            try {
+                manifest = getManifestOfPath(pid, path);
+            } catch (IOException e) {
+                throw new StoreException(CommonConstants.ERR_GETTING_OBJ, e);
+            }
+        }
+        return manifest;
+    }
+
+    // like getManifest, but for several existing objects whose paths are
+    // already known
+    private Map<String, ManagedContentManifest> getManifests(List<String> pids,
+            Map<String, String> objectPaths) {
+        Map<String, ManagedContentManifest> manifests =
+                new HashMap<String, ManagedContentManifest>();
+        try {
+            for (String pid : pids) {
+                ManagedContentManifest manifest = manifestCache.get(pid);
+                if (manifest == null) {
+                    manifest = getManifestOfPath(pid, objectPaths.get(pid));
+                }
+                manifests.put(pid, manifest);
+            }
+        } catch (IOException e) {
+            throw new StoreException(CommonConstants.ERR_GETTING_OBJ, e);
+        }
+        return manifests;
+    }
+
+    // gets the stored manifest if it's up to date with the object file, or
+    // otherwise makes it from the object and stores it; either way, it's
+    // cached
+    private ManagedContentManifest getManifestOfPath(String pid, String path)
+            throws IOException {
+        // stamp before reading, so a concurrent change makes it stale
+        long stamp = getObjectStamp(path);
+        if (stamp != -1) {
+            ManagedContentManifest manifest = manifestDirectory.read(pid);
+            if (manifest != null && manifest.objectStamp() == stamp) {
+                manifestCache.put(manifest);
+                return manifest;
+            }
+        }
+        ManagedContentManifest manifest = ManagedContentManifest.of(
+                Util.readObject(readerFactory,
+                        objectStore.getFileInputStream(path)))
+                .withObjectStamp(stamp);
+        saveManifests(Collections.singletonList(manifest));
+        return manifest;
+    }
+
+    // the object file's last modified time, or -1 if unknown or manifests
+    // aren't stored
+    private long getObjectStamp(String path) {
+        if (manifestDirectory == null) return -1;
+        return objectStore.getFileLastModified(path);
+    }
+
+    // caches and, if possible, stores the manifests; on failure, just log a
+    // warning and remove any stored manifest so the object will be parsed
+    // next time
+    private void saveManifests(List<ManagedContentManifest> manifests) {
+        for (ManagedContentManifest manifest : manifests) {
+            manifestCache.put(manifest);
+            if (manifestDirectory == null) continue;
+            if (manifest.objectStamp() == -1) {
+                manifestDirectory.delete(manifest.pid());
+                continue;
+            }
+            try {
+                manifestDirectory.write(manifest);
+            } catch (Exception e) {
+                logger.warn(CommonConstants.ERR_WRITING_MANIFEST + ": "
+                        + manifest.pid(), e);
+                manifestDirectory.delete(manifest.pid());
+            }
+        }
+    }
+
+    private void ensureManaged(String pid, String datastreamId,
+            String datastreamVersionId) {
         if (pid == null  || datastreamId == null ||
                 datastreamVersionId == null) throw new NullPointerException();
-        FedoraObject object = getObject(pid);
-        if (!Util.hasManagedDatastreamVersion(object, datastreamId,
-                datastreamVersionId)) {
+        if (!getManifest(pid).contains(datastreamId, datastreamVersionId)) {
             throw new NotFoundException(CommonConstants.ERR_NOTFOUND_DS_IN_OBJ + " "
                     + Util.getDetails(pid, datastreamId, datastreamVersionId));
         }
+    }
+
+    private String getContentPath(String pid, String datastreamId,
+            String datastreamVersionId, boolean mustExist) {
+        ensureManaged(pid, datastreamId, datastreamVersionId);
         String id = Util.getId(pid, datastreamId, datastreamVersionId);
-        String path = contentStore.getPath(id);
+        String path = mustExist ? contentStore.getPath(id)
+                : contentStore.getRegisteredPath(id);
         if (path == null) {
             if (mustExist) {
                 throw new NotFoundException(
@@ -226,39 +592,83 @@ class LegacyFedoraStoreSession implements FedoraStoreSession {
         return path;
     }
 
+    // validates the objects and copies them into a list
+    private static List<FedoraObject> getObjectList(
+            Iterable<FedoraObject> objects) {
+        if (objects == null) throw new NullPointerException();
+        List<FedoraObject> list = new ArrayList<FedoraObject>();
+        for (FedoraObject object : objects) {
+            if (object == null) throw new NullPointerException();
+            if (object.pid() == null) throw new IllegalArgumentException();
+            list.add(object);
+        }
+        return list;
+    }
+
+    // validates the pids and copies them into a list
+    private static List<String> getPidList(Iterable<String> pids) {
+        if (pids == null) throw new NullPointerException();
+        List<String> list = new ArrayList<String>();
+        for (String pid : pids) {
+            if (pid == null) throw new NullPointerException();
+            list.add(pid);
+        }
+        return list;
+    }
+
+    // gets the object paths, failing if any object does not exist
+    private Map<String, String> getExistingPaths(List<String> pids) {
+        Map<String, String> paths = objectStore.getPaths(pids);
+        for (String pid : pids) {
+            if (!paths.containsKey(pid)) throw new NotFoundException(
+                    CommonConstants.ERR_NOTFOUND_OBJ_IN_STORAGE + ": " + pid);
+        }
+        return paths;
+    }
+
     // just log a warning message in the event of failure
-    private void deleteContent(String pid, String datastreamId,
-            String datastreamVersionId) {
-        String id = Util.getId(pid, datastreamId, datastreamVersionId);
-        String path = contentStore.getPath(id);
-        if (path == null) {
-            logger.warn(CommonConstants.ERR_DELETING_CONT + " " + Util.getDetails(
-                    pid, datastreamId, datastreamVersionId)
-                    + ": No such datastream in registry");
+    private void deleteContent(List<String> ids) {
+        if (ids.isEmpty()) return;
+        Map<String, String> paths;
+        try {
+            paths = contentStore.getPaths(ids);
+        } catch (Exception e) {
+            logger.warn(CommonConstants.ERR_DELETING_CONT + " " + ids, e);
+            return;
+        }
+        Map<String, String> deleted = new HashMap<String, String>();
+        for (String id : ids) {
+            String path = paths.get(id);
+            if (path == null) {
+                logger.warn(CommonConstants.ERR_DELETING_CONT + " " + id
+                        + ": No such datastream in registry");
+            } else {
+                try {
+                    contentStore.deleteFile(path);
+                    deleted.put(id, null);
+                } catch (Exception e) {
+                    logger.warn(CommonConstants.ERR_DELETING_CONT + " " + id,
+                            e);
+                }
+            }
         }
         try {
-            contentStore.deleteFile(path);
-            contentStore.setPath(id, null);
+            contentStore.setPaths(deleted);
         } catch (Exception e) {
-            logger.warn(CommonConstants.ERR_DELETING_CONT + " " + Util.getDetails(
-                    pid, datastreamId, datastreamVersionId), e);
+            logger.warn(CommonConstants.ERR_DELETING_CONT + " "
+                    + deleted.keySet(), e);
         }
     }
 
-    // if newObject is null, all managed content will be deleted
-    private void deleteOldManagedContent(FedoraObject oldObject,
-            FedoraObject newObject) {
-        for (Datastream ds : oldObject.datastreams().values()) {
-            if (ds.controlGroup() == ControlGroup.MANAGED) {
-                String dsId = ds.id();
-                for (DatastreamVersion dsv : ds.versions()) {
-                    String dsvId = dsv.id();
-                    if (newObject == null ||
-                            !Util.hasManagedDatastreamVersion(
-                                    newObject, dsId, dsvId)) {
-                        deleteContent(oldObject.pid(), dsId, dsvId);
-                    }
-                }
+    // if newManifest is null, all managed content ids will be added
+    private static void addOldManagedContentIds(
+            ManagedContentManifest oldManifest,
+            ManagedContentManifest newManifest, List<String> ids) {
+        for (ManagedContentManifest.Entry entry : oldManifest.entries()) {
+            String dsId = entry.datastreamId();
+            String dsvId = entry.datastreamVersionId();
+            if (newManifest == null || !newManifest.contains(dsId, dsvId)) {
+                ids.add(Util.getId(oldManifest.pid(), dsId, dsvId));
             }
         }
     }
@@ -0,0 +1,875 @@
+package com.github.cwilper.fcrepo.store.legacy;
+
+import com.github.cwilper.fcrepo.store.core.StoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link PathRegistry} kept in memory-mapped files, so it can hold far
+ * more paths than fit in the heap and survives from one run to the next.
+ * <p>
+ * Each id and path is appended to a data file as a checksummed UTF-8
+ * record, and removing a path appends a record with the id alone. An index
+ * file holds a hash table of 16-byte slots pointing to the records, with
+ * collisions resolved by linear probing. When the table is 3/4 full, it's
+ * rebuilt into a new file at twice the size. Setting a path an id already
+ * has writes nothing, but replacing or removing a path leaves the old
+ * record in the data file, and its space isn't reclaimed.
+ * <p>
+ * Lookups can run on many threads at once, while changes are made one at
+ * a time. Changes reach the disk when the registry is closed, and at least
+ * every {@value #CHECKPOINT_INTERVAL} bytes of records, when the end of
+ * the data is noted in the index. If the registry is opened after not
+ * being closed, as after a crash, the index is rebuilt by replaying the
+ * records up to the first incomplete one. If that's short of the last
+ * noted end, the registry starts out empty so that it gets populated again.
+ */
+public class MappedPathRegistry implements PathRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(
+            MappedPathRegistry.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int INDEX_MAGIC = 0x66637269; // "fcri"
+    private static final int DATA_MAGIC = 0x66637264; // "fcrd"
+    private static final int VERSION = 2;
+
+    // index header: magic, version, clean, (unused), capacity, count,
+    // used slots, end of the data last forced to disk
+    private static final int INDEX_HEADER_SIZE = 64;
+    private static final int CLEAN = 8;
+    private static final int CAPACITY = 16;
+    private static final int COUNT = 24;
+    private static final int USED = 32;
+    private static final int DATA_END = 40;
+
+    // data header: magic, version, generation; keeps offset 0 free to mark
+    // empty slots. The generation changes whenever the registry is emptied,
+    // so that records left from before don't pass their checksums.
+    private static final int DATA_HEADER_SIZE = 16;
+    private static final int GENERATION = 8;
+
+    // record: id length, path length or -1 for a removal, checksum, id, path
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    // slot: record offset, id hash, (unused)
+    private static final int SLOT_SIZE = 16;
+    private static final long EMPTY = 0;
+    private static final long REMOVED = -1;
+
+    static final long INITIAL_CAPACITY = 1 << 16;
+
+    // number of paths to write per lock when loading
+    static final int PATHS_PER_BATCH = 1000;
+
+    // bytes of records to write between forcing them to disk
+    static final long CHECKPOINT_INTERVAL = 1 << 26;
+
+    // number of record offsets getIds keeps in the heap before moving them
+    // to a temporary file
+    static final int IDS_IN_HEAP = 1 << 16;
+
+    // files are mapped in segments of at most this size
+    static final int SEGMENT_BITS = 30;
+    static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final File dir;
+    private final File indexFile;
+    private final File dataFile;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private MappedFile index;
+    private MappedFile data;
+    private long capacity;
+    private volatile long count;
+    private long used;
+    private long dataEnd;
+    private long forcedEnd;
+    private int generation;
+    private boolean closed;
+
+    /**
+     * Creates an instance.
+     *
+     * @param path the directory of the registry files, which will be
+     *        created if it doesn't exist yet.
+     * @throws StoreException if the files can't be opened or created.
+     */
+    public MappedPathRegistry(String path) {
+        dir = new File(path);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new StoreException("Unable to create directory: " + dir);
+        }
+        indexFile = new File(dir, "index");
+        dataFile = new File(dir, "data");
+        try {
+            boolean exists = indexFile.exists() && dataFile.exists();
+            index = new MappedFile(indexFile);
+            data = new MappedFile(dataFile);
+            if (exists && hasDataHeader()) {
+                generation = data.getInt(GENERATION);
+                if (hasIndexHeader() && index.getInt(CLEAN) == 1) {
+                    capacity = index.getLong(CAPACITY);
+                    count = index.getLong(COUNT);
+                    used = index.getLong(USED);
+                    dataEnd = index.getLong(DATA_END);
+                    forcedEnd = dataEnd;
+                } else {
+                    recover();
+                }
+            } else {
+                if (exists) {
+                    logger.warn("Path registry at {} is unreadable; "
+                            + "clearing it", dir);
+                }
+                reset();
+            }
+            // until closed, the files on disk may be inconsistent
+            index.putInt(CLEAN, 0);
+            index.force();
+        } catch (IOException e) {
+            throw new StoreException("Error opening path registry at " + dir,
+                    e);
+        }
+    }
+
+    private boolean hasIndexHeader() {
+        return index.size() >= INDEX_HEADER_SIZE
+                && index.getInt(0) == INDEX_MAGIC
+                && index.getInt(4) == VERSION;
+    }
+
+    private boolean hasDataHeader() {
+        return data.size() >= DATA_HEADER_SIZE
+                && data.getInt(0) == DATA_MAGIC
+                && data.getInt(4) == VERSION;
+    }
+
+    // empties the registry, leaving the data file to be overwritten
+    private void reset() throws IOException {
+        count = 0;
+        dataEnd = DATA_HEADER_SIZE;
+        forcedEnd = DATA_HEADER_SIZE;
+        generation++;
+        data.ensureSize(DATA_HEADER_SIZE);
+        data.putInt(0, DATA_MAGIC);
+        data.putInt(4, VERSION);
+        data.putInt(GENERATION, generation);
+        data.force();
+        replaceIndex(INITIAL_CAPACITY, false);
+    }
+
+    // rebuilds the index from the records after an unclean shutdown
+    private void recover() throws IOException {
+        long checkpoint = DATA_HEADER_SIZE;
+        if (hasIndexHeader()) {
+            long end = index.getLong(DATA_END);
+            if (end > checkpoint && end <= data.size()) checkpoint = end;
+        }
+        logger.warn("Path registry at {} wasn't closed; rebuilding its "
+                + "index", dir);
+        count = 0;
+        forcedEnd = checkpoint;
+        replaceIndex(INITIAL_CAPACITY, false);
+        dataEnd = replay();
+        if (dataEnd < checkpoint) {
+            logger.warn("Path registry at {} is incomplete; clearing it",
+                    dir);
+            reset();
+        } else {
+            checkpoint();
+            logger.info("Recovered {} paths at {}", count, dir);
+        }
+    }
+
+    // applies the records in order, returning the end of the last complete
+    // one. A record that didn't fit in the rest of a segment is in the next.
+    private long replay() throws IOException {
+        long offset = DATA_HEADER_SIZE;
+        while (true) {
+            long end = replayRecord(offset);
+            if (end == -1 && (offset & SEGMENT_MASK) != 0) {
+                end = replayRecord((offset | SEGMENT_MASK) + 1);
+            }
+            if (end == -1) return offset;
+            offset = end;
+        }
+    }
+
+    // applies the record at an offset, returning its end, or -1 if it's
+    // incomplete or not from the current generation
+    private long replayRecord(long offset) throws IOException {
+        if (!inSegment(offset, RECORD_HEADER_SIZE)) return -1;
+        int keyLength = data.getInt(offset);
+        int valueLength = data.getInt(offset + 4);
+        if (keyLength < 0 || valueLength < -1) return -1;
+        long length = RECORD_HEADER_SIZE + (long) keyLength
+                + Math.max(valueLength, 0);
+        if (!inSegment(offset, length)) return -1;
+        byte[] key = new byte[keyLength];
+        data.get(offset + RECORD_HEADER_SIZE, key);
+        byte[] value = null;
+        if (valueLength != -1) {
+            value = new byte[valueLength];
+            data.get(offset + RECORD_HEADER_SIZE + keyLength, value);
+        }
+        if (data.getInt(offset + 8) != checksum(key, value)) return -1;
+        int hash = hash(key);
+        long slot = findSlot(key, hash);
+        if (value == null) {
+            if (slot != -1) {
+                index.putLong(slotPosition(slot), REMOVED);
+                count--;
+            }
+        } else if (slot != -1) {
+            index.putLong(slotPosition(slot), offset);
+        } else {
+            addSlot(offset, hash);
+        }
+        return offset + length;
+    }
+
+    // whether length bytes at offset are in the data and in one segment
+    private boolean inSegment(long offset, long length) {
+        return offset + length <= data.size()
+                && offset >>> SEGMENT_BITS
+                        == (offset + length - 1) >>> SEGMENT_BITS;
+    }
+
+    // forces the records to disk and notes where they end in the index
+    private void checkpoint() {
+        data.force();
+        forcedEnd = dataEnd;
+        writeHeader(index);
+        index.force();
+    }
+
+    private void checkpointIfDue() {
+        if (dataEnd - forcedEnd >= CHECKPOINT_INTERVAL) checkpoint();
+    }
+
+    /**
+     * Removes all paths, for testing. Iterators from {@link #getIds(String)}
+     * must not be used afterward.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            ensureNotClosed();
+            reset();
+        } catch (IOException e) {
+            throw new StoreException("Error clearing path registry", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes all changes to disk and closes the files. Further use of the
+     * registry fails.
+     */
+    @PreDestroy
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (closed) return;
+            checkpoint();
+            index.putInt(CLEAN, 1);
+            index.force();
+            data.close();
+            index.close();
+            closed = true;
+        } catch (IOException e) {
+            throw new StoreException("Error closing path registry", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long getPathCount() {
+        return count;
+    }
+
+    @Override
+    public String getPath(String id) {
+        byte[] key = id.getBytes(UTF8);
+        int hash = hash(key);
+        lock.readLock().lock();
+        try {
+            ensureNotClosed();
+            long slot = findSlot(key, hash);
+            if (slot == -1) return null;
+            return readPath(index.getLong(slotPosition(slot)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void setPath(String id, String path) {
+        lock.writeLock().lock();
+        try {
+            ensureNotClosed();
+            put(id, path);
+            checkpointIfDue();
+        } catch (IOException e) {
+            throw new StoreException("Error setting path", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, String> getPaths(Collection<String> ids) {
+        Map<String, String> paths = new HashMap<String, String>();
+        lock.readLock().lock();
+        try {
+            ensureNotClosed();
+            for (String id : ids) {
+                byte[] key = id.getBytes(UTF8);
+                long slot = findSlot(key, hash(key));
+                if (slot != -1) {
+                    paths.put(id, readPath(index.getLong(slotPosition(slot))));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return paths;
+    }
+
+    @Override
+    public void setPaths(Map<String, String> paths) {
+        lock.writeLock().lock();
+        try {
+            ensureNotClosed();
+            for (Map.Entry<String, String> entry : paths.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+            checkpointIfDue();
+        } catch (IOException e) {
+            throw new StoreException("Error setting paths", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation lets lookups in after every
+     * {@value #PATHS_PER_BATCH} paths.
+     */
+    @Override
+    public long loadPaths(Iterator<Map.Entry<String, String>> paths) {
+        long loaded = 0;
+        while (paths.hasNext()) {
+            lock.writeLock().lock();
+            try {
+                ensureNotClosed();
+                for (int i = 0; i < PATHS_PER_BATCH && paths.hasNext(); i++) {
+                    Map.Entry<String, String> entry = paths.next();
+                    put(entry.getKey(), entry.getValue());
+                    loaded++;
+                }
+                checkpointIfDue();
+            } catch (IOException e) {
+                throw new StoreException("Error loading paths", e);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation finds the matching ids with one pass over the
+     * table and sorts them up front. Up to {@value #IDS_IN_HEAP} of them
+     * are kept in the heap, and more in a temporary file.
+     */
+    @Override
+    public Iterator<String> getIds(String prefix) {
+        byte[] start = prefix.getBytes(UTF8);
+        final Offsets offsets = new Offsets();
+        lock.readLock().lock();
+        try {
+            ensureNotClosed();
+            for (long slot = 0; slot < capacity; slot++) {
+                long offset = index.getLong(slotPosition(slot));
+                if (offset != EMPTY && offset != REMOVED
+                        && startsWith(offset, start)) {
+                    offsets.add(offset);
+                }
+            }
+            sort(offsets, 0, offsets.size() - 1);
+        } catch (IOException e) {
+            throw new StoreException("Error listing ids", e);
+        } finally {
+            offsets.close();
+            lock.readLock().unlock();
+        }
+        return new Iterator<String>() {
+            private long i;
+
+            @Override
+            public boolean hasNext() {
+                return i < offsets.size();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                lock.readLock().lock();
+                try {
+                    ensureNotClosed();
+                    return readId(offsets.get(i++));
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    // sets or removes a path; must hold the write lock
+    private void put(String id, String path) throws IOException {
+        byte[] key = id.getBytes(UTF8);
+        int hash = hash(key);
+        long slot = findSlot(key, hash);
+        if (path == null) {
+            if (slot != -1) {
+                append(key, null);
+                index.putLong(slotPosition(slot), REMOVED);
+                count--;
+            }
+            return;
+        }
+        byte[] value = path.getBytes(UTF8);
+        if (slot != -1) {
+            long position = slotPosition(slot);
+            if (!pathEquals(index.getLong(position), value)) {
+                index.putLong(position, append(key, value));
+            }
+            return;
+        }
+        addSlot(append(key, value), hash);
+    }
+
+    // indexes a record of an id that has no slot
+    private void addSlot(long offset, int hash) throws IOException {
+        if ((used + 1) * 4 > capacity * 3) {
+            // double unless it's mostly removed slots
+            replaceIndex((count + 1) * 2 > capacity ? capacity * 2 : capacity,
+                    true);
+        }
+        if (insert(index, capacity, offset, hash)) used++;
+        count++;
+    }
+
+    // finds the slot of an id, or returns -1 if there's none
+    private long findSlot(byte[] key, int hash) {
+        long mask = capacity - 1;
+        for (long slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long position = slotPosition(slot);
+            long offset = index.getLong(position);
+            if (offset == EMPTY) return -1;
+            if (offset != REMOVED && index.getInt(position + 8) == hash
+                    && idEquals(offset, key)) {
+                return slot;
+            }
+        }
+    }
+
+    // puts a record in the first free slot for its hash, returning whether
+    // the slot was empty rather than removed
+    private static boolean insert(MappedFile index, long capacity,
+            long offset, int hash) {
+        long mask = capacity - 1;
+        for (long slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long position = slotPosition(slot);
+            long existing = index.getLong(position);
+            if (existing == EMPTY || existing == REMOVED) {
+                index.putLong(position, offset);
+                index.putInt(position + 8, hash);
+                return existing == EMPTY;
+            }
+        }
+    }
+
+    // builds a new index file, with the current slots if copy is true
+    private void replaceIndex(long newCapacity, boolean copy)
+            throws IOException {
+        File newFile = new File(indexFile.getPath() + ".new");
+        if (newFile.exists() && !newFile.delete()) {
+            throw new StoreException("Unable to delete file: " + newFile);
+        }
+        MappedFile newIndex = new MappedFile(newFile);
+        newIndex.ensureSize(INDEX_HEADER_SIZE + newCapacity * SLOT_SIZE);
+        if (copy) {
+            for (long slot = 0; slot < capacity; slot++) {
+                long position = slotPosition(slot);
+                long offset = index.getLong(position);
+                if (offset != EMPTY && offset != REMOVED) {
+                    insert(newIndex, newCapacity, offset,
+                            index.getInt(position + 8));
+                }
+            }
+        }
+        capacity = newCapacity;
+        used = count;
+        writeHeader(newIndex);
+        newIndex.force();
+        index.close();
+        if (!newFile.renameTo(indexFile)
+                && !(indexFile.delete() && newFile.renameTo(indexFile))) {
+            throw new StoreException("Unable to rename " + newFile + " to "
+                    + indexFile);
+        }
+        index = newIndex;
+    }
+
+    private void writeHeader(MappedFile file) {
+        file.putInt(0, INDEX_MAGIC);
+        file.putInt(4, VERSION);
+        file.putInt(CLEAN, 0);
+        file.putLong(CAPACITY, capacity);
+        file.putLong(COUNT, count);
+        file.putLong(USED, used);
+        file.putLong(DATA_END, forcedEnd);
+    }
+
+    // appends a record, which never spans segments, returning its offset;
+    // a null value records a removal
+    private long append(byte[] key, byte[] value) throws IOException {
+        long length = RECORD_HEADER_SIZE + (long) key.length
+                + (value == null ? 0 : value.length);
+        if (length > SEGMENT_SIZE) {
+            throw new StoreException("Path too long");
+        }
+        long offset = dataEnd;
+        if (offset >>> SEGMENT_BITS != (offset + length - 1) >>> SEGMENT_BITS) {
+            offset = (offset | SEGMENT_MASK) + 1;
+        }
+        if (offset + length > data.size()) {
+            long size = data.size();
+            data.ensureSize(Math.max(offset + length,
+                    size + Math.min(Math.max(size, 1 << 20), SEGMENT_SIZE)));
+        }
+        data.putInt(offset, key.length);
+        data.putInt(offset + 4, value == null ? -1 : value.length);
+        data.putInt(offset + 8, checksum(key, value));
+        data.put(offset + RECORD_HEADER_SIZE, key);
+        if (value != null) {
+            data.put(offset + RECORD_HEADER_SIZE + key.length, value);
+        }
+        dataEnd = offset + length;
+        return offset;
+    }
+
+    // CRC-32 of a record's generation, lengths, id and path
+    private int checksum(byte[] key, byte[] value) {
+        ByteBuffer header = ByteBuffer.allocate(12);
+        header.putInt(generation);
+        header.putInt(key.length);
+        header.putInt(value == null ? -1 : value.length);
+        CRC32 crc = new CRC32();
+        crc.update(header.array());
+        crc.update(key);
+        if (value != null) crc.update(value);
+        return (int) crc.getValue();
+    }
+
+    private String readId(long offset) {
+        byte[] bytes = new byte[data.getInt(offset)];
+        data.get(offset + RECORD_HEADER_SIZE, bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private String readPath(long offset) {
+        int idLength = data.getInt(offset);
+        byte[] bytes = new byte[data.getInt(offset + 4)];
+        data.get(offset + RECORD_HEADER_SIZE + idLength, bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private boolean idEquals(long offset, byte[] key) {
+        return data.getInt(offset) == key.length && startsWith(offset, key);
+    }
+
+    private boolean pathEquals(long offset, byte[] value) {
+        if (data.getInt(offset + 4) != value.length) return false;
+        long start = offset + RECORD_HEADER_SIZE + data.getInt(offset);
+        for (int i = 0; i < value.length; i++) {
+            if (data.getByte(start + i) != value[i]) return false;
+        }
+        return true;
+    }
+
+    private boolean startsWith(long offset, byte[] start) {
+        if (data.getInt(offset) < start.length) return false;
+        for (int i = 0; i < start.length; i++) {
+            if (data.getByte(offset + RECORD_HEADER_SIZE + i) != start[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // compares the ids of two records as unsigned bytes
+    private int compareIds(long a, long b) {
+        int aLength = data.getInt(a);
+        int bLength = data.getInt(b);
+        int limit = Math.min(aLength, bLength);
+        for (int i = 0; i < limit; i++) {
+            int c = (data.getByte(a + RECORD_HEADER_SIZE + i) & 0xff)
+                    - (data.getByte(b + RECORD_HEADER_SIZE + i) & 0xff);
+            if (c != 0) return c;
+        }
+        return aLength - bLength;
+    }
+
+    // sorts record offsets[low..high] by id
+    private void sort(Offsets offsets, long low, long high) {
+        while (high - low > 16) {
+            long mid = (low + high) >>> 1;
+            // median of three as pivot
+            if (compareIds(offsets.get(mid), offsets.get(low)) < 0) {
+                offsets.swap(mid, low);
+            }
+            if (compareIds(offsets.get(high), offsets.get(low)) < 0) {
+                offsets.swap(high, low);
+            }
+            if (compareIds(offsets.get(high), offsets.get(mid)) < 0) {
+                offsets.swap(high, mid);
+            }
+            long pivot = offsets.get(mid);
+            long i = low;
+            long j = high;
+            while (i <= j) {
+                while (compareIds(offsets.get(i), pivot) < 0) i++;
+                while (compareIds(offsets.get(j), pivot) > 0) j--;
+                if (i <= j) offsets.swap(i++, j--);
+            }
+            // recurse into the smaller side to bound the stack depth
+            if (j - low < high - i) {
+                sort(offsets, low, j);
+                low = i;
+            } else {
+                sort(offsets, i, high);
+                high = j;
+            }
+        }
+        for (long i = low + 1; i <= high; i++) {
+            long value = offsets.get(i);
+            long j = i - 1;
+            while (j >= low && compareIds(offsets.get(j), value) > 0) {
+                offsets.set(j + 1, offsets.get(j));
+                j--;
+            }
+            offsets.set(j + 1, value);
+        }
+    }
+
+    private static long slotPosition(long slot) {
+        return INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    // 64-bit FNV-1a folded to 32 bits, with a final avalanche
+    private static int hash(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void ensureNotClosed() {
+        if (closed) throw new IllegalStateException("Registry is closed");
+    }
+
+    // record offsets found by getIds, in the heap until there are too many,
+    // then in a temporary file that's deleted once mapped where possible
+    private class Offsets {
+        private long[] heap = new long[1024];
+        private MappedFile file;
+        private long size;
+
+        long size() {
+            return size;
+        }
+
+        void add(long offset) throws IOException {
+            if (file == null && size == heap.length) {
+                if (size < IDS_IN_HEAP) {
+                    heap = Arrays.copyOf(heap,
+                            (int) Math.min(size * 2, IDS_IN_HEAP));
+                } else {
+                    moveToFile();
+                }
+            }
+            if (file != null && (size + 1) * 8 > file.size()) {
+                file.ensureSize(file.size() * 2);
+            }
+            set(size++, offset);
+        }
+
+        long get(long i) {
+            return file == null ? heap[(int) i] : file.getLong(i * 8);
+        }
+
+        void set(long i, long offset) {
+            if (file == null) {
+                heap[(int) i] = offset;
+            } else {
+                file.putLong(i * 8, offset);
+            }
+        }
+
+        void swap(long i, long j) {
+            long offset = get(i);
+            set(i, get(j));
+            set(j, offset);
+        }
+
+        // the mapping stays usable after the file is closed
+        void close() {
+            if (file == null) return;
+            try {
+                file.close();
+            } catch (IOException e) {
+                logger.warn("Error closing temporary file", e);
+            }
+        }
+
+        private void moveToFile() throws IOException {
+            File temp = File.createTempFile("ids-", null, dir);
+            try {
+                file = new MappedFile(temp);
+                file.ensureSize(size * 16);
+            } finally {
+                if (!temp.delete()) temp.deleteOnExit();
+            }
+            for (int i = 0; i < size; i++) {
+                file.putLong(i * 8L, heap[i]);
+            }
+            heap = null;
+        }
+    }
+
+    // a file mapped into memory in segments
+    private static class MappedFile {
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final List<MappedByteBuffer> segments =
+                new ArrayList<MappedByteBuffer>();
+        private long size;
+
+        MappedFile(File file) throws IOException {
+            this.file = new RandomAccessFile(file, "rw");
+            channel = this.file.getChannel();
+            ensureSize(this.file.length());
+        }
+
+        long size() {
+            return size;
+        }
+
+        // maps the file up to the given size, extending it if needed
+        void ensureSize(long newSize) throws IOException {
+            if (newSize <= size) return;
+            // the last segment may have been mapped short of a full segment
+            int first = segments.isEmpty() ? 0 : segments.size() - 1;
+            int last = (int) ((newSize - 1) >>> SEGMENT_BITS);
+            if (!segments.isEmpty()) segments.remove(first);
+            for (int i = first; i <= last; i++) {
+                long start = (long) i << SEGMENT_BITS;
+                segments.add(channel.map(FileChannel.MapMode.READ_WRITE,
+                        start, Math.min(SEGMENT_SIZE, newSize - start)));
+            }
+            size = newSize;
+        }
+
+        byte getByte(long position) {
+            return segment(position).get(offset(position));
+        }
+
+        int getInt(long position) {
+            return segment(position).getInt(offset(position));
+        }
+
+        void putInt(long position, int value) {
+            segment(position).putInt(offset(position), value);
+        }
+
+        long getLong(long position) {
+            return segment(position).getLong(offset(position));
+        }
+
+        void putLong(long position, long value) {
+            segment(position).putLong(offset(position), value);
+        }
+
+        void get(long position, byte[] bytes) {
+            ByteBuffer buffer = segment(position).duplicate();
+            buffer.position(offset(position));
+            buffer.get(bytes);
+        }
+
+        void put(long position, byte[] bytes) {
+            ByteBuffer buffer = segment(position).duplicate();
+            buffer.position(offset(position));
+            buffer.put(bytes);
+        }
+
+        void force() {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+        }
+
+        // the mapping stays valid until it's garbage collected
+        void close() throws IOException {
+            file.close();
+        }
+
+        private ByteBuffer segment(long position) {
+            return segments.get((int) (position >>> SEGMENT_BITS));
+        }
+
+        private static int offset(long position) {
+            return (int) (position & SEGMENT_MASK);
+        }
+    }
+}
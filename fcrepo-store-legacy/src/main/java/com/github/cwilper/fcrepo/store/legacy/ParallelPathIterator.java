@@ -0,0 +1,206 @@
+package com.github.cwilper.fcrepo.store.legacy;
+
+import com.github.cwilper.fcrepo.store.core.StoreException;
+import com.github.cwilper.fcrepo.store.core.impl.CommonUtil;
+import com.google.common.collect.AbstractIterator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Iterates paths of all files beneath a given directory, except temporary
+ * files, listing several directories at once. Paths returned by the
+ * iterator are relative to the given base directory, as with
+ * {@link FilesystemPathIterator}, but come in no particular order.
+ * <p>
+ * Each directory is listed, and each of its entries checked, by one of a
+ * pool of threads, so on storage that can serve many requests at once the
+ * walk isn't limited by the latency of one request at a time. Subdirectories
+ * are queued for the pool as they're found, which spreads a tree like that
+ * of {@link TimestampPathAlgorithm} across the threads from the first few
+ * levels down.
+ * <p>
+ * Paths are handed over in batches through a bounded queue, so the walk
+ * only gets a little ahead of the consumer. The threads are daemon threads
+ * that exit once the walk is done. If iteration stops before then, the
+ * iterator should be closed, which stops the threads; if the consumer takes
+ * nothing for {@value #ABANDONED_MINUTES} minutes, the walk is considered
+ * abandoned and the iterator closes itself.
+ */
+class ParallelPathIterator extends AbstractIterator<String>
+        implements Closeable {
+    // number of paths handed to the consumer at a time
+    private static final int BATCH_SIZE = 256;
+
+    // number of batches that may wait for the consumer
+    private static final int MAX_QUEUED_BATCHES = 64;
+
+    // how long a full queue is waited on before checking for closure
+    private static final long WAIT_MILLIS = 1000;
+
+    // how long the consumer may take nothing before the walk is abandoned
+    static final int ABANDONED_MINUTES = 30;
+
+    // marks the end of the walk in the queue
+    private static final List<String> END = new ArrayList<String>(0);
+
+    private final File baseDir;
+    private final ExecutorService executor;
+    private final BlockingQueue<List<String>> queue =
+            new ArrayBlockingQueue<List<String>>(MAX_QUEUED_BATCHES);
+
+    // directories queued or being listed
+    private final AtomicInteger pendingDirs = new AtomicInteger(1);
+
+    private volatile StoreException error;
+    private volatile boolean closed;
+
+    // when the consumer last took a batch
+    private volatile long lastTaken = System.currentTimeMillis();
+
+    private Iterator<String> batch = Collections.<String>emptyList()
+            .iterator();
+
+    /**
+     * Creates an instance and starts walking.
+     *
+     * @param baseDir the directory whose content should be iterated.
+     * @param threads the number of directories to list at once.
+     */
+    ParallelPathIterator(File baseDir, int threads) {
+        this.baseDir = baseDir;
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int n;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "walker-" + (++n));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.execute(new Lister(""));
+    }
+
+    @Override
+    protected String computeNext() {
+        while (!batch.hasNext()) {
+            List<String> next = null;
+            while (next == null) {
+                if (closed) throw new IllegalStateException(
+                        "Iterator is closed");
+                try {
+                    next = queue.poll(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new StoreException("Interrupted while walking "
+                            + baseDir, e);
+                }
+            }
+            lastTaken = System.currentTimeMillis();
+            if (next == END) {
+                if (error != null) throw error;
+                return endOfData();
+            }
+            batch = next.iterator();
+        }
+        return batch.next();
+    }
+
+    /**
+     * Stops the walk, if it's still going, and discards any paths not yet
+     * returned. Further use of the iterator fails.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+        queue.clear();
+    }
+
+    private void put(List<String> paths) {
+        long abandonedMillis = TimeUnit.MINUTES.toMillis(ABANDONED_MINUTES);
+        try {
+            while (!closed) {
+                if (queue.offer(paths, WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+                if (System.currentTimeMillis() - lastTaken > abandonedMillis) {
+                    close();
+                }
+            }
+        } catch (InterruptedException e) {
+            // expected if interrupted by close
+            Thread.currentThread().interrupt();
+            if (!closed) {
+                fail(new StoreException("Interrupted while walking "
+                        + baseDir, e));
+            }
+        }
+    }
+
+    private void fail(StoreException e) {
+        synchronized (this) {
+            if (error == null) error = e;
+        }
+    }
+
+    // lists one directory, queueing its subdirectories for the pool
+    private class Lister implements Runnable {
+        private final String path; // "" if root, "name/" if subdir
+
+        Lister(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public void run() {
+            try {
+                list();
+            } catch (StoreException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(new StoreException("Error walking " + baseDir, e));
+            } finally {
+                if (pendingDirs.decrementAndGet() == 0) {
+                    executor.shutdown();
+                    put(END);
+                }
+            }
+        }
+
+        private void list() {
+            File dir = path.length() == 0 ? baseDir : new File(baseDir, path);
+            File[] children = dir.listFiles();
+            if (children == null) {
+                throw new StoreException("Unable to list directory: " + dir);
+            }
+            List<String> paths = new ArrayList<String>(BATCH_SIZE);
+            for (File child : children) {
+                if (error != null || closed) return;
+                if (child.isDirectory()) {
+                    pendingDirs.incrementAndGet();
+                    executor.execute(new Lister(path + child.getName() + "/"));
+                } else if (!CommonUtil.isTempFile(child.getName())) {
+                    paths.add(path + child.getName());
+                    if (paths.size() == BATCH_SIZE) {
+                        put(paths);
+                        paths = new ArrayList<String>(BATCH_SIZE);
+                    }
+                }
+            }
+            if (paths.size() > 0) put(paths);
+        }
+    }
+}
@@ -2,6 +2,10 @@ package com.github.cwilper.fcrepo.store.legacy;
 
 import com.github.cwilper.fcrepo.store.core.StoreException;
 
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
 /**
  * Keeps track of the file paths of serialized objects or managed datastream
  * content.
@@ -32,4 +36,45 @@ public interface PathRegistry {
      * @throws StoreException if any problem occurs.
      */
     void setPath(String id, String path);
+
+    /**
+     * Gets the paths for several ids at once.
+     *
+     * @param ids the ids to look up.
+     * @return a map of id to path, never <code>null</code>. Ids with no
+     *         mapping will be omitted.
+     * @throws StoreException if any problem occurs.
+     */
+    Map<String, String> getPaths(Collection<String> ids);
+
+    /**
+     * Sets the paths for several ids at once.
+     *
+     * @param paths a map of id to path, where a <code>null</code> path
+     *        deletes the mapping.
+     * @throws StoreException if any problem occurs.
+     */
+    void setPaths(Map<String, String> paths);
+
+    /**
+     * Sets the paths for a large number of ids, such as all those in a
+     * store, more efficiently than calling {@link #setPaths(Map)} in chunks.
+     * Paths that were written remain if a later one fails.
+     *
+     * @param paths an iterator over id, path pairs, where each path is
+     *        non-<code>null</code>. If an id occurs more than once, which
+     *        path it ends up with is unspecified.
+     * @return the number of pairs written.
+     * @throws StoreException if any problem occurs.
+     */
+    long loadPaths(Iterator<Map.Entry<String, String>> paths);
+
+    /**
+     * Gets the ids that start with the given prefix, in ascending order.
+     *
+     * @param prefix the prefix, or an empty string for all ids.
+     * @return an iterator over the ids, never <code>null</code>.
+     * @throws StoreException if any problem occurs.
+     */
+    Iterator<String> getIds(String prefix);
 }
@@ -2,6 +2,9 @@ package com.github.cwilper.fcrepo.store.legacy;
 
 import com.github.cwilper.fcrepo.store.core.impl.CommonUtil;
 
+import java.io.Closeable;
+import java.util.Iterator;
+
 /**
  * Utility methods useful to this implementation.
  */
@@ -12,4 +15,12 @@ final class Util extends CommonUtil {
             String datastreamVersionId) {
         return pid + "+" + datastreamId + "+" + datastreamVersionId;
     }
+
+    // closes an iterator that holds resources until it's exhausted, such as
+    // a ParallelPathIterator
+    static void closeIterator(Iterator<?> iterator) {
+        if (iterator instanceof Closeable) {
+            closeOrWarn((Closeable) iterator);
+        }
+    }
 }
@@ -0,0 +1,76 @@
+package com.github.cwilper.fcrepo.store.legacy;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link DBDirectorySnapshot}.
+ */
+public class DBDirectorySnapshotTest {
+    private static final String TABLE = "testDirs";
+    private static final String DIR1 = "2012/0101/00/00/";
+    private static final String DIR2 = "2012/0101/00/01/";
+
+    private static TemporaryDerbyDB db;
+    private static DBDirectorySnapshot snapshot;
+
+    @BeforeClass
+    public static void setUpClass() {
+        db = new TemporaryDerbyDB();
+        snapshot = new DBDirectorySnapshot(db, TABLE);
+    }
+
+    @Before
+    public void setUp() {
+        db.update("DELETE FROM " + TABLE);
+    }
+
+    @Test (expected=NullPointerException.class)
+    public void initWithNullDB() {
+        new DBDirectorySnapshot(null, TABLE);
+    }
+
+    @Test (expected=NullPointerException.class)
+    public void initWithNullTable() {
+        new DBDirectorySnapshot(db, null);
+    }
+
+    @Test
+    public void getInitialModifiedTimes() {
+        Assert.assertEquals(0, snapshot.getModifiedTimes().size());
+    }
+
+    @Test
+    public void setModifiedTimesMixed() {
+        Map<String, Long> times = new HashMap<String, Long>();
+        times.put(DIR1, 1L);
+        times.put(DIR2, 2L);
+        snapshot.setModifiedTimes(times);
+        times.put(DIR1, null);
+        times.put(DIR2, 3L);
+        snapshot.setModifiedTimes(times);
+        Map<String, Long> result = snapshot.getModifiedTimes();
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(Long.valueOf(3L), result.get(DIR2));
+    }
+
+    @Test
+    public void reopen() {
+        Map<String, Long> times = new HashMap<String, Long>();
+        times.put(DIR1, 1L);
+        snapshot.setModifiedTimes(times);
+        Assert.assertEquals(times,
+                new DBDirectorySnapshot(db, TABLE).getModifiedTimes());
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        db.delete();
+    }
+}
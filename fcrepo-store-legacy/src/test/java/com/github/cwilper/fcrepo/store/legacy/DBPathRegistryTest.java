@@ -6,6 +6,15 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Unit tests for {@DBPathRegistry}.
  */
@@ -94,6 +103,95 @@ public class DBPathRegistryTest {
         Assert.assertEquals(PATH1, registry.getPath(ID1));
     }
 
+    @Test
+    public void getPathsMixed() {
+        registry.setPath(ID1, PATH1);
+        Map<String, String> paths = registry.getPaths(Arrays.asList(ID1, ID2));
+        Assert.assertEquals(1, paths.size());
+        Assert.assertEquals(PATH1, paths.get(ID1));
+    }
+
+    @Test
+    public void setPathsMixed() {
+        registry.setPath(ID1, PATH1);
+        Map<String, String> paths = new HashMap<String, String>();
+        paths.put(ID1, null);
+        paths.put(ID2, PATH2);
+        registry.setPaths(paths);
+        Assert.assertEquals(1L, registry.getPathCount());
+        Assert.assertNull(registry.getPath(ID1));
+        Assert.assertEquals(PATH2, registry.getPath(ID2));
+    }
+
+    @Test
+    public void setPathsExisting() {
+        registry.setPath(ID1, PATH1);
+        Map<String, String> paths = new HashMap<String, String>();
+        paths.put(ID1, PATH2);
+        paths.put(ID2, PATH1);
+        registry.setPaths(paths);
+        Assert.assertEquals(2L, registry.getPathCount());
+        Assert.assertEquals(PATH2, registry.getPath(ID1));
+        Assert.assertEquals(PATH1, registry.getPath(ID2));
+    }
+
+    @Test
+    public void loadPathsEmpty() {
+        Map<String, String> paths = Collections.emptyMap();
+        Assert.assertEquals(0L, registry.loadPaths(
+                paths.entrySet().iterator()));
+        Assert.assertEquals(0L, registry.getPathCount());
+    }
+
+    @Test
+    public void loadPathsMixed() {
+        registry.setPath(ID1, PATH1);
+        Map<String, String> paths = new LinkedHashMap<String, String>();
+        paths.put(ID1, PATH2);
+        paths.put(ID2, PATH2);
+        Assert.assertEquals(2L, registry.loadPaths(
+                paths.entrySet().iterator()));
+        Assert.assertEquals(2L, registry.getPathCount());
+        Assert.assertEquals(PATH2, registry.getPath(ID1));
+        Assert.assertEquals(PATH2, registry.getPath(ID2));
+    }
+
+    @Test
+    public void loadPathsSeveralBatches() {
+        Map<String, String> paths = new LinkedHashMap<String, String>();
+        long count = DBPathRegistry.PATHS_PER_BATCH * 2 + 1;
+        for (int i = 0; i < count; i++) {
+            paths.put("id" + i, "path" + i);
+        }
+        Assert.assertEquals(count, registry.loadPaths(
+                paths.entrySet().iterator()));
+        Assert.assertEquals(count, registry.getPathCount());
+        Assert.assertEquals("path" + (count - 1),
+                registry.getPath("id" + (count - 1)));
+    }
+
+    @Test
+    public void getIdsWithPrefix() {
+        Map<String, String> paths = new HashMap<String, String>();
+        for (int i = 0; i < 2500; i++) {
+            paths.put("a:" + i, PATH1);
+        }
+        paths.put("a_1", PATH1);
+        paths.put("b:1", PATH2);
+        registry.setPaths(paths);
+        List<String> ids = new ArrayList<String>();
+        Iterator<String> iterator = registry.getIds("a:");
+        while (iterator.hasNext()) {
+            ids.add(iterator.next());
+        }
+        Assert.assertEquals(2500, ids.size());
+        List<String> sorted = new ArrayList<String>(ids);
+        Collections.sort(sorted);
+        Assert.assertEquals(sorted, ids);
+        Assert.assertFalse(registry.getIds("a:x").hasNext());
+        Assert.assertEquals("a_1", registry.getIds("a_").next());
+    }
+
     @AfterClass
     public static void tearDownClass() {
         db.delete();
@@ -0,0 +1,39 @@
+package com.github.cwilper.fcrepo.store.legacy;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * Units tests for {@link DerbyDB}.
+ */
+public class DerbyDBTest {
+    @Test
+    public void createAndDeleteTemporary() {
+        DerbyDB db = new DerbyDB("");
+        db.close();
+    }
+
+    @Test
+    public void keepBetweenRuns() throws Exception {
+        File dir = File.createTempFile("fcrepo-store-legacy-test", null);
+        Assert.assertTrue(dir.delete());
+        DerbyDB db = new DerbyDB(dir.getPath());
+        try {
+            new DBPathRegistry(db, "test").setPath("id", "path");
+        } finally {
+            db.close();
+        }
+        Assert.assertTrue(dir.exists());
+        db = new DerbyDB(dir.getPath());
+        try {
+            Assert.assertEquals("path",
+                    new DBPathRegistry(db, "test").getPath("id"));
+        } finally {
+            db.close();
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
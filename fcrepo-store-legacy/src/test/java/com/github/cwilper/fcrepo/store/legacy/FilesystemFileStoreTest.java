@@ -0,0 +1,235 @@
+package com.github.cwilper.fcrepo.store.legacy;
+
+import com.github.cwilper.fcrepo.store.core.impl.CommonUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+
+/**
+ * Unit tests for {@link FilesystemFileStore}.
+ */
+public class FilesystemFileStoreTest {
+    private static final String DIR1 = "2012/0101/00/00/";
+    private static final String DIR2 = "2012/0101/00/01/";
+    private static final String DIR3 = "2012/0101/00/02/";
+
+    private File baseDir;
+    private long past;
+    private MemoryPathRegistry registry;
+    private MemoryDirectorySnapshot snapshot;
+    private FilesystemFileStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        baseDir = File.createTempFile("fcrepo-store-legacy-test", null);
+        baseDir.delete();
+        past = System.currentTimeMillis() - 60000;
+        registry = new MemoryPathRegistry();
+        snapshot = new MemoryDirectorySnapshot();
+        store = new FilesystemFileStore(registry,
+                new TimestampPathAlgorithm(), baseDir.getPath(), 1, snapshot);
+        createFile(DIR1 + "test_1");
+        createFile(DIR2 + "test_2");
+    }
+
+    @Test
+    public void populateRecordsDirectories() {
+        store.populateRegistry();
+        Assert.assertEquals(2L, registry.getPathCount());
+        Assert.assertEquals(2, snapshot.getModifiedTimes().size());
+        Assert.assertEquals(Long.valueOf(past),
+                snapshot.getModifiedTimes().get(DIR1));
+    }
+
+    @Test
+    public void reconcileAddsAndRemoves() throws Exception {
+        store.populateRegistry();
+        createFile(DIR3 + "test_3");
+        Assert.assertTrue(new File(baseDir, DIR2 + "test_2").delete());
+        new File(baseDir, DIR2).setLastModified(past + 1000);
+        store.reconcileRegistry();
+        Assert.assertEquals(2L, registry.getPathCount());
+        Assert.assertEquals(DIR1 + "test_1", registry.getPath("test:1"));
+        Assert.assertNull(registry.getPath("test:2"));
+        Assert.assertEquals(DIR3 + "test_3", registry.getPath("test:3"));
+        Assert.assertEquals(3, snapshot.getModifiedTimes().size());
+    }
+
+    @Test
+    public void reconcileRemovesDirectory() {
+        store.populateRegistry();
+        Assert.assertTrue(new File(baseDir, DIR2 + "test_2").delete());
+        Assert.assertTrue(new File(baseDir, DIR2).delete());
+        store.reconcileRegistry();
+        Assert.assertEquals(1L, registry.getPathCount());
+        Assert.assertNull(registry.getPath("test:2"));
+        Assert.assertEquals(1, snapshot.getModifiedTimes().size());
+    }
+
+    @Test
+    public void reconcileSkipsUnmodified() throws Exception {
+        store.populateRegistry();
+        // a file appearing without the directory's time changing isn't seen
+        createFile(DIR1 + "test_3");
+        store.reconcileRegistry();
+        Assert.assertEquals(2L, registry.getPathCount());
+        Assert.assertNull(registry.getPath("test:3"));
+    }
+
+    @Test
+    public void reconcileListsRecentlyModified() throws Exception {
+        createFile(DIR3 + "test_3");
+        new File(baseDir, DIR3).setLastModified(System.currentTimeMillis());
+        store.populateRegistry();
+        Assert.assertEquals(Long.valueOf(-1),
+                snapshot.getModifiedTimes().get(DIR3));
+        createFile(DIR3 + "test_4");
+        new File(baseDir, DIR3).setLastModified(System.currentTimeMillis());
+        store.reconcileRegistry();
+        Assert.assertEquals(DIR3 + "test_4", registry.getPath("test:4"));
+    }
+
+    @Test
+    public void reconcileWithoutSnapshot() throws Exception {
+        store = new FilesystemFileStore(registry,
+                new TimestampPathAlgorithm(), baseDir.getPath());
+        store.populateRegistry();
+        createFile(DIR3 + "test_3");
+        store.reconcileRegistry();
+        Assert.assertEquals(2L, registry.getPathCount());
+        Assert.assertEquals(0, snapshot.getModifiedTimes().size());
+    }
+
+    @Test
+    public void reconcileWithEmptySnapshot() throws Exception {
+        new FilesystemFileStore(registry, new TimestampPathAlgorithm(),
+                baseDir.getPath()).populateRegistry();
+        Assert.assertTrue(new File(baseDir, DIR2 + "test_2").delete());
+        Assert.assertTrue(new File(baseDir, DIR2).delete());
+        store.reconcileRegistry();
+        Assert.assertEquals(1L, registry.getPathCount());
+        Assert.assertNull(registry.getPath("test:2"));
+        Assert.assertEquals(1, snapshot.getModifiedTimes().size());
+    }
+
+    @Test
+    public void lookupWhilePopulatingRegisters() {
+        store = new FilesystemFileStore(registry,
+                new TimestampPathAlgorithm(), baseDir.getPath()) {
+            @Override
+            void loadAllPaths() {
+                Assert.assertNull(getRegisteredPath("test:1"));
+                Assert.assertEquals(DIR1 + "test_1", getPath("test:1"));
+                Assert.assertEquals(DIR1 + "test_1",
+                        registry.getPath("test:1"));
+                super.loadAllPaths();
+            }
+        };
+        store.populateRegistry();
+        Assert.assertEquals(2L, registry.getPathCount());
+    }
+
+    @Test
+    public void removeWhilePopulatingNotUndone() {
+        store = new FilesystemFileStore(registry,
+                new TimestampPathAlgorithm(), baseDir.getPath()) {
+            @Override
+            void loadAllPaths() {
+                // removed after the loader listed the file, which then
+                // registers it again
+                super.loadAllPaths();
+                setPath("test:2", null);
+                registry.setPath("test:2", DIR2 + "test_2");
+            }
+        };
+        store.populateRegistry();
+        Assert.assertEquals(1L, registry.getPathCount());
+        Assert.assertNull(registry.getPath("test:2"));
+    }
+
+    @Test
+    public void writeLeavesLinkedFileAlone() throws Exception {
+        File linked = new File(baseDir, "linked");
+        if (!CommonUtil.linkOrMove(new File(baseDir, DIR1 + "test_1"),
+                linked, false)) {
+            return; // links aren't supported here
+        }
+        OutputStream out = store.getFileOutputStream(DIR1 + "test_1");
+        out.write(new byte[] { 1, 2, 3 });
+        out.close();
+        Assert.assertEquals(3L, store.getFileSize(DIR1 + "test_1"));
+        Assert.assertEquals(0L, linked.length());
+        Assert.assertEquals(1, new File(baseDir, DIR1).list().length);
+    }
+
+    @Test
+    public void abortedWriteLeavesOldContent() throws Exception {
+        OutputStream out = store.getFileOutputStream(DIR1 + "test_1");
+        out.write(new byte[] { 1, 2, 3 });
+        CommonUtil.abortOrWarn(out);
+        Assert.assertEquals(0L, store.getFileSize(DIR1 + "test_1"));
+        Assert.assertEquals(1, new File(baseDir, DIR1).list().length);
+    }
+
+    @Test
+    public void concurrentWritesDontCollide() throws Exception {
+        OutputStream out1 = store.getFileOutputStream(DIR1 + "test_1");
+        OutputStream out2 = store.getFileOutputStream(DIR1 + "test_1");
+        out1.write(new byte[] { 1 });
+        out2.write(new byte[] { 1, 2 });
+        out1.close();
+        Assert.assertEquals(1L, store.getFileSize(DIR1 + "test_1"));
+        out2.close();
+        Assert.assertEquals(2L, store.getFileSize(DIR1 + "test_1"));
+    }
+
+    @Test
+    public void temporaryFilesNotListed() throws Exception {
+        CommonUtil.createTempFile(new File(baseDir, DIR1));
+        CommonUtil.createTempFile(new File(baseDir, DIR2));
+        new File(baseDir, DIR1).setLastModified(past);
+        new File(baseDir, DIR2).setLastModified(past);
+        store.populateRegistry();
+        Assert.assertEquals(2L, registry.getPathCount());
+        createFile(DIR3 + "test_3");
+        CommonUtil.createTempFile(new File(baseDir, DIR3));
+        store.reconcileRegistry();
+        Assert.assertEquals(3L, registry.getPathCount());
+        store = new FilesystemFileStore(registry,
+                new TimestampPathAlgorithm(), baseDir.getPath(), 4, snapshot);
+        int count = 0;
+        for (String path : store) {
+            Assert.assertFalse(CommonUtil.isTempFile(path));
+            count++;
+        }
+        Assert.assertEquals(3, count);
+    }
+
+    // creates an empty file and gives its directory an old time
+    private void createFile(String path) throws Exception {
+        File file = new File(baseDir, path);
+        file.getParentFile().mkdirs();
+        Assert.assertTrue(file.createNewFile());
+        file.getParentFile().setLastModified(past);
+    }
+
+    @After
+    public void tearDown() {
+        rmdirs(baseDir);
+    }
+
+    private static void rmdirs(File dir) {
+        for (File child : dir.listFiles()) {
+            if (child.isDirectory()) {
+                rmdirs(child);
+            } else {
+                child.delete();
+            }
+        }
+        dir.delete();
+    }
+}
@@ -10,6 +10,7 @@ import com.github.cwilper.fcrepo.dto.foxml.FOXMLReader;
 import com.github.cwilper.fcrepo.dto.foxml.FOXMLWriter;
 import com.github.cwilper.fcrepo.store.core.ExistsException;
 import com.github.cwilper.fcrepo.store.core.NotFoundException;
+import com.github.cwilper.fcrepo.store.core.impl.ManifestDirectory;
 import org.apache.commons.io.IOUtils;
 import org.easymock.EasyMock;
 import org.junit.After;
@@ -17,9 +18,16 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -255,6 +263,158 @@ public class LegacyFedoraStoreSessionTest {
         listObjects();
     }
 
+    @Test
+    public void listPidsAfterAdd() {
+        fedoraSession.addObject(new FedoraObject().pid("test:o1"));
+        fedoraSession.addObject(new FedoraObject().pid("test:o2"));
+        Set<String> set = new HashSet<String>();
+        Iterator<String> pids = fedoraSession.pidIterator();
+        while (pids.hasNext()) {
+            set.add(pids.next());
+        }
+        Assert.assertTrue(set.contains("test:o1"));
+        Assert.assertTrue(set.contains("test:o2"));
+        Assert.assertEquals(2, set.size());
+    }
+
+    @Test
+    public void listPidsWithPrefix() {
+        fedoraSession.addObject(new FedoraObject().pid("test:o1"));
+        fedoraSession.addObject(new FedoraObject().pid("other:o2"));
+        Iterator<String> pids = fedoraSession.pidIterator("test:");
+        Assert.assertEquals("test:o1", pids.next());
+        Assert.assertFalse(pids.hasNext());
+    }
+
+    @Test (expected=NullPointerException.class)
+    public void listPidsWithNullPrefix() {
+        fedoraSession.pidIterator(null);
+    }
+
+    @Test
+    public void getObjectCountAfterAdd() {
+        fedoraSession.addObject(new FedoraObject().pid("test:o1"));
+        fedoraSession.addObject(new FedoraObject().pid("test:o2"));
+        Assert.assertEquals(2L, fedoraSession.getObjectCount());
+    }
+
+    @Test
+    public void listPidsWithPrefixWhilePopulating() throws Exception {
+        FileStore populatingStore = new MemoryFileStore(
+                new MemoryPathRegistry(), new TimestampPathAlgorithm()) {
+            @Override
+            public boolean isPopulating() {
+                return true;
+            }
+        };
+        // not in the registry yet
+        populatingStore.getFileOutputStream("2012/0101/00/00/test_o1")
+                .close();
+        populatingStore.getFileOutputStream("2012/0101/00/00/other_o2")
+                .close();
+        LegacyFedoraStoreSession session = new LegacyFedoraStoreSession(
+                populatingStore, testContentStore, new FOXMLReader(),
+                new FOXMLWriter());
+        Iterator<String> pids = session.pidIterator("test:");
+        Assert.assertEquals("test:o1", pids.next());
+        Assert.assertFalse(pids.hasNext());
+        Assert.assertEquals(-1L, session.getObjectCount());
+        session.close();
+    }
+
+    @Test
+    public void getObjectLocations() {
+        fedoraSession.addObject(new FedoraObject().pid("test:o1"));
+        Map<String, String> locations = fedoraSession.getObjectLocations(
+                Arrays.asList("test:o1", "test:missing"));
+        Assert.assertEquals(1, locations.size());
+        Assert.assertTrue(locations.get("test:o1").endsWith("/test_o1"));
+    }
+
+    @Test (expected=NullPointerException.class)
+    public void getObjectLocationsNullPid() {
+        fedoraSession.getObjectLocations(Arrays.asList((String) null));
+    }
+
+    @Test (expected=IllegalStateException.class)
+    public void listPidsAfterClose() {
+        fedoraSession.close();
+        fedoraSession.pidIterator();
+    }
+
+    @Test (expected=ExistsException.class)
+    public void addObjectsDuplicatePid() {
+        fedoraSession.addObjects(Arrays.asList(
+                new FedoraObject().pid("test:o1"),
+                new FedoraObject().pid("test:o1")));
+    }
+
+    @Test
+    public void addObjectsOneExisting() {
+        fedoraSession.addObject(new FedoraObject().pid("test:o1"));
+        try {
+            fedoraSession.addObjects(Arrays.asList(
+                    new FedoraObject().pid("test:o2"),
+                    new FedoraObject().pid("test:o1")));
+            Assert.fail();
+        } catch (ExistsException e) {
+            Assert.assertNull(testObjectStore.getPath("test:o2"));
+        }
+    }
+
+    @Test
+    public void getObjectsSomeExisting() {
+        FedoraObject o1 = new FedoraObject().pid("test:o1");
+        FedoraObject o2 = new FedoraObject().pid("test:o2");
+        fedoraSession.addObjects(Arrays.asList(o1, o2));
+        Map<String, FedoraObject> objects = fedoraSession.getObjects(
+                Arrays.asList("test:o2", "test:non-existing", "test:o1"));
+        Assert.assertEquals(Arrays.asList("test:o2", "test:o1"),
+                new ArrayList<String>(objects.keySet()));
+        Assert.assertEquals(o1, objects.get("test:o1"));
+        Assert.assertEquals(o2, objects.get("test:o2"));
+    }
+
+    @Test
+    public void updateObjectsLabels() {
+        fedoraSession.addObjects(Arrays.asList(
+                new FedoraObject().pid("test:o1"),
+                new FedoraObject().pid("test:o2")));
+        fedoraSession.updateObjects(Arrays.asList(
+                new FedoraObject().pid("test:o1").label("label1"),
+                new FedoraObject().pid("test:o2").label("label2")));
+        Assert.assertEquals("label1",
+                fedoraSession.getObject("test:o1").label());
+        Assert.assertEquals("label2",
+                fedoraSession.getObject("test:o2").label());
+    }
+
+    @Test (expected=NotFoundException.class)
+    public void updateObjectsOneNonExisting() {
+        fedoraSession.addObject(new FedoraObject().pid("test:o1"));
+        fedoraSession.updateObjects(Arrays.asList(
+                new FedoraObject().pid("test:o1"),
+                new FedoraObject().pid("test:non-existing")));
+    }
+
+    @Test
+    public void deleteObjectsWithContent() throws Exception {
+        Assert.assertTrue(fileExists(testContentStore, DS1V0_ID, true));
+        Assert.assertTrue(fileExists(testContentStore, DS2V0_ID, true));
+        addObjectWithDS1andDS2();
+        fedoraSession.addObject(new FedoraObject().pid("test:o1"));
+        fedoraSession.deleteObjects(Arrays.asList(EXISTING_PID, "test:o1"));
+        Assert.assertFalse(fileExists(testContentStore, DS1V0_ID, false));
+        Assert.assertFalse(fileExists(testContentStore, DS2V0_ID, false));
+        Assert.assertEquals(0, listObjects().size());
+    }
+
+    @Test (expected=IllegalStateException.class)
+    public void deleteObjectsAfterClose() {
+        fedoraSession.close();
+        fedoraSession.deleteObjects(Arrays.asList(EXISTING_PID));
+    }
+
     @Test (expected=NullPointerException.class)
     public void getContentNullPid() {
         fedoraSession.getContent(null, "DS1", "DS1.0");
@@ -304,6 +464,36 @@ public class LegacyFedoraStoreSessionTest {
         fedoraSession.getContent(EXISTING_PID, "DS1", "DS1.0");
     }
 
+    @Test
+    public void getContentRange() throws Exception {
+        addObjectWithDS1(true);
+        fedoraSession.setContent(EXISTING_PID, "DS1", "DS1.0",
+                IOUtils.toInputStream("0123456789"));
+        Assert.assertEquals("345", IOUtils.toString(fedoraSession.getContent(
+                EXISTING_PID, "DS1", "DS1.0", 3, 3)));
+        Assert.assertEquals("789", IOUtils.toString(fedoraSession.getContent(
+                EXISTING_PID, "DS1", "DS1.0", 7, -1)));
+        Assert.assertEquals("", IOUtils.toString(fedoraSession.getContent(
+                EXISTING_PID, "DS1", "DS1.0", 20, -1)));
+    }
+
+    @Test (expected=IllegalArgumentException.class)
+    public void getContentRangeNegativeOffset() {
+        addObjectWithDS1(true);
+        fedoraSession.getContent(EXISTING_PID, "DS1", "DS1.0", -1, -1);
+    }
+
+    @Test
+    public void transferContentRange() throws Exception {
+        addObjectWithDS1(true);
+        fedoraSession.setContent(EXISTING_PID, "DS1", "DS1.0",
+                IOUtils.toInputStream("0123456789"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals(4L, fedoraSession.transferContent(EXISTING_PID,
+                "DS1", "DS1.0", 2, 4, Channels.newChannel(out)));
+        Assert.assertEquals("2345", out.toString("UTF-8"));
+    }
+
     @Test (expected=NullPointerException.class)
     public void getContentLengthNullPid() {
         fedoraSession.getContentLength(null, "DS1", "DS1.0");
@@ -353,6 +543,65 @@ public class LegacyFedoraStoreSessionTest {
         fedoraSession.getContentLength(EXISTING_PID, "DS1", "DS1.0");
     }
 
+    @Test (expected=NullPointerException.class)
+    public void getContentLastModifiedNullPid() {
+        fedoraSession.getContentLastModified(null, "DS1", "DS1.0");
+    }
+
+    @Test (expected=NotFoundException.class)
+    public void getContentLastModifiedDatastreamExistsContentNotFound() {
+        addObjectWithDS1(true);
+        fedoraSession.getContentLastModified(EXISTING_PID, "DS1", "DS1.0");
+    }
+
+    @Test
+    public void getContentLastModifiedDatastreamExistsContentFound()
+            throws Exception {
+        addObjectWithDS1(true);
+        long before = System.currentTimeMillis();
+        fedoraSession.setContent(EXISTING_PID, "DS1", "DS1.0",
+                IOUtils.toInputStream("value"));
+        long lastModified = fedoraSession.getContentLastModified(
+                EXISTING_PID, "DS1", "DS1.0");
+        Assert.assertTrue(lastModified >= before);
+        Assert.assertTrue(lastModified <= System.currentTimeMillis());
+    }
+
+    @Test (expected=IllegalStateException.class)
+    public void getContentLastModifiedAfterClose() throws Exception {
+        fedoraSession.close();
+        fedoraSession.getContentLastModified(EXISTING_PID, "DS1", "DS1.0");
+    }
+
+    @Test
+    public void getContentFileNotLocal() throws Exception {
+        addObjectWithDS1(true);
+        fedoraSession.setContent(EXISTING_PID, "DS1", "DS1.0",
+                IOUtils.toInputStream("value"));
+        Assert.assertNull(fedoraSession.getContentFile(
+                EXISTING_PID, "DS1", "DS1.0"));
+    }
+
+    @Test (expected=NotFoundException.class)
+    public void getContentFileDatastreamExistsContentNotFound() {
+        addObjectWithDS1(true);
+        fedoraSession.getContentFile(EXISTING_PID, "DS1", "DS1.0");
+    }
+
+    @Test
+    public void importContentNotLocal() {
+        addObjectWithDS1(true);
+        Assert.assertFalse(fedoraSession.importContent(EXISTING_PID, "DS1",
+                "DS1.0", new File("unused"), false));
+    }
+
+    @Test (expected=NullPointerException.class)
+    public void importContentNullFile() {
+        addObjectWithDS1(true);
+        fedoraSession.importContent(EXISTING_PID, "DS1", "DS1.0", null,
+                false);
+    }
+
     @Test (expected=NullPointerException.class)
     public void setContentNullPid() {
         fedoraSession.setContent(null, "DS1", "DS1.0",
@@ -409,6 +658,77 @@ public class LegacyFedoraStoreSessionTest {
                 fedoraSession.getContent(EXISTING_PID, "DS1", "DS1.0")));
     }
 
+    @Test (expected=NotFoundException.class)
+    public void setContentAfterDatastreamDropped() throws Exception {
+        addObjectWithDS1andDS2();
+        fedoraSession.setContent(EXISTING_PID, "DS1", "DS1.0",
+                IOUtils.toInputStream("value"));
+        updateObjectDropDS1();
+        fedoraSession.setContent(EXISTING_PID, "DS1", "DS1.0",
+                IOUtils.toInputStream("value"));
+    }
+
+    @Test
+    public void manifestStoredUntilDelete() throws Exception {
+        File dir = createTempDir();
+        try {
+            ManifestDirectory manifests = new ManifestDirectory(
+                    dir.getPath());
+            fedoraSession.close();
+            fedoraSession = new LegacyFedoraStoreSession(testObjectStore,
+                    testContentStore, new FOXMLReader(), new FOXMLWriter(),
+                    manifests);
+            addObjectWithDS1(true);
+            Assert.assertNotNull(manifests.read(EXISTING_PID));
+            Assert.assertFalse(fileExists(testContentStore,
+                    EXISTING_PID + "+.manifest", false));
+            fedoraSession.setContent(EXISTING_PID, "DS1", "DS1.0",
+                    IOUtils.toInputStream("value"));
+            Assert.assertEquals(5L, manifests.read(EXISTING_PID).size(
+                    "DS1", "DS1.0"));
+            fedoraSession.deleteObject(EXISTING_PID);
+            Assert.assertNull(manifests.read(EXISTING_PID));
+        } finally {
+            rmdirs(dir);
+        }
+    }
+
+    @Test
+    public void manifestIgnoredAfterObjectChanged() throws Exception {
+        File dir = createTempDir();
+        try {
+            ManifestDirectory manifests = new ManifestDirectory(
+                    dir.getPath());
+            fedoraSession.close();
+            fedoraSession = new LegacyFedoraStoreSession(testObjectStore,
+                    testContentStore, new FOXMLReader(), new FOXMLWriter(),
+                    manifests);
+            addObjectWithDS1(true);
+            fedoraSession.setContent(EXISTING_PID, "DS1", "DS1.0",
+                    IOUtils.toInputStream("value"));
+            // as if Fedora changed the object and its content
+            Thread.sleep(10);
+            String path = testObjectStore.getPath(EXISTING_PID);
+            byte[] bytes = IOUtils.toByteArray(
+                    testObjectStore.getFileInputStream(path));
+            OutputStream out = testObjectStore.getFileOutputStream(path);
+            out.write(bytes);
+            out.close();
+            out = testContentStore.getFileOutputStream(testContentStore
+                    .getPath(EXISTING_PID + "+DS1+DS1.0"));
+            out.write("new value".getBytes("UTF-8"));
+            out.close();
+            LegacyFedoraStoreSession newSession = new LegacyFedoraStoreSession(
+                    testObjectStore, testContentStore, new FOXMLReader(),
+                    new FOXMLWriter(), manifests);
+            Assert.assertEquals(9L, newSession.getContentLength(EXISTING_PID,
+                    "DS1", "DS1.0"));
+            newSession.close();
+        } finally {
+            rmdirs(dir);
+        }
+    }
+
     @Test (expected=IllegalStateException.class)
     public void setContentAfterClose() throws Exception {
         fedoraSession.close();
@@ -467,6 +787,26 @@ public class LegacyFedoraStoreSessionTest {
                 .datastreams().size());
     }
 
+    private static File createTempDir() throws IOException {
+        File dir = File.createTempFile("fcrepo-store-legacy-test", null);
+        dir.delete();
+        return dir;
+    }
+
+    private static void rmdirs(File dir) {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    rmdirs(child);
+                } else {
+                    child.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+
     private boolean fileExists(FileStore fileStore, String id, boolean create)
             throws IOException {
         if (create) {
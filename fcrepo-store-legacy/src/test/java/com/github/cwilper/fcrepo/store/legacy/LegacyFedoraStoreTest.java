@@ -6,6 +6,7 @@ import com.github.cwilper.fcrepo.dto.foxml.FOXMLReader;
 import com.github.cwilper.fcrepo.dto.foxml.FOXMLWriter;
 import com.github.cwilper.fcrepo.store.core.FedoraStore;
 import org.easymock.EasyMock;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -13,6 +14,9 @@ import org.junit.Test;
  * Unit tests for {@link LegacyFedoraStore}.
  */
 public class LegacyFedoraStoreTest {
+    private static final String PID = "test:1";
+    private static final String PATH = "2012/0101/00/00/test_1";
+
     private FileStore testObjectStore;
     private FileStore testContentStore;
 
@@ -61,4 +65,23 @@ public class LegacyFedoraStoreTest {
                 testContentStore, new FOXMLReader(), new FOXMLWriter());
         store.getSession().close();
     }
+
+    @Test
+    public void populateOnConstruction() throws Exception {
+        testObjectStore.getFileOutputStream(PATH).close();
+        new LegacyFedoraStore(testObjectStore, testContentStore,
+                new FOXMLReader(), new FOXMLWriter());
+        Assert.assertEquals(1L, testObjectStore.getPathCount());
+        Assert.assertEquals(PATH, testObjectStore.getPath(PID));
+    }
+
+    @Test
+    public void populateInBackground() throws Exception {
+        testObjectStore.getFileOutputStream(PATH).close();
+        new LegacyFedoraStore(testObjectStore, testContentStore,
+                new FOXMLReader(), new FOXMLWriter(), true);
+        // found whether or not the registry has been populated yet
+        Assert.assertEquals(PATH, testObjectStore.getPath(PID));
+        Assert.assertNull(testObjectStore.getPath("test:2"));
+    }
 }
@@ -0,0 +1,294 @@
+package com.github.cwilper.fcrepo.store.legacy;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit tests for {@link MappedPathRegistry}.
+ */
+public class MappedPathRegistryTest {
+    private static final String ID1 = "id1";
+    private static final String ID2 = "id2";
+    private static final String PATH1 = "path1";
+    private static final String PATH2 = "path2";
+
+    private File dir;
+    private MappedPathRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("fcrepo-store-legacy-test", null);
+        dir.delete();
+        registry = new MappedPathRegistry(dir.getPath());
+    }
+
+    @Test
+    public void getInitialPathCount() {
+        Assert.assertEquals(0L, registry.getPathCount());
+    }
+
+    @Test
+    public void setPathExisting() {
+        registry.setPath(ID1, PATH1);
+        registry.setPath(ID1, PATH2);
+        Assert.assertEquals(1L, registry.getPathCount());
+        Assert.assertEquals(PATH2, registry.getPath(ID1));
+    }
+
+    @Test
+    public void setPathTwoNonExisting() {
+        registry.setPath(ID1, PATH1);
+        registry.setPath(ID2, PATH2);
+        Assert.assertEquals(2L, registry.getPathCount());
+        Assert.assertEquals(PATH1, registry.getPath(ID1));
+        Assert.assertEquals(PATH2, registry.getPath(ID2));
+    }
+
+    @Test
+    public void setPathNullExisting() {
+        registry.setPath(ID1, PATH1);
+        registry.setPath(ID1, null);
+        Assert.assertEquals(0L, registry.getPathCount());
+        Assert.assertNull(registry.getPath(ID1));
+        registry.setPath(ID1, PATH2);
+        Assert.assertEquals(PATH2, registry.getPath(ID1));
+    }
+
+    @Test
+    public void setPathUnchanged() {
+        for (int i = 0; i < 200000; i++) {
+            registry.setPath(ID1, PATH1);
+        }
+        Assert.assertEquals(PATH1, registry.getPath(ID1));
+        // 200000 records would take over 3MB
+        Assert.assertTrue(new File(dir, "data").length() < 2 * 1024 * 1024);
+    }
+
+    @Test
+    public void setPathNullNonExisting() {
+        registry.setPath(ID1, null);
+        Assert.assertEquals(0L, registry.getPathCount());
+    }
+
+    @Test
+    public void setPathNonAscii() {
+        registry.setPath("id:\u00e9\u4e2d", "dir/\u00e9");
+        Assert.assertEquals("dir/\u00e9", registry.getPath("id:\u00e9\u4e2d"));
+        Assert.assertNull(registry.getPath("id:\u00e9"));
+    }
+
+    @Test
+    public void getPathsMixed() {
+        registry.setPath(ID1, PATH1);
+        Map<String, String> paths = registry.getPaths(Arrays.asList(ID1, ID2));
+        Assert.assertEquals(1, paths.size());
+        Assert.assertEquals(PATH1, paths.get(ID1));
+    }
+
+    @Test
+    public void setPathsMixed() {
+        registry.setPath(ID1, PATH1);
+        Map<String, String> paths = new HashMap<String, String>();
+        paths.put(ID1, null);
+        paths.put(ID2, PATH2);
+        registry.setPaths(paths);
+        Assert.assertEquals(1L, registry.getPathCount());
+        Assert.assertNull(registry.getPath(ID1));
+        Assert.assertEquals(PATH2, registry.getPath(ID2));
+    }
+
+    @Test
+    public void loadPathsSeveralBatches() {
+        Map<String, String> paths = new LinkedHashMap<String, String>();
+        long count = MappedPathRegistry.PATHS_PER_BATCH * 2 + 1;
+        for (int i = 0; i < count; i++) {
+            paths.put("id" + i, "path" + i);
+        }
+        Assert.assertEquals(count, registry.loadPaths(
+                paths.entrySet().iterator()));
+        Assert.assertEquals(count, registry.getPathCount());
+        Assert.assertEquals("path" + (count - 1),
+                registry.getPath("id" + (count - 1)));
+    }
+
+    @Test
+    public void growPastInitialCapacity() {
+        int count = (int) MappedPathRegistry.INITIAL_CAPACITY * 2;
+        for (int i = 0; i < count; i++) {
+            registry.setPath("id" + i, "path" + i);
+        }
+        for (int i = 0; i < count; i += 2) {
+            registry.setPath("id" + i, null);
+        }
+        Assert.assertEquals(count / 2L, registry.getPathCount());
+        for (int i = 0; i < count; i++) {
+            String expected = i % 2 == 0 ? null : "path" + i;
+            Assert.assertEquals(expected, registry.getPath("id" + i));
+        }
+    }
+
+    @Test
+    public void getIdsWithPrefix() {
+        Map<String, String> paths = new HashMap<String, String>();
+        for (int i = 0; i < 2500; i++) {
+            paths.put("a:" + i, PATH1);
+        }
+        paths.put("a_1", PATH1);
+        paths.put("b:1", PATH2);
+        registry.setPaths(paths);
+        registry.setPath("a:1", null);
+        List<String> ids = new ArrayList<String>();
+        Iterator<String> iterator = registry.getIds("a:");
+        while (iterator.hasNext()) {
+            ids.add(iterator.next());
+        }
+        Assert.assertEquals(2499, ids.size());
+        List<String> sorted = new ArrayList<String>(ids);
+        Collections.sort(sorted);
+        Assert.assertEquals(sorted, ids);
+        Assert.assertFalse(registry.getIds("a:x").hasNext());
+        Assert.assertEquals("a_1", registry.getIds("a_").next());
+    }
+
+    @Test
+    public void getIdsBeyondHeap() {
+        int count = MappedPathRegistry.IDS_IN_HEAP + 1;
+        for (int i = 0; i < count; i++) {
+            registry.setPath("id" + i, PATH1);
+        }
+        Iterator<String> iterator = registry.getIds("id");
+        String last = "";
+        int n = 0;
+        while (iterator.hasNext()) {
+            String id = iterator.next();
+            Assert.assertTrue(id.compareTo(last) > 0);
+            last = id;
+            n++;
+        }
+        Assert.assertEquals(count, n);
+        Assert.assertEquals("id9999", last);
+    }
+
+    @Test
+    public void reopenAfterClose() {
+        registry.setPath(ID1, PATH1);
+        registry.setPath(ID2, PATH2);
+        registry.setPath(ID2, null);
+        registry.close();
+        registry = new MappedPathRegistry(dir.getPath());
+        Assert.assertEquals(1L, registry.getPathCount());
+        Assert.assertEquals(PATH1, registry.getPath(ID1));
+        Assert.assertNull(registry.getPath(ID2));
+        registry.setPath(ID2, PATH2);
+        Assert.assertEquals(PATH2, registry.getPath(ID2));
+    }
+
+    @Test
+    public void reopenWithoutClose() {
+        registry.setPath(ID1, PATH1);
+        registry.setPath(ID2, PATH2);
+        registry.setPath(ID2, null);
+        registry.setPath(ID1, PATH2);
+        MappedPathRegistry reopened = new MappedPathRegistry(dir.getPath());
+        try {
+            Assert.assertEquals(1L, reopened.getPathCount());
+            Assert.assertEquals(PATH2, reopened.getPath(ID1));
+            Assert.assertNull(reopened.getPath(ID2));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void reopenWithoutCloseAfterClear() {
+        registry.setPath(ID1, PATH1);
+        registry.clear();
+        registry.setPath(ID2, PATH2);
+        MappedPathRegistry reopened = new MappedPathRegistry(dir.getPath());
+        try {
+            Assert.assertEquals(1L, reopened.getPathCount());
+            Assert.assertNull(reopened.getPath(ID1));
+            Assert.assertEquals(PATH2, reopened.getPath(ID2));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void reopenWithoutCloseIgnoresIncompleteRecord() throws Exception {
+        registry.setPath(ID1, PATH1);
+        registry.setPath(ID2, PATH2);
+        // change the last byte of the second record, after a 16-byte header
+        // and two 20-byte records
+        RandomAccessFile file = new RandomAccessFile(new File(dir, "data"),
+                "rw");
+        try {
+            file.seek(55);
+            file.write('x');
+        } finally {
+            file.close();
+        }
+        MappedPathRegistry reopened = new MappedPathRegistry(dir.getPath());
+        try {
+            Assert.assertEquals(1L, reopened.getPathCount());
+            Assert.assertEquals(PATH1, reopened.getPath(ID1));
+            Assert.assertNull(reopened.getPath(ID2));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test (expected=IllegalStateException.class)
+    public void getPathAfterClose() {
+        registry.close();
+        registry.getPath(ID1);
+    }
+
+    @Test
+    public void getPathWhileSetting() throws Exception {
+        final int count = 20000;
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        registry.setPath(ID1, PATH1);
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    if (!PATH1.equals(registry.getPath(ID1))) {
+                        failure.set("Lost path after " + i + " reads");
+                        return;
+                    }
+                }
+            }
+        };
+        reader.start();
+        for (int i = 0; i < count; i++) {
+            registry.setPath("other" + i, "path" + i);
+        }
+        reader.join();
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(count + 1L, registry.getPathCount());
+    }
+
+    @After
+    public void tearDown() {
+        registry.close();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,27 @@
+package com.github.cwilper.fcrepo.store.legacy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Memory-based implementation of {@link DirectorySnapshot}.
+ */
+public class MemoryDirectorySnapshot implements DirectorySnapshot {
+    private final Map<String, Long> map = new HashMap<String, Long>();
+
+    @Override
+    public Map<String, Long> getModifiedTimes() {
+        return new HashMap<String, Long>(map);
+    }
+
+    @Override
+    public void setModifiedTimes(Map<String, Long> modifiedTimes) {
+        for (Map.Entry<String, Long> entry : modifiedTimes.entrySet()) {
+            if (entry.getValue() == null) {
+                map.remove(entry.getKey());
+            } else {
+                map.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
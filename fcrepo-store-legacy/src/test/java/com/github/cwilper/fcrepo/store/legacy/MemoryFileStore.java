@@ -15,6 +15,7 @@ import java.util.Map;
  */
 public class MemoryFileStore extends AbstractFileStore {
     private final Map<String, byte[]> files = new HashMap<String, byte[]>();
+    private final Map<String, Long> lastModified = new HashMap<String, Long>();
 
     public MemoryFileStore(PathRegistry pathRegistry,
             PathAlgorithm pathAlgorithm) {
@@ -27,6 +28,7 @@ public class MemoryFileStore extends AbstractFileStore {
             @Override
             public void close() {
                 files.put(path, toByteArray());
+                lastModified.put(path, System.currentTimeMillis());
             }
         };
     }
@@ -36,6 +38,12 @@ public class MemoryFileStore extends AbstractFileStore {
         return getBytes(path).length;
     }
 
+    @Override
+    public long getFileLastModified(String path) {
+        getBytes(path);
+        return lastModified.get(path);
+    }
+
     @Override
     public InputStream getFileInputStream(String path) {
         return new ByteArrayInputStream(getBytes(path));
@@ -45,6 +53,7 @@ public class MemoryFileStore extends AbstractFileStore {
     public void deleteFile(String path) {
         getBytes(path);
         files.remove(path);
+        lastModified.remove(path);
     }
 
     @Override
@@ -1,7 +1,12 @@
 package com.github.cwilper.fcrepo.store.legacy;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 
 /**
  * Memory-based implementation of {@link PathRegistry}.
@@ -22,9 +27,46 @@ public class MemoryPathRegistry implements PathRegistry {
     @Override
     public void setPath(String id, String path) {
         if (path == null) {
-            map.remove(path);
+            map.remove(id);
         } else {
             map.put(id, path);
         }
     }
+
+    @Override
+    public Map<String, String> getPaths(Collection<String> ids) {
+        Map<String, String> paths = new HashMap<String, String>();
+        for (String id : ids) {
+            String path = map.get(id);
+            if (path != null) paths.put(id, path);
+        }
+        return paths;
+    }
+
+    @Override
+    public void setPaths(Map<String, String> paths) {
+        for (Map.Entry<String, String> entry : paths.entrySet()) {
+            setPath(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public long loadPaths(Iterator<Map.Entry<String, String>> paths) {
+        long count = 0;
+        while (paths.hasNext()) {
+            Map.Entry<String, String> entry = paths.next();
+            map.put(entry.getKey(), entry.getValue());
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public Iterator<String> getIds(String prefix) {
+        List<String> ids = new ArrayList<String>();
+        for (String id : new TreeSet<String>(map.keySet())) {
+            if (id.startsWith(prefix)) ids.add(id);
+        }
+        return ids.iterator();
+    }
 }
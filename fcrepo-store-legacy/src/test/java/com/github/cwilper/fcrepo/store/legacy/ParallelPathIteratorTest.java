@@ -0,0 +1,126 @@
+package com.github.cwilper.fcrepo.store.legacy;
+
+import com.github.cwilper.fcrepo.store.core.StoreException;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link ParallelPathIterator}.
+ */
+public class ParallelPathIteratorTest {
+    private static final int THREADS = 4;
+
+    private static File tempDir;
+    private static File emptyDir;
+    private static File treeDir;
+    private static Set<String> treePaths = new HashSet<String>();
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        tempDir = File.createTempFile("fcrepo-store-legacy-test", null);
+        tempDir.delete();
+        tempDir.mkdir();
+        emptyDir = new File(tempDir, "emptyDir");
+        emptyDir.mkdir();
+        treeDir = new File(tempDir, "treeDir");
+        treeDir.mkdir();
+        // enough files in one directory to fill several batches
+        for (int i = 0; i < 600; i++) {
+            createFile("2012/0101/00/00/file" + i);
+        }
+        createFile("2012/0101/00/01/file");
+        createFile("2012/0102/10/59/file");
+        createFile("2013/1231/23/59/file");
+        new File(treeDir, "2013/1231/23/00").mkdirs();
+        createFile("file");
+    }
+
+    private static void createFile(String path) throws Exception {
+        File file = new File(treeDir, path);
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+        treePaths.add(path);
+    }
+
+    @Test
+    public void iterateTree() {
+        Assert.assertEquals(treePaths,
+                toSet(new ParallelPathIterator(treeDir, THREADS)));
+    }
+
+    @Test
+    public void iterateTreeOneThread() {
+        Assert.assertEquals(treePaths,
+                toSet(new ParallelPathIterator(treeDir, 1)));
+    }
+
+    @Test
+    public void iterateEmpty() {
+        Set<String> paths = toSet(new ParallelPathIterator(emptyDir,
+                THREADS));
+        Assert.assertEquals(0, paths.size());
+    }
+
+    @Test (expected=StoreException.class)
+    public void iterateNonExisting() {
+        new ParallelPathIterator(new File(tempDir, "nonExisting"), THREADS)
+                .hasNext();
+    }
+
+    @Test
+    public void closeStopsWalk() throws Exception {
+        ParallelPathIterator iterator = new ParallelPathIterator(treeDir,
+                THREADS);
+        iterator.next();
+        iterator.close();
+        try {
+            iterator.hasNext();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        for (int i = 0; i < 50 && countWalkerThreads() > 0; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(0, countWalkerThreads());
+    }
+
+    private static int countWalkerThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("walker-")) count++;
+        }
+        return count;
+    }
+
+    private Set<String> toSet(Iterator<String> iter) {
+        Set<String> set = new HashSet<String>();
+        while (iter.hasNext()) {
+            Assert.assertTrue(set.add(iter.next()));
+        }
+        return set;
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        rmdirs(tempDir);
+    }
+
+    private static void rmdirs(File dir) {
+        for (File child : dir.listFiles()) {
+            if (child.isDirectory()) {
+                rmdirs(child);
+            } else {
+                child.delete();
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.cwilper.fcrepo.store.util;
+
+/**
+ * A fixed-size Bloom filter over byte strings.
+ * <p>
+ * Membership tests never give false negatives, and give false positives at
+ * roughly the rate the filter was sized for.
+ */
+final class BloomFilter {
+    private static final double LN2 = Math.log(2);
+
+    private final long[] words;
+    private final long bitCount;
+    private final int hashCount;
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param expectedCount the number of entries that will be added.
+     * @param falsePositiveRate the desired false positive rate, between
+     *        0 and 1 exclusive.
+     */
+    BloomFilter(long expectedCount, double falsePositiveRate) {
+        long n = Math.max(1, expectedCount);
+        long bits = (long) Math.ceil(-n * Math.log(falsePositiveRate)
+                / (LN2 * LN2));
+        bits = Math.max(64, Math.min(bits, (long) Integer.MAX_VALUE * 64));
+        words = new long[(int) ((bits + 63) / 64)];
+        bitCount = (long) words.length * 64;
+        hashCount = (int) Math.max(1, Math.round((double) bitCount / n
+                * LN2));
+    }
+
+    /**
+     * Adds an entry.
+     *
+     * @param bytes the array containing the entry.
+     * @param offset the offset of the entry.
+     * @param length the length of the entry.
+     */
+    void add(byte[] bytes, int offset, int length) {
+        long h1 = hash(bytes, offset, length, 0x9e3779b97f4a7c15L);
+        long h2 = hash(bytes, offset, length, 0xc2b2ae3d27d4eb4fL) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Tells whether an entry may have been added.
+     *
+     * @param bytes the entry.
+     * @return <code>false</code> if it definitely wasn't added.
+     */
+    boolean mightContain(byte[] bytes) {
+        long h1 = hash(bytes, 0, bytes.length, 0x9e3779b97f4a7c15L);
+        long h2 = hash(bytes, 0, bytes.length, 0xc2b2ae3d27d4eb4fL) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    // 64-bit FNV-1a variant with a final avalanche
+    private static long hash(byte[] bytes, int offset, int length,
+            long seed) {
+        long h = 0xcbf29ce484222325L ^ seed;
+        for (int i = offset; i < offset + length; i++) {
+            h ^= bytes[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
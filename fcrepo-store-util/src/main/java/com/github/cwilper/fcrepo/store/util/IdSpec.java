@@ -12,10 +12,11 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.util.AbstractSet;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 /**
  * Specifies "all" or a finite set identifiers (ids, datastream ids, etc.)
@@ -24,19 +25,60 @@ import java.util.Set;
  * to a file containing a list of ids, one per line (blank lines and those
  * beginning with '#' are ignored), the string 'all', or a regular expression
  * if the string starts with '^'.
+ * <p>
+ * Regular expressions are compiled once, and ids that don't start with the
+ * literal text at the beginning of the expression are rejected without
+ * running it. Lists are loaded into a compact sorted index the first time
+ * they are matched against, so even lists of tens of millions of ids can
+ * be held in memory.
  */
 public class IdSpec implements Iterable<String> {
+    /**
+     * The default false positive rate of the Bloom filter in front of the
+     * index of listed ids.
+     */
+    public static final double DEFAULT_BLOOM_FILTER_FPP = 0.01;
+
     private final String stringValue;
-    private Set<String> set;
+    private final double bloomFilterFpp;
+    private final Pattern pattern;
+    private final String prefix;
+
+    private volatile SortedIdIndex index;
 
     /**
      * Creates an instance.
      *
      * @param stringValue a comma-separated list, a file uri, the
      *                    string 'all' (or null), or a regular expression.
+     * @throws java.util.regex.PatternSyntaxException if the regular
+     *         expression is invalid.
      */
     public IdSpec(String stringValue) {
+        this(stringValue, DEFAULT_BLOOM_FILTER_FPP);
+    }
+
+    /**
+     * Creates an instance.
+     *
+     * @param stringValue a comma-separated list, a file uri, the
+     *                    string 'all' (or null), or a regular expression.
+     * @param bloomFilterFpp the false positive rate of the Bloom filter used
+     *                    to quickly reject ids that aren't in a list, or 0
+     *                    to look up every id in the index.
+     * @throws java.util.regex.PatternSyntaxException if the regular
+     *         expression is invalid.
+     */
+    public IdSpec(String stringValue, double bloomFilterFpp) {
         this.stringValue = stringValue;
+        this.bloomFilterFpp = bloomFilterFpp;
+        if (stringValue != null && stringValue.startsWith("^")) {
+            pattern = Pattern.compile(stringValue);
+            prefix = literalPrefix(stringValue);
+        } else {
+            pattern = null;
+            prefix = "";
+        }
     }
 
     /**
@@ -46,29 +88,62 @@ public class IdSpec implements Iterable<String> {
      * @return whether it matches.
      */
     public boolean matches(String id) {
-        if (stringValue == null || stringValue.equals("all")) {
+        if (isAll()) {
             return true;
-        } else if (stringValue.startsWith("^")) {
-            return id.matches(stringValue);
+        } else if (pattern != null) {
+            return id.startsWith(prefix) && pattern.matcher(id).matches();
         } else {
-            return toSet().contains(id);
+            return getIndex().contains(id);
         }
     }
 
     /**
-     * Gets the ids as a set in memory, or <code>null</code> if
-     * this IdSpec is 'all' or based on a regular expression.
+     * Gets the text that all matching ids must start with.
+     *
+     * @return the literal text at the start of the regular expression, or
+     *         an empty string if there is none or this IdSpec isn't based on
+     *         a regular expression.
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Gets the ids as a set, or <code>null</code> if this IdSpec is 'all' or
+     * based on a regular expression. The set is a read-only view of a
+     * compact index, and iterates in sorted order rather than the order
+     * the ids were given in.
      *
      * @return the set, or <code>null</code> if this IdSpec matches all ids.
      */
     public Set<String> toSet() {
         if (isDynamic()) return null;
-        if (set != null) return set;
-        set = new HashSet<String>();
-        for (String id : this) {
-            set.add(id);
-        }
-        return set;
+        final SortedIdIndex index = getIndex();
+        return new AbstractSet<String>() {
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String && index.contains((String) o);
+            }
+
+            @Override
+            public Iterator<String> iterator() {
+                return index.iterator();
+            }
+
+            @Override
+            public int size() {
+                return index.size();
+            }
+        };
+    }
+
+    /**
+     * Tells whether this idspec matches all ids.
+     *
+     * @return whether it is 'all' (or null).
+     */
+    public boolean isAll() {
+        return stringValue == null || stringValue.equals("all");
     }
 
     public boolean isDynamic() {
@@ -77,6 +152,85 @@ public class IdSpec implements Iterable<String> {
 
     }
 
+    private SortedIdIndex getIndex() {
+        SortedIdIndex result = index;
+        if (result == null) {
+            synchronized (this) {
+                result = index;
+                if (result == null) {
+                    result = SortedIdIndex.build(iterator(), bloomFilterFpp);
+                    index = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    // the literal text at the start of an anchored regular expression,
+    // which any id it matches must start with
+    static String literalPrefix(String regex) {
+        if (regex.contains("\\Q") || hasTopLevelAlternation(regex)) {
+            return "";
+        }
+        StringBuilder prefix = new StringBuilder();
+        int i = 1;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            char literal;
+            int next;
+            if (c == '\\') {
+                if (i + 1 >= regex.length()) break;
+                literal = regex.charAt(i + 1);
+                // escaped letters and digits are classes or backreferences
+                if (Character.isLetterOrDigit(literal)) break;
+                next = i + 2;
+            } else if (".[]{}()*+?|$^".indexOf(c) >= 0) {
+                break;
+            } else {
+                literal = c;
+                next = i + 1;
+            }
+            if (next < regex.length()
+                    && "?*{".indexOf(regex.charAt(next)) >= 0) {
+                // optional, so it and any surrogate it pairs with are out
+                if (Character.isLowSurrogate(literal) && prefix.length() > 0
+                        && Character.isHighSurrogate(
+                                prefix.charAt(prefix.length() - 1))) {
+                    prefix.setLength(prefix.length() - 1);
+                }
+                break;
+            }
+            prefix.append(literal);
+            if (next < regex.length() && regex.charAt(next) == '+') break;
+            i = next;
+        }
+        return prefix.toString();
+    }
+
+    private static boolean hasTopLevelAlternation(String regex) {
+        int groupDepth = 0;
+        int classDepth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                classDepth++;
+            } else if (c == ']' && classDepth > 0) {
+                classDepth--;
+            } else if (classDepth == 0) {
+                if (c == '(') {
+                    groupDepth++;
+                } else if (c == ')') {
+                    groupDepth--;
+                } else if (c == '|' && groupDepth == 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     @Override
     public Iterator<String> iterator() {
         if (isDynamic()) throw new UnsupportedOperationException();
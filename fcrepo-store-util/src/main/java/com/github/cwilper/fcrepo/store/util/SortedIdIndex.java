@@ -0,0 +1,377 @@
+package com.github.cwilper.fcrepo.store.util;
+
+import com.github.cwilper.fcrepo.store.core.StoreException;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable set of ids stored compactly in memory.
+ * <p>
+ * Ids are kept as UTF-8 bytes in sorted order, in blocks of
+ * {@value #BLOCK_SIZE}. The first id in each block is stored whole, and
+ * the rest only store the length of the prefix they share with the id
+ * before them, followed by the remaining bytes. Since the ids in a
+ * repository tend to share long prefixes, this takes a small fraction of
+ * the memory of a <code>HashSet</code>. Lookups binary search the first
+ * ids of the blocks, then scan a single block.
+ * <p>
+ * An optional Bloom filter in front of the index answers most lookups of
+ * absent ids without searching it.
+ */
+final class SortedIdIndex implements Iterable<String> {
+    static final int BLOCK_SIZE = 32;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // largest array that can be allocated on common VMs
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private final byte[] data;
+    private final int[] blocks;
+    private final int size;
+    private final int maxLength;
+    private final BloomFilter bloomFilter;
+
+    private SortedIdIndex(byte[] data, int[] blocks, int size, int maxLength,
+            BloomFilter bloomFilter) {
+        this.data = data;
+        this.blocks = blocks;
+        this.size = size;
+        this.maxLength = maxLength;
+        this.bloomFilter = bloomFilter;
+    }
+
+    /**
+     * Builds an index. Ids needn't be in order, but building is faster if
+     * they are. Duplicates are ignored.
+     *
+     * @param ids the ids.
+     * @param falsePositiveRate the false positive rate of the Bloom filter,
+     *        or 0 for none.
+     * @return the index.
+     * @throws StoreException if there are too many ids.
+     */
+    static SortedIdIndex build(Iterator<String> ids,
+            double falsePositiveRate) {
+        // first, gather the encoded ids as length-prefixed entries
+        Bytes raw = new Bytes(1 << 16);
+        int[] offsets = new int[1024];
+        int count = 0;
+        boolean sorted = true;
+        while (ids.hasNext()) {
+            byte[] id = ids.next().getBytes(UTF8);
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, grow(offsets.length));
+            }
+            offsets[count] = raw.length;
+            raw.writeVarInt(id.length);
+            raw.write(id, 0, id.length);
+            if (sorted && count > 0 && compareEntries(raw.bytes,
+                    offsets[count - 1], offsets[count]) > 0) {
+                sorted = false;
+            }
+            count++;
+        }
+        if (!sorted) sort(raw.bytes, offsets, 0, count - 1);
+
+        // then front-code them in blocks, skipping duplicates
+        BloomFilter bloomFilter = null;
+        if (falsePositiveRate > 0) {
+            bloomFilter = new BloomFilter(count, falsePositiveRate);
+        }
+        Bytes out = new Bytes(Math.max(16, raw.length / 2));
+        int[] blocks = new int[count / BLOCK_SIZE + 1];
+        int blockCount = 0;
+        int size = 0;
+        int maxLength = 0;
+        int previous = -1;
+        for (int i = 0; i < count; i++) {
+            int entry = offsets[i];
+            if (previous != -1
+                    && compareEntries(raw.bytes, previous, entry) == 0) {
+                continue;
+            }
+            int length = readVarInt(raw.bytes, entry);
+            int start = entry + varIntSize(length);
+            if (size % BLOCK_SIZE == 0) {
+                blocks[blockCount++] = out.length;
+                out.writeVarInt(length);
+                out.write(raw.bytes, start, length);
+            } else {
+                int previousLength = readVarInt(raw.bytes, previous);
+                int previousStart = previous + varIntSize(previousLength);
+                int shared = 0;
+                int limit = Math.min(length, previousLength);
+                while (shared < limit && raw.bytes[start + shared]
+                        == raw.bytes[previousStart + shared]) {
+                    shared++;
+                }
+                out.writeVarInt(shared);
+                out.writeVarInt(length - shared);
+                out.write(raw.bytes, start + shared, length - shared);
+            }
+            if (bloomFilter != null) bloomFilter.add(raw.bytes, start, length);
+            maxLength = Math.max(maxLength, length);
+            previous = entry;
+            size++;
+        }
+        return new SortedIdIndex(Arrays.copyOf(out.bytes, out.length),
+                Arrays.copyOf(blocks, blockCount), size, maxLength,
+                bloomFilter);
+    }
+
+    /**
+     * Gets the number of distinct ids.
+     *
+     * @return the number.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Tells whether an id is in the index.
+     *
+     * @param id the id.
+     * @return whether it is.
+     */
+    boolean contains(String id) {
+        byte[] key = id.getBytes(UTF8);
+        if (bloomFilter != null && !bloomFilter.mightContain(key)) {
+            return false;
+        }
+        // find the last block whose first id is <= the key
+        int low = 0;
+        int high = blocks.length - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int offset = blocks[mid];
+            int length = readVarInt(data, offset);
+            int c = compare(data, offset + varIntSize(length), length, key);
+            if (c == 0) return true;
+            if (c < 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block == -1) return false;
+        Cursor cursor = new Cursor(block);
+        while (cursor.next() && cursor.block == block) {
+            int c = compare(cursor.current, 0, cursor.length, key);
+            if (c == 0) return true;
+            if (c > 0) return false;
+        }
+        return false;
+    }
+
+    /**
+     * Iterates the ids in order of their UTF-8 encoding.
+     *
+     * @return the iterator.
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private final Cursor cursor = new Cursor(0);
+            private boolean ready;
+            private boolean more;
+
+            @Override
+            public boolean hasNext() {
+                if (!ready) {
+                    more = cursor.next();
+                    ready = true;
+                }
+                return more;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                ready = false;
+                return new String(cursor.current, 0, cursor.length, UTF8);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    // decodes entries one at a time, starting at the given block
+    private class Cursor {
+        final byte[] current = new byte[maxLength];
+        int length;
+        int block;
+        private int offset;
+        private int index;
+
+        Cursor(int block) {
+            this.block = block;
+            this.index = block * BLOCK_SIZE;
+            this.offset = block < blocks.length ? blocks[block] : data.length;
+        }
+
+        boolean next() {
+            if (index >= size) return false;
+            block = index / BLOCK_SIZE;
+            if (index % BLOCK_SIZE == 0) {
+                length = readVarInt(data, offset);
+                offset += varIntSize(length);
+                System.arraycopy(data, offset, current, 0, length);
+                offset += length;
+            } else {
+                int shared = readVarInt(data, offset);
+                offset += varIntSize(shared);
+                int suffix = readVarInt(data, offset);
+                offset += varIntSize(suffix);
+                System.arraycopy(data, offset, current, shared, suffix);
+                offset += suffix;
+                length = shared + suffix;
+            }
+            index++;
+            return true;
+        }
+    }
+
+    // compares bytes[offset..offset+length) to key as unsigned bytes
+    private static int compare(byte[] bytes, int offset, int length,
+            byte[] key) {
+        int limit = Math.min(length, key.length);
+        for (int i = 0; i < limit; i++) {
+            int c = (bytes[offset + i] & 0xff) - (key[i] & 0xff);
+            if (c != 0) return c;
+        }
+        return length - key.length;
+    }
+
+    // compares two length-prefixed entries in the same array
+    private static int compareEntries(byte[] bytes, int a, int b) {
+        int aLength = readVarInt(bytes, a);
+        int bLength = readVarInt(bytes, b);
+        a += varIntSize(aLength);
+        b += varIntSize(bLength);
+        int limit = Math.min(aLength, bLength);
+        for (int i = 0; i < limit; i++) {
+            int c = (bytes[a + i] & 0xff) - (bytes[b + i] & 0xff);
+            if (c != 0) return c;
+        }
+        return aLength - bLength;
+    }
+
+    // sorts entry offsets[low..high] by the entries they point to
+    private static void sort(byte[] bytes, int[] offsets, int low, int high) {
+        while (high - low > 16) {
+            int mid = (low + high) >>> 1;
+            // median of three as pivot
+            if (compareEntries(bytes, offsets[mid], offsets[low]) < 0) {
+                swap(offsets, mid, low);
+            }
+            if (compareEntries(bytes, offsets[high], offsets[low]) < 0) {
+                swap(offsets, high, low);
+            }
+            if (compareEntries(bytes, offsets[high], offsets[mid]) < 0) {
+                swap(offsets, high, mid);
+            }
+            int pivot = offsets[mid];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (compareEntries(bytes, offsets[i], pivot) < 0) i++;
+                while (compareEntries(bytes, offsets[j], pivot) > 0) j--;
+                if (i <= j) swap(offsets, i++, j--);
+            }
+            // recurse into the smaller side to bound the stack depth
+            if (j - low < high - i) {
+                sort(bytes, offsets, low, j);
+                low = i;
+            } else {
+                sort(bytes, offsets, i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            int value = offsets[i];
+            int j = i - 1;
+            while (j >= low && compareEntries(bytes, offsets[j], value) > 0) {
+                offsets[j + 1] = offsets[j];
+                j--;
+            }
+            offsets[j + 1] = value;
+        }
+    }
+
+    private static void swap(int[] values, int i, int j) {
+        int value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    private static int readVarInt(byte[] bytes, int offset) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[offset++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) size++;
+        return size;
+    }
+
+    private static int grow(int capacity) {
+        if (capacity >= MAX_ARRAY_SIZE) {
+            throw new StoreException("Too many ids to index");
+        }
+        return (int) Math.min((long) capacity * 2, MAX_ARRAY_SIZE);
+    }
+
+    // a growable byte array
+    private static class Bytes {
+        byte[] bytes;
+        int length;
+
+        Bytes(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void write(byte[] b, int offset, int count) {
+            ensureCapacity(count);
+            System.arraycopy(b, offset, bytes, length, count);
+            length += count;
+        }
+
+        void writeVarInt(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7f) != 0) {
+                bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        private void ensureCapacity(int count) {
+            if ((long) length + count > MAX_ARRAY_SIZE) {
+                throw new StoreException("Too many ids to index");
+            }
+            if (length + count > bytes.length) {
+                int capacity = bytes.length;
+                while (capacity < length + count) capacity = grow(capacity);
+                bytes = Arrays.copyOf(bytes, capacity);
+            }
+        }
+    }
+}
@@ -1,56 +1,369 @@
 package com.github.cwilper.fcrepo.store.util.commands;
 
 import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+import com.github.cwilper.fcrepo.store.core.FedoraStore;
 import com.github.cwilper.fcrepo.store.core.FedoraStoreSession;
 import com.github.cwilper.fcrepo.store.core.NotFoundException;
 import com.github.cwilper.fcrepo.store.util.IdSpec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Base class for {@link Command}s that work with multiple
  * {@link FedoraObject}s in a {@link com.github.cwilper.fcrepo.store.core.FedoraStoreSession}.
+ * <p>
+ * The objects are found according to a {@link ScanPlan}, so that only
+ * objects whose pids match are read, and large stores aren't scanned in
+ * full when a few lookups or a prefix scan will do.
+ * <p>
+ * When constructed with a {@link FedoraStore} and more than one thread,
+ * objects are handled in parallel. The main thread enumerates the pids to
+ * be processed into a bounded queue, and each worker thread takes pids from
+ * the queue and reads and handles the objects using its own sessions, which
+ * are made available to subclasses and filters via {@link CommandContext}.
+ * The first error encountered by any worker stops the whole batch.
+ * <p>
+ * If a checkpoint file is set, each object is recorded there once it has
+ * been completely handled, and a later run with the same file can resume
+ * where the first left off, skipping those objects without reading them.
+ * Objects that failed or weren't found aren't recorded, so they're tried
+ * again when resuming.
  */
 public abstract class BatchObjectCommand implements Command {
     private static final Logger logger =
             LoggerFactory.getLogger(BatchObjectCommand.class);
 
+    // maximum number of pids waiting to be processed, per worker
+    static final int QUEUE_SIZE_PER_THREAD = 100;
+
     protected final FedoraStoreSession source;
     protected final IdSpec pids;
+    protected final Progress progress;
+
+    private final FedoraStore sourceStore;
+    private final int threads;
+
+    private int reportInterval;
+    private boolean sortPids;
+    private String checkpointPath;
+    private int checkpointInterval = 1000;
+    private boolean resume;
+
+    private Checkpoint checkpoint;
 
     public BatchObjectCommand(FedoraStoreSession source, IdSpec pids) {
+        this(null, source, pids, 1);
+    }
+
+    /**
+     * Creates an instance that can work in parallel.
+     *
+     * @param sourceStore the store to get sessions from.
+     * @param pids the pids of the objects to work with.
+     * @param threads the number of worker threads; if less than two, all
+     *        work will be done on the calling thread.
+     */
+    public BatchObjectCommand(FedoraStore sourceStore, IdSpec pids,
+            int threads) {
+        this(sourceStore, sourceStore.getSession(), pids, threads);
+    }
+
+    private BatchObjectCommand(FedoraStore sourceStore,
+            FedoraStoreSession source, IdSpec pids, int threads) {
+        this.sourceStore = sourceStore;
         this.source = source;
         this.pids = pids;
+        this.threads = threads;
+        this.progress = new Progress();
+        CommandContext.setProgress(progress);
+    }
+
+    /**
+     * Sets how often progress should be logged while executing. A summary
+     * is always logged at the end.
+     *
+     * @param seconds the interval in seconds, or 0 to only log the summary.
+     */
+    public void setReportInterval(int seconds) {
+        this.reportInterval = seconds;
+    }
+
+    /**
+     * Sets whether a list of pids should be processed in the order the
+     * objects are kept in storage, rather than in sorted pid order. This
+     * avoids seeking between distant directories on spinning disks, at the
+     * cost of looking up each location before starting.
+     *
+     * @param sortPids whether to process pids in storage order.
+     */
+    public void setSortPids(boolean sortPids) {
+        this.sortPids = sortPids;
+    }
+
+    /**
+     * Sets the file in which to record completed objects.
+     *
+     * @param path the path of the file, or empty or <code>null</code> to
+     *        not record them.
+     */
+    public void setCheckpoint(String path) {
+        this.checkpointPath = path;
+    }
+
+    /**
+     * Sets how many objects to record between syncs of the checkpoint file.
+     * At most this many objects will be redone after a crash.
+     *
+     * @param count the number of objects.
+     */
+    public void setCheckpointInterval(int count) {
+        this.checkpointInterval = count;
     }
-    
+
+    /**
+     * Sets whether to skip the objects already recorded in the checkpoint
+     * file, rather than starting over.
+     *
+     * @param resume whether to resume.
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
     @Override
     public void execute() {
-        if (pids.isDynamic()) {
-            for (FedoraObject object : source) {
-                if (pids.matches(object.pid())) {
-                    handleObject(object);
-                } else {
-                    logger.debug("Skipped {} (pid filtered out)",
-                            object.pid());
-                }
+        ScanPlan plan = ScanPlan.choose(source, pids, sortPids);
+        logger.info("Finding objects by {}", plan);
+        progress.setTotal(plan.getExpectedCount());
+        if (checkpointPath != null && checkpointPath.length() > 0) {
+            checkpoint = Checkpoint.open(checkpointPath, checkpointInterval,
+                    resume);
+        } else if (resume) {
+            throw new IllegalArgumentException("Can't resume without a "
+                    + "checkpoint file");
+        }
+        progress.start(reportInterval);
+        try {
+            if (isParallel()) {
+                executeInParallel(plan);
+            } else {
+                executeSerially(plan);
             }
-        } else {
-            for (String pid : pids) {
-                FedoraObject object = null;
-                try {
-                    object = source.getObject(pid);
-                } catch (NotFoundException e) {
-                    logger.warn("Skipped {} (not in source)", pid);
-                }
-                if (object != null) handleObject(object);
+        } catch (RuntimeException e) {
+            progress.failed();
+            throw e;
+        } finally {
+            try {
+                if (checkpoint != null) checkpoint.close();
+            } finally {
+                checkpoint = null;
+                progress.stop();
             }
         }
     }
-    
+
     @Override
     public void close() {
         source.close();
     }
 
-    protected abstract void handleObject(FedoraObject object);
+    /**
+     * Handles an object. Errors that should stop the whole batch are thrown;
+     * those that only affect this object are reported by returning
+     * <code>false</code>, after recording the failure in {@link #progress}.
+     *
+     * @param object the object.
+     * @return whether the object is done with, including if it was skipped,
+     *         so it needn't be handled again when resuming.
+     */
+    protected abstract boolean handleObject(FedoraObject object);
+
+    /**
+     * Called on each worker thread before it handles any objects, when
+     * executing in parallel. The default implementation makes the given
+     * session and this command's {@link Progress} available via
+     * {@link CommandContext}.
+     *
+     * @param workerSource the worker's own source session.
+     */
+    protected void startWorker(FedoraStoreSession workerSource) {
+        CommandContext.setSource(workerSource);
+        CommandContext.setProgress(progress);
+    }
+
+    /**
+     * Called on each worker thread after it has handled its last object,
+     * even if it failed, when executing in parallel. Subclasses that open
+     * additional sessions in {@link #startWorker(FedoraStoreSession)}
+     * should close them here. The worker's source session is closed
+     * automatically afterward.
+     */
+    protected void stopWorker() {
+    }
+
+    /**
+     * Tells whether {@link #execute()} will use worker threads.
+     *
+     * @return whether it will, which by default is when constructed with a
+     *         store and more than one thread.
+     */
+    boolean isParallel() {
+        return sourceStore != null && threads > 1;
+    }
+
+    /**
+     * Called on the main thread before any worker threads are started, when
+     * executing in parallel. Subclasses that hand work off to further
+     * {@link Stage}s should create and start them here, sharing the given
+     * failure reference. The default implementation does nothing.
+     *
+     * @param failure where the first error in any stage is recorded.
+     */
+    void startPipeline(AtomicReference<RuntimeException> failure) {
+    }
+
+    /**
+     * Called on the main thread after all worker threads have finished,
+     * even if one failed, when executing in parallel. Subclasses should
+     * finish any stages started in {@link #startPipeline}, in order.
+     * The default implementation does nothing.
+     */
+    void finishPipeline() {
+    }
+
+    /**
+     * Tells whether objects are still being worked on after
+     * {@link #handleObject(FedoraObject)} returns, when executing in
+     * parallel. If so, the subclass must call {@link #completed(String)}
+     * itself once each object is finished. The default implementation
+     * returns <code>false</code>.
+     *
+     * @return whether completion is deferred.
+     */
+    boolean defersCompletion() {
+        return false;
+    }
+
+    /**
+     * Records that an object has been completely handled, so it will be
+     * skipped if the run is resumed.
+     *
+     * @param pid the pid of the object.
+     */
+    void completed(String pid) {
+        Checkpoint current = checkpoint;
+        if (current != null) current.completed(pid);
+    }
+
+    // tells whether the object was completed before resuming, and if so,
+    // counts it as skipped
+    private boolean skipCompleted(String pid) {
+        if (checkpoint == null || !checkpoint.isCompleted(pid)) return false;
+        progress.skipped();
+        logger.debug("Skipped {} (completed before resuming)", pid);
+        return true;
+    }
+
+    private void executeSerially(ScanPlan plan) {
+        if (plan.getKind() == ScanPlan.Kind.FULL_SCAN && checkpoint == null) {
+            for (FedoraObject object : source) {
+                progress.scanned();
+                handleObject(object);
+            }
+            return;
+        }
+        // match on pids alone so filtered-out and completed objects are
+        // never parsed
+        Iterator<String> iterator = plan.pids(source);
+        while (iterator.hasNext()) {
+            String pid = iterator.next();
+            progress.scanned();
+            if (skipCompleted(pid)) continue;
+            if (!plan.mustMatch()) {
+                if (handlePid(source, pid, "not in source")) completed(pid);
+            } else if (pids.matches(pid)) {
+                if (handlePid(source, pid, "no longer in source")) {
+                    completed(pid);
+                }
+            } else {
+                progress.skipped();
+                logger.debug("Skipped {} (pid filtered out)", pid);
+            }
+        }
+    }
+
+    // returns whether the object was found and handled successfully
+    private boolean handlePid(FedoraStoreSession session, String pid,
+            String reasonIfMissing) {
+        FedoraObject object;
+        try {
+            object = session.getObject(pid);
+        } catch (NotFoundException e) {
+            progress.skipped();
+            logger.warn("Skipped {} ({})", pid, reasonIfMissing);
+            return false;
+        }
+        return handleObject(object);
+    }
+
+    private void executeInParallel(ScanPlan plan) {
+        final AtomicReference<RuntimeException> failure =
+                new AtomicReference<RuntimeException>();
+        Stage<String> readers = new Stage<String>("reader", threads,
+                threads * QUEUE_SIZE_PER_THREAD, failure) {
+            @Override
+            protected void setUp() {
+                startWorker(sourceStore.getSession());
+            }
+
+            @Override
+            protected void process(String pid) {
+                if (handlePid(CommandContext.getSource(), pid,
+                        "not in source") && !defersCompletion()) {
+                    completed(pid);
+                }
+            }
+
+            @Override
+            protected void tearDown() {
+                FedoraStoreSession workerSource = CommandContext.getSource();
+                try {
+                    stopWorker();
+                } finally {
+                    CommandContext.setSource(null);
+                    if (workerSource != null) workerSource.close();
+                }
+            }
+        };
+        startPipeline(failure);
+        try {
+            readers.start();
+            try {
+                Iterator<String> iterator = plan.pids(source);
+                while (iterator.hasNext() && failure.get() == null) {
+                    String pid = iterator.next();
+                    progress.scanned();
+                    if (skipCompleted(pid)) continue;
+                    if (!plan.mustMatch() || pids.matches(pid)) {
+                        readers.put(pid);
+                    } else {
+                        progress.skipped();
+                        logger.debug("Skipped {} (pid filtered out)", pid);
+                    }
+                }
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                readers.finish();
+            }
+        } finally {
+            finishPipeline();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
 }
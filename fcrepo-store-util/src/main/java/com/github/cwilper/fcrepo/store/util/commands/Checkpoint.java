@@ -0,0 +1,147 @@
+package com.github.cwilper.fcrepo.store.util.commands;
+
+import com.github.cwilper.fcrepo.store.core.StoreException;
+import com.github.cwilper.fcrepo.store.util.IdSpec;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+
+/**
+ * A durable record of the objects a {@link BatchObjectCommand} has finished
+ * with, so that an interrupted run can be resumed without redoing them.
+ * <p>
+ * Completed pids are appended to a file, one per line, in the order they
+ * complete, so the same file works for serial and parallel runs. Every
+ * <code>interval</code> pids, the file is flushed and synced to disk, so
+ * at most that many objects are redone after a crash.
+ * <p>
+ * When resuming, the pids already in the file are loaded into a compact
+ * {@link IdSpec} index, after discarding any partial line left by a crash.
+ */
+final class Checkpoint {
+    private static final Logger logger =
+            LoggerFactory.getLogger(Checkpoint.class);
+
+    private final File file;
+    private final int interval;
+    private final IdSpec completed;
+    private final FileOutputStream outputStream;
+    private final Writer writer;
+
+    private int unsynced;
+
+    private Checkpoint(File file, int interval, IdSpec completed)
+            throws IOException {
+        this.file = file;
+        this.interval = Math.max(1, interval);
+        this.completed = completed;
+        this.outputStream = new FileOutputStream(file, completed != null);
+        this.writer = new BufferedWriter(new OutputStreamWriter(
+                outputStream, "UTF-8"));
+    }
+
+    /**
+     * Opens a checkpoint file.
+     *
+     * @param path the path of the file.
+     * @param interval how many pids to record between syncs.
+     * @param resume whether to keep the pids already recorded, if the file
+     *        exists, rather than starting over.
+     * @return the checkpoint.
+     * @throws StoreException if the file can't be read or written.
+     */
+    static Checkpoint open(String path, int interval, boolean resume) {
+        File file = new File(path);
+        IdSpec completed = null;
+        try {
+            if (resume && file.exists()) {
+                truncatePartialLine(file);
+                completed = new IdSpec(file.toURI().toString());
+                logger.info("Resuming from checkpoint {}; {} objects were "
+                        + "completed", file, completed.toSet().size());
+            } else if (resume) {
+                logger.info("No checkpoint at {}; starting from the "
+                        + "beginning", file);
+            }
+            return new Checkpoint(file, interval, completed);
+        } catch (IOException e) {
+            throw new StoreException("Error opening checkpoint " + file, e);
+        }
+    }
+
+    /**
+     * Tells whether an object was completed before resuming.
+     *
+     * @param pid the pid.
+     * @return whether it was.
+     */
+    boolean isCompleted(String pid) {
+        return completed != null && completed.matches(pid);
+    }
+
+    /**
+     * Records that an object has been completed.
+     *
+     * @param pid the pid.
+     * @throws StoreException if the checkpoint can't be written.
+     */
+    synchronized void completed(String pid) {
+        try {
+            writer.write(pid);
+            writer.write('\n');
+            if (++unsynced >= interval) sync();
+        } catch (IOException e) {
+            throw new StoreException("Error writing checkpoint " + file, e);
+        }
+    }
+
+    /**
+     * Syncs any unsynced pids to disk and closes the file.
+     *
+     * @throws StoreException if the checkpoint can't be written.
+     */
+    synchronized void close() {
+        try {
+            sync();
+            writer.close();
+        } catch (IOException e) {
+            throw new StoreException("Error writing checkpoint " + file, e);
+        } finally {
+            IOUtils.closeQuietly(outputStream);
+        }
+    }
+
+    private void sync() throws IOException {
+        writer.flush();
+        outputStream.getFD().sync();
+        unsynced = 0;
+    }
+
+    // a partial last line may be the prefix of a pid that wasn't completed
+    private static void truncatePartialLine(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long length = raf.length();
+            while (length > 0) {
+                raf.seek(length - 1);
+                if (raf.read() == '\n') break;
+                length--;
+            }
+            if (length < raf.length()) {
+                logger.warn("Discarding partial last line of checkpoint {}",
+                        file);
+                raf.setLength(length);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -16,6 +16,9 @@ public final class CommandContext {
 
     private static final ThreadLocal<FedoraObject> tObject =
             new ThreadLocal<FedoraObject>();
+
+    private static final ThreadLocal<Progress> tProgress =
+            new ThreadLocal<Progress>();
     
     private CommandContext() { }
 
@@ -42,4 +45,12 @@ public final class CommandContext {
     public static FedoraObject getObject() {
         return tObject.get();
     }
+
+    public static void setProgress(Progress progress) {
+        tProgress.set(progress);
+    }
+
+    public static Progress getProgress() {
+        return tProgress.get();
+    }
 }
@@ -1,5 +1,6 @@
 package com.github.cwilper.fcrepo.store.util.commands;
 
+import com.github.cwilper.fcrepo.dto.core.ContentDigest;
 import com.github.cwilper.fcrepo.dto.core.ControlGroup;
 import com.github.cwilper.fcrepo.dto.core.Datastream;
 import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
@@ -13,74 +14,519 @@ import com.github.cwilper.ttff.Filter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Copies {@link FedoraObject}s from one {@link FedoraStore} to another.
+ * <p>
+ * When run with multiple threads, the copy is done as a pipeline of three
+ * stages, each with its own worker threads and sessions: reading and
+ * filtering source objects, writing objects to the destination, and
+ * copying their managed content. This keeps both stores busy at once.
+ * An object is only recorded as completed in the checkpoint, if any, once
+ * it has been written and all of its content copied.
+ * <p>
+ * In incremental mode, each object is compared with its copy in the
+ * destination, if any. Objects with the same last modified date aren't
+ * written, and only content missing from the destination, as after an
+ * interrupted run, is copied. Changed objects are replaced, but only the
+ * content of new datastream versions, or those whose size or digest differs
+ * or isn't known, is copied. Nothing is deleted from the destination unless
+ * asked: datastream versions the source no longer has are kept in the
+ * destination's copy of the object, along with their content.
+ * <p>
+ * When both stores keep content in local files on the same volume, content
+ * can be hard-linked or moved into the destination instead of being copied
+ * byte by byte. Content that can't be is copied as usual. Moving leaves the
+ * source's objects referring to content that's no longer there, so it's
+ * only done if the source is to be discarded.
  */
 public class CopyCommand extends FilteringBatchObjectCommand {
     private static final Logger logger =
             LoggerFactory.getLogger(CopyCommand.class);
 
+    private final FedoraStore sourceStore;
+    private final FedoraStore destinationStore;
     private final FedoraStoreSession destination;
     private final boolean withContent;
     private final boolean overwrite;
-    
+    private final int writeThreads;
+    private final int contentThreads;
+
+    private boolean incremental;
+    private boolean deleteRemoved;
+    private boolean linkContent;
+    private boolean moveContent;
+    private boolean discardSource;
+
+    private Stage<FedoraObject> writers;
+    private Stage<ContentItem> contentCopiers;
+
     public CopyCommand(FedoraStore source, FedoraStore destination,
             IdSpec pids, Filter<FedoraObject> filter, boolean withContent,
             boolean overwrite) {
-        super(source.getSession(), pids, filter);
+        this(source, destination, pids, filter, withContent, overwrite, 1);
+    }
+
+    public CopyCommand(FedoraStore source, FedoraStore destination,
+            IdSpec pids, Filter<FedoraObject> filter, boolean withContent,
+            boolean overwrite, int threads) {
+        this(source, destination, pids, filter, withContent, overwrite,
+                threads, 0, 0);
+    }
+
+    /**
+     * Creates an instance with separately-sized pipeline stages.
+     *
+     * @param source the store to copy from.
+     * @param destination the store to copy to.
+     * @param pids the pids of the objects to copy.
+     * @param filter the filter to apply to each object.
+     * @param withContent whether to copy managed content.
+     * @param overwrite whether to replace existing objects.
+     * @param threads the number of threads reading and filtering objects.
+     * @param writeThreads the number of threads writing objects, or 0 to
+     *        use the same number as <code>threads</code>.
+     * @param contentThreads the number of threads copying content, or 0 to
+     *        use the same number as <code>threads</code>.
+     */
+    public CopyCommand(FedoraStore source, FedoraStore destination,
+            IdSpec pids, Filter<FedoraObject> filter, boolean withContent,
+            boolean overwrite, int threads, int writeThreads,
+            int contentThreads) {
+        super(source, pids, filter, threads);
+        this.sourceStore = source;
+        this.destinationStore = destination;
         this.destination = destination.getSession();
         this.withContent = withContent;
         this.overwrite = overwrite;
+        this.writeThreads = writeThreads > 0 ? writeThreads : threads;
+        this.contentThreads = contentThreads > 0 ? contentThreads : threads;
         CommandContext.setDestination(this.destination);
     }
-    
+
+    /**
+     * Sets whether to only copy objects and content that are new or have
+     * changed since the destination was last updated. If so, changed
+     * objects are replaced regardless of the <code>overwrite</code> setting.
+     *
+     * @param incremental whether to copy incrementally.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Sets whether an incremental copy should delete datastream versions
+     * the source no longer has, and their content, from the destination.
+     * If not, they're kept in the destination's copy of the object.
+     *
+     * @param deleteRemoved whether to delete them.
+     */
+    public void setDeleteRemoved(boolean deleteRemoved) {
+        this.deleteRemoved = deleteRemoved;
+    }
+
+    /**
+     * Sets how managed content is put into the destination.
+     *
+     * @param mode <code>copy</code> to copy bytes, <code>link</code> to
+     *        hard-link the source file where possible, or <code>move</code>
+     *        to move the source file where possible. Moving leaves the
+     *        source store without that content, and requires
+     *        {@link #setDiscardSource(boolean)}.
+     * @throws IllegalArgumentException if the mode is unrecognized.
+     */
+    public void setContentTransfer(String mode) {
+        if (mode.equals("copy")) {
+            linkContent = false;
+            moveContent = false;
+        } else if (mode.equals("link")) {
+            linkContent = true;
+            moveContent = false;
+        } else if (mode.equals("move")) {
+            linkContent = true;
+            moveContent = true;
+        } else {
+            throw new IllegalArgumentException("Unrecognized content "
+                    + "transfer mode: " + mode);
+        }
+    }
+
+    /**
+     * Sets whether the source store is to be discarded after the copy, as
+     * required for content to be moved out of it.
+     *
+     * @param discardSource whether it is.
+     */
+    public void setDiscardSource(boolean discardSource) {
+        this.discardSource = discardSource;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if content is to be moved but the
+     *         source isn't to be discarded.
+     */
+    @Override
+    public void execute() {
+        if (moveContent && !discardSource) {
+            throw new IllegalArgumentException("Can't move content unless "
+                    + "the source is to be discarded");
+        }
+        super.execute();
+    }
+
     @Override
     public void close() {
         super.close();
         destination.close();
     }
 
+    @Override
+    boolean isParallel() {
+        return super.isParallel() || writeThreads > 1 || contentThreads > 1;
+    }
+
+    @Override
+    protected void startWorker(FedoraStoreSession workerSource) {
+        super.startWorker(workerSource);
+        CommandContext.setDestination(destinationStore.getSession());
+    }
+
+    @Override
+    protected void stopWorker() {
+        FedoraStoreSession workerDestination = CommandContext.getDestination();
+        CommandContext.setDestination(null);
+        if (workerDestination != null) workerDestination.close();
+    }
+
+    @Override
+    void startPipeline(AtomicReference<RuntimeException> failure) {
+        if (withContent) {
+            contentCopiers = new Stage<ContentItem>("content", contentThreads,
+                    contentThreads * QUEUE_SIZE_PER_THREAD, failure) {
+                @Override
+                protected void setUp() {
+                    CommandContext.setSource(sourceStore.getSession());
+                    CommandContext.setDestination(
+                            destinationStore.getSession());
+                }
+
+                @Override
+                protected void process(ContentItem item) {
+                    copyContent(CommandContext.getSource(),
+                            CommandContext.getDestination(), item.pid,
+                            item.datastreamId, item.datastreamVersionId);
+                    if (item.remaining.decrementAndGet() == 0) {
+                        completed(item.pid);
+                    }
+                }
+
+                @Override
+                protected void tearDown() {
+                    closeContextSessions();
+                }
+            };
+            contentCopiers.start();
+        }
+        writers = new Stage<FedoraObject>("writer", writeThreads,
+                writeThreads * QUEUE_SIZE_PER_THREAD, failure) {
+            @Override
+            protected void setUp() {
+                CommandContext.setDestination(destinationStore.getSession());
+            }
+
+            @Override
+            protected void process(FedoraObject object) {
+                List<ContentItem> items = writeObject(
+                        CommandContext.getDestination(), object);
+                if (items == null || items.isEmpty()) {
+                    completed(object.pid());
+                } else {
+                    for (ContentItem item : items) {
+                        contentCopiers.put(item);
+                    }
+                }
+            }
+
+            @Override
+            protected void tearDown() {
+                closeContextSessions();
+            }
+        };
+        writers.start();
+    }
+
+    @Override
+    void finishPipeline() {
+        try {
+            if (writers != null) writers.finish();
+        } finally {
+            if (contentCopiers != null) contentCopiers.finish();
+            writers = null;
+            contentCopiers = null;
+        }
+    }
+
+    @Override
+    boolean defersCompletion() {
+        return writers != null;
+    }
+
     @Override
     protected void handleFilteredObject(FedoraObject object) {
+        if (writers != null) {
+            writers.put(object);
+        } else {
+            List<ContentItem> items = writeObject(
+                    CommandContext.getDestination(), object);
+            if (items == null) return;
+            for (ContentItem item : items) {
+                copyContent(CommandContext.getSource(),
+                        CommandContext.getDestination(), item.pid,
+                        item.datastreamId, item.datastreamVersionId);
+            }
+        }
+    }
+
+    // returns the content that needs to be copied afterward, or null if the
+    // object was skipped
+    private List<ContentItem> writeObject(FedoraStoreSession destination,
+            FedoraObject object) {
+        if (incremental) return syncObject(destination, object);
         try {
             destination.addObject(object);
-            logger.info("Copied {}", object.pid());
+            logger.debug("Copied {}", object.pid());
         } catch (ExistsException e) {
             if (overwrite) {
                 destination.updateObject(object);
-                logger.info("Replaced {}",
+                logger.debug("Replaced {}",
                         object.pid());
             } else {
-                logger.info("Skipped {} (exists in destination)",
+                progress.skipped();
+                logger.debug("Skipped {} (exists in destination)",
                         object.pid());
-                return;
+                return null;
             }
         }
-        if (withContent) {
-            for (Datastream datastream : object.datastreams().values()) {
-                if (datastream.controlGroup() == ControlGroup.MANAGED) {
-                    for (DatastreamVersion version : datastream.versions()) {
-                        String info = object.pid() + "/" + datastream.id() +
-                                "/" + version.id();
-                        try {
-                            InputStream content = source.getContent(
-                                    object.pid(), datastream.id(),
-                                    version.id());
-                            if (content != null) {
-                                destination.setContent(
-                                        object.pid(), datastream.id(),
-                                        version.id(), content);
-                                logger.info("Copied content of {}", info);
-                            }
-                        } catch (NotFoundException e) {
-                            logger.debug(
-                                    "Skipped content of {} (not in source)");
-                        }
+        progress.processed();
+        return getContentItems(null, object, null);
+    }
+
+    private List<ContentItem> syncObject(FedoraStoreSession destination,
+            FedoraObject object) {
+        FedoraObject existing;
+        try {
+            existing = destination.getObject(object.pid());
+        } catch (NotFoundException e) {
+            existing = null;
+        }
+        List<ContentItem> items;
+        if (existing == null) {
+            destination.addObject(object);
+            logger.debug("Copied {}", object.pid());
+            items = getContentItems(null, object, null);
+        } else if (object.lastModifiedDate() != null
+                && object.lastModifiedDate().equals(
+                        existing.lastModifiedDate())) {
+            // objects are written before their content, so an interrupted
+            // run may have left some of it out
+            items = getContentItems(destination, object, object);
+            if (items.isEmpty()) {
+                progress.skipped();
+                logger.debug("Skipped {} (unchanged)", object.pid());
+                return null;
+            }
+            logger.debug("Copying missing content of {}", object.pid());
+        } else {
+            items = getContentItems(destination, object, existing);
+            if (!deleteRemoved) keepRemovedVersions(object, existing);
+            destination.updateObject(object);
+            logger.debug("Updated {}", object.pid());
+        }
+        progress.processed();
+        return items;
+    }
+
+    // adds the datastreams and versions of the previous copy that the object
+    // no longer has, so updating the destination doesn't delete them
+    private static void keepRemovedVersions(FedoraObject object,
+            FedoraObject previous) {
+        for (Datastream previousDatastream
+                : previous.datastreams().values()) {
+            Datastream datastream = object.datastreams().get(
+                    previousDatastream.id());
+            if (datastream == null) {
+                object.putDatastream(previousDatastream);
+                logger.debug("Kept {}/{} (not in source)", object.pid(),
+                        previousDatastream.id());
+                continue;
+            }
+            for (DatastreamVersion version : previousDatastream.versions()) {
+                if (!hasVersion(datastream, version.id())) {
+                    datastream.versions().add(version);
+                    logger.debug("Kept {}/{}/{} (not in source)",
+                            new Object[] { object.pid(), datastream.id(),
+                            version.id() });
+                }
+            }
+        }
+    }
+
+    private static boolean hasVersion(Datastream datastream,
+            String datastreamVersionId) {
+        for (DatastreamVersion version : datastream.versions()) {
+            if (version.id().equals(datastreamVersionId)) return true;
+        }
+        return false;
+    }
+
+    private void copyContent(FedoraStoreSession source,
+            FedoraStoreSession destination, String pid, String datastreamId,
+            String datastreamVersionId) {
+        String info = pid + "/" + datastreamId + "/" + datastreamVersionId;
+        try {
+            if (linkContent) {
+                File file = source.getContentFile(pid, datastreamId,
+                        datastreamVersionId);
+                if (file != null && destination.importContent(pid,
+                        datastreamId, datastreamVersionId, file,
+                        moveContent)) {
+                    logger.debug("{} content of {}",
+                            moveContent ? "Moved" : "Linked", info);
+                    return;
+                }
+            }
+            InputStream content = source.getContent(pid, datastreamId,
+                    datastreamVersionId);
+            if (content != null) {
+                destination.setContent(pid, datastreamId,
+                        datastreamVersionId, progress.countTransfer(content));
+                logger.debug("Copied content of {}", info);
+            }
+        } catch (NotFoundException e) {
+            logger.debug("Skipped content of {} (not in source)", info);
+        }
+    }
+
+    // gets the managed content of the object, less any versions that are the
+    // same in the previous copy, if given, and are in the destination
+    private List<ContentItem> getContentItems(FedoraStoreSession destination,
+            FedoraObject object, FedoraObject previous) {
+        List<ContentItem> items = new ArrayList<ContentItem>();
+        if (!withContent) return items;
+        AtomicInteger remaining = new AtomicInteger();
+        for (Datastream datastream : object.datastreams().values()) {
+            if (datastream.controlGroup() == ControlGroup.MANAGED) {
+                for (DatastreamVersion version : datastream.versions()) {
+                    if (previous != null && isSameContent(version,
+                            getVersion(previous, datastream.id(),
+                                    version.id()), previous == object)
+                            && hasContent(destination, object.pid(),
+                                    datastream.id(), version.id())) {
+                        logger.debug("Skipped content of {}/{}/{} "
+                                + "(unchanged)", new Object[] {
+                                object.pid(), datastream.id(),
+                                version.id() });
+                        continue;
                     }
+                    items.add(new ContentItem(object.pid(), datastream.id(),
+                            version.id(), remaining));
                 }
             }
         }
+        remaining.set(items.size());
+        return items;
+    }
+
+    private static boolean hasContent(FedoraStoreSession destination,
+            String pid, String datastreamId, String datastreamVersionId) {
+        try {
+            destination.getContentLength(pid, datastreamId,
+                    datastreamVersionId);
+            return true;
+        } catch (NotFoundException e) {
+            return false;
+        }
+    }
+
+    private static DatastreamVersion getVersion(FedoraObject object,
+            String datastreamId, String datastreamVersionId) {
+        Datastream datastream = object.datastreams().get(datastreamId);
+        if (datastream == null
+                || datastream.controlGroup() != ControlGroup.MANAGED) {
+            return null;
+        }
+        for (DatastreamVersion version : datastream.versions()) {
+            if (version.id().equals(datastreamVersionId)) return version;
+        }
+        return null;
+    }
+
+    // same if everything known about both matches, and something is known,
+    // unless the object is unchanged, in which case its versions are too
+    private static boolean isSameContent(DatastreamVersion version,
+            DatastreamVersion previous, boolean unchanged) {
+        if (previous == null) return false;
+        if (unchanged) return true;
+        boolean known = false;
+        // Fedora records 0 or -1 when the size isn't known
+        if (version.size() != null && version.size() > 0) {
+            if (!version.size().equals(previous.size())) return false;
+            known = true;
+        }
+        ContentDigest digest = version.contentDigest();
+        if (isKnown(digest)) {
+            ContentDigest previousDigest = previous.contentDigest();
+            if (!isKnown(previousDigest)
+                    || !digest.type().equals(previousDigest.type())
+                    || !digest.hexValue().equalsIgnoreCase(
+                            previousDigest.hexValue())) {
+                return false;
+            }
+            known = true;
+        }
+        return known;
+    }
+
+    // Fedora records a DISABLED type and "none" value when there's no digest
+    private static boolean isKnown(ContentDigest digest) {
+        return digest != null && digest.type() != null
+                && !digest.type().equals("DISABLED")
+                && digest.hexValue() != null
+                && !digest.hexValue().equalsIgnoreCase("none");
+    }
+
+    private static void closeContextSessions() {
+        FedoraStoreSession workerSource = CommandContext.getSource();
+        FedoraStoreSession workerDestination = CommandContext.getDestination();
+        CommandContext.setSource(null);
+        CommandContext.setDestination(null);
+        if (workerSource != null) workerSource.close();
+        if (workerDestination != null) workerDestination.close();
+    }
+
+    // managed content waiting to be copied
+    private static class ContentItem {
+        final String pid;
+        final String datastreamId;
+        final String datastreamVersionId;
+        // items of the same object still to be copied
+        final AtomicInteger remaining;
+
+        ContentItem(String pid, String datastreamId,
+                String datastreamVersionId, AtomicInteger remaining) {
+            this.pid = pid;
+            this.datastreamId = datastreamId;
+            this.datastreamVersionId = datastreamVersionId;
+            this.remaining = remaining;
+        }
     }
 }
@@ -16,12 +16,18 @@ public class DeleteCommand extends FilteringBatchObjectCommand {
 
     public DeleteCommand(FedoraStore source, IdSpec pids,
             Filter<FedoraObject> filter) {
-        super(source.getSession(), pids, filter);
+        this(source, pids, filter, 1);
+    }
+
+    public DeleteCommand(FedoraStore source, IdSpec pids,
+            Filter<FedoraObject> filter, int threads) {
+        super(source, pids, filter, threads);
     }
 
     @Override
     protected void handleFilteredObject(FedoraObject object) {
-        source.deleteObject(object.pid());
-        logger.info("Deleted {}", object.pid());
+        CommandContext.getSource().deleteObject(object.pid());
+        progress.processed();
+        logger.debug("Deleted {}", object.pid());
     }
 }
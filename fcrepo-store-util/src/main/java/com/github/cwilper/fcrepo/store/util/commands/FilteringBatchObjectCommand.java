@@ -1,6 +1,7 @@
 package com.github.cwilper.fcrepo.store.util.commands;
 
 import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+import com.github.cwilper.fcrepo.store.core.FedoraStore;
 import com.github.cwilper.fcrepo.store.core.FedoraStoreSession;
 import com.github.cwilper.fcrepo.store.util.IdSpec;
 import com.github.cwilper.ttff.Filter;
@@ -26,20 +27,46 @@ public abstract class FilteringBatchObjectCommand
         CommandContext.setDestination(source);
     }
 
+    public FilteringBatchObjectCommand(FedoraStore source, IdSpec pids,
+            Filter<FedoraObject> filter, int threads) {
+        super(source, pids, threads);
+        this.filter = filter;
+        CommandContext.setSource(this.source);
+        CommandContext.setDestination(this.source);
+    }
+
     @Override
-    public void handleObject(FedoraObject object) {
+    protected void startWorker(FedoraStoreSession workerSource) {
+        super.startWorker(workerSource);
+        CommandContext.setDestination(workerSource);
+    }
+
+    @Override
+    public boolean handleObject(FedoraObject object) {
         String pid = object.pid();
         try {
             object = filter.accept(object);
-            if (object == null) {
-                logger.debug("Skipped {} (filtered out)", pid);
-            } else {
-                handleFilteredObject(object);
-            }
         } catch (IOException e) {
-            logger.warn("Skipped {} (error filtering)" + pid, e);
+            progress.failed();
+            logger.warn("Skipped " + pid + " (error filtering)", e);
+            return false;
+        }
+        if (object == null) {
+            progress.skipped();
+            logger.debug("Skipped {} (filtered out)", pid);
+            // nothing further will complete it
+            if (defersCompletion()) completed(pid);
+        } else {
+            handleFilteredObject(object);
         }
+        return true;
     }
 
+    /**
+     * Handles an object that has passed the filter. Implementations should
+     * record the outcome in {@link #progress}.
+     *
+     * @param object the filtered object.
+     */
     protected abstract void handleFilteredObject(FedoraObject object);
 }
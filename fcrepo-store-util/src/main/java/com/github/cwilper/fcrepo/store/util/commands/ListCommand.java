@@ -2,6 +2,7 @@ package com.github.cwilper.fcrepo.store.util.commands;
 
 import com.github.cwilper.fcrepo.dto.core.FedoraObject;
 import com.github.cwilper.fcrepo.store.core.FedoraStore;
+import com.github.cwilper.fcrepo.store.core.FedoraStoreSession;
 import com.github.cwilper.fcrepo.store.util.IdSpec;
 import com.github.cwilper.ttff.Filter;
 import org.slf4j.Logger;
@@ -16,14 +17,26 @@ public class ListCommand extends FilteringBatchObjectCommand {
 
     public ListCommand(FedoraStore source, IdSpec pids,
             Filter<FedoraObject> filter) {
-        super(source.getSession(), pids, filter);
+        this(source, pids, filter, 1);
+    }
+
+    public ListCommand(FedoraStore source, IdSpec pids,
+            Filter<FedoraObject> filter, int threads) {
+        super(source, pids, filter, threads);
         // if a content-modifying filter is accidently used with this
         // command, prevent it from writing
         CommandContext.setDestination(null);
     }
 
+    @Override
+    protected void startWorker(FedoraStoreSession workerSource) {
+        super.startWorker(workerSource);
+        CommandContext.setDestination(null);
+    }
+
     @Override
     protected void handleFilteredObject(FedoraObject object) {
+        progress.processed();
         logger.info("Processed {}", object.pid());
     }
 }
@@ -0,0 +1,220 @@
+package com.github.cwilper.fcrepo.store.util.commands;
+
+import com.github.cwilper.fcrepo.store.core.StoreException;
+import com.google.common.collect.AbstractIterator;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Puts pids in the order of their storage locations, then pids, without
+ * holding them all in memory. Pids whose location is unknown go last, in
+ * pid order.
+ * <p>
+ * Pairs are sorted in memory in runs of up to a fixed number. If there's
+ * more than one run, each is written to a temporary file, and the sorted
+ * pids are read back by merging the files, which are deleted once read.
+ */
+final class LocationSorter {
+    /** Default maximum number of pairs held in memory at once. */
+    static final int DEFAULT_RUN_SIZE = 100000;
+
+    // orders pid and location pairs by location, unknown last, then pid
+    private static final Comparator<String[]> LOCATION_ORDER =
+            new Comparator<String[]>() {
+        @Override
+        public int compare(String[] a, String[] b) {
+            if (a[1] == null || b[1] == null) {
+                if (a[1] != null) return -1;
+                if (b[1] != null) return 1;
+            } else {
+                int c = a[1].compareTo(b[1]);
+                if (c != 0) return c;
+            }
+            return a[0].compareTo(b[0]);
+        }
+    };
+
+    private final int runSize;
+    private final List<File> runFiles = new ArrayList<File>();
+
+    private List<String[]> run;
+
+    /**
+     * Creates an instance that holds up to {@value #DEFAULT_RUN_SIZE}
+     * pairs in memory.
+     */
+    LocationSorter() {
+        this(DEFAULT_RUN_SIZE);
+    }
+
+    /**
+     * Creates an instance.
+     *
+     * @param runSize the maximum number of pairs to hold in memory.
+     */
+    LocationSorter(int runSize) {
+        this.runSize = runSize;
+        this.run = new ArrayList<String[]>(Math.min(runSize, 1024));
+    }
+
+    /**
+     * Adds a pid.
+     *
+     * @param pid the pid.
+     * @param location its location, or <code>null</code> if unknown.
+     * @throws StoreException if a run can't be written.
+     */
+    void add(String pid, String location) {
+        run.add(new String[] { pid, location });
+        if (run.size() == runSize) writeRun();
+    }
+
+    /**
+     * Gets the pids in order. No more pids may be added afterward.
+     *
+     * @return the pids.
+     * @throws StoreException if the runs can't be read back.
+     */
+    Iterator<String> iterator() {
+        Collections.sort(run, LOCATION_ORDER);
+        if (runFiles.isEmpty()) {
+            final Iterator<String[]> pairs = run.iterator();
+            run = null;
+            return new AbstractIterator<String>() {
+                @Override
+                protected String computeNext() {
+                    if (!pairs.hasNext()) return endOfData();
+                    return pairs.next()[0];
+                }
+            };
+        }
+        if (run.size() > 0) writeRun();
+        run = null;
+        return new Merger();
+    }
+
+    private void writeRun() {
+        Collections.sort(run, LOCATION_ORDER);
+        File file = null;
+        DataOutputStream out = null;
+        try {
+            file = File.createTempFile("fcrepo-store-sort", null);
+            file.deleteOnExit();
+            runFiles.add(file);
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file)));
+            for (String[] pair : run) {
+                out.writeUTF(pair[0]);
+                out.writeBoolean(pair[1] != null);
+                if (pair[1] != null) out.writeUTF(pair[1]);
+            }
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            deleteRuns();
+            throw new StoreException("Error writing sort run " + file, e);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+        run.clear();
+    }
+
+    private void deleteRuns() {
+        for (File file : runFiles) {
+            file.delete();
+        }
+    }
+
+    // reads back one run file
+    private static class Run {
+        private final File file;
+        private final DataInputStream in;
+        private String[] head;
+
+        Run(File file) throws IOException {
+            this.file = file;
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+        }
+
+        // moves to the next pair, returning false and deleting the file
+        // at the end
+        boolean advance() throws IOException {
+            String pid;
+            try {
+                pid = in.readUTF();
+            } catch (EOFException e) {
+                close();
+                return false;
+            }
+            head = new String[] { pid, in.readBoolean() ? in.readUTF() : null };
+            return true;
+        }
+
+        void close() {
+            IOUtils.closeQuietly(in);
+            file.delete();
+        }
+    }
+
+    // merges the run files
+    private class Merger extends AbstractIterator<String> {
+        private final PriorityQueue<Run> queue = new PriorityQueue<Run>(
+                runFiles.size(), new Comparator<Run>() {
+            @Override
+            public int compare(Run a, Run b) {
+                return LOCATION_ORDER.compare(a.head, b.head);
+            }
+        });
+
+        Merger() {
+            try {
+                for (File file : runFiles) {
+                    Run r = new Run(file);
+                    if (r.advance()) queue.add(r);
+                }
+            } catch (IOException e) {
+                closeAll();
+                throw new StoreException("Error reading sort runs", e);
+            }
+        }
+
+        @Override
+        protected String computeNext() {
+            Run r = queue.poll();
+            if (r == null) return endOfData();
+            String pid = r.head[0];
+            try {
+                if (r.advance()) queue.add(r);
+            } catch (IOException e) {
+                r.close();
+                closeAll();
+                throw new StoreException("Error reading sort runs", e);
+            }
+            return pid;
+        }
+
+        private void closeAll() {
+            for (Run r : queue) {
+                r.close();
+            }
+            queue.clear();
+            deleteRuns();
+        }
+    }
+}
@@ -16,12 +16,18 @@ public class ModifyCommand extends FilteringBatchObjectCommand {
 
     public ModifyCommand(FedoraStore source, IdSpec pids,
             Filter<FedoraObject> filter) {
-        super(source.getSession(), pids, filter);
+        this(source, pids, filter, 1);
+    }
+
+    public ModifyCommand(FedoraStore source, IdSpec pids,
+            Filter<FedoraObject> filter, int threads) {
+        super(source, pids, filter, threads);
     }
 
     @Override
     protected void handleFilteredObject(FedoraObject object) {
-        source.updateObject(object);
-        logger.info("Modified {}", object.pid());
+        CommandContext.getSource().updateObject(object);
+        progress.processed();
+        logger.debug("Modified {}", object.pid());
     }
 }
@@ -0,0 +1,287 @@
+package com.github.cwilper.fcrepo.store.util.commands;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the work done by a {@link BatchObjectCommand} and periodically
+ * logs it, along with throughput and, when the number of objects is known
+ * in advance, an estimated time to completion.
+ * <p>
+ * Instances are threadsafe.
+ */
+public class Progress {
+    private static final Logger logger =
+            LoggerFactory.getLogger(Progress.class);
+
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    private volatile long total = -1;
+
+    private long startTime;
+    private long lastReportTime;
+    private long lastReportDone;
+    private Thread reporter;
+
+    /**
+     * Records that an object has been enumerated.
+     */
+    public void scanned() {
+        scanned.incrementAndGet();
+    }
+
+    /**
+     * Records that an object has been fully handled.
+     */
+    public void processed() {
+        processed.incrementAndGet();
+    }
+
+    /**
+     * Records that an object has been passed over, e.g. because it was
+     * filtered out or doesn't exist.
+     */
+    public void skipped() {
+        skipped.incrementAndGet();
+    }
+
+    /**
+     * Records that an object could not be handled due to an error.
+     */
+    public void failed() {
+        failed.incrementAndGet();
+    }
+
+    /**
+     * Records that content has been read.
+     *
+     * @param count the number of bytes.
+     */
+    public void bytesRead(long count) {
+        bytesRead.addAndGet(count);
+    }
+
+    /**
+     * Records that content has been written.
+     *
+     * @param count the number of bytes.
+     */
+    public void bytesWritten(long count) {
+        bytesWritten.addAndGet(count);
+    }
+
+    /**
+     * Sets the number of objects expected to be scanned.
+     *
+     * @param total the number, or -1 if unknown.
+     */
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    /**
+     * Gets a stream that records the bytes read from the given one.
+     *
+     * @param inputStream the stream to wrap.
+     * @return the wrapped stream.
+     */
+    public InputStream countReads(InputStream inputStream) {
+        return new CountingInputStream(inputStream, false);
+    }
+
+    /**
+     * Gets a stream that records the bytes read from the given one as both
+     * read and written. This is for content that is being copied by a
+     * consumer of the stream.
+     *
+     * @param inputStream the stream to wrap.
+     * @return the wrapped stream.
+     */
+    public InputStream countTransfer(InputStream inputStream) {
+        return new CountingInputStream(inputStream, true);
+    }
+
+    public long getScanned() {
+        return scanned.get();
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * Starts the clock, and if the interval is positive, a background
+     * thread that logs progress at that interval.
+     *
+     * @param intervalSeconds the reporting interval, or 0 for none.
+     */
+    public synchronized void start(final int intervalSeconds) {
+        startTime = System.currentTimeMillis();
+        lastReportTime = startTime;
+        lastReportDone = 0;
+        if (intervalSeconds > 0) {
+            reporter = new Thread("progress-reporter") {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            Thread.sleep(intervalSeconds * 1000L);
+                            report();
+                        }
+                    } catch (InterruptedException e) {
+                        // stopped
+                    }
+                }
+            };
+            reporter.setDaemon(true);
+            reporter.start();
+        }
+    }
+
+    /**
+     * Stops the background thread, if any, and logs a final summary.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            thread = reporter;
+            reporter = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long elapsed = System.currentTimeMillis() - startTime;
+        logger.info("Finished in {}: {}; {} objects/sec", new Object[] {
+                formatDuration(elapsed), counts(),
+                formatRate(done(), elapsed) });
+    }
+
+    /**
+     * Logs the current counts and rates.
+     */
+    public synchronized void report() {
+        long now = System.currentTimeMillis();
+        long done = done();
+        long elapsed = now - startTime;
+        StringBuilder message = new StringBuilder(counts());
+        message.append("; ");
+        message.append(formatRate(done - lastReportDone,
+                now - lastReportTime));
+        message.append(" objects/sec (average ");
+        message.append(formatRate(done, elapsed));
+        message.append(")");
+        long total = this.total;
+        if (total >= 0 && done > 0 && done < total) {
+            long remaining = (total - done) * elapsed / done;
+            message.append("; ");
+            message.append(done * 100 / total);
+            message.append("% done, ETA ");
+            message.append(formatDuration(remaining));
+        }
+        logger.info(message.toString());
+        lastReportTime = now;
+        lastReportDone = done;
+    }
+
+    private long done() {
+        return processed.get() + skipped.get() + failed.get();
+    }
+
+    private String counts() {
+        return scanned.get() + " scanned, " + processed.get()
+                + " processed, " + skipped.get() + " skipped, "
+                + failed.get() + " failed; "
+                + formatBytes(bytesRead.get()) + " read, "
+                + formatBytes(bytesWritten.get()) + " written";
+    }
+
+    private static String formatRate(long count, long millis) {
+        if (millis <= 0) return "0.0";
+        long tenths = count * 10000 / millis;
+        return (tenths / 10) + "." + (tenths % 10);
+    }
+
+    private static String formatBytes(long bytes) {
+        String[] units = new String[] { "B", "KB", "MB", "GB", "TB" };
+        double value = bytes;
+        int unit = 0;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        if (unit == 0) return bytes + " B";
+        return String.format("%.1f %s", value, units[unit]);
+    }
+
+    private static String formatDuration(long millis) {
+        long seconds = millis / 1000;
+        return String.format("%d:%02d:%02d", seconds / 3600,
+                (seconds / 60) % 60, seconds % 60);
+    }
+
+    private class CountingInputStream extends FilterInputStream {
+        private final boolean transfer;
+
+        CountingInputStream(InputStream inputStream, boolean transfer) {
+            super(inputStream);
+            this.transfer = transfer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count > 0) count(count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long count = super.skip(n);
+            if (count > 0) count(count);
+            return count;
+        }
+
+        private void count(long count) {
+            bytesRead(count);
+            if (transfer) bytesWritten(count);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.github.cwilper.fcrepo.store.util.commands;
+
+import com.github.cwilper.fcrepo.store.core.FedoraStoreSession;
+import com.github.cwilper.fcrepo.store.util.IdSpec;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How a {@link BatchObjectCommand} finds the objects it works with.
+ * <p>
+ * The choice is based on the kind of {@link IdSpec} and, for lists, on how
+ * many ids it has relative to the number of objects in the store:
+ * <ul>
+ *   <li> 'all' reads every object.</li>
+ *   <li> A regular expression with a literal prefix asks the store for just
+ *        the pids with that prefix, then matches each against the
+ *        expression.</li>
+ *   <li> Any other regular expression lists all pids in the store and
+ *        matches each.</li>
+ *   <li> A list is looked up one pid at a time, in sorted order, unless it
+ *        names a large enough fraction of the store that listing all pids
+ *        and checking each against it is cheaper.</li>
+ * </ul>
+ * Objects are only read once their pids are known to match. If the store
+ * can't tell how many objects it has, as while a legacy store's registry
+ * is still being populated, lists are always looked up.
+ * <p>
+ * Lists can also be looked up in storage order instead, as given by
+ * {@link FedoraStoreSession#getObjectLocations(Iterable)}, so that objects
+ * in the same directory are read together rather than scattered across the
+ * disk. This is always done by lookups, since pids are listed in whatever
+ * order the store keeps them. Large lists are sorted on disk, by
+ * {@link LocationSorter}, rather than in memory.
+ */
+final class ScanPlan {
+    /**
+     * How much cheaper it is to list a pid than to look one up. A list of
+     * pids is scanned for rather than looked up when it names more than
+     * this fraction of the objects in the store.
+     */
+    static final double SCAN_TO_LOOKUP_COST = 0.05;
+
+    // number of pids to get locations for at a time
+    static final int LOCATIONS_PER_REQUEST = 1000;
+
+    enum Kind {
+        /** Read every object. */
+        FULL_SCAN,
+        /** List pids with a prefix and match each. */
+        PREFIX_SCAN,
+        /** List all pids and match each. */
+        PID_SCAN,
+        /** Look up each listed pid. */
+        POINT_LOOKUPS
+    }
+
+    private final Kind kind;
+    private final IdSpec pids;
+    private final long expectedCount;
+    private final boolean byLocation;
+
+    private ScanPlan(Kind kind, IdSpec pids, long expectedCount,
+            boolean byLocation) {
+        this.kind = kind;
+        this.pids = pids;
+        this.expectedCount = expectedCount;
+        this.byLocation = byLocation;
+    }
+
+    private ScanPlan(Kind kind, IdSpec pids, long expectedCount) {
+        this(kind, pids, expectedCount, false);
+    }
+
+    /**
+     * Chooses a plan.
+     *
+     * @param source the store session.
+     * @param pids the pids of interest.
+     * @return the plan.
+     */
+    static ScanPlan choose(FedoraStoreSession source, IdSpec pids) {
+        return choose(source, pids, false);
+    }
+
+    /**
+     * Chooses a plan, optionally looking up lists of pids in storage order.
+     *
+     * @param source the store session.
+     * @param pids the pids of interest.
+     * @param byLocation whether lists should be looked up in storage order.
+     * @return the plan.
+     */
+    static ScanPlan choose(FedoraStoreSession source, IdSpec pids,
+            boolean byLocation) {
+        if (pids.isAll()) {
+            return new ScanPlan(Kind.FULL_SCAN, pids,
+                    source.getObjectCount());
+        } else if (pids.isDynamic()) {
+            if (pids.getPrefix().length() > 0) {
+                return new ScanPlan(Kind.PREFIX_SCAN, pids, -1);
+            }
+            return new ScanPlan(Kind.PID_SCAN, pids,
+                    source.getObjectCount());
+        }
+        long listed = pids.toSet().size();
+        if (byLocation) {
+            return new ScanPlan(Kind.POINT_LOOKUPS, pids, listed, true);
+        }
+        long stored = source.getObjectCount();
+        if (stored >= 0 && listed > stored * SCAN_TO_LOOKUP_COST) {
+            return new ScanPlan(Kind.PID_SCAN, pids, stored);
+        }
+        return new ScanPlan(Kind.POINT_LOOKUPS, pids, listed);
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Gets the number of pids expected to be considered, whether or not
+     * they match.
+     *
+     * @return the number, or -1 if unknown.
+     */
+    long getExpectedCount() {
+        return expectedCount;
+    }
+
+    /**
+     * Tells whether the pids returned by {@link #pids(FedoraStoreSession)}
+     * must be checked against the {@link IdSpec} before being read.
+     *
+     * @return whether they must.
+     */
+    boolean mustMatch() {
+        return kind == Kind.PREFIX_SCAN || kind == Kind.PID_SCAN;
+    }
+
+    /**
+     * Gets the pids to consider, in the order they should be read.
+     *
+     * @param source the store session.
+     * @return the pids.
+     */
+    Iterator<String> pids(FedoraStoreSession source) {
+        switch (kind) {
+            case PREFIX_SCAN:
+                return source.pidIterator(pids.getPrefix());
+            case POINT_LOOKUPS:
+                if (byLocation) return sortByLocation(source);
+                return pids.toSet().iterator();
+            default:
+                return source.pidIterator();
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case FULL_SCAN:
+                return "full scan";
+            case PREFIX_SCAN:
+                return "scan of pids starting with '" + pids.getPrefix()
+                        + "'";
+            case PID_SCAN:
+                return "scan of all pids";
+            default:
+                return "lookup of " + expectedCount + " pids"
+                        + (byLocation ? " in storage order" : "");
+        }
+    }
+
+    // pids with unknown locations go last, in pid order
+    private Iterator<String> sortByLocation(FedoraStoreSession source) {
+        LocationSorter sorter = new LocationSorter();
+        List<String> chunk = new ArrayList<String>(LOCATIONS_PER_REQUEST);
+        for (Iterator<String> i = pids.toSet().iterator(); i.hasNext(); ) {
+            chunk.add(i.next());
+            if (chunk.size() == LOCATIONS_PER_REQUEST || !i.hasNext()) {
+                Map<String, String> locations =
+                        source.getObjectLocations(chunk);
+                for (String pid : chunk) {
+                    sorter.add(pid, locations.get(pid));
+                }
+                chunk.clear();
+            }
+        }
+        return sorter.iterator();
+    }
+}
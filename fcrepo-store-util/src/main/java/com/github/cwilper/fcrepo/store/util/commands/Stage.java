@@ -0,0 +1,161 @@
+package com.github.cwilper.fcrepo.store.util.commands;
+
+import com.github.cwilper.fcrepo.store.core.StoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A pool of worker threads that process items handed to them through a
+ * bounded queue.
+ * <p>
+ * Stages that share a failure reference can be chained into a pipeline:
+ * the first error in any stage is recorded there, after which all of them
+ * stop taking and accepting work.
+ *
+ * @param <T> the type of item processed.
+ */
+abstract class Stage<T> {
+    private static final Logger logger = LoggerFactory.getLogger(Stage.class);
+
+    // how long to block on the queue before checking for failure
+    private static final long POLL_MILLIS = 100;
+
+    // tells a worker there are no more items
+    private static final Object END_OF_ITEMS = new Object();
+
+    private final String name;
+    private final int threads;
+    private final BlockingQueue<Object> queue;
+    private final AtomicReference<RuntimeException> failure;
+    private final List<Thread> workers;
+
+    /**
+     * Creates an instance.
+     *
+     * @param name the name of the stage, used to name its threads.
+     * @param threads the number of worker threads.
+     * @param queueSize the maximum number of items waiting to be processed.
+     * @param failure where the first error is recorded.
+     */
+    Stage(String name, int threads, int queueSize,
+            AtomicReference<RuntimeException> failure) {
+        this.name = name;
+        this.threads = threads;
+        this.queue = new ArrayBlockingQueue<Object>(queueSize);
+        this.failure = failure;
+        this.workers = new ArrayList<Thread>(threads);
+    }
+
+    /**
+     * Starts the worker threads.
+     */
+    void start() {
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(name + "-" + (i + 1)) {
+                @Override
+                public void run() {
+                    runWorker(getName());
+                }
+            };
+            workers.add(worker);
+            worker.start();
+        }
+        logger.debug("Started {} {} threads", threads, name);
+    }
+
+    /**
+     * Hands an item to the workers, blocking while the queue is full.
+     * If a failure has been recorded, the item is discarded.
+     *
+     * @param item the item.
+     */
+    void put(T item) {
+        offer(item);
+    }
+
+    /**
+     * Tells the workers that no more items are coming, then waits for them
+     * to finish the items already queued.
+     */
+    void finish() {
+        for (int i = 0; i < threads; i++) {
+            offer(END_OF_ITEMS);
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null,
+                        new StoreException("Interrupted", e));
+            }
+        }
+    }
+
+    /**
+     * Called on each worker thread before it processes any items.
+     */
+    protected void setUp() {
+    }
+
+    /**
+     * Processes an item on a worker thread.
+     *
+     * @param item the item.
+     */
+    protected abstract void process(T item);
+
+    /**
+     * Called on each worker thread after it has processed its last item,
+     * even if it failed.
+     */
+    protected void tearDown() {
+    }
+
+    // blocks until the item is queued or something has failed
+    private void offer(Object item) {
+        try {
+            while (failure.get() == null) {
+                if (queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, new StoreException("Interrupted", e));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void runWorker(String threadName) {
+        try {
+            setUp();
+            while (failure.get() == null) {
+                Object item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (item == END_OF_ITEMS) {
+                    return;
+                } else if (item != null) {
+                    process((T) item);
+                }
+            }
+        } catch (InterruptedException e) {
+            failure.compareAndSet(null, new StoreException("Interrupted", e));
+        } catch (RuntimeException e) {
+            logger.error("Stopping after error in " + threadName, e);
+            failure.compareAndSet(null, e);
+        } catch (Error e) {
+            failure.compareAndSet(null,
+                    new StoreException("Fatal error in " + threadName, e));
+            throw e;
+        } finally {
+            tearDown();
+        }
+    }
+}
@@ -9,23 +9,56 @@ import com.github.cwilper.fcrepo.dto.core.io.XMLUtil;
 import com.github.cwilper.fcrepo.store.core.FedoraStoreSession;
 import com.github.cwilper.fcrepo.store.util.commands.CommandContext;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * Canonicalizes (using C14N11 rules) managed xml. Also sets the size
  * and re-computes the digest if one is already defined.
+ * <p>
+ * Content larger than the stream threshold is canonicalized in a single
+ * streaming pass that computes the size and digest as it goes, spooling
+ * the result to a temporary file rather than holding it in memory. The
+ * result isn't written straight to the destination because that may be
+ * the same content that's being read.
  */
 public class CanonicalizeManagedXML extends MultiVersionFilter {
     private static final Logger logger =
             LoggerFactory.getLogger(CanonicalizeManagedXML.class);
 
+    private static final int SPOOL_BUFFER_SIZE = 64 * 1024;
+
+    private final long streamThreshold;
+
     public CanonicalizeManagedXML(boolean allDatastreamVersions) {
+        this(allDatastreamVersions, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates an instance.
+     *
+     * @param allDatastreamVersions whether to canonicalize all versions,
+     *        or only the latest.
+     * @param streamThreshold the content length in bytes above which content
+     *        will be streamed rather than canonicalized in memory.
+     */
+    public CanonicalizeManagedXML(boolean allDatastreamVersions,
+            long streamThreshold) {
         super(allDatastreamVersions);
+        this.streamThreshold = streamThreshold;
     }
     
     @Override
@@ -39,6 +72,12 @@ public class CanonicalizeManagedXML extends MultiVersionFilter {
         String info = object.pid() + "/" + ds.id() + "/" + dsv.id();
         if (ds.controlGroup() == ControlGroup.MANAGED
                 && Util.isXML(dsv.mimeType())) {
+            if (CommandContext.getSource().getContentLength(object.pid(),
+                    ds.id(), dsv.id()) > streamThreshold
+                    && canonicalizeStreaming(object, ds, dsv, destination)) {
+                logger.info("Canonicalized {} (streamed)", info);
+                return;
+            }
             InputStream inputStream = CommandContext.getSource().getContent(
                     object.pid(), ds.id(), dsv.id());
             byte[] cBytes;
@@ -62,4 +101,53 @@ public class CanonicalizeManagedXML extends MultiVersionFilter {
             logger.info("Canonicalized {}", info);
         }
     }
+
+    // returns false without changing anything if the content has a DTD
+    private boolean canonicalizeStreaming(FedoraObject object, Datastream ds,
+            DatastreamVersion dsv, FedoraStoreSession destination)
+            throws IOException {
+        ContentDigest digest = dsv.contentDigest();
+        MessageDigest md = null;
+        if (digest != null) {
+            try {
+                md = MessageDigest.getInstance(digest.type());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+        }
+        File spool = File.createTempFile("fcrepo-store-c14n", ".xml");
+        try {
+            InputStream inputStream = CommandContext.getSource().getContent(
+                    object.pid(), ds.id(), dsv.id());
+            CountingOutputStream counter = null;
+            try {
+                OutputStream out = new BufferedOutputStream(
+                        new FileOutputStream(spool), SPOOL_BUFFER_SIZE);
+                if (md != null) out = new DigestOutputStream(out, md);
+                counter = new CountingOutputStream(out);
+                if (!StreamingCanonicalizer.canonicalize(inputStream,
+                        counter)) {
+                    logger.debug("Can't stream {}/{}/{} because it has a "
+                            + "DTD", new Object[] { object.pid(), ds.id(),
+                            dsv.id() });
+                    return false;
+                }
+                counter.close();
+            } finally {
+                IOUtils.closeQuietly(inputStream);
+                IOUtils.closeQuietly(counter);
+            }
+            dsv.size(counter.getByteCount());
+            if (md != null) digest.hexValue(Util.hexString(md.digest()));
+            Util.putObjectIfNoSuchManagedDatastream(object, destination,
+                    ds.id());
+            destination.setContent(object.pid(), ds.id(), dsv.id(),
+                    new FileInputStream(spool));
+            return true;
+        } finally {
+            if (!spool.delete()) {
+                logger.warn("Unable to delete temporary file: " + spool);
+            }
+        }
+    }
 }
@@ -1,18 +1,26 @@
 package com.github.cwilper.fcrepo.store.util.filters.ds;
 
+import com.github.cwilper.fcrepo.dto.core.ControlGroup;
 import com.github.cwilper.fcrepo.dto.core.Datastream;
 import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
 import com.github.cwilper.fcrepo.dto.core.FedoraObject;
 import com.github.cwilper.fcrepo.dto.core.io.ContentResolver;
+import com.github.cwilper.fcrepo.store.util.commands.CommandContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Computes the fixity (size and/or digest) and compares it to the stored
  * values, reporting on any differences.
+ * <p>
+ * If a {@link FixityLedger} is given, managed content that has been
+ * verified recently and hasn't changed since is not read again. If a
+ * {@link FixitySampler} is given, only the versions it selects are checked.
  */
 public class CheckFixity extends MultiVersionFilter {
     private static final Logger logger =
@@ -20,12 +28,23 @@ public class CheckFixity extends MultiVersionFilter {
 
     private final ContentResolver contentResolver;
     private final String localFedoraServer;
+    private final FixityLedger ledger;
+    private final FixitySampler sampler;
 
     public CheckFixity(boolean allDatastreamVersions,
             ContentResolver contentResolver, String localFedoraServer) {
+        this(allDatastreamVersions, contentResolver, localFedoraServer, null,
+                null);
+    }
+
+    public CheckFixity(boolean allDatastreamVersions,
+            ContentResolver contentResolver, String localFedoraServer,
+            FixityLedger ledger, FixitySampler sampler) {
         super(allDatastreamVersions);
         this.contentResolver = contentResolver;
         this.localFedoraServer = localFedoraServer;
+        this.ledger = ledger;
+        this.sampler = sampler;
     }
 
     @Override
@@ -33,18 +52,36 @@ public class CheckFixity extends MultiVersionFilter {
             DatastreamVersion dsv) {
         String info = object.pid() + "/" + ds.id() + "/" + dsv.id();
         if (dsv.contentDigest() != null || dsv.size() != null) {
+            String stratum = null;
+            if (sampler != null && sampler.isEnabled()) {
+                stratum = sampler.getStratum(ds, dsv);
+                if (!sampler.select(info, stratum)) {
+                    logger.debug("Skipped {} (not in sample)", info);
+                    return;
+                }
+            }
+            // stamp the content before reading it, so a concurrent change
+            // can't be recorded as verified
+            FixityLedger.Stamp stamp = null;
+            if (ledger != null && dsv.contentDigest() != null
+                    && ds.controlGroup() == ControlGroup.MANAGED) {
+                stamp = ledger.getStamp(CommandContext.getSource(),
+                        object.pid(), ds.id(), dsv.id());
+                if (isUnchanged(info, stamp, dsv)) return;
+            }
             try {
                 // some fixity info exists, so compute and compare
                 InputStream inputStream = Util.getInputStream(info,
                         object.pid(), ds, dsv, contentResolver,
                         localFedoraServer);
-                String[] result;
+                List<String> algorithms = new ArrayList<String>();
                 if (dsv.contentDigest() != null) {
-                    result = Util.computeFixity(inputStream,
-                            dsv.contentDigest().type());
-                } else {
-                    result = new String[] {
-                            "" + Util.computeSize(inputStream), null };
+                    algorithms.add(dsv.contentDigest().type());
+                }
+                Fixity fixity = Fixity.compute(inputStream, algorithms);
+                String[] result = new String[] { "" + fixity.size(), null };
+                if (dsv.contentDigest() != null) {
+                    result[1] = fixity.digest(dsv.contentDigest().type());
                 }
                 boolean mismatch = false;
                 StringBuilder msg = new StringBuilder();
@@ -74,18 +111,25 @@ public class CheckFixity extends MultiVersionFilter {
                         msg.append(" ");
                         msg.append(dsv.contentDigest().type());
                         msg.append("=");
-                        msg.append(dsv.size());
+                        msg.append(dsv.contentDigest().hexValue());
                         msg.append("/actual=");
                         msg.append(result[1]);
                     }
                 }
+                if (stratum != null) sampler.checked(stratum, mismatch);
                 if (mismatch) {
                     logger.warn("Fixity mismatch ({}) for {}", msg.toString(),
                             info);
+                    if (stamp != null) ledger.remove(info);
                 } else {
                     logger.info("Fixity match ({}) for {}", msg.toString(), info);
+                    if (stamp != null) {
+                        ledger.record(info, stamp, dsv.contentDigest().type(),
+                                result[1]);
+                    }
                 }
             } catch (IOException e) {
+                if (stratum != null) sampler.failed(stratum);
                 logger.warn("Error getting content for fixity check of "
                         + info + "; location=" + dsv.contentLocation(), e);
             }
@@ -93,4 +137,23 @@ public class CheckFixity extends MultiVersionFilter {
             logger.warn("No fixity info (size or digest) for {}", info);
         }
     }
+
+    // true if the ledger says the content was verified recently with the
+    // stated digest and hasn't changed since
+    private boolean isUnchanged(String info, FixityLedger.Stamp stamp,
+            DatastreamVersion dsv) {
+        if (stamp == null) return false;
+        if (dsv.size() != null && dsv.size().longValue() != stamp.size) {
+            return false;
+        }
+        String digest = ledger.getDigest(info, stamp,
+                dsv.contentDigest().type());
+        if (digest == null
+                || !digest.equalsIgnoreCase(dsv.contentDigest().hexValue())) {
+            return false;
+        }
+        logger.info("Fixity unchanged (stated/recorded {}={}) for {}",
+                new Object[] { dsv.contentDigest().type(), digest, info });
+        return true;
+    }
 }
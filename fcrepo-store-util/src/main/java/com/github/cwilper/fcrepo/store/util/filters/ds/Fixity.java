@@ -0,0 +1,218 @@
+package com.github.cwilper.fcrepo.store.util.filters.ds;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The size and any number of digests of a stream, computed in one read.
+ * <p>
+ * Content is read in large chunks into per-thread buffers that are reused
+ * across calls. When more than one digest is requested and more than one
+ * processor is available, each chunk is hashed by all algorithms in
+ * parallel while the next chunk is being read.
+ */
+final class Fixity {
+    static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final int PROCESSORS =
+            Runtime.getRuntime().availableProcessors();
+
+    // two buffers per thread: one being read into, one being hashed
+    private static final ThreadLocal<byte[][]> buffers =
+            new ThreadLocal<byte[][]>() {
+        @Override
+        protected byte[][] initialValue() {
+            return new byte[][] { new byte[BUFFER_SIZE],
+                    new byte[BUFFER_SIZE] };
+        }
+    };
+
+    private static ExecutorService hashers;
+
+    private final long size;
+    private final Map<String, String> digests;
+
+    private Fixity(long size, Map<String, String> digests) {
+        this.size = size;
+        this.digests = digests;
+    }
+
+    /**
+     * Reads the stream to the end, computing its size and digests.
+     *
+     * @param inputStream the stream, which will be closed.
+     * @param algorithms the digest algorithms, e.g. <code>MD5</code> or
+     *        <code>SHA-256</code>; may be empty.
+     * @return the result.
+     * @throws IOException if an algorithm is unsupported or the stream
+     *         can't be read.
+     */
+    static Fixity compute(InputStream inputStream,
+            Collection<String> algorithms) throws IOException {
+        try {
+            List<MessageDigest> mds = new ArrayList<MessageDigest>();
+            for (String algorithm : algorithms) {
+                try {
+                    mds.add(MessageDigest.getInstance(algorithm));
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IOException(e);
+                }
+            }
+            long size;
+            if (mds.size() > 1 && PROCESSORS > 1) {
+                size = readInParallel(inputStream, mds);
+            } else {
+                size = read(inputStream, mds);
+            }
+            Map<String, String> digests = new LinkedHashMap<String, String>();
+            int i = 0;
+            for (String algorithm : algorithms) {
+                digests.put(algorithm.toUpperCase(),
+                        Util.hexString(mds.get(i++).digest()));
+            }
+            return new Fixity(size, digests);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * Gets the number of bytes read.
+     *
+     * @return the size.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Gets a computed digest.
+     *
+     * @param algorithm the algorithm, case-insensitive.
+     * @return the lowercase hex value, or <code>null</code> if the algorithm
+     *         was not requested.
+     */
+    String digest(String algorithm) {
+        return digests.get(algorithm.toUpperCase());
+    }
+
+    private static long read(InputStream inputStream,
+            List<MessageDigest> mds) throws IOException {
+        byte[] buffer = buffers.get()[0];
+        long size = 0;
+        int count = fill(inputStream, buffer);
+        while (count > 0) {
+            size += count;
+            for (MessageDigest md : mds) {
+                md.update(buffer, 0, count);
+            }
+            count = fill(inputStream, buffer);
+        }
+        return size;
+    }
+
+    private static long readInParallel(InputStream inputStream,
+            List<MessageDigest> mds) throws IOException {
+        byte[][] pair = buffers.get();
+        ExecutorService executor = getHashers();
+        List<Future<?>> pending = new ArrayList<Future<?>>(mds.size());
+        long size = 0;
+        int current = 0;
+        try {
+            int count = fill(inputStream, pair[current]);
+            while (count > 0) {
+                size += count;
+                // hash this chunk while the next is read into the other buffer
+                awaitAll(pending);
+                for (MessageDigest md : mds) {
+                    pending.add(executor.submit(
+                            new Update(md, pair[current], count)));
+                }
+                current = 1 - current;
+                count = fill(inputStream, pair[current]);
+            }
+            awaitAll(pending);
+        } finally {
+            for (Future<?> future : pending) {
+                future.cancel(false);
+            }
+        }
+        return size;
+    }
+
+    // reads until the buffer is full or the stream ends
+    private static int fill(InputStream inputStream, byte[] buffer)
+            throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int count = inputStream.read(buffer, total, buffer.length - total);
+            if (count < 0) break;
+            total += count;
+        }
+        return total;
+    }
+
+    private static void awaitAll(List<Future<?>> futures) throws IOException {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            futures.clear();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while hashing", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error while hashing", e.getCause());
+        }
+    }
+
+    private static synchronized ExecutorService getHashers() {
+        if (hashers == null) {
+            hashers = Executors.newFixedThreadPool(PROCESSORS,
+                    new ThreadFactory() {
+                private int n;
+
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "hasher-" + (++n));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return hashers;
+    }
+
+    private static class Update implements Callable<Void> {
+        private final MessageDigest md;
+        private final byte[] buffer;
+        private final int count;
+
+        Update(MessageDigest md, byte[] buffer, int count) {
+            this.md = md;
+            this.buffer = buffer;
+            this.count = count;
+        }
+
+        @Override
+        public Void call() {
+            md.update(buffer, 0, count);
+            return null;
+        }
+    }
+}
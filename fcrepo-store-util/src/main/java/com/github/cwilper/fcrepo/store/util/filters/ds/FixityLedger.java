@@ -0,0 +1,288 @@
+package com.github.cwilper.fcrepo.store.util.filters.ds;
+
+import com.github.cwilper.fcrepo.store.core.FedoraStoreSession;
+import com.github.cwilper.fcrepo.store.core.NotFoundException;
+import com.github.cwilper.fcrepo.store.core.StoreException;
+import com.github.cwilper.fcrepo.store.core.impl.CommonUtil;
+import org.apache.derby.jdbc.EmbeddedDataSource40;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A persistent record of managed content whose fixity has been verified,
+ * used to avoid re-reading content that hasn't changed since.
+ * <p>
+ * For each datastream version, the ledger records the size, modification
+ * time and, where available, the file key (e.g. device and inode numbers)
+ * of the file holding the content, along with the digest that was last
+ * computed and when. If the file still has the same size, modification time
+ * and key, and was verified less than <code>reverifyDays</code> ago, the
+ * recorded digest is trusted. Otherwise the content is read again.
+ * <p>
+ * The file itself is examined, rather than asking the store, so the stamp
+ * reflects what's actually on disk. Content is only tracked when the store
+ * keeps it in local files, so content in stores that don't is always read.
+ * File keys are only available on Java 7 and later.
+ * <p>
+ * The ledger is kept in an embedded Derby database in the given directory,
+ * which is created if needed. If no directory is given, the ledger is
+ * disabled and all content is read every time.
+ */
+public class FixityLedger {
+    private static final Logger logger =
+            LoggerFactory.getLogger(FixityLedger.class);
+
+    private static final String TABLE = "fixity";
+    private static final String CREATE_TABLE_DDL =
+            "CREATE TABLE " + TABLE + " (\n"
+            + "id VARCHAR(1024) PRIMARY KEY NOT NULL,\n"
+            + "size BIGINT NOT NULL,\n"
+            + "modified BIGINT NOT NULL,\n"
+            + "fileKey VARCHAR(256),\n"
+            + "algorithm VARCHAR(32) NOT NULL,\n"
+            + "digest VARCHAR(256) NOT NULL,\n"
+            + "verified BIGINT NOT NULL)";
+    private static final String SELECT_COUNT_SQL =
+            "SELECT COUNT(*) FROM " + TABLE;
+    private static final String SELECT_ENTRY_SQL =
+            "SELECT size, modified, fileKey, algorithm, digest, verified FROM "
+            + TABLE + " WHERE id = ?";
+    private static final String INSERT_ENTRY_SQL =
+            "INSERT INTO " + TABLE + " (id, size, modified, fileKey, "
+            + "algorithm, digest, verified) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_ENTRY_SQL =
+            "UPDATE " + TABLE + " SET size = ?, modified = ?, fileKey = ?, "
+            + "algorithm = ?, digest = ?, verified = ? WHERE id = ?";
+    private static final String DELETE_ENTRY_SQL =
+            "DELETE FROM " + TABLE + " WHERE id = ?";
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private final String path;
+    private final long maxAge;
+    private final JdbcTemplate db;
+
+    private boolean closed;
+
+    /**
+     * Creates an instance.
+     *
+     * @param path the directory of the ledger database, or an empty string
+     *        to disable the ledger.
+     * @param reverifyDays how many days a verification is trusted for
+     *        before the content must be read again.
+     * @throws StoreException if the database can't be opened or created.
+     */
+    public FixityLedger(String path, int reverifyDays) {
+        this.path = path.trim();
+        this.maxAge = reverifyDays * MILLIS_PER_DAY;
+        if (this.path.length() == 0) {
+            db = null;
+        } else {
+            try {
+                db = new JdbcTemplate(createDataSource(true));
+            } catch (SQLException e) {
+                throw new StoreException("Error opening fixity ledger at "
+                        + this.path, e);
+            }
+            createTableIfNeeded();
+            logger.info("Using fixity ledger at {} ({} entries)", this.path,
+                    db.queryForLong(SELECT_COUNT_SQL));
+        }
+    }
+
+    /**
+     * Tells whether the ledger is in use.
+     *
+     * @return whether a database directory was given.
+     */
+    boolean isEnabled() {
+        return db != null;
+    }
+
+    /**
+     * Gets the size, modification time and key of the file holding stored
+     * managed content.
+     *
+     * @param session the session to get it from.
+     * @param pid the pid.
+     * @param datastreamId the datastream id.
+     * @param datastreamVersionId the datastream version id.
+     * @return the stamp, or <code>null</code> if the ledger is disabled,
+     *         or the store doesn't keep the content in a local file, or
+     *         it can't be determined for any other reason.
+     */
+    Stamp getStamp(FedoraStoreSession session, String pid,
+            String datastreamId, String datastreamVersionId) {
+        if (db == null || session == null) return null;
+        try {
+            File file = session.getContentFile(pid, datastreamId,
+                    datastreamVersionId);
+            if (file == null) return null;
+            long lastModified = file.lastModified();
+            if (lastModified == 0) return null;
+            Object fileKey = CommonUtil.getFileKey(file);
+            Stamp stamp = new Stamp(file.length(), lastModified,
+                    fileKey == null ? null : fileKey.toString());
+            // if the file was replaced while being examined, don't trust it
+            if (file.lastModified() != lastModified) return null;
+            return stamp;
+        } catch (NotFoundException e) {
+            return null;
+        } catch (StoreException e) {
+            logger.debug("Unable to get content stamp", e);
+            return null;
+        }
+    }
+
+    /**
+     * Gets the digest last computed for content, if it is still trusted.
+     *
+     * @param id the id of the content.
+     * @param stamp the current stamp of the content's file.
+     * @param algorithm the digest algorithm.
+     * @return the lowercase hex value, or <code>null</code> if there is no
+     *         entry for the content with the same stamp and algorithm that
+     *         was verified recently enough.
+     */
+    String getDigest(String id, Stamp stamp, String algorithm) {
+        if (db == null || stamp == null) return null;
+        try {
+            List<Map<String, Object>> rows = db.queryForList(
+                    SELECT_ENTRY_SQL, id);
+            if (rows.isEmpty()) return null;
+            Map<String, Object> row = rows.get(0);
+            long verified = ((Number) row.get("VERIFIED")).longValue();
+            if (((Number) row.get("SIZE")).longValue() != stamp.size
+                    || ((Number) row.get("MODIFIED")).longValue()
+                            != stamp.lastModified
+                    || !equal(stamp.fileKey, (String) row.get("FILEKEY"))
+                    || !algorithm.equalsIgnoreCase((String) row.get(
+                            "ALGORITHM"))
+                    || System.currentTimeMillis() - verified >= maxAge) {
+                return null;
+            }
+            return (String) row.get("DIGEST");
+        } catch (DataAccessException e) {
+            throw new StoreException("Error reading fixity ledger", e);
+        }
+    }
+
+    /**
+     * Records that content was just found to have the given digest.
+     *
+     * @param id the id of the content.
+     * @param stamp the stamp of the content's file, as obtained before it
+     *        was read. If <code>null</code>, nothing is
+     *        recorded.
+     * @param algorithm the digest algorithm.
+     * @param digest the hex value.
+     */
+    void record(String id, Stamp stamp, String algorithm, String digest) {
+        if (db == null || stamp == null) return;
+        Long now = Long.valueOf(System.currentTimeMillis());
+        String normalized = algorithm.toUpperCase();
+        try {
+            if (db.update(UPDATE_ENTRY_SQL, stamp.size, stamp.lastModified,
+                    stamp.fileKey, normalized, digest.toLowerCase(), now,
+                    id) == 0) {
+                db.update(INSERT_ENTRY_SQL, id, stamp.size,
+                        stamp.lastModified, stamp.fileKey, normalized,
+                        digest.toLowerCase(), now);
+            }
+        } catch (DataAccessException e) {
+            throw new StoreException("Error writing fixity ledger", e);
+        }
+    }
+
+    /**
+     * Forgets any previous verification of content, so it will be read
+     * next time.
+     *
+     * @param id the id of the content.
+     */
+    void remove(String id) {
+        if (db == null) return;
+        try {
+            db.update(DELETE_ENTRY_SQL, id);
+        } catch (DataAccessException e) {
+            throw new StoreException("Error writing fixity ledger", e);
+        }
+    }
+
+    /**
+     * Shuts down the database, if any.
+     */
+    @PreDestroy
+    public synchronized void close() {
+        if (db != null && !closed) {
+            closed = true;
+            try {
+                createDataSource(false);
+            } catch (SQLException e) {
+                // SQL exception 08006 is expected
+            }
+        }
+    }
+
+    private void createTableIfNeeded() {
+        try {
+            db.queryForLong(SELECT_COUNT_SQL);
+        } catch (DataAccessException e) {
+            try {
+                db.execute(CREATE_TABLE_DDL);
+            } catch (DataAccessException e2) {
+                throw new StoreException("Error creating fixity ledger table",
+                        e2);
+            }
+        }
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    // create if true, shutdown if false
+    private EmbeddedDataSource40 createDataSource(boolean create)
+            throws SQLException {
+        EmbeddedDataSource40 dataSource = new EmbeddedDataSource40();
+        dataSource.setDatabaseName(path);
+        if (create) {
+            dataSource.setCreateDatabase("create");
+        } else {
+            dataSource.setShutdownDatabase("shutdown");
+        }
+        Connection connection = dataSource.getConnection();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.warn("Error closing connection", e);
+        }
+        return dataSource;
+    }
+
+    /**
+     * The size, modification time and key of the file holding stored
+     * content. The key is <code>null</code> if unavailable.
+     */
+    static class Stamp {
+        final long size;
+        final long lastModified;
+        final String fileKey;
+
+        Stamp(long size, long lastModified, String fileKey) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.github.cwilper.fcrepo.store.util.filters.ds;
+
+import com.github.cwilper.fcrepo.dto.core.Datastream;
+import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses a sample of datastream versions for a fixity audit and reports
+ * what the results say about the corruption rate of the whole population.
+ * <p>
+ * Each version is selected independently with the given probability, based
+ * on a hash of its id and the seed. The same seed always selects the same
+ * versions, regardless of the order or number of threads they are
+ * encountered by; changing the seed each cycle eventually covers
+ * everything.
+ * <p>
+ * Versions can be grouped into strata by control group, mime type, and/or
+ * size, which are then sampled at the same rate and reported on
+ * separately. A minimum number of versions can also be checked in each
+ * stratum, so small strata are not missed entirely. These are the versions
+ * with the lowest hashes in the stratum, so they too depend only on the
+ * seed. Since which hashes are lowest is only known at the end, a version
+ * that's among the lowest so far when it's encountered is also checked;
+ * this adds roughly <code>minimum * ln(stratum size / minimum)</code>
+ * checks per stratum, depending on the order.
+ * <p>
+ * When the run finishes, the number checked and the number found to be
+ * corrupt in each stratum are logged along with a one-sided 95% upper
+ * confidence bound on its corruption rate: the exact (Clopper-Pearson)
+ * bound when nothing was found, otherwise the Wilson score bound.
+ */
+public class FixitySampler {
+    private static final Logger logger =
+            LoggerFactory.getLogger(FixitySampler.class);
+
+    // one-sided 95% normal quantile
+    private static final double Z = 1.645;
+
+    private static final String[] SIZE_UNITS =
+            new String[] { "KB", "MB", "GB", "TB" };
+
+    private final double fraction;
+    private final long seed;
+    private final boolean byControlGroup;
+    private final boolean byMimeType;
+    private final boolean bySize;
+    private final int minimumPerStratum;
+
+    private final ConcurrentMap<String, Stratum> strata =
+            new ConcurrentHashMap<String, Stratum>();
+
+    /**
+     * Creates an instance.
+     *
+     * @param fraction the fraction of versions to check, from 0 to 1.
+     *        If 1, everything is checked and nothing is reported.
+     * @param seed the seed that determines which versions are selected.
+     * @param strata a comma-separated list of any of
+     *        <code>control-group</code>, <code>mime-type</code>, and
+     *        <code>size</code>, or <code>none</code>.
+     * @param minimumPerStratum how many versions to check in each stratum
+     *        before sampling begins.
+     * @throws IllegalArgumentException if the fraction is out of range or
+     *         a stratum type is unrecognized.
+     */
+    public FixitySampler(double fraction, long seed, String strata,
+            int minimumPerStratum) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("Sample fraction must be "
+                    + "between 0 and 1: " + fraction);
+        }
+        this.fraction = fraction;
+        this.seed = seed;
+        this.minimumPerStratum = minimumPerStratum;
+        boolean controlGroup = false;
+        boolean mimeType = false;
+        boolean size = false;
+        for (String type : strata.split(",")) {
+            type = type.trim();
+            if (type.equals("control-group")) {
+                controlGroup = true;
+            } else if (type.equals("mime-type")) {
+                mimeType = true;
+            } else if (type.equals("size")) {
+                size = true;
+            } else if (type.length() > 0 && !type.equals("none")) {
+                throw new IllegalArgumentException("Unrecognized stratum "
+                        + "type: " + type);
+            }
+        }
+        this.byControlGroup = controlGroup;
+        this.byMimeType = mimeType;
+        this.bySize = size;
+    }
+
+    /**
+     * Tells whether sampling is in effect.
+     *
+     * @return whether the fraction is less than 1.
+     */
+    boolean isEnabled() {
+        return fraction < 1;
+    }
+
+    /**
+     * Gets the name of the stratum a datastream version belongs to.
+     *
+     * @param ds the datastream.
+     * @param dsv the version.
+     * @return the name, e.g. <code>M/text/xml/1KB-1MB</code>.
+     */
+    String getStratum(Datastream ds, DatastreamVersion dsv) {
+        StringBuilder name = new StringBuilder();
+        if (byControlGroup) {
+            name.append(ds.controlGroup().shortName());
+        }
+        if (byMimeType) {
+            if (name.length() > 0) name.append('/');
+            name.append(dsv.mimeType() == null ? "unknown" : dsv.mimeType());
+        }
+        if (bySize) {
+            if (name.length() > 0) name.append('/');
+            name.append(getSizeBucket(dsv.size()));
+        }
+        if (name.length() == 0) return "all";
+        return name.toString();
+    }
+
+    /**
+     * Decides whether a datastream version should be checked.
+     *
+     * @param id the id of the version, as pid/dsId/dsvId.
+     * @param stratum the stratum it belongs to.
+     * @return whether to check it.
+     */
+    boolean select(String id, String stratum) {
+        Stratum s = getStratum(stratum);
+        s.seen.incrementAndGet();
+        long h = hash(id) >>> 11;
+        boolean lowest = s.offer(h, minimumPerStratum);
+        return lowest || h * 0x1.0p-53 < fraction;
+    }
+
+    /**
+     * Records the result of checking a selected datastream version.
+     *
+     * @param stratum the stratum it belongs to.
+     * @param corrupt whether its fixity didn't match.
+     */
+    void checked(String stratum, boolean corrupt) {
+        Stratum s = getStratum(stratum);
+        s.checked.incrementAndGet();
+        if (corrupt) s.corrupt.incrementAndGet();
+    }
+
+    /**
+     * Records that a selected datastream version couldn't be checked.
+     *
+     * @param stratum the stratum it belongs to.
+     */
+    void failed(String stratum) {
+        getStratum(stratum).errors.incrementAndGet();
+    }
+
+    /**
+     * Logs the results of the sample, if sampling was in effect.
+     */
+    @PreDestroy
+    public void report() {
+        if (!isEnabled() || strata.isEmpty()) return;
+        Map<String, Stratum> sorted = new TreeMap<String, Stratum>(strata);
+        long seen = 0, checked = 0, corrupt = 0, errors = 0;
+        for (Map.Entry<String, Stratum> entry : sorted.entrySet()) {
+            Stratum s = entry.getValue();
+            log(entry.getKey(), s.seen.get(), s.checked.get(),
+                    s.corrupt.get(), s.errors.get());
+            seen += s.seen.get();
+            checked += s.checked.get();
+            corrupt += s.corrupt.get();
+            errors += s.errors.get();
+        }
+        if (sorted.size() > 1) {
+            log("overall", seen, checked, corrupt, errors);
+        }
+    }
+
+    /**
+     * Gets the one-sided 95% upper confidence bound on a rate, given a
+     * sample.
+     *
+     * @param n the sample size.
+     * @param x the number of occurrences in the sample.
+     * @return the bound, from 0 to 1.
+     */
+    static double upperBound(long n, long x) {
+        if (n == 0) return 1;
+        // exact, and close to the rule of three (3 / n)
+        if (x == 0) return 1 - Math.pow(0.05, 1.0 / n);
+        double p = (double) x / n;
+        double z2 = Z * Z;
+        double center = p + z2 / (2 * n);
+        double margin = Z * Math.sqrt(p * (1 - p) / n + z2 / (4.0 * n * n));
+        return Math.min(1, (center + margin) / (1 + z2 / n));
+    }
+
+    private static void log(String stratum, long seen, long checked,
+            long corrupt, long errors) {
+        logger.info(String.format("Fixity sample %s: %d of %d checked, "
+                + "%d corrupt, %d errors; corruption rate <= %.4f%% "
+                + "(one-sided 95%% confidence)", stratum, checked, seen, corrupt,
+                errors, 100 * upperBound(checked, corrupt)));
+    }
+
+    private Stratum getStratum(String name) {
+        Stratum stratum = strata.get(name);
+        if (stratum == null) {
+            stratum = new Stratum();
+            Stratum existing = strata.putIfAbsent(name, stratum);
+            if (existing != null) stratum = existing;
+        }
+        return stratum;
+    }
+
+    private static String getSizeBucket(Long size) {
+        if (size == null || size < 0) return "unknown";
+        if (size < 1024) return "0-1KB";
+        long limit = 1024;
+        for (int i = 0; i < SIZE_UNITS.length - 1; i++) {
+            if (size < limit * 1024) {
+                return "1" + SIZE_UNITS[i] + "-1" + SIZE_UNITS[i + 1];
+            }
+            limit *= 1024;
+        }
+        return "1" + SIZE_UNITS[SIZE_UNITS.length - 1] + "+";
+    }
+
+    // 64-bit FNV-1a of the seed and id, with a final avalanche
+    private long hash(String id) {
+        long h = 0xcbf29ce484222325L ^ seed;
+        for (int i = 0; i < id.length(); i++) {
+            h ^= id.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static class Stratum {
+        final AtomicLong seen = new AtomicLong();
+        final AtomicLong checked = new AtomicLong();
+        final AtomicLong corrupt = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+
+        // the lowest hashes seen so far, highest first
+        private final PriorityQueue<Long> lowest = new PriorityQueue<Long>(
+                11, Collections.reverseOrder());
+
+        // keeps the hash if it's among the lowest count seen so far,
+        // returning whether it is
+        synchronized boolean offer(long hash, int count) {
+            if (count < 1) return false;
+            if (lowest.size() < count) {
+                lowest.add(hash);
+                return true;
+            }
+            if (hash >= lowest.peek()) return false;
+            lowest.poll();
+            lowest.add(hash);
+            return true;
+        }
+    }
+}
@@ -1,18 +1,26 @@
 package com.github.cwilper.fcrepo.store.util.filters.ds;
 
 import com.github.cwilper.fcrepo.dto.core.ContentDigest;
+import com.github.cwilper.fcrepo.dto.core.ControlGroup;
 import com.github.cwilper.fcrepo.dto.core.Datastream;
 import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
 import com.github.cwilper.fcrepo.dto.core.FedoraObject;
 import com.github.cwilper.fcrepo.dto.core.io.ContentResolver;
+import com.github.cwilper.fcrepo.store.util.commands.CommandContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Sets the fixity (size and digest) where undefined, or forcibly overwrites
  * the previously stored fixity values.
+ * <p>
+ * If a {@link FixityLedger} is given, digests recorded there for managed
+ * content that hasn't changed since are used rather than reading the
+ * content again, and newly computed digests are recorded.
  */
 public class SetFixity extends MultiVersionFilter {
     private static final Logger logger =
@@ -22,43 +30,93 @@ public class SetFixity extends MultiVersionFilter {
     private final boolean force;
     private final String algorithm;
     private final String localFedoraServer;
+    private final FixityLedger ledger;
 
     public SetFixity(boolean allDatastreamVersions,
             ContentResolver contentResolver, String algorithm,
             boolean force, String localFedoraServer) {
+        this(allDatastreamVersions, contentResolver, algorithm, force,
+                localFedoraServer, null);
+    }
+
+    public SetFixity(boolean allDatastreamVersions,
+            ContentResolver contentResolver, String algorithm,
+            boolean force, String localFedoraServer, FixityLedger ledger) {
         super(allDatastreamVersions);
         this.contentResolver = contentResolver;
         this.algorithm = algorithm.toUpperCase();
         this.force = force;
         this.localFedoraServer = localFedoraServer;
+        this.ledger = ledger;
     }
 
     @Override
     protected void handleVersion(FedoraObject object, Datastream ds,
             DatastreamVersion dsv) {
         String info = object.pid() + "/" + ds.id() + "/" + dsv.id();
-        String[] result = null;
+        boolean setDigest = dsv.contentDigest() == null || force;
+        if (!setDigest && dsv.size() != null) return;
         try {
-            if (dsv.contentDigest() == null || force) {
-                result = Util.computeFixity(Util.getInputStream(
-                        info, object.pid(), ds,
-                        dsv, contentResolver, localFedoraServer), algorithm);
-                if (force || dsv.size() == null) {
-                    dsv.size(Long.valueOf(result[0]));
-                    logger.debug("Set {} size=" + result[0], info);
-                }
+            List<String> algorithms = new ArrayList<String>();
+            if (setDigest) algorithms.add(algorithm);
+            // when replacing a digest of another type, check the old one
+            // in the same read rather than trusting the content blindly
+            ContentDigest stated = dsv.contentDigest();
+            boolean verify = setDigest && stated != null
+                    && stated.type() != null && stated.hexValue() != null
+                    && !stated.type().equalsIgnoreCase(algorithm);
+            if (verify) algorithms.add(stated.type());
+            FixityLedger.Stamp stamp = null;
+            if (ledger != null && setDigest
+                    && ds.controlGroup() == ControlGroup.MANAGED) {
+                stamp = ledger.getStamp(CommandContext.getSource(),
+                        object.pid(), ds.id(), dsv.id());
+                if (!verify && setFromLedger(info, stamp, dsv)) return;
+            }
+            Fixity fixity = Fixity.compute(Util.getInputStream(info,
+                    object.pid(), ds, dsv, contentResolver,
+                    localFedoraServer), algorithms);
+            if (verify && !stated.hexValue().equalsIgnoreCase(
+                    fixity.digest(stated.type()))) {
+                logger.warn("Fixity mismatch (stated {}={}/actual={}) for {}",
+                        new Object[] { stated.type(), stated.hexValue(),
+                                fixity.digest(stated.type()), info });
+            } else if (stamp != null) {
+                // content that doesn't match its old digest isn't trusted
+                ledger.record(info, stamp, algorithm,
+                        fixity.digest(algorithm));
+            }
+            if (force || dsv.size() == null) {
+                dsv.size(Long.valueOf(fixity.size()));
+                logger.debug("Set {} size=" + fixity.size(), info);
+            }
+            if (setDigest) {
+                String hexValue = fixity.digest(algorithm);
                 dsv.contentDigest(new ContentDigest()
                         .type(algorithm)
-                        .hexValue(result[1]));
-                logger.debug("Set {} {}=" + result[1], info, algorithm);
-            } else if (dsv.size() == null) {
-                dsv.size(Util.computeSize(Util.getInputStream(info,
-                        object.pid(), ds, dsv, contentResolver,
-                        localFedoraServer)));
-                logger.debug("Set {} size=" + dsv.size(), info);
+                        .hexValue(hexValue));
+                logger.debug("Set {} {}=" + hexValue, info, algorithm);
             }
         } catch (IOException e) {
             logger.warn("Error determining fixity of " + info, e);
         }
     }
+
+    // sets the digest (and size if needed) from the ledger if it has a
+    // trusted one for the content, returning whether it did
+    private boolean setFromLedger(String info, FixityLedger.Stamp stamp,
+            DatastreamVersion dsv) {
+        String hexValue = ledger.getDigest(info, stamp, algorithm);
+        if (hexValue == null) return false;
+        if (force || dsv.size() == null) {
+            dsv.size(Long.valueOf(stamp.size));
+            logger.debug("Set {} size=" + stamp.size + " (from ledger)", info);
+        }
+        dsv.contentDigest(new ContentDigest()
+                .type(algorithm)
+                .hexValue(hexValue));
+        logger.debug("Set {} {}=" + hexValue + " (from ledger)", info,
+                algorithm);
+        return true;
+    }
 }
@@ -0,0 +1,274 @@
+package com.github.cwilper.fcrepo.store.util.filters.ds;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Canonicalizes an entire XML document using C14N11 rules (without
+ * comments) in a single streaming pass, so memory use doesn't depend on
+ * the size of the document.
+ * <p>
+ * Documents with a DTD are not handled, since their default attributes and
+ * entities can't be applied while streaming. For those, the caller should
+ * fall back to canonicalizing in memory.
+ */
+final class StreamingCanonicalizer {
+    private static final String XML_NS =
+            "http://www.w3.org/XML/1998/namespace";
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private static final XMLInputFactory factory = createFactory();
+
+    private static final Comparator<String[]> NAME_ORDER =
+            new Comparator<String[]>() {
+        @Override
+        public int compare(String[] a, String[] b) {
+            int c = a[0].compareTo(b[0]);
+            if (c != 0) return c;
+            return a[1].compareTo(b[1]);
+        }
+    };
+
+    private final XMLStreamReader reader;
+    private final Writer writer;
+
+    // namespace declarations rendered on each open element and its ancestors
+    private final LinkedList<Map<String, String>> scopes =
+            new LinkedList<Map<String, String>>();
+
+    private int depth;
+    private boolean afterRoot;
+
+    private StreamingCanonicalizer(XMLStreamReader reader, Writer writer) {
+        this.reader = reader;
+        this.writer = writer;
+        // the empty default namespace is implicitly in scope at the top
+        Map<String, String> top = new HashMap<String, String>();
+        top.put("", "");
+        scopes.add(top);
+    }
+
+    /**
+     * Reads an XML document and writes its canonical form.
+     *
+     * @param inputStream the document, which will not be closed.
+     * @param outputStream where to write the canonical form, which will be
+     *        flushed but not closed.
+     * @return <code>true</code> if successful, or <code>false</code> if the
+     *         document has a DTD, in which case the output is incomplete.
+     * @throws IOException if the document can't be read or parsed, or the
+     *         output can't be written.
+     */
+    static boolean canonicalize(InputStream inputStream,
+            OutputStream outputStream) throws IOException {
+        XMLStreamReader reader;
+        try {
+            reader = factory.createXMLStreamReader(inputStream);
+        } catch (XMLStreamException e) {
+            throw new IOException("Error parsing XML", e);
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                outputStream, "UTF-8"), WRITE_BUFFER_SIZE);
+        try {
+            boolean done = new StreamingCanonicalizer(reader, writer).run();
+            writer.flush();
+            return done;
+        } catch (XMLStreamException e) {
+            throw new IOException("Error parsing XML", e);
+        } finally {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // nothing more to read anyway
+            }
+        }
+    }
+
+    private boolean run() throws XMLStreamException, IOException {
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.DTD:
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    return false;
+                case XMLStreamConstants.START_ELEMENT:
+                    writeStartElement();
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    writeEndElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (depth > 0) {
+                        writeText(reader.getTextCharacters(),
+                                reader.getTextStart(),
+                                reader.getTextLength());
+                    }
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    writeProcessingInstruction();
+                    break;
+                default:
+                    // comments and the xml declaration are omitted
+                    break;
+            }
+        }
+        return true;
+    }
+
+    private void writeStartElement() throws IOException {
+        depth++;
+        writer.write('<');
+        writer.write(qualifiedName(reader.getPrefix(),
+                reader.getLocalName()));
+
+        // only declarations that change what's in scope are rendered
+        Map<String, String> scope = scopes.getLast();
+        List<String[]> declarations = new ArrayList<String[]>();
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = emptyIfNull(reader.getNamespacePrefix(i));
+            String uri = emptyIfNull(reader.getNamespaceURI(i));
+            if (prefix.equals("xml") && uri.equals(XML_NS)) continue;
+            if (uri.equals(scope.get(prefix))) continue;
+            declarations.add(new String[] { prefix, uri });
+        }
+        if (!declarations.isEmpty()) {
+            scope = new HashMap<String, String>(scope);
+            Collections.sort(declarations, NAME_ORDER);
+            for (String[] declaration : declarations) {
+                scope.put(declaration[0], declaration[1]);
+                writer.write(" xmlns");
+                if (declaration[0].length() > 0) {
+                    writer.write(':');
+                    writer.write(declaration[0]);
+                }
+                writer.write("=\"");
+                writeAttributeValue(declaration[1]);
+                writer.write('"');
+            }
+        }
+        scopes.add(scope);
+
+        // attributes are ordered by namespace uri, then local name
+        int count = reader.getAttributeCount();
+        if (count > 0) {
+            List<String[]> attributes = new ArrayList<String[]>(count);
+            for (int i = 0; i < count; i++) {
+                attributes.add(new String[] {
+                        emptyIfNull(reader.getAttributeNamespace(i)),
+                        reader.getAttributeLocalName(i),
+                        qualifiedName(reader.getAttributePrefix(i),
+                                reader.getAttributeLocalName(i)),
+                        reader.getAttributeValue(i) });
+            }
+            Collections.sort(attributes, NAME_ORDER);
+            for (String[] attribute : attributes) {
+                writer.write(' ');
+                writer.write(attribute[2]);
+                writer.write("=\"");
+                writeAttributeValue(attribute[3]);
+                writer.write('"');
+            }
+        }
+        writer.write('>');
+    }
+
+    private void writeEndElement() throws IOException {
+        writer.write("</");
+        writer.write(qualifiedName(reader.getPrefix(),
+                reader.getLocalName()));
+        writer.write('>');
+        scopes.removeLast();
+        if (--depth == 0) afterRoot = true;
+    }
+
+    private void writeProcessingInstruction() throws IOException {
+        if (depth == 0 && afterRoot) writer.write('\n');
+        writer.write("<?");
+        writer.write(reader.getPITarget());
+        String data = reader.getPIData();
+        if (data != null && data.length() > 0) {
+            writer.write(' ');
+            for (int i = 0; i < data.length(); i++) {
+                char c = data.charAt(i);
+                if (c == '\r') {
+                    writer.write("&#xD;");
+                } else {
+                    writer.write(c);
+                }
+            }
+        }
+        writer.write("?>");
+        if (depth == 0 && !afterRoot) writer.write('\n');
+    }
+
+    private void writeText(char[] chars, int start, int length)
+            throws IOException {
+        int end = start + length;
+        int from = start;
+        for (int i = start; i < end; i++) {
+            String replacement;
+            switch (chars[i]) {
+                case '&': replacement = "&amp;"; break;
+                case '<': replacement = "&lt;"; break;
+                case '>': replacement = "&gt;"; break;
+                case '\r': replacement = "&#xD;"; break;
+                default: continue;
+            }
+            writer.write(chars, from, i - from);
+            writer.write(replacement);
+            from = i + 1;
+        }
+        writer.write(chars, from, end - from);
+    }
+
+    private void writeAttributeValue(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&': writer.write("&amp;"); break;
+                case '<': writer.write("&lt;"); break;
+                case '"': writer.write("&quot;"); break;
+                case '\t': writer.write("&#x9;"); break;
+                case '\n': writer.write("&#xA;"); break;
+                case '\r': writer.write("&#xD;"); break;
+                default: writer.write(c);
+            }
+        }
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        if (prefix == null || prefix.length() == 0) return localName;
+        return prefix + ":" + localName;
+    }
+
+    private static String emptyIfNull(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES,
+                Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                Boolean.FALSE);
+        return factory;
+    }
+}
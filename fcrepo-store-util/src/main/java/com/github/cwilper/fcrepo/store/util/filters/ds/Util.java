@@ -10,7 +10,7 @@ import com.github.cwilper.fcrepo.store.core.FedoraStoreSession;
 import com.github.cwilper.fcrepo.store.core.NotFoundException;
 import com.github.cwilper.fcrepo.store.core.StoreException;
 import com.github.cwilper.fcrepo.store.util.commands.CommandContext;
-import org.apache.commons.io.IOUtils;
+import com.github.cwilper.fcrepo.store.util.commands.Progress;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,8 +18,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 
 class Util {
     private static final Logger logger = LoggerFactory.getLogger(Util.class);
@@ -47,8 +46,11 @@ class Util {
                 }
                 return new ByteArrayInputStream(dsv.inlineXML().bytes());
             } else if (ds.controlGroup() == ControlGroup.MANAGED) {
-                return CommandContext.getSource().getContent(pid,
-                        ds.id(), dsv.id());
+                InputStream content = CommandContext.getSource().getContent(
+                        pid, ds.id(), dsv.id());
+                Progress progress = CommandContext.getProgress();
+                if (progress == null) return content;
+                return progress.countReads(content);
             } else {
                 String location = dsv.contentLocation().toString();
                 location = location.replace("local.fedora.server",
@@ -63,21 +65,9 @@ class Util {
 
     static String[] computeFixity(InputStream inputStream,
             String algorithm) throws IOException {
-        try {
-            MessageDigest digest = MessageDigest.getInstance(algorithm);
-            byte[] buffer = new byte[4096];
-            int count;
-            long size = 0;
-            while ((count = inputStream.read(buffer)) > 0) {
-                size += count;
-                digest.update(buffer, 0, count);
-            }
-            return new String[] { "" + size, hexString(digest.digest()) };
-        } catch (NoSuchAlgorithmException e) {
-            throw new IOException(e);
-        } finally {
-            IOUtils.closeQuietly(inputStream);
-        }
+        Fixity fixity = Fixity.compute(inputStream,
+                Collections.singletonList(algorithm));
+        return new String[] { "" + fixity.size(), fixity.digest(algorithm) };
     }
 
     static final String HEXES = "0123456789abcdef";
@@ -92,11 +82,8 @@ class Util {
 
     static long computeSize(InputStream inputStream)
             throws IOException {
-        try {
-            return IOUtils.skip(inputStream, Long.MAX_VALUE);
-        } finally {
-            IOUtils.closeQuietly(inputStream);
-        }
+        return Fixity.compute(inputStream,
+                Collections.<String>emptyList()).size();
     }
 
     // create or update an existing object so it refers to the given
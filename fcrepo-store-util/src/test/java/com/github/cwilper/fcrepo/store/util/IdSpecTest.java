@@ -0,0 +1,162 @@
+package com.github.cwilper.fcrepo.store.util;
+
+import com.github.cwilper.fcrepo.store.core.NotFoundException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link IdSpec}.
+ */
+public class IdSpecTest {
+    @Test
+    public void all() {
+        Assert.assertTrue(new IdSpec(null).isAll());
+        Assert.assertTrue(new IdSpec("all").matches("anything"));
+        Assert.assertNull(new IdSpec("all").toSet());
+        Assert.assertEquals("", new IdSpec("all").getPrefix());
+    }
+
+    @Test
+    public void list() {
+        IdSpec spec = new IdSpec("test:b,test:a,test:b");
+        Assert.assertFalse(spec.isDynamic());
+        Assert.assertTrue(spec.matches("test:a"));
+        Assert.assertTrue(spec.matches("test:b"));
+        Assert.assertFalse(spec.matches("test:c"));
+        Set<String> set = spec.toSet();
+        Assert.assertEquals(2, set.size());
+        Assert.assertEquals(Arrays.asList("test:a", "test:b"),
+                new ArrayList<String>(set));
+    }
+
+    @Test
+    public void listWithoutBloomFilter() {
+        IdSpec spec = new IdSpec("test:a,test:b", 0);
+        Assert.assertTrue(spec.matches("test:a"));
+        Assert.assertFalse(spec.matches("test:c"));
+    }
+
+    @Test
+    public void listNonAscii() {
+        IdSpec spec = new IdSpec("test:\u00e9,test:\ud83d\ude00");
+        Assert.assertTrue(spec.matches("test:\u00e9"));
+        Assert.assertTrue(spec.matches("test:\ud83d\ude00"));
+        Assert.assertFalse(spec.matches("test:e"));
+    }
+
+    @Test
+    public void file() throws Exception {
+        File file = File.createTempFile("fcrepo-store-util-test", null);
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                    "UTF-8");
+            writer.write("# comment\ntest:a\n\n  test:\u00e9  \ntest:a\n");
+            writer.close();
+            IdSpec spec = new IdSpec(file.toURI().toString());
+            List<String> ids = new ArrayList<String>();
+            for (String id : spec) {
+                ids.add(id);
+            }
+            Assert.assertEquals(Arrays.asList("test:a", "test:\u00e9",
+                    "test:a"), ids);
+            Assert.assertEquals(2, spec.toSet().size());
+            Assert.assertTrue(spec.matches("test:\u00e9"));
+            Assert.assertFalse(spec.matches("# comment"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test (expected=NotFoundException.class)
+    public void fileMissing() throws Exception {
+        File file = File.createTempFile("fcrepo-store-util-test", null);
+        file.delete();
+        new IdSpec(file.toURI().toString()).iterator();
+    }
+
+    @Test
+    public void regex() {
+        IdSpec spec = new IdSpec("^test:[0-9]+$");
+        Assert.assertTrue(spec.isDynamic());
+        Assert.assertFalse(spec.isAll());
+        Assert.assertNull(spec.toSet());
+        Assert.assertEquals("test:", spec.getPrefix());
+        Assert.assertTrue(spec.matches("test:12"));
+        Assert.assertFalse(spec.matches("test:x"));
+        Assert.assertFalse(spec.matches("other:12"));
+    }
+
+    @Test
+    public void regexAlternation() {
+        IdSpec spec = new IdSpec("^test:a|other:b");
+        Assert.assertEquals("", spec.getPrefix());
+        Assert.assertTrue(spec.matches("test:a"));
+        Assert.assertTrue(spec.matches("other:b"));
+    }
+
+    @Test (expected=UnsupportedOperationException.class)
+    public void regexIterator() {
+        new IdSpec("^test:").iterator();
+    }
+
+    @Test
+    public void literalPrefixPlain() {
+        assertPrefix("^test:o1", "test:o1");
+        assertPrefix("^test:o1$", "test:o1");
+        assertPrefix("^test:.*", "test:");
+        assertPrefix("^", "");
+        assertPrefix("^.*", "");
+    }
+
+    @Test
+    public void literalPrefixEscapes() {
+        assertPrefix("^a\\.b", "a.b");
+        assertPrefix("^a\\\\b", "a\\b");
+        assertPrefix("^a\\d", "a");
+        assertPrefix("^a\\1", "a");
+        assertPrefix("^a\\", "a");
+        assertPrefix("^\\Qa.b\\E", "");
+        assertPrefix("^a\\Q.b\\E", "");
+    }
+
+    @Test
+    public void literalPrefixQuantifiers() {
+        assertPrefix("^ab?c", "a");
+        assertPrefix("^ab*c", "a");
+        assertPrefix("^ab{2}c", "a");
+        assertPrefix("^ab+c", "ab");
+        assertPrefix("^a\\.?b", "a");
+        assertPrefix("^a\\.+b", "a.");
+        // a supplementary character is one code point, but two chars
+        assertPrefix("^a\ud83d\ude00?", "a");
+        assertPrefix("^a\ud83d\ude00+", "a\ud83d\ude00");
+    }
+
+    @Test
+    public void literalPrefixGroupsAndClasses() {
+        assertPrefix("^ab(c|d)", "ab");
+        assertPrefix("^ab[cd]", "ab");
+        assertPrefix("^ab[|]c", "ab");
+        assertPrefix("^ab\\|c", "ab|c");
+    }
+
+    @Test
+    public void literalPrefixTopLevelAlternation() {
+        assertPrefix("^abc|abd", "");
+        assertPrefix("^a(b)|c", "");
+        assertPrefix("^a[(]|c", "");
+    }
+
+    private static void assertPrefix(String regex, String expected) {
+        Assert.assertEquals(regex, expected, IdSpec.literalPrefix(regex));
+    }
+}
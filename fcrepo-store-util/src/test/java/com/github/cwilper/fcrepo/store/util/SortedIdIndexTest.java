@@ -0,0 +1,199 @@
+package com.github.cwilper.fcrepo.store.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link SortedIdIndex} and {@link BloomFilter}.
+ */
+public class SortedIdIndexTest {
+    @Test
+    public void empty() {
+        SortedIdIndex index = build(new ArrayList<String>(), 0.01);
+        Assert.assertEquals(0, index.size());
+        Assert.assertFalse(index.contains("a"));
+        Assert.assertFalse(index.contains(""));
+        Assert.assertFalse(index.iterator().hasNext());
+    }
+
+    @Test (expected=NoSuchElementException.class)
+    public void emptyNext() {
+        build(new ArrayList<String>(), 0).iterator().next();
+    }
+
+    @Test
+    public void duplicatesIgnored() {
+        SortedIdIndex index = build(Arrays.asList("b", "a", "b", "c", "a"),
+                0.01);
+        Assert.assertEquals(3, index.size());
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), toList(index));
+    }
+
+    @Test
+    public void emptyId() {
+        SortedIdIndex index = build(Arrays.asList("a", "", "b"), 0);
+        Assert.assertEquals(3, index.size());
+        Assert.assertTrue(index.contains(""));
+        Assert.assertEquals(Arrays.asList("", "a", "b"), toList(index));
+    }
+
+    @Test
+    public void blockBoundaries() {
+        int size = SortedIdIndex.BLOCK_SIZE;
+        int[] counts = { size - 1, size, size + 1, size * 2, size * 2 + 1 };
+        for (int count : counts) {
+            assertBlockBoundaries(count, 0);
+            assertBlockBoundaries(count, 0.01);
+        }
+    }
+
+    @Test
+    public void unsortedInput() {
+        List<String> ids = ids(1000);
+        List<String> shuffled = new ArrayList<String>(ids);
+        Collections.shuffle(shuffled, new Random(42));
+        SortedIdIndex index = build(shuffled, 0.01);
+        Assert.assertEquals(ids, toList(index));
+        for (String id : ids) {
+            Assert.assertTrue(id, index.contains(id));
+        }
+    }
+
+    @Test
+    public void nonAsciiInUtf8Order() {
+        // U+E000 sorts before U+1F600 in UTF-8, but after it in UTF-16
+        String privateUse = "id:\ue000";
+        String emoji = "id:\ud83d\ude00";
+        SortedIdIndex index = build(Arrays.asList(emoji, "id:\u00e9",
+                privateUse, "id:z"), 0.01);
+        Assert.assertEquals(Arrays.asList("id:z", "id:\u00e9", privateUse,
+                emoji), toList(index));
+        Assert.assertTrue(index.contains(emoji));
+        Assert.assertTrue(index.contains("id:\u00e9"));
+        Assert.assertFalse(index.contains("id:e"));
+        Assert.assertFalse(index.contains("id:\ud83d"));
+    }
+
+    @Test
+    public void longSharedPrefixes() {
+        // lengths and shared prefixes over 127 bytes take two-byte varints,
+        // and over 16383 bytes, three
+        StringBuilder longPrefix = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            longPrefix.append((char) ('a' + i % 26));
+        }
+        String[] prefixes = { "", longPrefix.substring(0, 127),
+                longPrefix.substring(0, 128), longPrefix.substring(0, 300),
+                longPrefix.toString() };
+        List<String> ids = new ArrayList<String>();
+        for (String prefix : prefixes) {
+            for (int i = 0; i < SortedIdIndex.BLOCK_SIZE + 1; i++) {
+                ids.add(prefix + ":" + (char) ('A' + i));
+            }
+        }
+        Collections.sort(ids);
+        SortedIdIndex index = build(ids, 0);
+        Assert.assertEquals(ids, toList(index));
+        for (String id : ids) {
+            Assert.assertTrue(index.contains(id));
+            Assert.assertFalse(index.contains(id + "x"));
+        }
+    }
+
+    @Test
+    public void bloomFilterNoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            byte[] bytes = ("id" + i).getBytes(SortedIdIndex.UTF8);
+            filter.add(bytes, 0, bytes.length);
+        }
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(filter.mightContain(
+                    ("id" + i).getBytes(SortedIdIndex.UTF8)));
+        }
+    }
+
+    @Test
+    public void bloomFilterFalsePositiveRate() {
+        assertFalsePositiveRate(10000, 0.01);
+        assertFalsePositiveRate(10000, 0.001);
+        // sized for one entry when told to expect none
+        assertFalsePositiveRate(0, 0.01);
+    }
+
+    @Test
+    public void bloomFilterAddsOnlyTheGivenRange() {
+        BloomFilter filter = new BloomFilter(10, 0.01);
+        byte[] bytes = "xxid1yy".getBytes(SortedIdIndex.UTF8);
+        filter.add(bytes, 2, 3);
+        Assert.assertTrue(filter.mightContain(
+                "id1".getBytes(SortedIdIndex.UTF8)));
+    }
+
+    private static void assertBlockBoundaries(int count,
+            double falsePositiveRate) {
+        List<String> ids = ids(count);
+        SortedIdIndex index = build(ids, falsePositiveRate);
+        Assert.assertEquals(count, index.size());
+        Assert.assertEquals(ids, toList(index));
+        for (String id : ids) {
+            Assert.assertTrue(id, index.contains(id));
+            // between this id and the next
+            Assert.assertFalse(id, index.contains(id + "0"));
+        }
+        Assert.assertFalse(index.contains("id"));
+        Assert.assertFalse(index.contains("id:"));
+        Assert.assertFalse(index.contains("id:999"));
+    }
+
+    private static void assertFalsePositiveRate(int count,
+            double falsePositiveRate) {
+        BloomFilter filter = new BloomFilter(count, falsePositiveRate);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = ("id" + i).getBytes(SortedIdIndex.UTF8);
+            filter.add(bytes, 0, bytes.length);
+        }
+        int tests = 100000;
+        int positives = 0;
+        for (int i = 0; i < tests; i++) {
+            if (filter.mightContain(("other" + i).getBytes(
+                    SortedIdIndex.UTF8))) {
+                positives++;
+            }
+        }
+        double rate = (double) positives / tests;
+        Assert.assertTrue("false positive rate " + rate,
+                rate < falsePositiveRate * 2);
+    }
+
+    // ids that sort the same as strings and as UTF-8
+    private static List<String> ids(int count) {
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            ids.add("id:" + String.format("%03d", i));
+        }
+        return ids;
+    }
+
+    private static SortedIdIndex build(List<String> ids,
+            double falsePositiveRate) {
+        return SortedIdIndex.build(ids.iterator(), falsePositiveRate);
+    }
+
+    private static List<String> toList(SortedIdIndex index) {
+        List<String> list = new ArrayList<String>();
+        Iterator<String> iterator = index.iterator();
+        while (iterator.hasNext()) {
+            list.add(iterator.next());
+        }
+        return list;
+    }
+}
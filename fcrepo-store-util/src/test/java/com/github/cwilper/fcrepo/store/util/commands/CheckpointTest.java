@@ -0,0 +1,84 @@
+package com.github.cwilper.fcrepo.store.util.commands;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * Unit tests for {@link Checkpoint}.
+ */
+public class CheckpointTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("fcrepo-store-util-test", null);
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void resume() throws Exception {
+        Checkpoint checkpoint = Checkpoint.open(file.getPath(), 1, false);
+        checkpoint.completed("test:1");
+        checkpoint.completed("test:2");
+        checkpoint.close();
+        checkpoint = Checkpoint.open(file.getPath(), 1, true);
+        Assert.assertTrue(checkpoint.isCompleted("test:1"));
+        Assert.assertTrue(checkpoint.isCompleted("test:2"));
+        Assert.assertFalse(checkpoint.isCompleted("test:3"));
+        checkpoint.completed("test:3");
+        checkpoint.close();
+        Assert.assertEquals("test:1\ntest:2\ntest:3\n",
+                FileUtils.readFileToString(file, "UTF-8"));
+    }
+
+    @Test
+    public void resumeWithoutFile() {
+        Checkpoint checkpoint = Checkpoint.open(file.getPath(), 1, true);
+        Assert.assertFalse(checkpoint.isCompleted("test:1"));
+        checkpoint.close();
+        Assert.assertTrue(file.exists());
+    }
+
+    @Test
+    public void resumeAfterPartialLine() throws Exception {
+        FileUtils.writeStringToFile(file, "test:1\ntest:2\ntest:3", "UTF-8");
+        Checkpoint checkpoint = Checkpoint.open(file.getPath(), 1, true);
+        Assert.assertTrue(checkpoint.isCompleted("test:1"));
+        Assert.assertTrue(checkpoint.isCompleted("test:2"));
+        Assert.assertFalse(checkpoint.isCompleted("test:3"));
+        checkpoint.completed("test:30");
+        checkpoint.close();
+        Assert.assertEquals("test:1\ntest:2\ntest:30\n",
+                FileUtils.readFileToString(file, "UTF-8"));
+    }
+
+    @Test
+    public void resumeAfterOnlyPartialLine() throws Exception {
+        FileUtils.writeStringToFile(file, "test:", "UTF-8");
+        Checkpoint checkpoint = Checkpoint.open(file.getPath(), 1, true);
+        Assert.assertFalse(checkpoint.isCompleted("test:"));
+        checkpoint.close();
+        Assert.assertEquals(0L, file.length());
+    }
+
+    @Test
+    public void startOver() throws Exception {
+        FileUtils.writeStringToFile(file, "test:1\n", "UTF-8");
+        Checkpoint checkpoint = Checkpoint.open(file.getPath(), 10, false);
+        Assert.assertFalse(checkpoint.isCompleted("test:1"));
+        checkpoint.completed("test:2");
+        checkpoint.close();
+        Assert.assertEquals("test:2\n",
+                FileUtils.readFileToString(file, "UTF-8"));
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.cwilper.fcrepo.store.util.commands;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Unit tests for {@link LocationSorter}.
+ */
+public class LocationSorterTest {
+    private static final List<String> SORTED = Arrays.asList(
+            "test:4", "test:1", "test:2", "test:6", "test:3", "test:5",
+            "test:7");
+
+    @Test
+    public void empty() {
+        Assert.assertFalse(new LocationSorter(2).iterator().hasNext());
+    }
+
+    @Test
+    public void singleRun() {
+        Assert.assertEquals(SORTED, sort(new LocationSorter(100)));
+    }
+
+    @Test
+    public void spillAndMerge() {
+        int before = countRunFiles();
+        Assert.assertEquals(SORTED, sort(new LocationSorter(2)));
+        Assert.assertEquals(before, countRunFiles());
+    }
+
+    @Test
+    public void spillAndMergeWholeRuns() {
+        LocationSorter sorter = new LocationSorter(2);
+        sorter.add("test:b", "dir/2");
+        sorter.add("test:a", null);
+        sorter.add("test:d", "dir/1");
+        sorter.add("test:c", "dir/2");
+        Assert.assertEquals(Arrays.asList("test:d", "test:b", "test:c",
+                "test:a"), toList(sorter.iterator()));
+    }
+
+    @Test
+    public void runSizeOfOne() {
+        Assert.assertEquals(SORTED, sort(new LocationSorter(1)));
+    }
+
+    // adds pairs with shared and unknown locations, out of order
+    private static List<String> sort(LocationSorter sorter) {
+        sorter.add("test:7", null);
+        sorter.add("test:3", "dir/b/2");
+        sorter.add("test:2", "dir/a/2");
+        sorter.add("test:5", null);
+        sorter.add("test:1", "dir/a/2");
+        sorter.add("test:6", "dir/b/1");
+        sorter.add("test:4", "dir/a/1");
+        return toList(sorter.iterator());
+    }
+
+    private static List<String> toList(Iterator<String> iterator) {
+        List<String> list = new ArrayList<String>();
+        while (iterator.hasNext()) {
+            list.add(iterator.next());
+        }
+        return list;
+    }
+
+    private static int countRunFiles() {
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        return dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("fcrepo-store-sort");
+            }
+        }).length;
+    }
+}
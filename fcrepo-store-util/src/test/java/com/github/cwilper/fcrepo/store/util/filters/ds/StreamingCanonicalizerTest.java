@@ -0,0 +1,82 @@
+package com.github.cwilper.fcrepo.store.util.filters.ds;
+
+import com.github.cwilper.fcrepo.dto.core.io.XMLUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Unit tests for {@link StreamingCanonicalizer}, checking that it gives the
+ * same result as canonicalizing in memory with {@link XMLUtil}.
+ */
+public class StreamingCanonicalizerTest {
+    @Test
+    public void namespaceDeclarations() throws Exception {
+        assertSameAsXMLUtil("<a:root xmlns:b=\"urn:b\" xmlns:a=\"urn:a\""
+                + " xmlns=\"urn:default\">"
+                + "<child xmlns=\"urn:default\" xmlns:a=\"urn:a\">"
+                + "<inner xmlns=\"\"><b:leaf xmlns:b=\"urn:other\"/></inner>"
+                + "</child><a:child xmlns:c=\"urn:c\"/></a:root>");
+    }
+
+    @Test
+    public void attributeOrder() throws Exception {
+        assertSameAsXMLUtil("<root xmlns:b=\"urn:b\" xmlns:a=\"urn:a\""
+                + " b:z=\"1\" a:y=\"2\" x=\"3\" b:a=\"4\" xml:lang=\"en\""
+                + " a=\"5\"/>");
+    }
+
+    @Test
+    public void textEscaping() throws Exception {
+        assertSameAsXMLUtil("<root>a &amp; b &lt; c &gt; d \" ' &#13; e"
+                + "<![CDATA[<cdata> & ]]>\u00e9\u4e2d</root>");
+    }
+
+    @Test
+    public void attributeEscaping() throws Exception {
+        assertSameAsXMLUtil("<root a=\"&amp; &lt; &gt; &quot; '"
+                + " &#9;&#10;&#13; tab\there\"/>");
+    }
+
+    @Test
+    public void whitespaceOutsideRootOmitted() throws Exception {
+        assertSameAsXMLUtil("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "\n<root>\n  <child> </child>\n</root>\n\n");
+    }
+
+    @Test
+    public void processingInstructionsAndComments() throws Exception {
+        assertSameAsXMLUtil("<?xml version=\"1.0\"?>\n"
+                + "<?before data?>\n<!-- before -->\n"
+                + "<root><?inside some data ?><!-- inside -->text"
+                + "<?empty?></root>\n"
+                + "<!-- after -->\n<?after?>\n");
+    }
+
+    @Test
+    public void documentWithDTDNotHandled() throws Exception {
+        String xml = "<!DOCTYPE root [<!ATTLIST root a CDATA \"default\">]>"
+                + "<root/>";
+        Assert.assertFalse(StreamingCanonicalizer.canonicalize(
+                new ByteArrayInputStream(xml.getBytes("UTF-8")),
+                new ByteArrayOutputStream()));
+    }
+
+    @Test (expected=IOException.class)
+    public void malformedDocument() throws Exception {
+        StreamingCanonicalizer.canonicalize(new ByteArrayInputStream(
+                "<root>".getBytes("UTF-8")), new ByteArrayOutputStream());
+    }
+
+    private static void assertSameAsXMLUtil(String xml) throws Exception {
+        byte[] bytes = xml.getBytes("UTF-8");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertTrue(StreamingCanonicalizer.canonicalize(
+                new ByteArrayInputStream(bytes), out));
+        Assert.assertEquals(new String(XMLUtil.canonicalize(bytes), "UTF-8"),
+                out.toString("UTF-8"));
+    }
+}